@@ -0,0 +1,73 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.diff.Diff;
+import org.xmlunit.diff.DifferenceEvaluators;
+
+/**
+ * Compares documents whose elements have many attributes, the test
+ * document lists them in reverse order.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AttributeBenchmark {
+
+    @Param({ "10", "100", "500" })
+    public int attributes;
+
+    private Document control;
+    private Document test;
+
+    @Setup
+    public void parse() {
+        control = Documents.parse(Documents.attributeHeavy(100, attributes, false));
+        test = Documents.parse(Documents.attributeHeavy(100, attributes, true));
+    }
+
+    @Benchmark
+    public Diff reversedAttributes() {
+        return DiffBuilder.compare(control).withTest(test)
+            .checkForSimilar()
+            .build();
+    }
+
+    @Benchmark
+    public Diff reversedAttributesIgnoringProlog() {
+        return DiffBuilder.compare(control).withTest(test)
+            .withDifferenceEvaluator(DifferenceEvaluators.chain(DifferenceEvaluators.Default,
+                                                                DifferenceEvaluators.ignorePrologDifferences()))
+            .checkForSimilar()
+            .build();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.diff.Diff;
+
+/**
+ * Compares two already parsed documents with the default
+ * configuration of {@link DiffBuilder}.
+ *
+ * <p>Run with {@code -prof gc} to see the allocations per comparison
+ * of the whole document.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ComparisonBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int records;
+
+    private Document control;
+    private Document identicalTest;
+    private Document differentTest;
+
+    @Setup
+    public void parse() {
+        control = Documents.parse(Documents.feed(records, 5, 0));
+        identicalTest = Documents.parse(Documents.feed(records, 5, 0));
+        differentTest = Documents.parse(Documents.feed(records, 5, 10));
+    }
+
+    @Benchmark
+    public Diff identical() {
+        return DiffBuilder.compare(control).withTest(identicalTest)
+            .checkForSimilar()
+            .build();
+    }
+
+    @Benchmark
+    public Diff everyTenthRecordDiffers() {
+        return DiffBuilder.compare(control).withTest(differentTest)
+            .checkForSimilar()
+            .build();
+    }
+
+    @Benchmark
+    public Diff identicalSkippingIdenticalSubtrees() {
+        return DiffBuilder.compare(control).withTest(identicalTest)
+            .checkForSimilar()
+            .skipIdenticalSubtrees()
+            .build();
+    }
+
+    @Benchmark
+    public Diff everyTenthRecordDiffersSkippingIdenticalSubtrees() {
+        return DiffBuilder.compare(control).withTest(differentTest)
+            .checkForSimilar()
+            .skipIdenticalSubtrees()
+            .build();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import org.w3c.dom.Document;
+import org.xmlunit.builder.Input;
+import org.xmlunit.util.Convert;
+
+/**
+ * Generates the documents used by the benchmarks.
+ */
+final class Documents {
+
+    private Documents() { }
+
+    /**
+     * A feed of records, each record has a few attributes and a few
+     * child elements with text content.
+     *
+     * @param records number of records
+     * @param attributes number of attributes per record
+     * @param differentEvery if positive every n-th record gets a
+     * different timestamp
+     */
+    static String feed(int records, int attributes, int differentEvery) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<feed xmlns:x=\"urn:xmlunit:benchmark\">\n");
+        for (int i = 0; i < records; i++) {
+            sb.append("  <record id=\"").append(i).append('"');
+            for (int a = 0; a < attributes; a++) {
+                sb.append(" attr").append(a).append("=\"value").append(a).append('"');
+            }
+            sb.append(" ts=\"")
+                .append(differentEvery > 0 && i % differentEvery == 0 ? "2026-01-02" : "2026-01-01")
+                .append("\">\n");
+            sb.append("    <!-- record ").append(i).append(" -->\n");
+            sb.append("    <name>Record ").append(i).append("</name>\n");
+            sb.append("    <x:amount currency=\"EUR\">").append(i * 3).append(".50</x:amount>\n");
+            sb.append("    <description>Some text describing record ").append(i)
+                .append(" that is long enough to matter</description>\n");
+            sb.append("  </record>\n");
+        }
+        sb.append("</feed>\n");
+        return sb.toString();
+    }
+
+    /**
+     * A flat configuration dump, each entry has many attributes.
+     *
+     * @param entries number of entries
+     * @param attributes number of attributes per entry
+     * @param reversed whether to write the attributes in reverse order
+     */
+    static String attributeHeavy(int entries, int attributes, boolean reversed) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<config>\n");
+        for (int i = 0; i < entries; i++) {
+            sb.append("  <entry");
+            for (int a = 0; a < attributes; a++) {
+                int n = reversed ? attributes - 1 - a : a;
+                sb.append(" setting").append(n).append("=\"").append(i).append('-').append(n).append('"');
+            }
+            sb.append("/>\n");
+        }
+        sb.append("</config>\n");
+        return sb.toString();
+    }
+
+    /**
+     * A document nested {@code depth} levels deep.
+     */
+    static String deep(int depth) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append("<level n=\"").append(i).append("\">");
+        }
+        sb.append("leaf");
+        for (int i = 0; i < depth; i++) {
+            sb.append("</level>");
+        }
+        return sb.toString();
+    }
+
+    static Document parse(String xml) {
+        return Convert.toDocument(Input.fromString(xml).build());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.diff.ByNameAndTextRecSelector;
+import org.xmlunit.diff.DefaultNodeMatcher;
+import org.xmlunit.diff.Diff;
+import org.xmlunit.diff.ElementSelector;
+import org.xmlunit.diff.ElementSelectors;
+import org.xmlunit.util.IterableNodeList;
+
+/**
+ * Matches many sibling elements where the test siblings appear in
+ * reverse order, once with a {@link
+ * org.xmlunit.diff.KeyedElementSelector} and once with an equivalent
+ * selector that has to be consulted for each pair of elements.
+ *
+ * <p>{@link #conditional} uses a conditional selector with many
+ * branches for element names that come before the branch for the
+ * records.</p>
+ *
+ * <p>{@link #byNameAndTextRec} compares whole documents with
+ * reversed records using {@link ByNameAndTextRecSelector} - falling
+ * back to {@link ElementSelectors#byName} for the root element.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MatchingBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int records;
+
+    private List<Node> control;
+    private List<Node> test;
+    private ElementSelector keyed;
+    private ElementSelector unkeyed;
+    private ElementSelector conditional;
+    private Document controlDocument;
+    private Document reversedDocument;
+
+    @Setup
+    public void prepare() {
+        control = new ArrayList<Node>(IterableNodeList.asList(Documents.parse(Documents.feed(records, 5, 0))
+                                                              .getDocumentElement().getChildNodes()));
+        test = new ArrayList<Node>(control);
+        Collections.reverse(test);
+        keyed = ElementSelectors.byNameAndAttributes("id");
+        unkeyed = new ElementSelector() {
+                @Override
+                public boolean canBeCompared(Element controlElement, Element testElement) {
+                    return keyed.canBeCompared(controlElement, testElement);
+                }
+            };
+        ElementSelectors.ConditionalSelectorBuilder builder = ElementSelectors.conditionalBuilder();
+        for (int i = 0; i < 60; i++) {
+            builder.whenElementIsNamed("element" + i).thenUse(ElementSelectors.byName);
+        }
+        conditional = builder.whenElementIsNamed("record").thenUse(keyed)
+            .elseUse(ElementSelectors.byName)
+            .build();
+        controlDocument = Documents.parse(Documents.feed(records, 5, 0));
+        reversedDocument = Documents.parse(Documents.feed(records, 5, 0));
+        Element root = reversedDocument.getDocumentElement();
+        List<Node> children = new ArrayList<Node>(IterableNodeList.asList(root.getChildNodes()));
+        Collections.reverse(children);
+        for (Node n : children) {
+            root.appendChild(n);
+        }
+    }
+
+    @Benchmark
+    public Iterable<Map.Entry<Node, Node>> keyed() {
+        return new DefaultNodeMatcher(keyed).match(control, test);
+    }
+
+    @Benchmark
+    public Iterable<Map.Entry<Node, Node>> unkeyed() {
+        return new DefaultNodeMatcher(unkeyed).match(control, test);
+    }
+
+    @Benchmark
+    public Iterable<Map.Entry<Node, Node>> conditional() {
+        return new DefaultNodeMatcher(conditional).match(control, test);
+    }
+
+    @Benchmark
+    public Diff byNameAndTextRec() {
+        return DiffBuilder.compare(controlDocument).withTest(reversedDocument)
+            .withNodeMatcher(new DefaultNodeMatcher(new ByNameAndTextRecSelector(),
+                                                    ElementSelectors.byName))
+            .checkForSimilar()
+            .build();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.builder.Input;
+import org.xmlunit.diff.Diff;
+import org.xmlunit.input.CombinedNormalizedSource;
+import org.xmlunit.input.CombinedNormalizedSource.Normalization;
+import org.xmlunit.input.NormalizingXMLFilter;
+import org.xmlunit.util.Convert;
+
+/**
+ * Compares two pretty-printed documents with comments while ignoring
+ * whitespace and comments. Run with {@code -prof gc} to see the
+ * memory allocated by the normalization.
+ *
+ * <p>The parse benchmarks compare normalizing the parsed DOM tree with
+ * normalizing while parsing.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NormalizationBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int records;
+
+    private static final Set<Normalization> NORMALIZATIONS =
+        EnumSet.of(Normalization.STRIP_WHITESPACE, Normalization.STRIP_COMMENTS,
+                   Normalization.STRIP_ELEMENT_CONTENT_WHITESPACE);
+
+    private String control;
+    private String test;
+
+    @Setup
+    public void serialize() {
+        control = Documents.feed(records, 5, 0);
+        test = Documents.feed(records, 5, 10);
+    }
+
+    @Benchmark
+    public Diff ignoreWhitespaceAndComments() {
+        return DiffBuilder.compare(control).withTest(test)
+            .ignoreWhitespace()
+            .ignoreComments()
+            .ignoreElementContentWhitespace()
+            .checkForSimilar()
+            .build();
+    }
+
+    @Benchmark
+    public Diff ignoreWhitespaceAndCommentsWhileParsing() {
+        return DiffBuilder.compare(control).withTest(test)
+            .ignoreWhitespace()
+            .ignoreComments()
+            .ignoreElementContentWhitespace()
+            .normalizeWhileParsing()
+            .checkForSimilar()
+            .build();
+    }
+
+    @Benchmark
+    public Document parseThenNormalize() {
+        return Convert.toDocument(new CombinedNormalizedSource(Input.fromString(control).build(), NORMALIZATIONS));
+    }
+
+    @Benchmark
+    public Document normalizeWhileParsing() {
+        return Convert.toDocument(Input.fromString(control).build(), new NormalizingXMLFilter(NORMALIZATIONS));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.builder.Input;
+import org.xmlunit.diff.Diff;
+import org.xmlunit.xpath.JAXPXPathEngine;
+
+/**
+ * Compares and queries tiny documents where the cost of creating
+ * and configuring JAXP factories and parsers dominates.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    private static final String CONTROL = "<a><b attr='1'>text</b><!-- c --></a>";
+    private static final String TEST = "<a><b attr='2'>text</b><!-- c --></a>";
+
+    /**
+     * Time of the very first diff in a fresh JVM.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public Diff firstDiff() {
+        return diff();
+    }
+
+    /**
+     * Steady state latency of a diff.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public Diff diff() {
+        return DiffBuilder.compare(CONTROL).withTest(TEST)
+            .ignoreComments()
+            .ignoreWhitespace()
+            .checkForSimilar()
+            .build();
+    }
+
+    /**
+     * Steady state latency of an XPath evaluation.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public String xpath() {
+        return new JAXPXPathEngine().evaluate("/a/b/@attr", Input.fromString(CONTROL).build());
+    }
+}
@@ -0,0 +1,259 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package org.xmlunit.builder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xmlunit.XMLUnitException;
+import org.xmlunit.util.Mapper;
+import org.xmlunit.util.Nodes;
+
+/**
+ * Remembers parsed and normalized control documents so comparing many
+ * test documents against the same control document only reads and
+ * normalizes the control document once.
+ *
+ * <p>Can be attached to {@link DiffBuilder#withControlDocumentCache}.
+ * Documents are identified by</p>
+ *
+ * <ul>
+ * <li>canonical path, last modification time and length for
+ * documents read from a file by the parser itself - like {@link
+ * Input#fromFile} - and</li>
+ * <li>system id and a SHA-256 hash of the content for {@link
+ * StreamSource}s providing an {@code InputStream} or {@code Reader},
+ * the content is read into memory to compute the hash.</li>
+ * </ul>
+ *
+ * <p>together with all options of the {@code DiffBuilder} that
+ * affect how the document is parsed and normalized. Other kinds of
+ * {@code Source}s are not cached, neither are {@code StreamSource}s
+ * that only provide a system id which is not a {@code file:} URI of
+ * a plain file.</p>
+ *
+ * <p>Once the cache holds the configured maximum number of documents,
+ * the least recently used one is evicted.</p>
+ *
+ * <p>The cached documents are shared by all diffs using the cache and
+ * must be treated as read-only, this includes the nodes reachable
+ * from the {@link org.xmlunit.diff.Difference}s of a {@link
+ * org.xmlunit.diff.Diff}. The cache itself is thread-safe but DOM
+ * implementations - including the one of the JDK - don't guarantee
+ * concurrent reads of the same document are safe, so use one cache
+ * per thread when comparing documents concurrently.</p>
+ *
+ * @since XMLUnit 2.12.1
+ */
+public final class ControlDocumentCache {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Map<Object, Document> documents;
+    private long hits, misses;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxDocuments maximum number of documents to hold
+     * @throws IllegalArgumentException if maxDocuments is not positive
+     */
+    public ControlDocumentCache(final int maxDocuments) {
+        if (maxDocuments <= 0) {
+            throw new IllegalArgumentException("maxDocuments must be positive");
+        }
+        documents = new LinkedHashMap<Object, Document>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Document> eldest) {
+                return size() > maxDocuments;
+            }
+        };
+    }
+
+    /**
+     * Number of documents currently held.
+     *
+     * @return number of documents currently held
+     */
+    public synchronized int size() {
+        return documents.size();
+    }
+
+    /**
+     * Number of times a document has been found in the cache.
+     *
+     * @return number of times a document has been found in the cache
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Number of times a document had to be read because it was not
+     * found in the cache.
+     *
+     * @return number of times a document had to be read
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Removes all documents from the cache.
+     */
+    public synchronized void clear() {
+        documents.clear();
+    }
+
+    /**
+     * Returns the cached document for the given source and options or
+     * reads it using the given loader.
+     *
+     * @param source the source of the document
+     * @param options everything that affects how the document is
+     * read and normalized, must implement equals and hashCode
+     * @param loader reads and normalizes the document
+     * @return source for the cached document or null if the source
+     * cannot be cached - in that case the source hasn't been read
+     * and the loader hasn't been invoked
+     */
+    Source get(Source source, List<?> options, Mapper<Source, Document> loader) {
+        Source readable = source;
+        Object key;
+        if (isReadByParser(source)) {
+            key = fileKey(source.getSystemId());
+        } else if (source instanceof StreamSource) {
+            StreamSource s = (StreamSource) source;
+            if (s.getInputStream() != null) {
+                byte[] content = readFully(s.getInputStream());
+                key = Arrays.<Object>asList(s.getSystemId(), digest(content));
+                readable = new StreamSource(new ByteArrayInputStream(content), s.getSystemId());
+                ((StreamSource) readable).setPublicId(s.getPublicId());
+            } else if (s.getReader() != null) {
+                String content = readFully(s.getReader());
+                key = Arrays.<Object>asList(s.getSystemId(), digest(content.getBytes(UTF8)));
+                readable = new StreamSource(new StringReader(content), s.getSystemId());
+                ((StreamSource) readable).setPublicId(s.getPublicId());
+            } else {
+                key = null;
+            }
+        } else {
+            key = null;
+        }
+        if (key == null) {
+            return null;
+        }
+        key = Arrays.asList(key, options);
+
+        Document d;
+        synchronized (this) {
+            d = documents.get(key);
+            if (d != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        if (d == null) {
+            d = loader.apply(readable);
+            Nodes.expand(d);
+            synchronized (this) {
+                documents.put(key, d);
+            }
+        }
+        return new DOMSource(d, source.getSystemId());
+    }
+
+    private static boolean isReadByParser(Source source) {
+        if (!(source instanceof StreamSource)) {
+            return false;
+        }
+        StreamSource s = (StreamSource) source;
+        return s.getInputStream() == null && s.getReader() == null
+            && s.getSystemId() != null && s.getSystemId().startsWith("file:");
+    }
+
+    private static Object fileKey(String systemId) {
+        try {
+            File f = new File(new URI(systemId));
+            return Arrays.<Object>asList(f.getCanonicalPath(), f.lastModified(), f.length());
+        } catch (Exception ex) {
+            // not a plain file URI, changes couldn't be detected
+            return null;
+        }
+    }
+
+    private static byte[] readFully(InputStream in) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) >= 0) {
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException ex) {
+            throw new XMLUnitException(ex);
+        }
+    }
+
+    private static String readFully(Reader r) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buf = new char[8192];
+            int read;
+            while ((read = r.read(buf)) >= 0) {
+                sb.append(buf, 0, read);
+            }
+            return sb.toString();
+        } catch (IOException ex) {
+            throw new XMLUnitException(ex);
+        }
+    }
+
+    private static String digest(byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support SHA-256
+            throw new XMLUnitException(ex);
+        }
+    }
+}
@@ -15,27 +15,43 @@
 package org.xmlunit.builder;
 
 import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
 import org.w3c.dom.Node;
+import org.xmlunit.diff.AbstractDifferenceEngine;
 import org.xmlunit.diff.Comparison;
 import org.xmlunit.diff.ComparisonController;
 import org.xmlunit.diff.ComparisonControllers;
 import org.xmlunit.diff.ComparisonFormatter;
 import org.xmlunit.diff.ComparisonListener;
 import org.xmlunit.diff.ComparisonResult;
+import org.xmlunit.diff.ComparisonType;
 import org.xmlunit.diff.DOMDifferenceEngine;
+import org.xmlunit.diff.DefaultComparisonFormatter;
 import org.xmlunit.diff.Diff;
 import org.xmlunit.diff.Difference;
 import org.xmlunit.diff.DifferenceEvaluator;
 import org.xmlunit.diff.DifferenceEvaluators;
+import org.xmlunit.diff.DifferenceSummary;
 import org.xmlunit.diff.NodeMatcher;
+import org.xmlunit.diff.NodeTypeFilter;
+import org.xmlunit.diff.SerializedDifferences;
+import org.xmlunit.diff.StAXDifferenceEngine;
+import org.xmlunit.input.CombinedNormalizedSource;
+import org.xmlunit.input.CombinedNormalizedSource.Normalization;
+import org.xmlunit.input.CommentFilteredSource;
 import org.xmlunit.input.CommentLessSource;
 import org.xmlunit.input.ElementContentWhitespaceStrippedSource;
+import org.xmlunit.input.NormalizingXMLFilter;
 import org.xmlunit.input.WhitespaceNormalizedSource;
 import org.xmlunit.input.WhitespaceStrippedSource;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.Mapper;
+import org.xmlunit.util.NameCache;
 import org.xmlunit.util.Predicate;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -43,6 +59,8 @@
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * DiffBuilder to create a {@link Diff} instance.
@@ -69,6 +87,9 @@ public class DiffBuilder implements DifferenceEngineConfigurer<DiffBuilder> {
     private static final ComparisonResult[] CHECK_FOR_IDENTICAL = new ComparisonResult[] {
         ComparisonResult.SIMILAR, ComparisonResult.DIFFERENT};
 
+    private static final short[] PARSE_TIME_SKIPPABLE_TYPES = new short[] {
+        Node.COMMENT_NODE, Node.PROCESSING_INSTRUCTION_NODE};
+
     private final Source controlSource;
 
     private Source testSource;
@@ -100,10 +121,28 @@ public class DiffBuilder implements DifferenceEngineConfigurer<DiffBuilder> {
 
     private boolean ignoreComments;
 
+    private boolean normalizeWhileParsing;
+
     private String ignoreCommentVersion = null;
 
     private DocumentBuilderFactory documentBuilderFactory;
 
+    private boolean iterativeTraversal;
+
+    private ForkJoinPool forkJoinPool;
+
+    private boolean streamingEngine;
+
+    private boolean skipIdenticalSubtrees;
+
+    private NameCache nameCache;
+
+    private int differenceLimit = -1;
+
+    private int serializedDifferencesThreshold = -1;
+
+    private ControlDocumentCache controlDocumentCache;
+
     /**
      * Create a DiffBuilder instance.
      *
@@ -179,9 +218,12 @@ public DiffBuilder ignoreElementContentWhitespace() {
     /**
      * Will remove all comment-Tags "&lt;!-- Comment --&gt;" from test- and control-XML before comparing.
      *
-     * <p>Comments are ignored by applying an XSLT transformation on
-     * the source which may reduce the effect of {@link
-     * #withDocumentBuilderFactory}. If you need more control over the
+     * <p>Comments are removed together with all other normalizations
+     * in a single pass by {@link CombinedNormalizedSource} with the
+     * same result as the XSLT transformation of {@link
+     * CommentLessSource}, see {@link #normalizeWhileParsing} for a
+     * way to avoid creating the comments in the first place. If you
+     * need more control over the
      * transformation build the {@code Source} using a transformation
      * yourself, using {@link CommentLessSource#STYLE}.</p>
      * @return this
@@ -369,6 +411,11 @@ public DiffBuilder withAttributeFilter(Predicate<Attr> attributeFilter) {
      * the comparison.  By default nodes that are not document types
      * are considered.</p>
      *
+     * <p>If the filter is a {@link NodeTypeFilter} rejecting comments
+     * or processing instructions and the documents are {@link
+     * #normalizeWhileParsing normalized while they are parsed}, the
+     * rejected nodes are not even created.</p>
+     *
      * <p>This overwrites any {@link Predicate} set via earlier invocations of {@code withNodeFilter}.</p>
      */
     @Override
@@ -397,6 +444,13 @@ public DiffBuilder withComparisonFormatter(ComparisonFormatter formatter) {
      * and test not already are {@link
      * javax.xml.transform.dom.DOMSource}s.</p>
      *
+     * <p>Unlike the factories XMLUnit creates itself, a new {@code
+     * DocumentBuilder} is created for each document, so changes to
+     * the factory are always honored. A factory that isn't namespace
+     * aware is switched to namespace awareness while holding its
+     * monitor and switched back once the builder has been
+     * created.</p>
+     *
      * @param f the DocumentBuilderFactory to use
      * @return this
      * @since XMLUnit 2.2.0
@@ -406,16 +460,221 @@ public DiffBuilder withDocumentBuilderFactory(DocumentBuilderFactory f) {
         return this;
     }
 
+    /**
+     * Applies the whitespace and comment normalizations while the
+     * documents are parsed using a {@link NormalizingXMLFilter} rather
+     * than to a parsed document.
+     *
+     * <p>Comments and whitespace that are going to be removed never
+     * become part of the documents which saves time and memory for
+     * big documents. Only applies to sources that are not {@code
+     * DOMSource}s and only if no {@link #withDocumentBuilderFactory
+     * DocumentBuilderFactory} has been set.</p>
+     *
+     * <p>Unlike the normalization of parsed documents this merges
+     * text that is only separated by a CDATA section that is empty
+     * after trimming, see {@link NormalizingXMLFilter} - so for
+     * example {@code x<![CDATA[ ]]>y} and {@code xy} are identical
+     * when whitespace is ignored.</p>
+     *
+     * @return this
+     * @since XMLUnit 2.12.1
+     */
+    public DiffBuilder normalizeWhileParsing() {
+        normalizeWhileParsing = true;
+        return this;
+    }
+
+    /**
+     * Walks the control and test documents using an explicit stack
+     * rather than recursion so very deeply nested documents can be
+     * compared without running into a {@link StackOverflowError}.
+     *
+     * @see DOMDifferenceEngine#setIterativeTraversal
+     * @return this
+     * @since XMLUnit 2.12.1
+     */
+    public DiffBuilder withIterativeTraversal() {
+        iterativeTraversal = true;
+        return this;
+    }
+
+    /**
+     * Compares subtrees of the documents in parallel using the given
+     * pool.
+     *
+     * <p>The {@link NodeMatcher}, {@link DifferenceEvaluator}, {@link
+     * ComparisonController} and filters will be used from multiple
+     * threads concurrently and must be thread-safe, all listeners
+     * are still notified on the thread invoking {@link #build} and
+     * in document order.</p>
+     *
+     * @see DOMDifferenceEngine#setParallelism
+     * @param pool the pool to use
+     * @return this
+     * @since XMLUnit 2.12.1
+     */
+    public DiffBuilder withParallelism(ForkJoinPool pool) {
+        forkJoinPool = pool;
+        return this;
+    }
+
+    /**
+     * Skips the comparison of subtrees whose structural hashes are
+     * the same.
+     *
+     * <p>Speeds up the comparison of mostly identical documents but
+     * comparison and match listeners won't see the comparisons for
+     * the skipped subtrees.</p>
+     *
+     * @see DOMDifferenceEngine#setSkipIdenticalSubtrees
+     * @return this
+     * @since XMLUnit 2.12.1
+     */
+    public DiffBuilder skipIdenticalSubtrees() {
+        skipIdenticalSubtrees = true;
+        return this;
+    }
+
+    /**
+     * Uses the given cache to look up the names of nodes.
+     *
+     * <p>Share the cache with {@link org.xmlunit.diff.ElementSelector}s
+     * like {@link
+     * org.xmlunit.diff.ElementSelectors#byName(NameCache)} so names
+     * are only computed once per comparison. Has no effect when
+     * using the {@link #withStreamingEngine streaming engine}.</p>
+     *
+     * @see DOMDifferenceEngine#setNameCache
+     * @param cache the cache to use
+     * @return this
+     * @since XMLUnit 2.12.1
+     */
+    public DiffBuilder withNameCache(NameCache cache) {
+        nameCache = cache;
+        return this;
+    }
+
+    /**
+     * Limits the number of differences retained by the resulting {@link Diff}.
+     *
+     * <p>Only the first {@code limit} differences are retained, all differences - including the ones that are not
+     * retained - are counted by {@link ComparisonType} and XPath pattern in a {@link DifferenceSummary} available via
+     * {@link Diff#getDifferenceSummary}. This keeps the memory required for documents with a huge number of
+     * differences in check. A limit of 0 only aggregates differences.</p>
+     *
+     * <p>By default all differences are retained.</p>
+     *
+     * @param limit the maximum number of differences to retain
+     * @return this
+     * @throws IllegalArgumentException if limit is negative
+     * @since XMLUnit 2.12.1
+     */
+    public DiffBuilder withDifferenceLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        differenceLimit = limit;
+        return this;
+    }
+
+    /**
+     * Makes the resulting {@link Diff} keep its differences in serialized form rather than as {@link Difference}
+     * objects.
+     *
+     * <p>The serialized differences are written to a temporary file once they occupy more than {@code
+     * memoryThreshold} bytes. {@link Diff#getDifferences} creates the {@link Difference}s on demand while iterating
+     * and {@link Diff#fullDescription(java.io.Writer)} writes the description of all differences without holding
+     * them in memory at the same time. The differences don't retain the nodes they apply to, see {@link
+     * SerializedDifferences} for details.</p>
+     *
+     * <p>The temporary file is deleted when the resulting {@link Diff} is {@link Diff#close closed}, it is not
+     * deleted automatically when the virtual machine terminates.</p>
+     *
+     * @param memoryThreshold number of bytes the serialized differences may occupy in memory
+     * @return this
+     * @throws IllegalArgumentException if memoryThreshold is negative
+     * @since XMLUnit 2.12.1
+     */
+    public DiffBuilder withSerializedDifferences(int memoryThreshold) {
+        if (memoryThreshold < 0) {
+            throw new IllegalArgumentException("memoryThreshold must not be negative");
+        }
+        serializedDifferencesThreshold = memoryThreshold;
+        return this;
+    }
+
+    /**
+     * Uses the given cache to look up the parsed and normalized control document.
+     *
+     * <p>When comparing many test documents against the same few control documents this avoids reading and
+     * normalizing the control documents over and over again, see {@link ControlDocumentCache} for which sources can
+     * be cached and the restrictions that apply to the cached documents. Has no effect when using the {@link
+     * #withStreamingEngine streaming engine}.</p>
+     *
+     * @param cache the cache to use
+     * @return this
+     * @since XMLUnit 2.12.1
+     */
+    public DiffBuilder withControlDocumentCache(ControlDocumentCache cache) {
+        controlDocumentCache = cache;
+        return this;
+    }
+
+    /**
+     * Compares the documents using {@link StAXDifferenceEngine}
+     * which reads both documents in a streaming fashion rather than
+     * parsing them into DOM trees first.
+     *
+     * <p>This reduces the memory required to compare big documents
+     * considerably but only supports a subset of the matching
+     * capabilities, see {@link StAXDifferenceEngine} for
+     * details. {@link #withIterativeTraversal}, {@link
+     * #withParallelism}, {@link #skipIdenticalSubtrees} and {@link
+     * #withControlDocumentCache} have no effect when using the
+     * streaming engine.</p>
+     *
+     * <p>{@link #ignoreWhitespace}, {@link #normalizeWhitespace},
+     * {@link #ignoreComments} and {@link
+     * #ignoreElementContentWhitespace} are applied while the
+     * documents are read using a {@link
+     * org.xmlunit.input.NormalizingXMLStreamReader} rather than by
+     * creating normalized DOM trees. Like with {@link
+     * #normalizeWhileParsing} text on both sides of a CDATA section
+     * that is empty after trimming becomes a single piece of
+     * text. {@link #ignoreCommentsUsingXSLTVersion} still
+     * transforms the documents into DOM trees.</p>
+     *
+     * @return this
+     * @since XMLUnit 2.12.1
+     */
+    public DiffBuilder withStreamingEngine() {
+        streamingEngine = true;
+        return this;
+    }
+
     /**
      * Compare the Test-XML {@link #withTest(Object)} with the Control-XML {@link #compare(Object)} and return the
      * collected differences in a {@link Diff} object.
+     *
+     * <p>Unless the streaming engine is used, comparisons whose outcome could neither be seen by any listener nor by
+     * the {@link ComparisonController} are not performed at all. This relies on {@link
+     * org.xmlunit.diff.TypedDifferenceEvaluator}s and {@link org.xmlunit.diff.PredictableDifferenceEvaluator}s
+     * declaring which outcomes they may produce. For example with {@link #checkForSimilar} and the default {@link
+     * DifferenceEvaluator} namespace prefixes of elements and attributes are not compared.</p>
+     *
      * @return the collected differences
      */
     public Diff build() {
 
-        final DOMDifferenceEngine d = documentBuilderFactory != null
-            ? new DOMDifferenceEngine(documentBuilderFactory) : new DOMDifferenceEngine();
-        final CollectResultsListener collectResultsListener = new CollectResultsListener(comparisonResultsToCheck);
+        final AbstractDifferenceEngine d = streamingEngine ? createStAXEngine() : createDOMEngine();
+        final ComparisonFormatter diffFormatter = formatter == null ? new DefaultComparisonFormatter() : formatter;
+        final CollectResultsListener collectResultsListener =
+            new CollectResultsListener(differenceLimit,
+                                       serializedDifferencesThreshold >= 0
+                                       ? new SerializedDifferences(diffFormatter, serializedDifferencesThreshold)
+                                       : null,
+                                       comparisonResultsToCheck);
         d.addDifferenceListener(collectResultsListener);
         if (nodeMatcher != null) {
             d.setNodeMatcher(nodeMatcher);
@@ -437,15 +696,74 @@ public Diff build() {
         if (nodeFilter != null) {
             d.setNodeFilter(nodeFilter);
         }
-        d.compare(wrap(controlSource), wrap(testSource));
+        try {
+            d.compare(controlDocumentCache != null && !streamingEngine ? cachedControl() : wrap(controlSource),
+                      wrap(testSource));
+        } catch (RuntimeException ex) {
+            if (collectResultsListener.serialized != null) {
+                collectResultsListener.serialized.close();
+            }
+            throw ex;
+        }
 
+        if (collectResultsListener.summary != null || collectResultsListener.serialized != null) {
+            return new Diff(controlSource, testSource, diffFormatter,
+                            collectResultsListener.getDifferences(), collectResultsListener.summary);
+        }
         return formatter == null
             ? new Diff(controlSource, testSource, collectResultsListener.getDifferences())
             : new Diff(controlSource, testSource, formatter,
                        collectResultsListener.getDifferences());
     }
 
+    /**
+     * Applies the normalizations while retaining the filtering of
+     * comments requested by a {@link CommentFilteredSource}.
+     */
     private Source wrap(final Source source) {
+        if (streamingEngine && ignoreCommentVersion == null) {
+            // normalized by the engine while the document is read
+            return source;
+        }
+        return keepCommentsFiltered(source, normalize(source));
+    }
+
+    private static Source keepCommentsFiltered(final Source original, final Source normalized) {
+        return original instanceof CommentFilteredSource && !(normalized instanceof CommentFilteredSource)
+            ? new CommentFilteredSource(normalized) : normalized;
+    }
+
+    private List<Normalization> normalizations() {
+        final List<Normalization> normalizations = new ArrayList<Normalization>();
+        if (ignoreWhitespace) {
+            normalizations.add(Normalization.STRIP_WHITESPACE);
+        }
+        if (normalizeWhitespace) {
+            normalizations.add(Normalization.NORMALIZE_WHITESPACE);
+        }
+        if (ignoreComments) {
+            normalizations.add(Normalization.STRIP_COMMENTS);
+        }
+        if (ignoreECW) {
+            normalizations.add(Normalization.STRIP_ELEMENT_CONTENT_WHITESPACE);
+        }
+        return normalizations;
+    }
+
+    private Source normalize(final Source source) {
+        if (ignoreCommentVersion == null) {
+            final List<Normalization> normalizations = normalizations();
+            if (normalizations.isEmpty()) {
+                return source;
+            }
+            if (normalizeWhileParsing && documentBuilderFactory == null && !(source instanceof DOMSource)) {
+                return parseNormalized(source, normalizations);
+            }
+            return documentBuilderFactory != null
+                ? new CombinedNormalizedSource(source, normalizations, documentBuilderFactory)
+                : new CombinedNormalizedSource(source, normalizations);
+        }
+        // an explicit XSLT version asks for CommentLessSource's stylesheet
         Source newSource = source;
         if (ignoreWhitespace) {
             newSource = documentBuilderFactory != null
@@ -470,25 +788,139 @@ private Source wrap(final Source source) {
         return newSource;
     }
 
+    /**
+     * Applies the normalizations while parsing the source, also
+     * skipping comments and processing instructions rejected by a
+     * {@link NodeTypeFilter}.
+     */
+    private Source parseNormalized(final Source source, final List<Normalization> normalizations) {
+        final DOMSource parsed = new DOMSource(Convert.toDocument(source, new NormalizingXMLFilter(normalizations),
+                                                                  parseTimeSkippedTypes()));
+        parsed.setSystemId(source.getSystemId());
+        return parsed;
+    }
+
+    private short[] parseTimeSkippedTypes() {
+        final short[] skipped = new short[PARSE_TIME_SKIPPABLE_TYPES.length];
+        int count = 0;
+        if (nodeFilter instanceof NodeTypeFilter) {
+            for (short type : PARSE_TIME_SKIPPABLE_TYPES) {
+                if (((NodeTypeFilter) nodeFilter).excludes(type)) {
+                    skipped[count++] = type;
+                }
+            }
+        }
+        return Arrays.copyOf(skipped, count);
+    }
+
+    private Source cachedControl() {
+        List<Object> options = Arrays.<Object>asList(ignoreWhitespace, normalizeWhitespace, ignoreECW, ignoreComments,
+                                                     ignoreCommentVersion, documentBuilderFactory, normalizeWhileParsing,
+                                                     Arrays.toString(parseTimeSkippedTypes()));
+        Source cached = controlDocumentCache.get(controlSource, options, new Mapper<Source, Document>() {
+                @Override
+                public Document apply(Source s) {
+                    Source wrapped = normalize(s);
+                    return documentBuilderFactory != null
+                        ? Convert.toDocument(wrapped, documentBuilderFactory)
+                        : Convert.toDocument(wrapped);
+                }
+            });
+        return cached != null ? keepCommentsFiltered(controlSource, cached) : wrap(controlSource);
+    }
+
+    private StAXDifferenceEngine createStAXEngine() {
+        final StAXDifferenceEngine d = new StAXDifferenceEngine();
+        if (ignoreCommentVersion == null) {
+            d.setNormalizations(normalizations());
+        }
+        return d;
+    }
+
+    private DOMDifferenceEngine createDOMEngine() {
+        final DOMDifferenceEngine d = documentBuilderFactory != null
+            ? new DOMDifferenceEngine(documentBuilderFactory) : new DOMDifferenceEngine();
+        d.setIterativeTraversal(iterativeTraversal);
+        d.setParallelism(forkJoinPool);
+        d.setSkipIdenticalSubtrees(skipIdenticalSubtrees);
+        if (nameCache != null) {
+            d.setNameCache(nameCache);
+        }
+        d.setSkippedComparisonTypes(unobservableComparisonTypes());
+        return d;
+    }
+
+    /**
+     * Determines the types of comparisons whose outcome can't reach
+     * any listener or the {@link ComparisonController} given the
+     * outcomes the {@link DifferenceEvaluator} declares it may
+     * produce.
+     */
+    private Set<ComparisonType> unobservableComparisonTypes() {
+        final Set<ComparisonType> types = EnumSet.noneOf(ComparisonType.class);
+        if (!comparisonListeners.isEmpty()) {
+            return types;
+        }
+        final Set<ComparisonResult> observed = EnumSet.copyOf(Arrays.asList(comparisonResultsToCheck));
+        if (!differenceListeners.isEmpty()
+            || comparisonController != ComparisonControllers.Default) {
+            observed.add(ComparisonResult.DIFFERENT);
+            if (comparisonController != ComparisonControllers.StopWhenDifferent
+                || !differenceListeners.isEmpty()) {
+                observed.add(ComparisonResult.SIMILAR);
+            }
+        }
+        for (ComparisonType type : ComparisonType.values()) {
+            final Set<ComparisonResult> outcomes = EnumSet.noneOf(ComparisonResult.class);
+            outcomes.addAll(DifferenceEvaluators.getPossibleOutcomes(differenceEvaluator, type,
+                                                                     ComparisonResult.EQUAL));
+            outcomes.addAll(DifferenceEvaluators.getPossibleOutcomes(differenceEvaluator, type,
+                                                                     ComparisonResult.DIFFERENT));
+            if (Collections.disjoint(outcomes, observed)) {
+                types.add(type);
+            }
+        }
+        return types;
+    }
+
     private static final class CollectResultsListener implements ComparisonListener {
 
         private final List<Difference> results;
         private final EnumSet<ComparisonResult> comparisonResultsToCheck;
+        private final int limit;
+        private final DifferenceSummary summary;
+        private final SerializedDifferences serialized;
+        private int retained;
 
-        public CollectResultsListener(final ComparisonResult... comparisonResultsToCheck) {
+        public CollectResultsListener(final int limit, final SerializedDifferences serialized,
+                                      final ComparisonResult... comparisonResultsToCheck) {
             results = new ArrayList<Difference>();
             this.comparisonResultsToCheck = EnumSet.copyOf(Arrays.asList(comparisonResultsToCheck));
+            this.limit = limit;
+            this.serialized = serialized;
+            summary = limit >= 0 ? new DifferenceSummary() : null;
         }
 
         @Override
         public void comparisonPerformed(final Comparison comparison, final ComparisonResult outcome) {
             if (comparisonResultsToCheck.contains(outcome)) {
-                results.add(new Difference(comparison, outcome));
+                if (summary != null) {
+                    summary.add(comparison);
+                    if (retained >= limit) {
+                        return;
+                    }
+                }
+                retained++;
+                if (serialized != null) {
+                    serialized.add(comparison, outcome);
+                } else {
+                    results.add(new Difference(comparison, outcome));
+                }
             }
         }
 
-        public List<Difference> getDifferences() {
-            return Collections.unmodifiableList(results);
+        public Iterable<Difference> getDifferences() {
+            return serialized != null ? serialized : Collections.unmodifiableList(results);
         }
     }
 }
@@ -14,7 +14,9 @@
 package org.xmlunit.diff;
 
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Node;
 import org.xmlunit.util.Predicate;
@@ -39,6 +41,10 @@ public boolean test(Attr a) {
             }
         };
     private Predicate<Node> nodeFilter = NodeFilters.Default;
+    private boolean equalOutcomesObserved;
+    private DifferenceEvaluator examinedEvaluator;
+    private Set<ComparisonType> equalOutcomePreserved;
+    private final ComparisonState ongoingEqual = new OngoingComparisonState();
 
     /**
      * Protected default constructor.
@@ -51,6 +57,7 @@ public void addComparisonListener(ComparisonListener l) {
             throw new IllegalArgumentException(LISTENER_MUST_NOT_BE_NULL);
         }
         listeners.addComparisonListener(l);
+        equalOutcomesObserved = true;
     }
 
     @Override
@@ -59,6 +66,7 @@ public void addMatchListener(ComparisonListener l) {
             throw new IllegalArgumentException(LISTENER_MUST_NOT_BE_NULL);
         }
         listeners.addMatchListener(l);
+        equalOutcomesObserved = true;
     }
 
     @Override
@@ -177,6 +185,9 @@ protected Predicate<Node> getNodeFilter() {
      * "stop the whole comparison process" when true.
      */
     protected final ComparisonState compare(Comparison comp) {
+        if (isSkipped(comp.getType())) {
+            return ongoingEqual;
+        }
         Object controlValue = comp.getControlDetails().getValue();
         Object testValue = comp.getTestDetails().getValue();
         boolean equal = controlValue == null
@@ -186,12 +197,94 @@ protected final ComparisonState compare(Comparison comp) {
         ComparisonResult altered =
             getDifferenceEvaluator().evaluate(comp, initial);
         listeners.fireComparisonPerformed(comp, altered);
-        return altered != ComparisonResult.EQUAL
-            && getComparisonController().stopDiffing(new Difference(comp, altered))
+        if (altered == ComparisonResult.EQUAL) {
+            return ongoingEqual;
+        }
+        return getComparisonController().stopDiffing(new Difference(comp, altered))
             ? new FinishedComparisonState(altered)
             : new OngoingComparisonState(altered);
     }
 
+    /**
+     * Like {@link #compare(Comparison)} but doesn't even create the
+     * {@link Comparison} if the values are equal and nobody could
+     * observe the outcome.
+     */
+    ComparisonState compare(ComparisonType type,
+                            XPathContext controlContext, Node control, Object controlValue,
+                            XPathContext testContext, Node test, Object testValue) {
+        if (isSkipped(type)) {
+            return ongoingEqual;
+        }
+        if (canSkipEqualComparisons(type)
+            && (controlValue == null ? testValue == null : controlValue.equals(testValue))) {
+            return ongoingEqual;
+        }
+        return compare(new Comparison(type, controlContext, control, controlValue,
+                                      testContext, test, testValue));
+    }
+
+    /**
+     * Whether comparisons of the given type are not to be performed
+     * at all.
+     */
+    boolean isSkipped(ComparisonType type) {
+        return false;
+    }
+
+    /**
+     * Whether the outcome of a comparison of equal values of the
+     * given type is irrelevant.
+     *
+     * <p>This is the case if no listener is interested in {@link
+     * ComparisonResult#EQUAL} outcomes and the {@link
+     * DifferenceEvaluator} declares it never changes such an outcome
+     * for the given type. The {@link ComparisonController} is only
+     * consulted for differences anyway.</p>
+     */
+    boolean canSkipEqualComparisons(ComparisonType type) {
+        if (equalOutcomesObserved) {
+            return false;
+        }
+        DifferenceEvaluator evaluator = getDifferenceEvaluator();
+        if (evaluator != examinedEvaluator) {
+            Set<ComparisonType> types = EnumSet.noneOf(ComparisonType.class);
+            for (ComparisonType t : ComparisonType.values()) {
+                Set<ComparisonResult> outcomes =
+                    DifferenceEvaluators.getPossibleOutcomes(evaluator, t, ComparisonResult.EQUAL);
+                if (outcomes.size() == 1 && outcomes.contains(ComparisonResult.EQUAL)) {
+                    types.add(t);
+                }
+            }
+            equalOutcomePreserved = types;
+            examinedEvaluator = evaluator;
+        }
+        return equalOutcomePreserved.contains(type);
+    }
+
+    /**
+     * Whether any comparison or match listener has been registered.
+     */
+    boolean hasEqualOutcomeListeners() {
+        return equalOutcomesObserved;
+    }
+
+    /**
+     * The state of an ongoing comparison with an outcome of {@link
+     * ComparisonResult#EQUAL}.
+     */
+    ComparisonState ongoingEqual() {
+        return ongoingEqual;
+    }
+
+    /**
+     * Notifies all listeners of a comparison that has been performed
+     * elsewhere.
+     */
+    void fireComparisonPerformed(Comparison comp, ComparisonResult outcome) {
+        listeners.fireComparisonPerformed(comp, outcome);
+    }
+
     /**
      * Returns a string representation of the given XPathContext.
      * @param ctx the XPathContext
@@ -239,6 +332,20 @@ protected ComparisonState(boolean finished, ComparisonResult result) {
             this.result = result;
         }
 
+        /**
+         * Whether the comparison should be stopped.
+         */
+        boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * The current result.
+         */
+        ComparisonResult getResult() {
+            return result;
+        }
+
         /**
          * Combines the current state with a different comparison.
          * @param newStateProducer may be invoked to produce the next ConditionState
@@ -271,6 +378,30 @@ public ComparisonState apply() {
                     }
                 });
         }
+        /**
+         * Combines the current state with a comparison that is only
+         * created if needed.
+         * @return this if the comparison should be stopped and the result of comparing the values otherwise.
+         */
+        ComparisonState andThen(ComparisonType type,
+                                XPathContext controlContext, Node control, Object controlValue,
+                                XPathContext testContext, Node test, Object testValue) {
+            return finished ? this
+                : compare(type, controlContext, control, controlValue, testContext, test, testValue);
+        }
+        /**
+         * Maybe combines the current state with a comparison that is
+         * only created if needed.
+         * @return this if the comparison should be stopped or predicate is false and the result of comparing the
+         * values otherwise.
+         */
+        ComparisonState andIfTrueThen(boolean predicate, ComparisonType type,
+                                      XPathContext controlContext, Node control, Object controlValue,
+                                      XPathContext testContext, Node test, Object testValue) {
+            return predicate
+                ? andThen(type, controlContext, control, controlValue, testContext, test, testValue)
+                : this;
+        }
         /**
          * Maybe combines the current state with a different comparison.
          * @param predicate whether to combine the comparisons
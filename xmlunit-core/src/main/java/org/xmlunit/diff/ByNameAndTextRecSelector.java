@@ -13,8 +13,12 @@
 */
 package org.xmlunit.diff;
 
-import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import javax.xml.namespace.QName;
+import org.xmlunit.util.Nodes;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Text;
@@ -30,11 +34,28 @@
  * deeply but may need to be combined inside a {@link
  * ElementSelectors#conditionalSelector conditionalSelector} in order
  * to be useful for the document as a whole.</p>
+ *
+ * <p>While a {@link DOMDifferenceEngine} is running the selector
+ * computes a structural fingerprint for each element once and
+ * compares fingerprints rather than walking both subtrees for each
+ * pair of elements.</p>
  */
 public class ByNameAndTextRecSelector implements ElementSelector {
+
+    private static final Object FINGERPRINTS = new Object();
+
     @Override
     public boolean canBeCompared(Element controlElement,
                                  Element testElement) {
+        if (controlElement != null && testElement != null
+            // subclasses may override canBeCompared for child elements
+            && getClass() == ByNameAndTextRecSelector.class) {
+            Map<Node, Object> fingerprints = SelectorMemo.forOwner(FINGERPRINTS);
+            if (fingerprints != null) {
+                return fingerprint(controlElement, fingerprints)
+                    .equals(fingerprint(testElement, fingerprints));
+            }
+        }
         if (!ElementSelectors.byNameAndText.canBeCompared(controlElement,
                                                           testElement)) {
             return false;
@@ -48,22 +69,17 @@ public boolean canBeCompared(Element controlElement,
              controlIndex < controlLen && testIndex < testLen;
              ) {
             // find next non-text child nodes
-            Map.Entry<Integer, Node> control = findNonText(controlChildren,
-                                                           controlIndex,
-                                                           controlLen);
-            controlIndex = control.getKey();
-            Node c = control.getValue();
-            if (isText(c)) {
+            controlIndex = findNonText(controlChildren, controlIndex,
+                                       controlLen);
+            if (controlIndex == controlLen) {
                 break;
             }
-            Map.Entry<Integer, Node> test = findNonText(testChildren,
-                                                        testIndex,
-                                                        testLen);
-            testIndex = test.getKey();
-            Node t = test.getValue();
-            if (isText(t)) {
+            Node c = controlChildren.item(controlIndex);
+            testIndex = findNonText(testChildren, testIndex, testLen);
+            if (testIndex == testLen) {
                 break;
             }
+            Node t = testChildren.item(testIndex);
 
             // different types of children make elements
             // non-comparable
@@ -79,41 +95,90 @@ public boolean canBeCompared(Element controlElement,
             testIndex++;
         }
 
-        // child lists exhausted?
-        if (controlIndex < controlLen) {
-            Map.Entry<Integer, Node> p = findNonText(controlChildren,
-                                                     controlIndex,
-                                                     controlLen);
-            controlIndex = p.getKey();
-            // some non-Text children remained
-            if (controlIndex < controlLen) {
-                return false;
-            }
-        }
-        if (testIndex < testLen) {
-            Map.Entry<Integer, Node> p = findNonText(testChildren,
-                                                     testIndex,
-                                                     testLen);
-            testIndex = p.getKey();
-            // some non-Text children remained
-            if (testIndex < testLen) {
-                return false;
-            }
-        }
-        return true;
+        // child lists exhausted? otherwise some non-Text children
+        // remained
+        return findNonText(controlChildren, controlIndex, controlLen) == controlLen
+            && findNonText(testChildren, testIndex, testLen) == testLen;
     }
 
-    private static Map.Entry<Integer, Node> findNonText(NodeList nl, int current, int len) {
-        Node n = nl.item(current);
-        while (isText(n) && ++current < len) {
-            n = nl.item(current);
+    /**
+     * Index of the first non-Text node at or after current or len if
+     * there is none.
+     */
+    private static int findNonText(NodeList nl, int current, int len) {
+        while (current < len && isText(nl.item(current))) {
+            current++;
         }
-        return new AbstractMap.SimpleImmutableEntry<Integer, Node>(current, n);
+        return current;
     }
 
     private static boolean isText(Node n) {
         return n instanceof Text;
     }
 
-}
+    /**
+     * Computes the fingerprint of an element and all its element
+     * children bottom-up, reusing fingerprints computed before.
+     */
+    private static Fingerprint fingerprint(Element e, Map<Node, Object> fingerprints) {
+        Fingerprint f = (Fingerprint) fingerprints.get(e);
+        if (f == null) {
+            List<Object> children = new ArrayList<Object>();
+            for (Node c = e.getFirstChild(); c != null; c = c.getNextSibling()) {
+                if (c instanceof Element) {
+                    children.add(fingerprint((Element) c, fingerprints));
+                } else if (!isText(c)) {
+                    children.add(Short.valueOf(c.getNodeType()));
+                }
+            }
+            f = new Fingerprint(Nodes.getQName(e),
+                                ElementSelectors.getMergedNestedText(e),
+                                children.toArray());
+            fingerprints.put(e, f);
+        }
+        return f;
+    }
 
+    /**
+     * Name, nested text and the sequence of non-Text children of an
+     * element - the node types of children that are not elements and
+     * the fingerprints of child elements.
+     *
+     * <p>Two elements can be compared if and only if their
+     * fingerprints are equal, {@code equals} only looks at the
+     * structure if the hash codes are the same.</p>
+     */
+    private static final class Fingerprint {
+        private final QName name;
+        private final String text;
+        private final Object[] children;
+        private final int hash;
+
+        private Fingerprint(QName name, String text, Object[] children) {
+            this.name = name;
+            this.text = text;
+            this.children = children;
+            hash = 31 * (31 * name.hashCode() + text.hashCode()) + Arrays.hashCode(children);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint other = (Fingerprint) o;
+            return hash == other.hash
+                && name.equals(other.name)
+                && text.equals(other.text)
+                && Arrays.equals(children, other.children);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package org.xmlunit.diff;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.xmlunit.util.Nodes;
+import org.xmlunit.util.Predicate;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Snapshot of the children of a node - all of them and those
+ * accepted by a node filter.
+ *
+ * <p>Remembers the position of each accepted child inside the list
+ * of all children and can find the position of an accepted child by
+ * identity without boxing.</p>
+ */
+final class ChildNodes {
+
+    private static final Node[] NO_NODES = new Node[0];
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final Node[] all;
+    private final Node[] accepted;
+    private final int[] positionInAll;
+    /**
+     * Open addressing hash table mapping accepted children by
+     * identity to their index + 1, created on first use.
+     */
+    private int[] identityIndex;
+
+    ChildNodes(Node parent, Predicate<Node> nodeFilter) {
+        NodeList nl = Nodes.getChildNodes(parent);
+        final int len = nl.getLength();
+        if (len == 0) {
+            all = accepted = NO_NODES;
+            positionInAll = NO_POSITIONS;
+            return;
+        }
+        all = new Node[len];
+        int[] positions = new int[len];
+        int count = 0;
+        for (int i = 0; i < len; i++) {
+            Node n = nl.item(i);
+            all[i] = n;
+            if (nodeFilter.test(n)) {
+                positions[count++] = i;
+            }
+        }
+        if (count == len) {
+            accepted = all;
+            positionInAll = positions;
+        } else {
+            accepted = new Node[count];
+            for (int i = 0; i < count; i++) {
+                accepted[i] = all[positions[i]];
+            }
+            positionInAll = Arrays.copyOf(positions, count);
+        }
+    }
+
+    /**
+     * All children.
+     */
+    List<Node> all() {
+        return Collections.unmodifiableList(Arrays.asList(all));
+    }
+
+    /**
+     * Children accepted by the node filter.
+     */
+    List<Node> accepted() {
+        return Collections.unmodifiableList(Arrays.asList(accepted));
+    }
+
+    /**
+     * Number of children accepted by the node filter.
+     */
+    int acceptedCount() {
+        return accepted.length;
+    }
+
+    /**
+     * Position of the accepted child with the given index inside the
+     * list of all children.
+     */
+    int positionInAll(int acceptedIndex) {
+        return positionInAll[acceptedIndex];
+    }
+
+    /**
+     * Index of the given node in the list of accepted children or -1
+     * if it is not an accepted child.
+     *
+     * @param n the node to look for
+     * @param expected the index the node is likely to have, avoids
+     * the hash lookup if the guess is right
+     */
+    int indexOf(Node n, int expected) {
+        if (expected >= 0 && expected < accepted.length && accepted[expected] == n) {
+            return expected;
+        }
+        if (identityIndex == null) {
+            identityIndex = createIdentityIndex();
+        }
+        final int mask = identityIndex.length - 1;
+        for (int slot = hash(n) & mask; identityIndex[slot] != 0; slot = (slot + 1) & mask) {
+            int idx = identityIndex[slot] - 1;
+            if (accepted[idx] == n) {
+                return idx;
+            }
+        }
+        return -1;
+    }
+
+    private int[] createIdentityIndex() {
+        int size = 2;
+        while (size < 2 * accepted.length) {
+            size <<= 1;
+        }
+        int[] table = new int[size];
+        final int mask = size - 1;
+        for (int i = 0; i < accepted.length; i++) {
+            int slot = hash(accepted[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+        return table;
+    }
+
+    private static int hash(Node n) {
+        int h = System.identityHashCode(n);
+        return h ^ (h >>> 16);
+    }
+}
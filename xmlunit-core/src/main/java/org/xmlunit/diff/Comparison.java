@@ -15,9 +15,6 @@
 
 import org.w3c.dom.Node;
 
-import static org.xmlunit.diff.AbstractDifferenceEngine.getParentXPath;
-import static org.xmlunit.diff.AbstractDifferenceEngine.getXPath;
-
 /**
  * Details of a single comparison XMLUnit has performed.
  */
@@ -32,14 +29,55 @@ public static class Detail {
         private final String xpath;
         private final Object value;
         private final String parentXPath;
+        // when set the XPaths are only stringified on demand
+        private final XPathContext.Path path;
+        private final XPathContext.Path parentPath;
 
         private Detail(Node n, String x, Object v, String parentX) {
+            this(n, null, x, v, null, parentX);
+        }
+
+        private Detail(Node n, XPathContext.Path p, String x, Object v,
+                       XPathContext.Path parentP, String parentX) {
             target = n;
+            path = p;
             xpath = x;
             value = v;
+            parentPath = parentP;
             parentXPath = parentX;
         }
 
+        /**
+         * Creates the details of a target located at the current node
+         * of the given context.
+         */
+        static Detail of(Node n, XPathContext ctx, Object v) {
+            if (ctx == null) {
+                return new Detail(n, null, v, null);
+            }
+            if (ctx.getClass() != XPathContext.class) {
+                // subclasses may stringify XPaths differently
+                return new Detail(n, ctx.getXPath(), v, ctx.getParentXPath());
+            }
+            XPathContext.Path p = ctx.getCurrentPath();
+            XPathContext.Path parent = p.getParent();
+            return new Detail(n, p, null, v, parent, parent == null ? "" : null);
+        }
+
+        /**
+         * Creates the details of a missing target whose parent would
+         * have been the current node of the given context.
+         */
+        static Detail absentChildOf(XPathContext ctx) {
+            if (ctx == null) {
+                return new Detail(null, null, null, null);
+            }
+            if (ctx.getClass() != XPathContext.class) {
+                return new Detail(null, null, null, ctx.getXPath());
+            }
+            return new Detail(null, null, null, null, ctx.getCurrentPath(), null);
+        }
+
         /**
          * The actual target.
          * @return the actual target
@@ -49,7 +87,9 @@ private Detail(Node n, String x, Object v, String parentX) {
          * XPath leading to the target.
          * @return XPath leading to the target
          */
-        public String getXPath() { return xpath; }
+        public String getXPath() {
+            return path != null ? path.getXPath() : xpath;
+        }
         /**
          * The value for comparison found at the current target.
          * @return the value for comparison found at the current target
@@ -61,7 +101,7 @@ private Detail(Node n, String x, Object v, String parentX) {
          * @return XPath leading to the target's parent
          */
         public String getParentXPath() {
-            return parentXPath;
+            return parentPath != null ? parentPath.getXPath() : parentXPath;
         }
     }
 
@@ -104,9 +144,17 @@ public Comparison(ComparisonType t,
     public Comparison(ComparisonType t,
                       XPathContext controlContext, Node controlTarget, Object controlValue,
                       XPathContext testContext, Node testTarget,Object testValue) {
-        this (t,
-              controlTarget, getXPath(controlContext), controlValue, getParentXPath(controlContext),
-              testTarget, getXPath(testContext), testValue, getParentXPath(testContext));
+        this(t, Detail.of(controlTarget, controlContext, controlValue),
+             Detail.of(testTarget, testContext, testValue));
+    }
+
+    /**
+     * Creates a new comparison from already assembled details.
+     */
+    Comparison(ComparisonType t, Detail control, Detail test) {
+        type = t;
+        this.control = control;
+        this.test = test;
     }
 
     /**
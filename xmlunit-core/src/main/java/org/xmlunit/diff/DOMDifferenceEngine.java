@@ -14,24 +14,35 @@
 
 package org.xmlunit.diff;
 
-import java.util.Collections;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Source;
 import org.xmlunit.XMLUnitException;
+import org.xmlunit.input.CommentFilteredSource;
 import org.xmlunit.util.Convert;
-import org.xmlunit.util.DocumentBuilderFactoryConfigurer;
-import org.xmlunit.util.IterableNodeList;
+import org.xmlunit.util.DocumentBuilderPool;
+import org.xmlunit.util.JAXPFactories;
 import org.xmlunit.util.Linqy;
 import org.xmlunit.util.Mapper;
+import org.xmlunit.util.NameCache;
 import org.xmlunit.util.Nodes;
+import org.xmlunit.util.Predicate;
 import org.w3c.dom.Attr;
 import org.w3c.dom.CharacterData;
 import org.w3c.dom.Document;
@@ -46,22 +57,36 @@
  */
 public final class DOMDifferenceEngine extends AbstractDifferenceEngine {
 
-    /**
-     * Maps Nodes to their QNames.
-     */
-    private static final Mapper<Node, QName> QNAME_MAPPER =
-        new Mapper<Node, QName>() {
+    private DocumentBuilderFactory documentBuilderFactory;
+    private DocumentBuilderPool documentBuilderPool;
+
+    private boolean iterativeTraversal;
+
+    private ForkJoinPool forkJoinPool;
+
+    private boolean skipIdenticalSubtrees;
+
+    private SubtreeHashes subtreeHashes;
+
+    private NameCache nameCache = new NameCache();
+    private Set<ComparisonType> skippedComparisonTypes = EnumSet.noneOf(ComparisonType.class);
+
+    private final Mapper<Node, XPathContext.NodeInfo> toNodeInfo =
+        new Mapper<Node, XPathContext.NodeInfo>() {
             @Override
-            public QName apply(Node n) { return Nodes.getQName(n); }
+            public XPathContext.NodeInfo apply(Node n) {
+                return new XPathContext.DOMNodeInfo(nameCache.getQName(n), n.getNodeType());
+            }
         };
 
-    private DocumentBuilderFactory documentBuilderFactory;
+    // true for the engines comparing subtrees in parallel
+    private boolean isSubtreeWorker;
 
     /**
      * Creates a new DOMDifferenceEngine using the default {@link DocumentBuilderFactory}.
      */
     public DOMDifferenceEngine() {
-        this(DocumentBuilderFactoryConfigurer.Default.configure(DocumentBuilderFactory.newInstance()));
+        this(JAXPFactories.getDocumentBuilderFactory());
     }
 
     /**
@@ -81,6 +106,7 @@ public DOMDifferenceEngine(final DocumentBuilderFactory f) {
             throw new IllegalArgumentException("factory must not be null");
         }
         documentBuilderFactory = f;
+        documentBuilderPool = DocumentBuilderPool.forFactory(f);
     }
 
     /**
@@ -101,6 +127,142 @@ public void setDocumentBuilderFactory(DocumentBuilderFactory f) {
             throw new IllegalArgumentException("factory must not be null");
         }
         documentBuilderFactory = f;
+        documentBuilderPool = DocumentBuilderPool.forFactory(f);
+    }
+
+    /**
+     * Whether to walk the control and test documents using an
+     * explicit stack rather than recursion.
+     *
+     * <p>By default the engine recurses into child nodes which means
+     * the stack depth needed grows with the depth of the documents
+     * and very deeply nested documents may cause a {@link
+     * StackOverflowError}. In iterative mode the stack depth doesn't
+     * depend on the document structure. Both modes perform exactly
+     * the same comparisons in the same order.</p>
+     *
+     * @param iterative whether to use iterative traversal
+     *
+     * @since XMLUnit 2.12.1
+     */
+    public void setIterativeTraversal(boolean iterative) {
+        iterativeTraversal = iterative;
+    }
+
+    /**
+     * Compares subtrees of the documents in parallel using the given
+     * pool.
+     *
+     * <p>The first level of the documents where more than one pair
+     * of child nodes has been matched by the {@link NodeMatcher} is
+     * split into one task per pair of matched nodes, each subtree is
+     * compared sequentially. Listeners are notified on the thread
+     * invoking {@link #compare} and in the same order as they would
+     * be when comparing sequentially, {@link
+     * ComparisonController#stopDiffing} is respected and cancels the
+     * tasks for subtrees after the one that stopped the
+     * comparison.</p>
+     *
+     * <p>The configured {@link NodeMatcher}, {@link
+     * DifferenceEvaluator}, {@link ComparisonController} and filters
+     * will be invoked from multiple threads concurrently and must be
+     * thread-safe. Both documents are traversed once before the
+     * comparison starts so DOM implementations that create nodes
+     * lazily don't do so while multiple threads read them.</p>
+     *
+     * @param pool the pool to run subtree comparisons in, null
+     * disables parallel comparison
+     *
+     * @since XMLUnit 2.12.1
+     */
+    public void setParallelism(ForkJoinPool pool) {
+        forkJoinPool = pool;
+    }
+
+    /**
+     * Whether to skip the comparison of subtrees that are known to be
+     * identical.
+     *
+     * <p>When enabled a structural hash is computed for each element
+     * of a matched pair of elements and all its descendants. The hash
+     * respects the configured node and attribute filters. If the
+     * hashes of control and test element are the same the whole
+     * subtree is considered {@link ComparisonResult#EQUAL} without
+     * performing any comparisons for the elements, their attributes
+     * or any of their descendants.</p>
+     *
+     * <p>This can speed up the comparison of documents that are
+     * mostly identical considerably, but the listeners - in
+     * particular match listeners - will no longer see all
+     * comparisons that would have an outcome of {@link
+     * ComparisonResult#EQUAL}. It also assumes the {@link
+     * DifferenceEvaluator} doesn't turn an outcome of {@link
+     * ComparisonResult#EQUAL} into a difference and that the {@link
+     * NodeMatcher} matches the children of identical elements in
+     * order.</p>
+     *
+     * @param skip whether to skip identical subtrees
+     *
+     * @since XMLUnit 2.12.1
+     */
+    public void setSkipIdenticalSubtrees(boolean skip) {
+        skipIdenticalSubtrees = skip;
+    }
+
+    /**
+     * Sets the cache used to look up the {@link QName}s of nodes.
+     *
+     * <p>The engine uses a cache of its own by default. Setting a
+     * cache that is shared with {@link ElementSelector}s like the
+     * ones created by {@link ElementSelectors#byName(NameCache)}
+     * allows them to benefit from the names already looked up by the
+     * engine and vice versa. The cache is {@link NameCache#clear
+     * cleared} at the end of each comparison.</p>
+     *
+     * <p>{@link NameCache} is not thread-safe, a shared cache must not
+     * be used when comparing subtrees {@link #setParallelism in
+     * parallel}.</p>
+     *
+     * @param cache the cache to use
+     *
+     * @since XMLUnit 2.12.1
+     */
+    public void setNameCache(NameCache cache) {
+        if (cache == null) {
+            throw new IllegalArgumentException("cache must not be null");
+        }
+        nameCache = cache;
+    }
+
+    /**
+     * Sets the types of comparisons that are not performed at all.
+     *
+     * <p>No {@link Comparison} is created for any of the given types,
+     * neither the {@link DifferenceEvaluator} nor the {@link
+     * ComparisonController} are consulted and no listener is
+     * notified. This is only safe if nobody could observe the outcome
+     * of such a comparison anyway. {@link
+     * org.xmlunit.builder.DiffBuilder DiffBuilder} derives the types
+     * from the configured listeners, {@code ComparisonController} and
+     * {@link PredictableDifferenceEvaluator}s.</p>
+     *
+     * <p>Comparisons are still performed for all types by default.</p>
+     *
+     * @param types the types of comparisons to skip
+     *
+     * @since XMLUnit 2.12.1
+     */
+    public void setSkippedComparisonTypes(Set<ComparisonType> types) {
+        if (types == null) {
+            throw new IllegalArgumentException("types must not be null");
+        }
+        skippedComparisonTypes = types.isEmpty() ? EnumSet.noneOf(ComparisonType.class)
+            : EnumSet.copyOf(types);
+    }
+
+    @Override
+    boolean isSkipped(ComparisonType type) {
+        return skippedComparisonTypes.contains(type);
     }
 
     @Override
@@ -111,17 +273,66 @@ public void compare(Source control, Source test) {
         if (test == null) {
             throw new IllegalArgumentException("test must not be null");
         }
+        final Predicate<Node> nodeFilter = getNodeFilter();
+        SelectorMemo previousMemo = SelectorMemo.enter();
         try {
-            Node controlNode = Convert.toNode(control, documentBuilderFactory);
-            Node testNode = Convert.toNode(test, documentBuilderFactory);
+            Node controlNode = Convert.toNode(control, documentBuilderPool);
+            Node testNode = Convert.toNode(test, documentBuilderPool);
+            if (forkJoinPool != null) {
+                // subtrees are read by multiple threads
+                Nodes.expand(controlNode);
+                Nodes.expand(testNode);
+            }
+            setNodeFilter(filterComments(nodeFilter,
+                                         control instanceof CommentFilteredSource ? controlNode : null,
+                                         test instanceof CommentFilteredSource ? testNode : null));
             compareNodes(controlNode, xpathContextFor(controlNode),
                          testNode, xpathContextFor(testNode));
         } catch (Exception ex) {
             throw new XMLUnitException("Caught exception during comparison",
                                        ex);
+        } finally {
+            setNodeFilter(nodeFilter);
+            subtreeHashes = null;
+            nameCache.clear();
+            SelectorMemo.leave(previousMemo);
         }
     }
 
+    /**
+     * Extends the node filter so it rejects the comments of the
+     * documents owning the given nodes.
+     *
+     * @param controlNode the control node if its comments are to be
+     * filtered, null otherwise
+     * @param testNode the test node if its comments are to be
+     * filtered, null otherwise
+     */
+    private static Predicate<Node> filterComments(final Predicate<Node> nodeFilter,
+                                                  Node controlNode, Node testNode) {
+        if (controlNode == null && testNode == null) {
+            return nodeFilter;
+        }
+        final Document controlDoc = ownerDocument(controlNode);
+        final Document testDoc = ownerDocument(testNode);
+        return new Predicate<Node>() {
+            @Override
+            public boolean test(Node n) {
+                if (n.getNodeType() == Node.COMMENT_NODE) {
+                    Document d = n.getOwnerDocument();
+                    if (d != null && (d == controlDoc || d == testDoc)) {
+                        return false;
+                    }
+                }
+                return nodeFilter.test(n);
+            }
+        };
+    }
+
+    private static Document ownerDocument(Node n) {
+        return n == null || n instanceof Document ? (Document) n : n.getOwnerDocument();
+    }
+
     private XPathContext xpathContextFor(Node n) {
         return new XPathContext(getNamespaceContext(), n);
     }
@@ -140,43 +351,168 @@ private XPathContext xpathContextFor(Node n) {
      */
     ComparisonState compareNodes(final Node control, final XPathContext controlContext,
                                  final Node test, final XPathContext testContext) {
-        final Iterable<Node> allControlChildren =
-            new IterableNodeList(Nodes.getChildNodes(control));
-        final Iterable<Node> controlChildren =
-            Linqy.filter(allControlChildren, getNodeFilter());
-        final Iterable<Node> allTestChildren =
-            new IterableNodeList(Nodes.getChildNodes(test));
-        final Iterable<Node> testChildren =
-            Linqy.filter(allTestChildren, getNodeFilter());
-        return compare(new Comparison(ComparisonType.NODE_TYPE,
-                                      controlContext, control, control.getNodeType(),
-                                      testContext, test, test.getNodeType()))
-            .andThen(new Comparison(ComparisonType.NAMESPACE_URI,
-                                    controlContext, control, control.getNamespaceURI(),
-                                    testContext, test, test.getNamespaceURI()))
-            .andThen(new Comparison(ComparisonType.NAMESPACE_PREFIX,
-                                    controlContext, control, control.getPrefix(),
-                                    testContext, test, test.getPrefix()))
+        if (isIdenticalSubtree(control, test)) {
+            return new OngoingComparisonState();
+        }
+        if (iterativeTraversal) {
+            return compareNodesIteratively(control, controlContext,
+                                           test, testContext);
+        }
+        final ChildNodes controlChildren = new ChildNodes(control, getNodeFilter());
+        final ChildNodes testChildren = new ChildNodes(test, getNodeFilter());
+        return compareNodeProperties(control, controlContext, controlChildren,
+                                     test, testContext, testChildren)
+            // and finally recurse into children
+            .andIfTrueThen(control.getNodeType() != Node.ATTRIBUTE_NODE,
+                           compareChildren(controlContext, controlChildren,
+                                           testContext, testChildren));
+    }
+
+    /**
+     * Whether the subtrees rooted at the given elements are known to
+     * be identical and don't need to be compared at all.
+     */
+    private boolean isIdenticalSubtree(Node control, Node test) {
+        if (!skipIdenticalSubtrees
+            || control.getNodeType() != Node.ELEMENT_NODE
+            || test.getNodeType() != Node.ELEMENT_NODE) {
+            return false;
+        }
+        if (subtreeHashes == null) {
+            subtreeHashes = new SubtreeHashes(getNodeFilter(), getAttributeFilter());
+        }
+        return subtreeHashes.haveEqualHashes(control, test);
+    }
+
+    /**
+     * Performs the comparisons common to all node types followed by
+     * the node type specific comparisons but doesn't look at the
+     * node's children.
+     */
+    private ComparisonState compareNodeProperties(final Node control,
+                                                  final XPathContext controlContext,
+                                                  final ChildNodes controlChildren,
+                                                  final Node test,
+                                                  final XPathContext testContext,
+                                                  final ChildNodes testChildren) {
+        return compare(ComparisonType.NODE_TYPE,
+                       controlContext, control, control.getNodeType(),
+                       testContext, test, test.getNodeType())
+            .andThen(ComparisonType.NAMESPACE_URI,
+                     controlContext, control, control.getNamespaceURI(),
+                     testContext, test, test.getNamespaceURI())
+            .andThen(ComparisonType.NAMESPACE_PREFIX,
+                     controlContext, control, control.getPrefix(),
+                     testContext, test, test.getPrefix())
             .andIfTrueThen(control.getNodeType() != Node.ATTRIBUTE_NODE,
-                           new Comparison(ComparisonType.CHILD_NODELIST_LENGTH,
-                                          controlContext, control,
-                                          Linqy.count(controlChildren),
-                                          testContext, test, Linqy.count(testChildren)))
+                           ComparisonType.CHILD_NODELIST_LENGTH,
+                           controlContext, control, controlChildren.acceptedCount(),
+                           testContext, test, testChildren.acceptedCount())
             .andThen(new DeferredComparison() {
                     @Override
                     public ComparisonState apply() {
                         return nodeTypeSpecificComparison(control, controlContext,
                                                           test, testContext);
                     }
-                })
-            // and finally recurse into children
-            .andIfTrueThen(control.getNodeType() != Node.ATTRIBUTE_NODE,
-                           compareChildren(controlContext,
-                                           allControlChildren,
-                                           controlChildren,
-                                           testContext,
-                                           allTestChildren,
-                                           testChildren));
+                });
+    }
+
+    /**
+     * Performs the comparisons common to all node types followed by
+     * the node type specific comparisons of two nodes whose children
+     * are unknown.
+     *
+     * <p>Used by {@link StAXDifferenceEngine} for the shallow nodes
+     * it creates for each pair of matched nodes.</p>
+     */
+    ComparisonState compareNodesWithoutChildren(final Node control,
+                                                final XPathContext controlContext,
+                                                final Node test,
+                                                final XPathContext testContext) {
+        return compare(ComparisonType.NODE_TYPE,
+                       controlContext, control, control.getNodeType(),
+                       testContext, test, test.getNodeType())
+            .andThen(ComparisonType.NAMESPACE_URI,
+                     controlContext, control, control.getNamespaceURI(),
+                     testContext, test, test.getNamespaceURI())
+            .andThen(ComparisonType.NAMESPACE_PREFIX,
+                     controlContext, control, control.getPrefix(),
+                     testContext, test, test.getPrefix())
+            .andThen(new DeferredComparison() {
+                    @Override
+                    public ComparisonState apply() {
+                        return nodeTypeSpecificComparison(control, controlContext,
+                                                          test, testContext);
+                    }
+                });
+    }
+
+    /**
+     * Compares two XML nodes just like the recursive variant but
+     * keeps track of the child lists still to compare in an explicit
+     * stack.
+     */
+    private ComparisonState compareNodesIteratively(Node control, XPathContext controlContext,
+                                                    Node test, XPathContext testContext) {
+        Deque<NodeListComparison> pending = new ArrayDeque<NodeListComparison>();
+        ComparisonState state = enterNodes(control, controlContext,
+                                           test, testContext, pending);
+        while (!state.isFinished() && !pending.isEmpty()) {
+            NodeListComparison current = pending.peek();
+            if (current.canCompareInParallel()) {
+                state = compareMatchesInParallel(current);
+                if (state.isFinished()) {
+                    break;
+                }
+            }
+            Map.Entry<Node, Node> pair = current.nextMatch();
+            if (pair != null) {
+                state = current.compareSequence();
+                if (state.isFinished()) {
+                    break;
+                }
+                int depth = pending.size();
+                state = enterNodes(pair.getKey(), controlContext,
+                                   pair.getValue(), testContext, pending);
+                if (pending.size() == depth) {
+                    current.leaveMatch();
+                }
+            } else {
+                state = current.unmatchedControlNodes().apply()
+                    .andThen(current.unmatchedTestNodes());
+                pending.pop();
+                if (!pending.isEmpty()) {
+                    pending.peek().leaveMatch();
+                }
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Compares the properties of two nodes and pushes the comparison
+     * of their children to the stack if needed.
+     */
+    private ComparisonState enterNodes(Node control, XPathContext controlContext,
+                                       Node test, XPathContext testContext,
+                                       Deque<NodeListComparison> pending) {
+        if (isIdenticalSubtree(control, test)) {
+            return new OngoingComparisonState();
+        }
+        ChildNodes controlChildren = new ChildNodes(control, getNodeFilter());
+        ChildNodes testChildren = new ChildNodes(test, getNodeFilter());
+        ComparisonState state =
+            compareNodeProperties(control, controlContext, controlChildren,
+                                  test, testContext, testChildren);
+        if (!state.isFinished() && control.getNodeType() != Node.ATTRIBUTE_NODE) {
+            controlContext
+                .setChildren(Linqy.map(controlChildren.all(), toNodeInfo));
+            testContext
+                .setChildren(Linqy.map(testChildren.all(), toNodeInfo));
+            pending.push(new NodeListComparison(controlChildren, controlContext,
+                                                testChildren, testContext));
+        }
+        return state;
     }
 
     /**
@@ -237,20 +573,18 @@ private ComparisonState nodeTypeSpecificComparison(Node control,
     }
 
     private DeferredComparison compareChildren(final XPathContext controlContext,
-                                               final Iterable<Node> allControlChildren,
-                                               final Iterable<Node> controlChildren,
+                                               final ChildNodes controlChildren,
                                                final XPathContext testContext,
-                                               final Iterable<Node> allTestChildren,
-                                               final Iterable<Node> testChildren) {
+                                               final ChildNodes testChildren) {
         return new DeferredComparison() {
             @Override
             public ComparisonState apply() {
                 controlContext
-                    .setChildren(Linqy.map(allControlChildren, ElementSelectors.TO_NODE_INFO));
+                    .setChildren(Linqy.map(controlChildren.all(), toNodeInfo));
                 testContext
-                    .setChildren(Linqy.map(allTestChildren, ElementSelectors.TO_NODE_INFO));
-                return compareNodeLists(allControlChildren, controlChildren, controlContext,
-                                        allTestChildren, testChildren, testContext);
+                    .setChildren(Linqy.map(testChildren.all(), toNodeInfo));
+                return compareNodeLists(controlChildren, controlContext,
+                                        testChildren, testContext);
             }
         };
     }
@@ -262,9 +596,9 @@ private ComparisonState compareCharacterData(CharacterData control,
                                                  XPathContext controlContext,
                                                  CharacterData test,
                                                  XPathContext testContext) {
-        return compare(new Comparison(ComparisonType.TEXT_VALUE,
-                                      controlContext, control, control.getData(),
-                                      testContext, test, test.getData()));
+        return compare(ComparisonType.TEXT_VALUE,
+                       controlContext, control, control.getData(),
+                       testContext, test, test.getData());
     }
 
     /**
@@ -277,10 +611,10 @@ private ComparisonState compareDocuments(final Document control,
         final DocumentType controlDt = filterNode(control.getDoctype());
         final DocumentType testDt = filterNode(test.getDoctype());
 
-        return compare(new Comparison(ComparisonType.HAS_DOCTYPE_DECLARATION,
-                                      controlContext, control,
-                                      Boolean.valueOf(controlDt != null),
-                                      testContext, test, Boolean.valueOf(testDt != null)))
+        return compare(ComparisonType.HAS_DOCTYPE_DECLARATION,
+                       controlContext, control,
+                       Boolean.valueOf(controlDt != null),
+                       testContext, test, Boolean.valueOf(testDt != null))
             .andIfTrueThen(controlDt != null && testDt != null,
                            new DeferredComparison() {
                                @Override
@@ -305,12 +639,12 @@ private <T extends Node> T filterNode(T n) {
                         XPathContext controlContext,
                         DocumentType test,
                         XPathContext testContext) {
-        return compare(new Comparison(ComparisonType.DOCTYPE_NAME,
-                                      controlContext, control, control.getName(),
-                                      testContext, test, test.getName()))
-            .andThen(new Comparison(ComparisonType.DOCTYPE_PUBLIC_ID,
-                                    controlContext, control, control.getPublicId(),
-                                    testContext, test, test.getPublicId()))
+        return compare(ComparisonType.DOCTYPE_NAME,
+                       controlContext, control, control.getName(),
+                       testContext, test, test.getName())
+            .andThen(ComparisonType.DOCTYPE_PUBLIC_ID,
+                     controlContext, control, control.getPublicId(),
+                     testContext, test, test.getPublicId())
             .andThen(new Comparison(ComparisonType.DOCTYPE_SYSTEM_ID,
                                     control, null, control.getSystemId(), null,
                                     test, null, test.getSystemId(), null));
@@ -327,15 +661,15 @@ private DeferredComparison compareDeclarations(final Document control,
             @Override
             public ComparisonState apply() {
                 return
-                    compare(new Comparison(ComparisonType.XML_VERSION,
-                                           controlContext, control, control.getXmlVersion(),
-                                           testContext, test, test.getXmlVersion()))
-                    .andThen(new Comparison(ComparisonType.XML_STANDALONE,
-                                            controlContext, control, control.getXmlStandalone(),
-                                            testContext, test, test.getXmlStandalone()))
-                    .andThen(new Comparison(ComparisonType.XML_ENCODING,
-                                            controlContext, control, control.getXmlEncoding(),
-                                            testContext, test, test.getXmlEncoding()));
+                    compare(ComparisonType.XML_VERSION,
+                            controlContext, control, control.getXmlVersion(),
+                            testContext, test, test.getXmlVersion())
+                    .andThen(ComparisonType.XML_STANDALONE,
+                             controlContext, control, control.getXmlStandalone(),
+                             testContext, test, test.getXmlStandalone())
+                    .andThen(ComparisonType.XML_ENCODING,
+                             controlContext, control, control.getXmlEncoding(),
+                             testContext, test, test.getXmlEncoding());
             }
         };
     }
@@ -349,9 +683,9 @@ private ComparisonState compareElements(final Element control,
                                             final Element test,
                                             final XPathContext testContext) {
         return
-            compare(new Comparison(ComparisonType.ELEMENT_TAG_NAME,
-                                   controlContext, control, Nodes.getQName(control).getLocalPart(),
-                                   testContext, test, Nodes.getQName(test).getLocalPart()))
+            compare(ComparisonType.ELEMENT_TAG_NAME,
+                    controlContext, control, nameCache.getQName(control).getLocalPart(),
+                    testContext, test, nameCache.getQName(test).getLocalPart())
             .andThen(new DeferredComparison() {
                     @Override
                     public ComparisonState apply() {
@@ -370,18 +704,16 @@ private ComparisonState compareElementAttributes(final Element control,
                                                      final XPathContext testContext) {
         final Attributes controlAttributes = splitAttributes(control.getAttributes());
         controlContext
-            .addAttributes(Linqy.map(controlAttributes.remainingAttributes,
-                                     QNAME_MAPPER));
+            .addAttributes(Arrays.asList(controlAttributes.remainingNames));
         final Attributes testAttributes = splitAttributes(test.getAttributes());
         testContext
-            .addAttributes(Linqy.map(testAttributes.remainingAttributes,
-                                     QNAME_MAPPER));
-
-        return compare(new Comparison(ComparisonType.ELEMENT_NUM_ATTRIBUTES,
-                                      controlContext, control,
-                                      controlAttributes.remainingAttributes.size(),
-                                      testContext, test,
-                                      testAttributes.remainingAttributes.size()))
+            .addAttributes(Arrays.asList(testAttributes.remainingNames));
+
+        return compare(ComparisonType.ELEMENT_NUM_ATTRIBUTES,
+                       controlContext, control,
+                       controlAttributes.remainingAttributes.size(),
+                       testContext, test,
+                       testAttributes.remainingAttributes.size())
             .andThen(new DeferredComparison() {
                     @Override
                     public ComparisonState apply() {
@@ -389,30 +721,29 @@ public ComparisonState apply() {
                                               testAttributes.type, testContext);
                     }
                 })
-            .andThen(new Comparison(ComparisonType.SCHEMA_LOCATION,
-                                    controlContext, control,
-                                    controlAttributes.schemaLocation != null
-                                    ? controlAttributes.schemaLocation.getValue() : null,
-                                    testContext, test,
-                                    testAttributes.schemaLocation != null
-                                    ? testAttributes.schemaLocation.getValue() : null))
+            .andThen(ComparisonType.SCHEMA_LOCATION,
+                     controlContext, control,
+                     controlAttributes.schemaLocation != null
+                     ? controlAttributes.schemaLocation.getValue() : null,
+                     testContext, test,
+                     testAttributes.schemaLocation != null
+                     ? testAttributes.schemaLocation.getValue() : null)
 //
-            .andThen(new Comparison(ComparisonType.NO_NAMESPACE_SCHEMA_LOCATION,
-                                    controlContext, control,
-                                    controlAttributes.noNamespaceSchemaLocation != null ?
-                                    controlAttributes.noNamespaceSchemaLocation.getValue()
-                                    : null,
-                                    testContext, test,
-                                    testAttributes.noNamespaceSchemaLocation != null
-                                    ? testAttributes.noNamespaceSchemaLocation.getValue()
-                                    : null))
+            .andThen(ComparisonType.NO_NAMESPACE_SCHEMA_LOCATION,
+                     controlContext, control,
+                     controlAttributes.noNamespaceSchemaLocation != null ?
+                     controlAttributes.noNamespaceSchemaLocation.getValue()
+                     : null,
+                     testContext, test,
+                     testAttributes.noNamespaceSchemaLocation != null
+                     ? testAttributes.noNamespaceSchemaLocation.getValue()
+                     : null)
             .andThen(new NormalAttributeComparer(control, controlContext,
                                                  controlAttributes, test,
                                                  testContext, testAttributes));
     }
 
     private class NormalAttributeComparer implements DeferredComparison {
-        private final Set<Attr> foundTestAttributes = new HashSet<Attr>();
         private final Element control, test;
         private final XPathContext controlContext, testContext;
         private final Attributes controlAttributes, testAttributes;
@@ -434,20 +765,21 @@ private NormalAttributeComparer(Element control,
         @Override
         public ComparisonState apply() {
             ComparisonState chain = new OngoingComparisonState();
-            for (final Attr controlAttr : controlAttributes.remainingAttributes) {
-                final QName controlAttrName = Nodes.getQName(controlAttr);
-                final Attr testAttr =
-                    findMatchingAttr(testAttributes.remainingAttributes,
-                                     controlAttr);
-                final QName testAttrName = testAttr != null
-                    ? Nodes.getQName(testAttr) : null;
+            final int controlSize = controlAttributes.remainingAttributes.size();
+            for (int i = 0; i < controlSize; i++) {
+                final Attr controlAttr = controlAttributes.remainingAttributes.get(i);
+                final QName controlAttrName = controlAttributes.remainingNames[i];
+                final int testIndex = testAttributes.match(controlAttrName);
+                final Attr testAttr = testIndex >= 0
+                    ? testAttributes.remainingAttributes.get(testIndex) : null;
+                final QName testAttrName = testIndex >= 0
+                    ? testAttributes.remainingNames[testIndex] : null;
 
                 controlContext.navigateToAttribute(controlAttrName);
                 try {
-                    chain = chain.andThen(
-                        new Comparison(ComparisonType.ATTR_NAME_LOOKUP,
-                                                controlContext, control, controlAttrName,
-                                                testContext, test, testAttrName));
+                    chain = chain.andThen(ComparisonType.ATTR_NAME_LOOKUP,
+                                          controlContext, control, controlAttrName,
+                                          testContext, test, testAttrName);
 
                     if (testAttr != null) {
                         testContext.navigateToAttribute(testAttrName);
@@ -459,7 +791,6 @@ public ComparisonState apply() {
                                                             testAttr, testContext);
                                     }
                                 });
-                            foundTestAttributes.add(testAttr);
                         } finally {
                             testContext.navigateToParent();
                         }
@@ -471,14 +802,12 @@ public ComparisonState apply() {
             return chain.andThen(new ControlAttributePresentComparer(control,
                                                                      controlContext,
                                                                      test, testContext,
-                                                                     testAttributes,
-                                                                     foundTestAttributes));
+                                                                     testAttributes));
         }
     }
 
     private class ControlAttributePresentComparer implements DeferredComparison {
 
-        private final Set<Attr> foundTestAttributes;
         private final Element control, test;
         private final XPathContext controlContext, testContext;
         private final Attributes testAttributes;
@@ -487,31 +816,29 @@ private ControlAttributePresentComparer(Element control,
                                                 XPathContext controlContext,
                                                 Element test,
                                                 XPathContext testContext,
-                                                Attributes testAttributes,
-                                                Set<Attr> foundTestAttributes) {
+                                                Attributes testAttributes) {
             this.control = control;
             this.controlContext = controlContext;
             this.test = test;
             this.testContext = testContext;
             this.testAttributes = testAttributes;
-            this.foundTestAttributes = foundTestAttributes;
         }
 
         @Override
         public ComparisonState apply() {
             ComparisonState chain = new OngoingComparisonState();
-            for (Attr testAttr : testAttributes.remainingAttributes) {
-                if (!foundTestAttributes.contains(testAttr)) {
-                    QName testAttrName = Nodes.getQName(testAttr);
-                    testContext.navigateToAttribute(testAttrName);
-                    try {
-                        chain =
-                            chain.andThen(new Comparison(ComparisonType.ATTR_NAME_LOOKUP,
-                                                         controlContext, control, null,
-                                                         testContext, test, testAttrName));
-                    } finally {
-                        testContext.navigateToParent();
-                    }
+            final int testSize = testAttributes.remainingAttributes.size();
+            for (int i = testAttributes.matched.nextClearBit(0); i < testSize;
+                 i = testAttributes.matched.nextClearBit(i + 1)) {
+                QName testAttrName = testAttributes.remainingNames[i];
+                testContext.navigateToAttribute(testAttrName);
+                try {
+                    chain =
+                        chain.andThen(ComparisonType.ATTR_NAME_LOOKUP,
+                                      controlContext, control, null,
+                                      testContext, test, testAttrName);
+                } finally {
+                    testContext.navigateToParent();
                 }
             }
             return chain;
@@ -526,12 +853,12 @@ private ComparisonState compareProcessingInstructions(ProcessingInstruction cont
                                                           XPathContext controlContext,
                                                           ProcessingInstruction test,
                                                           XPathContext testContext) {
-        return compare(new Comparison(ComparisonType.PROCESSING_INSTRUCTION_TARGET,
-                                      controlContext, control, control.getTarget(),
-                                      testContext, test, test.getTarget()))
-            .andThen(new Comparison(ComparisonType.PROCESSING_INSTRUCTION_DATA,
-                                    controlContext, control, control.getData(),
-                                    testContext, test, test.getData()));
+        return compare(ComparisonType.PROCESSING_INSTRUCTION_TARGET,
+                       controlContext, control, control.getTarget(),
+                       testContext, test, test.getTarget())
+            .andThen(ComparisonType.PROCESSING_INSTRUCTION_DATA,
+                     controlContext, control, control.getData(),
+                     testContext, test, test.getData());
     }
 
     /**
@@ -540,100 +867,326 @@ private ComparisonState compareProcessingInstructions(ProcessingInstruction cont
      * <p>Also performs CHILD_LOOKUP comparisons for each node that
      * couldn't be matched to one of the "other" list.</p>
      */
-    private ComparisonState compareNodeLists(Iterable<Node> allControlChildren,
-                                             Iterable<Node> controlSeq,
+    private ComparisonState compareNodeLists(ChildNodes controlChildren,
                                              final XPathContext controlContext,
-                                             Iterable<Node> allTestChildren,
-                                             Iterable<Node> testSeq,
+                                             ChildNodes testChildren,
                                              final XPathContext testContext) {
         ComparisonState chain = new OngoingComparisonState();
 
-        Iterable<Map.Entry<Node, Node>> matches =
-            getNodeMatcher().match(controlSeq, testSeq);
-        List<Node> controlList = Linqy.asList(controlSeq);
-        List<Node> testList = Linqy.asList(testSeq);
-
-        final Map<Node, Integer> controlListForXpathIndex = index(allControlChildren);
-        final Map<Node, Integer> testListForXpathIndex = index(allTestChildren);
-        final Map<Node, Integer> controlListIndex = index(controlList);
-        final Map<Node, Integer> testListIndex = index(testList);
-
-        Set<Node> seen = new HashSet<Node>();
-        for (Map.Entry<Node, Node> pair : matches) {
-            final Node control = pair.getKey();
-            seen.add(control);
-            final Node test = pair.getValue();
-            seen.add(test);
-            Integer controlIndexForXpath = controlListForXpathIndex.get(control);
-            Integer testIndexForXpath = testListForXpathIndex.get(test);
-            Integer controlIndex = controlListIndex.get(control);
-            Integer testIndex = testListIndex.get(test);
-            if (controlIndexForXpath == null || testIndexForXpath == null
-                || controlIndex == null || testIndex == null) {
-                throw new NullPointerException("failed to look up index for pair " + pair);
+        NodeListComparison lists =
+            new NodeListComparison(controlChildren, controlContext,
+                                   testChildren, testContext);
+        if (lists.canCompareInParallel()) {
+            chain = compareMatchesInParallel(lists);
+        }
+        Map.Entry<Node, Node> pair;
+        while (!chain.isFinished() && (pair = lists.nextMatch()) != null) {
+            try {
+                chain = lists.compareSequence();
+                if (!chain.isFinished()) {
+                    chain = compareNodes(pair.getKey(), controlContext,
+                                         pair.getValue(), testContext);
+                }
+            } finally {
+                lists.leaveMatch();
             }
+        }
+
+        return chain.andThen(lists.unmatchedControlNodes())
+            .andThen(lists.unmatchedTestNodes());
+    }
 
-            controlContext.navigateToChild(controlIndexForXpath);
-            testContext.navigateToChild(testIndexForXpath);
+    /**
+     * Compares all matched pairs of nodes - and their subtrees - in
+     * parallel and notifies the listeners of all comparisons in
+     * order.
+     */
+    private ComparisonState compareMatchesInParallel(NodeListComparison lists) {
+        final int window = 4 * forkJoinPool.getParallelism();
+        final AtomicInteger firstFinished = new AtomicInteger(Integer.MAX_VALUE);
+        final Deque<SubtreeComparison> inFlight = new ArrayDeque<SubtreeComparison>();
+        ComparisonState state = new OngoingComparisonState();
+        int index = 0;
+        boolean moreMatches = true;
+        try {
+            while (true) {
+                while (moreMatches && inFlight.size() < window) {
+                    Map.Entry<Node, Node> pair = lists.nextMatch();
+                    if (pair == null) {
+                        moreMatches = false;
+                        break;
+                    }
+                    try {
+                        SubtreeComparison task =
+                            new SubtreeComparison(index++, firstFinished, lists.sequenceComparison(),
+                                                  pair.getKey(), lists.controlContext.detach(),
+                                                  pair.getValue(), lists.testContext.detach());
+                        inFlight.add(task);
+                        forkJoinPool.execute(task);
+                    } finally {
+                        lists.leaveMatch();
+                    }
+                }
+                SubtreeComparison next = inFlight.poll();
+                if (next == null) {
+                    return state;
+                }
+                ComparisonState result = next.join();
+                for (Difference d : next.recorded) {
+                    fireComparisonPerformed(d.getComparison(), d.getResult());
+                }
+                if (result.isFinished()) {
+                    return new FinishedComparisonState(result.getResult());
+                }
+                state = new OngoingComparisonState(result.getResult());
+            }
+        } finally {
+            firstFinished.set(-1);
+            for (SubtreeComparison task : inFlight) {
+                task.cancel(false);
+                task.quietlyJoin();
+            }
+        }
+    }
+
+    /**
+     * Compares a pair of matched nodes and their subtrees using a
+     * separate engine that records all comparisons.
+     */
+    private class SubtreeComparison extends RecursiveTask<ComparisonState> {
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        private final AtomicInteger firstFinished;
+        private final Comparison sequenceComparison;
+        private final Node control, test;
+        private final XPathContext controlContext, testContext;
+        private final OutcomeRecorder recorded = new OutcomeRecorder(this);
+
+        private SubtreeComparison(int index, AtomicInteger firstFinished,
+                                  Comparison sequenceComparison,
+                                  Node control, XPathContext controlContext,
+                                  Node test, XPathContext testContext) {
+            this.index = index;
+            this.firstFinished = firstFinished;
+            this.sequenceComparison = sequenceComparison;
+            this.control = control;
+            this.controlContext = controlContext;
+            this.test = test;
+            this.testContext = testContext;
+        }
+
+        @Override
+        protected ComparisonState compute() {
+            DOMDifferenceEngine worker = new DOMDifferenceEngine(documentBuilderFactory);
+            worker.isSubtreeWorker = true;
+            worker.iterativeTraversal = iterativeTraversal;
+            worker.skipIdenticalSubtrees = skipIdenticalSubtrees;
+            worker.skippedComparisonTypes = skippedComparisonTypes;
+            worker.setNodeMatcher(getNodeMatcher());
+            worker.setDifferenceEvaluator(getDifferenceEvaluator());
+            worker.setComparisonController(getComparisonController());
+            worker.setAttributeFilter(getAttributeFilter());
+            worker.setNodeFilter(getNodeFilter());
+            worker.addDifferenceListener(recorded);
+            if (hasEqualOutcomeListeners()) {
+                worker.addMatchListener(recorded);
+            }
+            ComparisonState state;
+            SelectorMemo previousMemo = SelectorMemo.enter();
             try {
-                chain =
-                    chain.andThen(new Comparison(ComparisonType.CHILD_NODELIST_SEQUENCE,
-                                                 controlContext, control, Integer.valueOf(controlIndex),
-                                                 testContext, test, Integer.valueOf(testIndex)))
-                    .andThen(new DeferredComparison() {
-                            @Override
-                            public ComparisonState apply() {
-                                return compareNodes(control, controlContext,
-                                                    test, testContext);
-                            }
-                        });
+                state = worker.compare(sequenceComparison);
+                if (!state.isFinished()) {
+                    state = worker.compareNodes(control, controlContext, test, testContext);
+                }
             } finally {
-                testContext.navigateToParent();
-                controlContext.navigateToParent();
+                SelectorMemo.leave(previousMemo);
+            }
+            if (state.isFinished()) {
+                int current = firstFinished.get();
+                while (index < current && !firstFinished.compareAndSet(current, index)) {
+                    current = firstFinished.get();
+                }
+            }
+            return state;
+        }
+
+    }
+
+    /**
+     * Keeps the outcomes of a subtree comparison until the listeners
+     * of the engine can be notified.
+     *
+     * <p>Only registered for outcomes of {@link
+     * ComparisonResult#EQUAL} if the engine has listeners interested
+     * in them so the worker can still skip equal comparisons
+     * otherwise.</p>
+     */
+    private static final class OutcomeRecorder implements ComparisonListener, Iterable<Difference> {
+        private final SubtreeComparison task;
+        private final List<Difference> outcomes = new ArrayList<Difference>();
+
+        private OutcomeRecorder(SubtreeComparison task) {
+            this.task = task;
+        }
+
+        @Override
+        public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+            if (task.index > task.firstFinished.get()) {
+                // a subtree before this one has stopped the comparison
+                throw new CancellationException();
             }
+            outcomes.add(new Difference(comparison, outcome));
         }
 
-        return chain.andThen(new UnmatchedControlNodes(controlListForXpathIndex, controlList,
-                controlContext, seen, testContext))
-            .andThen(new UnmatchedTestNodes(testListForXpathIndex, testList,
-                testContext, seen, controlContext));
+        @Override
+        public Iterator<Difference> iterator() {
+            return outcomes.iterator();
+        }
+    }
+
+    /**
+     * State of the comparison of two lists of child nodes.
+     *
+     * <p>Matches the nodes and steps through the matched pairs
+     * keeping the XPathContexts in sync.</p>
+     */
+    private class NodeListComparison {
+        private final XPathContext controlContext, testContext;
+        private final List<Map.Entry<Node, Node>> matchList;
+        private final Iterator<Map.Entry<Node, Node>> matches;
+        private final ChildNodes controlChildren, testChildren;
+        private final BitSet matchedControlChildren, matchedTestChildren;
+        private Node currentControl, currentTest;
+        private int currentControlIndex = -1, currentTestIndex = -1;
+
+        private NodeListComparison(ChildNodes controlChildren,
+                                   XPathContext controlContext,
+                                   ChildNodes testChildren,
+                                   XPathContext testContext) {
+            this.controlContext = controlContext;
+            this.testContext = testContext;
+            this.controlChildren = controlChildren;
+            this.testChildren = testChildren;
+            matchedControlChildren = new BitSet(controlChildren.acceptedCount());
+            matchedTestChildren = new BitSet(testChildren.acceptedCount());
+            Iterable<Map.Entry<Node, Node>> m =
+                getNodeMatcher().match(controlChildren.accepted(), testChildren.accepted());
+            matchList = forkJoinPool != null && !isSubtreeWorker ? Linqy.asList(m) : null;
+            matches = matchList != null ? matchList.iterator() : m.iterator();
+        }
+
+        /**
+         * Whether there are enough matched pairs to justify comparing
+         * them in parallel.
+         */
+        private boolean canCompareInParallel() {
+            return matchList != null && matchList.size() > 1;
+        }
+
+        /**
+         * Navigates both XPathContexts to the next pair of matched
+         * nodes and returns it - or returns null if there are no more
+         * pairs.
+         */
+        private Map.Entry<Node, Node> nextMatch() {
+            if (!matches.hasNext()) {
+                return null;
+            }
+            Map.Entry<Node, Node> pair = matches.next();
+            currentControl = pair.getKey();
+            currentTest = pair.getValue();
+            // most NodeMatchers return the pairs in document order
+            int controlIndex = controlChildren.indexOf(currentControl, currentControlIndex + 1);
+            int testIndex = testChildren.indexOf(currentTest, currentTestIndex + 1);
+            if (controlIndex < 0 || testIndex < 0) {
+                throw new NullPointerException("failed to look up index for pair " + pair);
+            }
+            currentControlIndex = controlIndex;
+            currentTestIndex = testIndex;
+            matchedControlChildren.set(controlIndex);
+            matchedTestChildren.set(testIndex);
+
+            controlContext.navigateToChild(controlChildren.positionInAll(controlIndex));
+            testContext.navigateToChild(testChildren.positionInAll(testIndex));
+            return pair;
+        }
+
+        /**
+         * Compares the positions of the current pair of nodes without
+         * creating the Comparison if nobody is interested in it.
+         */
+        private ComparisonState compareSequence() {
+            if (isSkipped(ComparisonType.CHILD_NODELIST_SEQUENCE)
+                || (currentControlIndex == currentTestIndex
+                    && canSkipEqualComparisons(ComparisonType.CHILD_NODELIST_SEQUENCE))) {
+                return ongoingEqual();
+            }
+            return compare(sequenceComparison());
+        }
+
+        /**
+         * Compares the positions of the current pair of nodes.
+         */
+        private Comparison sequenceComparison() {
+            return new Comparison(ComparisonType.CHILD_NODELIST_SEQUENCE,
+                                  controlContext, currentControl,
+                                  Integer.valueOf(currentControlIndex),
+                                  testContext, currentTest,
+                                  Integer.valueOf(currentTestIndex));
+        }
+
+        /**
+         * Navigates both XPathContexts back to the parents of the
+         * current pair of nodes.
+         */
+        private void leaveMatch() {
+            testContext.navigateToParent();
+            controlContext.navigateToParent();
+        }
+
+        private DeferredComparison unmatchedControlNodes() {
+            return new UnmatchedControlNodes(controlChildren, matchedControlChildren,
+                                             controlContext, testContext);
+        }
+
+        private DeferredComparison unmatchedTestNodes() {
+            return new UnmatchedTestNodes(testChildren, matchedTestChildren,
+                                          testContext, controlContext);
+        }
     }
 
     private class UnmatchedControlNodes implements DeferredComparison {
-        private final Map<Node, Integer> controlListForXpathIndex;
-        private final List<Node> controlList;
+        private final ChildNodes controlChildren;
+        private final BitSet matched;
         private final XPathContext controlContext;
-        private final Set<Node> seen;
         private final XPathContext testContext;
 
-        private UnmatchedControlNodes(Map<Node, Integer> controlListForXpathIndex,
-                                      List<Node> controlList,
+        private UnmatchedControlNodes(ChildNodes controlChildren, BitSet matched,
                                       XPathContext controlContext,
-                                      Set<Node> seen, XPathContext testContext) {
-            this.controlListForXpathIndex = controlListForXpathIndex;
-            this.controlList = controlList;
+                                      XPathContext testContext) {
+            this.controlChildren = controlChildren;
+            this.matched = matched;
             this.controlContext = controlContext;
-            this.seen = seen;
             this.testContext = testContext;
         }
 
         @Override
         public ComparisonState apply() {
             ComparisonState chain = new OngoingComparisonState();
-            final int controlSize = controlList.size();
-            for (int i = 0; i < controlSize; i++) {
-                if (!seen.contains(controlList.get(i))) {
-                    controlContext.navigateToChild(controlListForXpathIndex.get(controlList.get(i)));
-                    try {
-                        chain =
-                            chain.andThen(new Comparison(ComparisonType.CHILD_LOOKUP,
-                                                         controlList.get(i),
-                                                         getXPath(controlContext),
-                                                         Nodes.getQName(controlList.get(i)), getParentXPath(controlContext),
-                                                         null, null, null, getXPath(testContext)));
-                    } finally {
-                        controlContext.navigateToParent();
-                    }
+            final int controlSize = controlChildren.acceptedCount();
+            final List<Node> controlList = controlChildren.accepted();
+            for (int i = matched.nextClearBit(0); i < controlSize; i = matched.nextClearBit(i + 1)) {
+                Node control = controlList.get(i);
+                controlContext.navigateToChild(controlChildren.positionInAll(i));
+                try {
+                    chain =
+                        chain.andThen(new Comparison(ComparisonType.CHILD_LOOKUP,
+                                                     Comparison.Detail.of(control, controlContext,
+                                                                          nameCache.getQName(control)),
+                                                     Comparison.Detail.absentChildOf(testContext)));
+                } finally {
+                    controlContext.navigateToParent();
                 }
             }
             return chain;
@@ -641,39 +1194,36 @@ public ComparisonState apply() {
     }
 
     private class UnmatchedTestNodes implements DeferredComparison {
-        private final Map<Node, Integer> testListForXpathIndex;
-        private final List<Node> testList;
+        private final ChildNodes testChildren;
+        private final BitSet matched;
         private final XPathContext testContext;
-        private final Set<Node> seen;
         private final XPathContext controlContext;
 
-        private UnmatchedTestNodes(Map<Node, Integer> testListForXpathIndex,
-                                   List<Node> testList, XPathContext testContext,
-                                   Set<Node> seen, XPathContext controlContext) {
-            this.testListForXpathIndex = testListForXpathIndex;
-            this.testList = testList;
+        private UnmatchedTestNodes(ChildNodes testChildren, BitSet matched,
+                                   XPathContext testContext,
+                                   XPathContext controlContext) {
+            this.testChildren = testChildren;
+            this.matched = matched;
             this.testContext = testContext;
-            this.seen = seen;
             this.controlContext = controlContext;
         }
 
         @Override
         public ComparisonState apply() {
             ComparisonState chain = new OngoingComparisonState();
-            final int testSize = testList.size();
-            for (int i = 0; i < testSize; i++) {
-                if (!seen.contains(testList.get(i))) {
-                    testContext.navigateToChild(testListForXpathIndex.get(testList.get(i)));
-                    try {
-                        chain =
-                            chain.andThen(new Comparison(ComparisonType.CHILD_LOOKUP,
-                                                         null, null, null, getXPath(controlContext),
-                                                         testList.get(i),
-                                                         getXPath(testContext),
-                                                         Nodes.getQName(testList.get(i)), getParentXPath(testContext)));
-                    } finally {
-                        testContext.navigateToParent();
-                    }
+            final int testSize = testChildren.acceptedCount();
+            final List<Node> testList = testChildren.accepted();
+            for (int i = matched.nextClearBit(0); i < testSize; i = matched.nextClearBit(i + 1)) {
+                Node test = testList.get(i);
+                testContext.navigateToChild(testChildren.positionInAll(i));
+                try {
+                    chain =
+                        chain.andThen(new Comparison(ComparisonType.CHILD_LOOKUP,
+                                                     Comparison.Detail.absentChildOf(controlContext),
+                                                     Comparison.Detail.of(test, testContext,
+                                                                          nameCache.getQName(test))));
+                } finally {
+                    testContext.navigateToParent();
                 }
             }
             return chain;
@@ -698,27 +1248,27 @@ private ComparisonState compareXsiType(Attr controlAttr,
         try {
             QName controlAttrName = null;
             if (mustChangeControlContext) {
-                controlAttrName = Nodes.getQName(controlAttr);
+                controlAttrName = nameCache.getQName(controlAttr);
                 controlContext.addAttribute(controlAttrName);
                 controlContext.navigateToAttribute(controlAttrName);
             }
             QName testAttrName = null;
             if (mustChangeTestContext) {
-                testAttrName = Nodes.getQName(testAttr);
+                testAttrName = nameCache.getQName(testAttr);
                 testContext.addAttribute(testAttrName);
                 testContext.navigateToAttribute(testAttrName);
             }
             return
-                compare(new Comparison(ComparisonType.ATTR_NAME_LOOKUP,
-                                       controlContext, controlAttr, controlAttrName,
-                                       testContext, testAttr, testAttrName))
+                compare(ComparisonType.ATTR_NAME_LOOKUP,
+                        controlContext, controlAttr, controlAttrName,
+                        testContext, testAttr, testAttrName)
                 .andIfTrueThen(attributePresentOnBothSides,
                                compareAttributeExplicitness(controlAttr, controlContext,
                                                             testAttr, testContext))
                 .andIfTrueThen(attributePresentOnBothSides,
-                               new Comparison(ComparisonType.ATTR_VALUE,
-                                              controlContext, controlAttr, valueAsQName(controlAttr),
-                                              testContext, testAttr, valueAsQName(testAttr)));
+                               ComparisonType.ATTR_VALUE,
+                               controlContext, controlAttr, valueAsQName(controlAttr),
+                               testContext, testAttr, valueAsQName(testAttr));
         } finally {
             if (mustChangeControlContext) {
                 controlContext.navigateToParent();
@@ -738,9 +1288,9 @@ private ComparisonState compareAttributes(Attr control,
                                               XPathContext testContext) {
         return compareAttributeExplicitness(control, controlContext, test,
                                             testContext).apply()
-            .andThen(new Comparison(ComparisonType.ATTR_VALUE,
-                                    controlContext, control, control.getValue(),
-                                    testContext, test, test.getValue()));
+            .andThen(ComparisonType.ATTR_VALUE,
+                     controlContext, control, control.getValue(),
+                     testContext, test, test.getValue());
     }
 
     /**
@@ -753,9 +1303,9 @@ private DeferredComparison compareAttributeExplicitness(final Attr control,
         return new DeferredComparison() {
             @Override
             public ComparisonState apply() {
-                return compare(new Comparison(ComparisonType.ATTR_VALUE_EXPLICITLY_SPECIFIED,
-                                              controlContext, control, control.getSpecified(),
-                                              testContext, test, test.getSpecified()));
+                return compare(ComparisonType.ATTR_VALUE_EXPLICITLY_SPECIFIED,
+                               controlContext, control, control.getSpecified(),
+                               testContext, test, test.getSpecified());
             }
         };
     }
@@ -773,8 +1323,8 @@ private Attributes splitAttributes(final NamedNodeMap map) {
         Attr type = (Attr) map.getNamedItemNS(XMLConstants
                                                 .W3C_XML_SCHEMA_INSTANCE_NS_URI,
                                                 "type");
-        List<Attr> rest = new LinkedList<Attr>();
         final int len = map.getLength();
+        List<Attr> rest = new ArrayList<Attr>(len);
         for (int i = 0; i < len; i++) {
             Attr a = (Attr) map.item(i);
             if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(a.getNamespaceURI())
@@ -783,10 +1333,10 @@ && getAttributeFilter().test(a)) {
                 rest.add(a);
             }
         }
-        return new Attributes(sLoc, nNsLoc, type, rest);
+        return new Attributes(sLoc, nNsLoc, type, rest, nameCache);
     }
 
-    private static QName valueAsQName(Attr attribute) {
+    static QName valueAsQName(Attr attribute) {
         if (attribute == null) {
             return null;
         }
@@ -809,50 +1359,66 @@ private static QName valueAsQName(Attr attribute) {
     }
 
     private static class Attributes {
+        /**
+         * Up to this number of attributes a linear search is cheaper
+         * than building an index.
+         */
+        private static final int LINEAR_SEARCH_LIMIT = 8;
+
         private final Attr schemaLocation;
         private final Attr noNamespaceSchemaLocation;
         private final Attr type;
         private final List<Attr> remainingAttributes;
+        private final QName[] remainingNames;
+        private final BitSet matched;
+        private Map<QName, Integer> index;
+
         private Attributes(Attr schemaLocation, Attr noNamespaceSchemaLocation,
-                           Attr type, List<Attr> remainingAttributes) {
+                           Attr type, List<Attr> remainingAttributes,
+                           NameCache nameCache) {
             this.schemaLocation = schemaLocation;
             this.noNamespaceSchemaLocation = noNamespaceSchemaLocation;
             this.type = type;
             this.remainingAttributes = remainingAttributes;
+            final int size = remainingAttributes.size();
+            remainingNames = new QName[size];
+            for (int i = 0; i < size; i++) {
+                remainingNames[i] = nameCache.getQName(remainingAttributes.get(i));
+            }
+            matched = new BitSet(size);
         }
-    }
 
-    /**
-     * Find the attribute with the same namespace and local name as a
-     * given attribute in a list of attributes.
-     */
-    private static Attr findMatchingAttr(final List<Attr> attrs,
-                                         final Attr attrToMatch) {
-        final boolean hasNs = attrToMatch.getNamespaceURI() != null;
-        final String nsToMatch = attrToMatch.getNamespaceURI();
-        final String nameToMatch = hasNs ? attrToMatch.getLocalName()
-            : attrToMatch.getName();
-        for (Attr a : attrs) {
-            if (((!hasNs && a.getNamespaceURI() == null)
-                 ||
-                 (hasNs && nsToMatch.equals(a.getNamespaceURI())))
-                &&
-                ((hasNs && nameToMatch.equals(a.getLocalName()))
-                 ||
-                 (!hasNs && nameToMatch.equals(a.getName())))
-                ) {
-                return a;
+        /**
+         * Finds the attribute with the same namespace URI and local
+         * name - or the same name for attributes without namespace -
+         * marks it as matched and returns its index or -1 if there is
+         * no such attribute.
+         */
+        private int match(QName name) {
+            int i = indexOf(name);
+            if (i >= 0) {
+                matched.set(i);
             }
+            return i;
         }
-        return null;
-    }
 
-    private static Map<Node, Integer> index(final Iterable<Node> nodes) {
-        Map<Node, Integer> indices = new HashMap<Node, Integer>();
-        int idx = 0;
-        for (Node n : nodes) {
-            indices.put(n, idx++);
+        private int indexOf(QName name) {
+            if (remainingNames.length <= LINEAR_SEARCH_LIMIT) {
+                for (int i = 0; i < remainingNames.length; i++) {
+                    if (remainingNames[i].equals(name)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            if (index == null) {
+                index = new HashMap<QName, Integer>(2 * remainingNames.length);
+                for (int i = remainingNames.length - 1; i >= 0; i--) {
+                    index.put(remainingNames[i], Integer.valueOf(i));
+                }
+            }
+            Integer i = index.get(name);
+            return i == null ? -1 : i.intValue();
         }
-        return Collections.unmodifiableMap(indices);
     }
 }
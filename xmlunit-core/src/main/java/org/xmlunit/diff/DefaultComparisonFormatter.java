@@ -15,6 +15,7 @@
 package org.xmlunit.diff;
 
 import org.xmlunit.diff.Comparison.Detail;
+import org.xmlunit.util.JAXPFactories;
 import org.xmlunit.util.TransformerFactoryConfigurer;
 
 import org.w3c.dom.Attr;
@@ -36,12 +37,19 @@
 import javax.xml.transform.stream.StreamResult;
 
 import java.io.StringWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Formatter methods for a {@link Comparison} Object.
  */
 public class DefaultComparisonFormatter implements ComparisonFormatter {
 
+    // one configurer per indentation so factories configured by them
+    // can be cached by JAXPFactories
+    private static final ConcurrentMap<Integer, TransformerFactoryConfigurer> CONFIGURERS =
+        new ConcurrentHashMap<Integer, TransformerFactoryConfigurer>();
+
     private TransformerFactory factory;
 
     /**
@@ -458,6 +466,27 @@ protected String getFormattedNodeXml(final Node nodeToConvert, boolean formatXml
         return formattedNodeXml;
     }
 
+    private static TransformerFactoryConfigurer transformerFactoryConfigurer(int numberOfBlanksToIndent) {
+        Integer key = Integer.valueOf(numberOfBlanksToIndent);
+        TransformerFactoryConfigurer c = CONFIGURERS.get(key);
+        if (c == null) {
+            TransformerFactoryConfigurer.Builder b = TransformerFactoryConfigurer.builder()
+                .withExternalStylesheetLoadingDisabled()
+                .withDTDLoadingDisabled();
+
+            if (numberOfBlanksToIndent >= 0) {
+                // not all TransformerFactories support this feature
+                b = b.withSafeAttribute("indent-number", numberOfBlanksToIndent);
+            }
+            c = b.build();
+            TransformerFactoryConfigurer existing = CONFIGURERS.putIfAbsent(key, c);
+            if (existing != null) {
+                c = existing;
+            }
+        }
+        return c;
+    }
+
     /**
      * Create a default Transformer to format a XML-Node to a String.
      *
@@ -470,15 +499,7 @@ protected String getFormattedNodeXml(final Node nodeToConvert, boolean formatXml
     protected Transformer createXmlTransformer(int numberOfBlanksToIndent) throws TransformerConfigurationException {
         TransformerFactory fac = factory;
         if (fac == null) {
-            TransformerFactoryConfigurer.Builder b = TransformerFactoryConfigurer.builder()
-                .withExternalStylesheetLoadingDisabled()
-                .withDTDLoadingDisabled();
-
-            if (numberOfBlanksToIndent >= 0) {
-                // not all TransformerFactories support this feature
-                b = b.withSafeAttribute("indent-number", numberOfBlanksToIndent);
-            }
-            fac = b.build().configure(TransformerFactory.newInstance());
+            fac = JAXPFactories.getTransformerFactory(transformerFactoryConfigurer(numberOfBlanksToIndent));
         }
         final Transformer transformer = fac.newTransformer();
         transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
@@ -13,9 +13,14 @@
 */
 package org.xmlunit.diff;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.LinkedHashMap;
 import javax.xml.namespace.QName;
+import org.xmlunit.util.Nodes;
 import org.xmlunit.util.Predicate;
 import org.w3c.dom.Element;
 
@@ -26,6 +31,9 @@
     private ElementSelector defaultSelector;
     private final Map<Predicate<? super Element>, ElementSelector> conditionalSelectors =
         new LinkedHashMap<Predicate<? super Element>, ElementSelector>();
+    // String or QName for predicates created by whenElementIsNamed
+    private final Map<Predicate<? super Element>, Object> expectedNames =
+        new IdentityHashMap<Predicate<? super Element>, Object>();
     private Predicate<? super Element> pendingCondition;
 
     @Override
@@ -55,43 +63,110 @@ public ElementSelectors.ConditionalSelectorBuilder elseUse(ElementSelector es) {
     }
     @Override
     public ElementSelectors.ConditionalSelectorBuilderThen whenElementIsNamed(String expectedName) {
-        return when(ElementSelectors.elementNamePredicate(expectedName));
+        return whenElementIsNamed(ElementSelectors.elementNamePredicate(expectedName), expectedName);
     }
     @Override
     public ElementSelectors.ConditionalSelectorBuilderThen whenElementIsNamed(QName expectedName) {
-        return when(ElementSelectors.elementNamePredicate(expectedName));
+        return whenElementIsNamed(ElementSelectors.elementNamePredicate(expectedName), expectedName);
+    }
+    private ElementSelectors.ConditionalSelectorBuilderThen
+        whenElementIsNamed(Predicate<Element> predicate, Object expectedName) {
+        ElementSelectors.ConditionalSelectorBuilderThen then = when(predicate);
+        expectedNames.put(predicate, expectedName);
+        return then;
     }
     @Override
     public ElementSelector build() {
         if (pendingCondition != null) {
             throw new IllegalStateException("unbalanced conditions");
         }
-        return new ConditionalSelector(conditionalSelectors, defaultSelector);
+        return new ConditionalSelector(conditionalSelectors, expectedNames, defaultSelector);
     }
 
+    /**
+     * Uses the selector of the first condition that holds true.
+     *
+     * <p>Conditions on element names are looked up in hash tables
+     * keyed by name, only the remaining predicates are tested one by
+     * one - and only those that have been added before the first name
+     * condition that holds true.</p>
+     */
     private static class ConditionalSelector implements ElementSelector {
-        private final Map<Predicate<? super Element>, ElementSelector> conditionalSelectors;
+        private final ElementSelector[] selectors;
+        private final Map<String, Integer> byLocalName = new HashMap<String, Integer>();
+        private final Map<QName, Integer> byQName = new HashMap<QName, Integer>();
+        private final List<Predicate<? super Element>> predicates =
+            new ArrayList<Predicate<? super Element>>();
+        private final List<Integer> predicateIndexes = new ArrayList<Integer>();
         private final ElementSelector defaultSelector;
 
         private ConditionalSelector(Map<Predicate<? super Element>, ElementSelector> conditionalSelectors,
+                                    Map<Predicate<? super Element>, Object> expectedNames,
                                     ElementSelector defaultSelector) {
-            this.conditionalSelectors = new LinkedHashMap<Predicate<? super Element>, ElementSelector>(conditionalSelectors);
+            selectors = new ElementSelector[conditionalSelectors.size()];
+            int index = 0;
+            for (Map.Entry<Predicate<? super Element>, ElementSelector> e : conditionalSelectors.entrySet()) {
+                selectors[index] = e.getValue();
+                Object name = expectedNames.get(e.getKey());
+                if (name instanceof String) {
+                    addIfAbsent(byLocalName, (String) name, index);
+                } else if (name instanceof QName) {
+                    addIfAbsent(byQName, (QName) name, index);
+                } else {
+                    predicates.add(e.getKey());
+                    predicateIndexes.add(index);
+                }
+                index++;
+            }
             this.defaultSelector = defaultSelector;
         }
 
+        private static <K> void addIfAbsent(Map<K, Integer> m, K key, int index) {
+            // a later condition for the same name can never win
+            if (!m.containsKey(key)) {
+                m.put(key, index);
+            }
+        }
+
         @Override
         public boolean canBeCompared(Element controlElement,
                                      Element testElement) {
-            for (Map.Entry<Predicate<? super Element>, ElementSelector> e : conditionalSelectors.entrySet()) {
-                if (e.getKey().test(controlElement)) {
-                    return e.getValue().canBeCompared(controlElement, testElement);
+            int index = indexOfFirstMatchingName(controlElement);
+            final int predicateCount = predicates.size();
+            for (int i = 0; i < predicateCount && predicateIndexes.get(i) < index; i++) {
+                if (predicates.get(i).test(controlElement)) {
+                    index = predicateIndexes.get(i);
+                    break;
                 }
             }
+            if (index < selectors.length) {
+                return selectors[index].canBeCompared(controlElement, testElement);
+            }
             if (defaultSelector != null) {
                 return defaultSelector.canBeCompared(controlElement, testElement);
             }
             return false;
         }
+
+        private int indexOfFirstMatchingName(Element e) {
+            int index = selectors.length;
+            if (e == null) {
+                return index;
+            }
+            if (!byLocalName.isEmpty()) {
+                String name = e.getLocalName();
+                Integer i = byLocalName.get(name != null ? name : e.getNodeName());
+                if (i != null) {
+                    index = i;
+                }
+            }
+            if (!byQName.isEmpty()) {
+                Integer i = byQName.get(Nodes.getQName(e));
+                if (i != null && i < index) {
+                    index = i;
+                }
+            }
+            return index;
+        }
     }
 }
-
@@ -13,11 +13,12 @@
 */
 package org.xmlunit.diff;
 
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import org.xmlunit.util.Linqy;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -49,6 +50,11 @@
  * invoke {@code e2} if there are any nodes not matched by {@code e1}
  * at all.  In this case the result will be the same as running {@code
  * e1} alone.</p>
+ *
+ * <p>{@link KeyedElementSelector}s are matched by putting the test
+ * nodes into hash buckets by key rather than comparing each control
+ * node to all test nodes - as long as the {@link
+ * DefaultNodeTypeMatcher} is used.</p>
  */
 public class DefaultNodeMatcher implements NodeMatcher {
     private static final short TEXT = Node.TEXT_NODE;
@@ -95,64 +101,44 @@ public Iterable<Map.Entry<Node, Node>> match(Iterable<Node> controlNodes,
         Map<Node, Node> matches = new LinkedHashMap<Node, Node>();
         List<Node> controlList = Linqy.asList(controlNodes);
         List<Node> testList = Linqy.asList(testNodes);
-        final int testSize = testList.size();
-        Set<Integer> unmatchedTestIndexes = new HashSet<Integer>();
-        for (int i = 0; i < testSize; i++) {
-            unmatchedTestIndexes.add(Integer.valueOf(i));
-        }
         final int controlSize = controlList.size();
-        Set<Integer> unmatchedControlIndexes = new HashSet<Integer>();
-        for (int i = 0; i < controlSize; i++) {
-            unmatchedControlIndexes.add(Integer.valueOf(i));
-        }
+        BitSet matchedControlIndexes = new BitSet(controlSize);
+        BitSet matchedTestIndexes = new BitSet(testList.size());
 
         for (ElementSelector e : elementSelectors) {
-            Match lastMatch = new Match(null, -1);
-            for (int i = 0; i < controlSize; i++) {
-                if (!unmatchedControlIndexes.contains(Integer.valueOf(i))) {
-                    continue;
-                }
+            if (e instanceof KeyedElementSelector
+                && nodeTypeMatcher.getClass() == DefaultNodeTypeMatcher.class) {
+                matchByKey(controlList, testList, matchedControlIndexes,
+                           matchedTestIndexes, (KeyedElementSelector) e, matches);
+                continue;
+            }
+            for (int i = matchedControlIndexes.nextClearBit(0); i < controlSize;
+                 i = matchedControlIndexes.nextClearBit(i + 1)) {
                 Node control = controlList.get(i);
-                Match testMatch = findMatchingNode(control, testList,
-                    lastMatch.index, unmatchedTestIndexes, e);
-                if (testMatch != null) {
-                    unmatchedControlIndexes.remove(Integer.valueOf(i));
-                    unmatchedTestIndexes.remove(testMatch.index);
-                    matches.put(control, testMatch.node);
+                int testIndex = findMatchingNode(control, testList,
+                                                 matchedTestIndexes, e);
+                if (testIndex >= 0) {
+                    matchedControlIndexes.set(i);
+                    matchedTestIndexes.set(testIndex);
+                    matches.put(control, testList.get(testIndex));
                 }
             }
         }
         return matches.entrySet();
     }
 
-    private Match findMatchingNode(final Node searchFor,
-                                   final List<Node> searchIn,
-                                   final int indexOfLastMatch,
-                                   final Set<Integer> availableIndexes,
-                                   final ElementSelector e) {
+    private int findMatchingNode(final Node searchFor,
+                                 final List<Node> searchIn,
+                                 final BitSet unavailableIndexes,
+                                 final ElementSelector e) {
         final int searchSize = searchIn.size();
-        Match m = searchIn(searchFor, searchIn,
-                           availableIndexes,
-                           indexOfLastMatch + 1, searchSize, e);
-        return m != null ? m : searchIn(searchFor, searchIn,
-                                        availableIndexes,
-                                        0, indexOfLastMatch, e);
-    }
-
-    private Match searchIn(final Node searchFor,
-                           final List<Node> searchIn,
-                           final Set<Integer> availableIndexes,
-                           final int fromInclusive, final int toExclusive,
-                           final ElementSelector e) {
-        for (int i = fromInclusive; i < toExclusive; i++) {
-            if (!availableIndexes.contains(Integer.valueOf(i))) {
-                continue;
-            }
+        for (int i = unavailableIndexes.nextClearBit(0); i < searchSize;
+             i = unavailableIndexes.nextClearBit(i + 1)) {
             if (nodesMatch(searchFor, searchIn.get(i), e)) {
-                return new Match(searchIn.get(i), i);
+                return i;
             }
         }
-        return null;
+        return -1;
     }
 
     private boolean nodesMatch(final Node n1, final Node n2,
@@ -164,12 +150,90 @@ private boolean nodesMatch(final Node n1, final Node n2,
                                              n2.getNodeType());
     }
 
-    private static class Match {
-        private final Node node;
-        private final int index;
-        private Match(Node match, int index) {
-            this.node = match;
-            this.index = index;
+    /**
+     * Matches nodes with the same key in a single pass over the
+     * control and test nodes.
+     *
+     * <p>Yields the same result as the linear search as each control
+     * node picks the first available test node with the same key
+     * and {@link DefaultNodeTypeMatcher} only matches nodes of the
+     * same type - treating text and CDATA as the same type.</p>
+     */
+    private static void matchByKey(final List<Node> controlList,
+                                   final List<Node> testList,
+                                   final BitSet matchedControlIndexes,
+                                   final BitSet matchedTestIndexes,
+                                   final KeyedElementSelector e,
+                                   final Map<Node, Node> matches) {
+        final int testSize = testList.size();
+        Map<Object, Bucket> elementBuckets = new HashMap<Object, Bucket>();
+        Map<Short, Bucket> typeBuckets = new HashMap<Short, Bucket>();
+        for (int i = matchedTestIndexes.nextClearBit(0); i < testSize;
+             i = matchedTestIndexes.nextClearBit(i + 1)) {
+            Node test = testList.get(i);
+            Bucket b = findBucket(test, e, elementBuckets, typeBuckets, true);
+            if (b != null) {
+                b.add(i);
+            }
+        }
+
+        final int controlSize = controlList.size();
+        for (int i = matchedControlIndexes.nextClearBit(0); i < controlSize;
+             i = matchedControlIndexes.nextClearBit(i + 1)) {
+            Node control = controlList.get(i);
+            Bucket b = findBucket(control, e, elementBuckets, typeBuckets, false);
+            if (b != null && b.hasNext()) {
+                int testIndex = b.next();
+                matchedControlIndexes.set(i);
+                matchedTestIndexes.set(testIndex);
+                matches.put(control, testList.get(testIndex));
+            }
+        }
+    }
+
+    private static Bucket findBucket(final Node n, final KeyedElementSelector e,
+                                     final Map<Object, Bucket> elementBuckets,
+                                     final Map<Short, Bucket> typeBuckets,
+                                     final boolean create) {
+        if (n instanceof Element) {
+            Object key = e.getKey((Element) n);
+            return key == null ? null : findBucket(key, elementBuckets, create);
+        }
+        short type = n.getNodeType();
+        return findBucket(Short.valueOf(type == CDATA ? TEXT : type), typeBuckets, create);
+    }
+
+    private static <K> Bucket findBucket(final K key, final Map<K, Bucket> buckets,
+                                         final boolean create) {
+        Bucket b = buckets.get(key);
+        if (b == null && create) {
+            b = new Bucket();
+            buckets.put(key, b);
+        }
+        return b;
+    }
+
+    /**
+     * Indexes of test nodes sharing the same key in document order.
+     */
+    private static class Bucket {
+        private int[] indexes = new int[1];
+        private int size;
+        private int next;
+
+        private void add(int index) {
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf(indexes, size * 2);
+            }
+            indexes[size++] = index;
+        }
+
+        private boolean hasNext() {
+            return next < size;
+        }
+
+        private int next() {
+            return indexes[next++];
         }
     }
 
@@ -15,13 +15,22 @@
 package org.xmlunit.diff;
 
 import javax.xml.transform.Source;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Iterator;
+import org.xmlunit.XMLUnitException;
 
 /**
  * The Diff-Object is the result of two comparisons.
+ *
+ * <p>A Diff holding {@link SerializedDifferences} should be {@link
+ * #close closed} once it is no longer needed so their temporary file
+ * gets deleted.</p>
  * @see org.xmlunit.builder.DiffBuilder
  */
-public class Diff {
+public class Diff implements Closeable {
 
     private static final ComparisonFormatter DEFAULT_FORMATTER =
         new DefaultComparisonFormatter();
@@ -34,6 +43,8 @@ public class Diff {
 
     private final ComparisonFormatter formatter;
 
+    private final DifferenceSummary summary;
+
     /**
      * Encapsulates the compared sources and the differences found.
      *
@@ -55,12 +66,35 @@ public Diff(Source controlSource, Source testSource, Iterable<Difference> differ
      */
     public Diff(Source controlSource, Source testSource,
                 ComparisonFormatter formatter, Iterable<Difference> differences) {
+        this(controlSource, testSource, formatter, differences, null);
+    }
+
+    /**
+     * Encapsulates the compared sources, the differences retained
+     * and a summary of all differences found.
+     *
+     * @param controlSource the control XML source
+     * @param testSource the test XML source
+     * @param formatter formatter to use when displaying the differences
+     * @param differences the differences retained
+     * @param summary summary of all differences found - including
+     * the ones that have not been retained - or null if all
+     * differences have been retained
+     * @since XMLUnit 2.12.1
+     */
+    public Diff(Source controlSource, Source testSource,
+                ComparisonFormatter formatter, Iterable<Difference> differences,
+                DifferenceSummary summary) {
         this.controlSource = controlSource;
         this.testSource = testSource;
         this.formatter = formatter;
         this.differences = differences;
-        for (Difference d : differences) {
-            d.setComparisonFormatter(formatter);
+        this.summary = summary;
+        if (!(differences instanceof SerializedDifferences)) {
+            // serialized differences are created with their formatter on demand
+            for (Difference d : differences) {
+                d.setComparisonFormatter(formatter);
+            }
         }
     }
 
@@ -89,34 +123,105 @@ public String fullDescription() {
      * @since 2.8.3
      */
     public String fullDescription(ComparisonFormatter formatter) {
+        StringWriter result = new StringWriter();
+        try {
+            fullDescription(formatter, result);
+        } catch (IOException ex) {
+            // can't happen for a StringWriter
+            throw new XMLUnitException(ex);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Writes a string representation of this diff to the given
+     * writer using internal {@link ComparisonFormatter} or {@link
+     * DefaultComparisonFormatter} if formatter wasn't set.
+     *
+     * <p>Writes the same text as {@link #fullDescription()} without
+     * holding it in memory as a whole.</p>
+     *
+     * @param writer the writer to write to
+     * @throws IOException if writing fails
+     * @since XMLUnit 2.12.1
+     */
+    public void fullDescription(Writer writer) throws IOException {
+        fullDescription(formatter, writer);
+    }
+
+    /**
+     * Writes a string representation of this diff to the given
+     * writer using the given {@link ComparisonFormatter}.
+     *
+     * <p>Writes the same text as {@link
+     * #fullDescription(ComparisonFormatter)} without holding it in
+     * memory as a whole.</p>
+     *
+     * <p>{@link SerializedDifferences} don't retain the nodes that
+     * have been compared. If {@code formatter} is not the formatter
+     * the differences have been stored with, it only sees null
+     * targets which the {@link DefaultComparisonFormatter} describes
+     * as {@code <NULL>}.</p>
+     *
+     * @param formatter the {@link ComparisonFormatter} to use
+     * @param writer the writer to write to
+     * @throws IOException if writing fails
+     * @since XMLUnit 2.12.1
+     */
+    public void fullDescription(ComparisonFormatter formatter, Writer writer) throws IOException {
         if (!hasDifferences()) {
-            return "[identical]";
+            writer.write("[identical]");
+            return;
         }
         Iterator<Difference> diffIterator = getDifferences().iterator();
-        StringBuilder result = new StringBuilder()
-            .append(diffIterator.next().getComparison().toString(formatter));
         String lineSeparator = System.lineSeparator();
+        int retained = 0;
         while (diffIterator.hasNext()) {
-            result.append(lineSeparator)
-                .append(diffIterator.next().getComparison().toString(formatter));
+            if (retained++ > 0) {
+                writer.write(lineSeparator);
+            }
+            writer.write(diffIterator.next().getComparison().toString(formatter));
+        }
+        if (summary != null && summary.getTotal() > retained) {
+            if (retained > 0) {
+                writer.write(lineSeparator);
+            }
+            writer.write(summary.toString());
         }
-        return result.toString();
     }
 
     /**
      * @return true if there was at least one difference.
      */
     public boolean hasDifferences() {
-        return differences.iterator().hasNext();
+        boolean retained = differences instanceof SerializedDifferences
+            ? ((SerializedDifferences) differences).size() > 0
+            : differences.iterator().hasNext();
+        return retained || (summary != null && summary.getTotal() > 0);
     }
 
     /**
-     * @return all differences found before the comparison process stopped.
+     * @return all differences found before the comparison process
+     * stopped - or the first differences only if the number of
+     * differences to retain has been limited.
      */
     public Iterable<Difference> getDifferences() {
         return differences;
     }
 
+    /**
+     * Summarizes all differences found before the comparison process
+     * stopped, including the ones that have not been retained.
+     *
+     * @return the summary or null if all differences have been
+     * retained
+     * @see org.xmlunit.builder.DiffBuilder#withDifferenceLimit
+     * @since XMLUnit 2.12.1
+     */
+    public DifferenceSummary getDifferenceSummary() {
+        return summary;
+    }
+
     /**
      * @return the control XML source
      */
@@ -131,6 +236,27 @@ public Source getTestSource() {
         return testSource;
     }
 
+    /**
+     * Releases the resources held by the differences, like the
+     * temporary file of {@link SerializedDifferences}.
+     *
+     * <p>Does nothing unless the differences are {@link Closeable}
+     * themselves.</p>
+     *
+     * @throws XMLUnitException if closing the differences fails
+     * @since XMLUnit 2.12.1
+     */
+    @Override
+    public void close() {
+        if (differences instanceof Closeable) {
+            try {
+                ((Closeable) differences).close();
+            } catch (IOException ex) {
+                throw new XMLUnitException("Failed to close differences", ex);
+            }
+        }
+    }
+
     /**
      * Returns a string representation of first found difference in this diff
      * using internal {@link ComparisonFormatter} or
@@ -154,7 +280,10 @@ public String toString(ComparisonFormatter formatter) {
         if (!hasDifferences()) {
             return "[identical]";
         }
-        return getDifferences().iterator().next().getComparison().toString(formatter);
+        Iterator<Difference> diffIterator = getDifferences().iterator();
+        return diffIterator.hasNext()
+            ? diffIterator.next().getComparison().toString(formatter)
+            : summary.toString();
     }
 
 }
@@ -13,8 +13,13 @@
 */
 package org.xmlunit.diff;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.DocumentType;
@@ -33,12 +38,23 @@ public final class DifferenceEvaluators {
      * Difference evaluator that just echos the result passed in.
      */
     public static final DifferenceEvaluator Accept =
-        new DifferenceEvaluator() {
+        new PredictableDifferenceEvaluator() {
             @Override
             public ComparisonResult evaluate(Comparison comparison,
                                              ComparisonResult outcome) {
                 return outcome;
             }
+
+            @Override
+            public Set<ComparisonType> getComparisonTypes() {
+                return Collections.<ComparisonType>emptySet();
+            }
+
+            @Override
+            public Set<ComparisonResult> getPossibleOutcomes(ComparisonType type,
+                                                             ComparisonResult outcome) {
+                return EnumSet.of(outcome);
+            }
         };
 
     /**
@@ -47,7 +63,18 @@ public ComparisonResult evaluate(Comparison comparison,
      * still leave them similar.
      */
     public static final DifferenceEvaluator Default =
-        new DifferenceEvaluator() {
+        new PredictableDifferenceEvaluator() {
+            private final Set<ComparisonType> types =
+                Collections.unmodifiableSet(EnumSet.of(ComparisonType.NODE_TYPE,
+                                                       ComparisonType.HAS_DOCTYPE_DECLARATION,
+                                                       ComparisonType.DOCTYPE_SYSTEM_ID,
+                                                       ComparisonType.SCHEMA_LOCATION,
+                                                       ComparisonType.NO_NAMESPACE_SCHEMA_LOCATION,
+                                                       ComparisonType.NAMESPACE_PREFIX,
+                                                       ComparisonType.ATTR_VALUE_EXPLICITLY_SPECIFIED,
+                                                       ComparisonType.CHILD_NODELIST_SEQUENCE,
+                                                       ComparisonType.XML_ENCODING));
+
             @Override
             public ComparisonResult evaluate(Comparison comparison,
                                              ComparisonResult outcome) {
@@ -80,6 +107,22 @@ public ComparisonResult evaluate(Comparison comparison,
                 }
                 return outcome;
             }
+
+            @Override
+            public Set<ComparisonType> getComparisonTypes() {
+                return types;
+            }
+
+            @Override
+            public Set<ComparisonResult> getPossibleOutcomes(ComparisonType type,
+                                                             ComparisonResult outcome) {
+                if (outcome != ComparisonResult.DIFFERENT) {
+                    return EnumSet.of(outcome);
+                }
+                return type == ComparisonType.NODE_TYPE
+                    ? EnumSet.of(ComparisonResult.SIMILAR, ComparisonResult.DIFFERENT)
+                    : EnumSet.of(ComparisonResult.SIMILAR);
+            }
         };
 
     private DifferenceEvaluators() {}
@@ -87,45 +130,35 @@ private DifferenceEvaluators() {}
     /**
      * Combines multiple DifferenceEvaluators so that the first one
      * that changes the outcome wins.
+     *
+     * <p>{@link TypedDifferenceEvaluator}s are only invoked for the
+     * types of comparisons they declare. If all evaluators are
+     * {@code TypedDifferenceEvaluator}s the result is one as
+     * well.</p>
+     *
      * @param evaluators the evaluators to combine
      * @return the DifferenceEvaluator
      */
     public static DifferenceEvaluator
         first(final DifferenceEvaluator... evaluators) {
-        return new DifferenceEvaluator() {
-            @Override
-            public ComparisonResult evaluate(Comparison comparison,
-                                             ComparisonResult orig) {
-                for (DifferenceEvaluator ev : evaluators) {
-                    ComparisonResult evaluated = ev.evaluate(comparison, orig);
-                    if (evaluated != orig) {
-                        return evaluated;
-                    }
-                }
-                return orig;
-            }
-        };
+        return combine(evaluators, true);
     }
 
     /**
      * Combines multiple DifferenceEvaluators so that the result of the
      * first Evaluator will be passed to the next Evaluator.
+     *
+     * <p>{@link TypedDifferenceEvaluator}s are only invoked for the
+     * types of comparisons they declare. If all evaluators are
+     * {@code TypedDifferenceEvaluator}s the result is one as
+     * well.</p>
+     *
      * @param evaluators the evaluators to combine
      * @return the DifferenceEvaluator
      */
     public static DifferenceEvaluator
         chain(final DifferenceEvaluator... evaluators) {
-        return new DifferenceEvaluator() {
-            @Override
-            public ComparisonResult evaluate(Comparison comparison, ComparisonResult orig) {
-                ComparisonResult finalResult = orig;
-                for (DifferenceEvaluator ev : evaluators) {
-                    ComparisonResult evaluated = ev.evaluate(comparison, finalResult);
-                    finalResult = evaluated;
-                }
-                return finalResult;
-            }
-        };
+        return combine(evaluators, false);
     }
 
     /**
@@ -177,14 +210,7 @@ public static DifferenceEvaluator upgradeDifferencesToDifferent(ComparisonType..
      * @since XMLUnit 2.1.0
      */
     public static DifferenceEvaluator ignorePrologDifferences() {
-        return new DifferenceEvaluator() {
-            @Override
-            public ComparisonResult evaluate(Comparison comparison, ComparisonResult orig) {
-                return belongsToProlog(comparison, true)
-                    || isSequenceOfRootElement(comparison)
-                    ? ComparisonResult.EQUAL : orig;
-            }
-        };
+        return ignoreProlog(true);
     }
 
     /**
@@ -213,30 +239,214 @@ public ComparisonResult evaluate(Comparison comparison, ComparisonResult orig) {
      * @since XMLUnit 2.1.0
      */
     public static DifferenceEvaluator ignorePrologDifferencesExceptDoctype() {
-        return new DifferenceEvaluator() {
+        return ignoreProlog(false);
+    }
+
+    /**
+     * Determines the outcomes a DifferenceEvaluator may return for a
+     * comparison of the given type when invoked with the given
+     * outcome.
+     *
+     * <p>A {@link TypedDifferenceEvaluator} returns the outcome
+     * unchanged for all types it doesn't declare, a {@link
+     * PredictableDifferenceEvaluator} is asked for all other
+     * types. Any other evaluator may return any outcome.</p>
+     *
+     * @param evaluator the evaluator to examine
+     * @param type the type of comparison
+     * @param outcome the outcome passed to the evaluator
+     * @return the possible results
+     * @since XMLUnit 2.12.1
+     */
+    public static Set<ComparisonResult> getPossibleOutcomes(DifferenceEvaluator evaluator,
+                                                            ComparisonType type,
+                                                            ComparisonResult outcome) {
+        if (evaluator instanceof TypedDifferenceEvaluator) {
+            if (!((TypedDifferenceEvaluator) evaluator).getComparisonTypes().contains(type)) {
+                return EnumSet.of(outcome);
+            }
+            if (evaluator instanceof PredictableDifferenceEvaluator) {
+                return ((PredictableDifferenceEvaluator) evaluator)
+                    .getPossibleOutcomes(type, outcome);
+            }
+        }
+        return EnumSet.allOf(ComparisonResult.class);
+    }
+
+    private static DifferenceEvaluator ignoreProlog(final boolean ignoreDoctypeDeclarationAsWell) {
+        final EnumSet<ComparisonType> comparisonTypes = EnumSet.allOf(ComparisonType.class);
+        if (!ignoreDoctypeDeclarationAsWell) {
+            for (ComparisonType type : ComparisonType.values()) {
+                if (type.isDoctypeComparison()) {
+                    comparisonTypes.remove(type);
+                }
+            }
+        }
+        final Set<ComparisonType> types = Collections.unmodifiableSet(comparisonTypes);
+        return new PredictableDifferenceEvaluator() {
             @Override
             public ComparisonResult evaluate(Comparison comparison, ComparisonResult orig) {
-                return belongsToProlog(comparison, false)
+                return belongsToProlog(comparison, ignoreDoctypeDeclarationAsWell)
                     || isSequenceOfRootElement(comparison)
                     ? ComparisonResult.EQUAL : orig;
             }
+
+            @Override
+            public Set<ComparisonType> getComparisonTypes() {
+                return types;
+            }
+
+            @Override
+            public Set<ComparisonResult> getPossibleOutcomes(ComparisonType type,
+                                                             ComparisonResult outcome) {
+                // the XML declaration is always part of the prolog
+                return type == ComparisonType.XML_VERSION
+                    || type == ComparisonType.XML_STANDALONE
+                    || type == ComparisonType.XML_ENCODING
+                    || type.isDoctypeComparison()
+                    ? EnumSet.of(ComparisonResult.EQUAL)
+                    : EnumSet.of(outcome, ComparisonResult.EQUAL);
+            }
         };
     }
 
     private static DifferenceEvaluator recordDifferencesAs(final ComparisonResult outcome,
                                                            ComparisonType... types) {
-        final EnumSet<ComparisonType> comparisonTypes =
-            EnumSet.copyOf(Arrays.asList(types));
-        return new DifferenceEvaluator() {
+        final Set<ComparisonType> comparisonTypes =
+            Collections.unmodifiableSet(EnumSet.copyOf(Arrays.asList(types)));
+        return new PredictableDifferenceEvaluator() {
             @Override
             public ComparisonResult evaluate(Comparison comparison, ComparisonResult orig) {
                 return orig != ComparisonResult.EQUAL
                     && comparisonTypes.contains(comparison.getType())
                     ? outcome : orig;
             }
+
+            @Override
+            public Set<ComparisonType> getComparisonTypes() {
+                return comparisonTypes;
+            }
+
+            @Override
+            public Set<ComparisonResult> getPossibleOutcomes(ComparisonType type,
+                                                             ComparisonResult orig) {
+                return EnumSet.of(orig != ComparisonResult.EQUAL ? outcome : orig);
+            }
         };
     }
 
+    private static DifferenceEvaluator combine(DifferenceEvaluator[] evaluators,
+                                               boolean firstChangeWins) {
+        EnumMap<ComparisonType, DifferenceEvaluator[]> byType =
+            new EnumMap<ComparisonType, DifferenceEvaluator[]>(ComparisonType.class);
+        EnumSet<ComparisonType> types = EnumSet.noneOf(ComparisonType.class);
+        boolean allTyped = true;
+        for (ComparisonType type : ComparisonType.values()) {
+            List<DifferenceEvaluator> relevant = new ArrayList<DifferenceEvaluator>();
+            for (DifferenceEvaluator ev : evaluators) {
+                if (!(ev instanceof TypedDifferenceEvaluator)) {
+                    allTyped = false;
+                    relevant.add(ev);
+                } else if (((TypedDifferenceEvaluator) ev).getComparisonTypes().contains(type)) {
+                    types.add(type);
+                    relevant.add(ev);
+                }
+            }
+            byType.put(type, relevant.toArray(new DifferenceEvaluator[relevant.size()]));
+        }
+        DifferenceEvaluator[] all = evaluators.clone();
+        return allTyped
+            ? new TypedCombinedEvaluator(all, byType, firstChangeWins, types)
+            : new CombinedEvaluator(all, byType, firstChangeWins);
+    }
+
+    /**
+     * Combination of evaluators that only invokes the evaluators
+     * relevant for the type of comparison.
+     */
+    private static class CombinedEvaluator implements DifferenceEvaluator {
+        private final DifferenceEvaluator[] all;
+        private final EnumMap<ComparisonType, DifferenceEvaluator[]> byType;
+        private final boolean firstChangeWins;
+
+        private CombinedEvaluator(DifferenceEvaluator[] all,
+                                  EnumMap<ComparisonType, DifferenceEvaluator[]> byType,
+                                  boolean firstChangeWins) {
+            this.all = all;
+            this.byType = byType;
+            this.firstChangeWins = firstChangeWins;
+        }
+
+        /**
+         * The outcomes the combined evaluators may return for a
+         * comparison of the given type.
+         */
+        Set<ComparisonResult> possibleOutcomes(ComparisonType type, ComparisonResult orig) {
+            EnumSet<ComparisonResult> result = EnumSet.noneOf(ComparisonResult.class);
+            if (firstChangeWins) {
+                for (DifferenceEvaluator ev : byType.get(type)) {
+                    Set<ComparisonResult> outcomes = getPossibleOutcomes(ev, type, orig);
+                    for (ComparisonResult r : outcomes) {
+                        if (r != orig) {
+                            result.add(r);
+                        }
+                    }
+                    if (!outcomes.contains(orig)) {
+                        return result;
+                    }
+                }
+                result.add(orig);
+                return result;
+            }
+            result.add(orig);
+            for (DifferenceEvaluator ev : byType.get(type)) {
+                EnumSet<ComparisonResult> next = EnumSet.noneOf(ComparisonResult.class);
+                for (ComparisonResult r : result) {
+                    next.addAll(getPossibleOutcomes(ev, type, r));
+                }
+                result = next;
+            }
+            return result;
+        }
+
+        @Override
+        public ComparisonResult evaluate(Comparison comparison, ComparisonResult orig) {
+            DifferenceEvaluator[] evaluators = comparison == null || comparison.getType() == null
+                ? all : byType.get(comparison.getType());
+            ComparisonResult result = orig;
+            for (DifferenceEvaluator ev : evaluators) {
+                result = ev.evaluate(comparison, firstChangeWins ? orig : result);
+                if (firstChangeWins && result != orig) {
+                    break;
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class TypedCombinedEvaluator extends CombinedEvaluator
+        implements PredictableDifferenceEvaluator {
+        private final Set<ComparisonType> types;
+
+        private TypedCombinedEvaluator(DifferenceEvaluator[] all,
+                                       EnumMap<ComparisonType, DifferenceEvaluator[]> byType,
+                                       boolean firstChangeWins, EnumSet<ComparisonType> types) {
+            super(all, byType, firstChangeWins);
+            this.types = Collections.unmodifiableSet(types);
+        }
+
+        @Override
+        public Set<ComparisonType> getComparisonTypes() {
+            return types;
+        }
+
+        @Override
+        public Set<ComparisonResult> getPossibleOutcomes(ComparisonType type,
+                                                         ComparisonResult outcome) {
+            return possibleOutcomes(type, outcome);
+        }
+    }
+
     private static boolean belongsToProlog(Comparison comparison,
                                            boolean ignoreDoctypeDeclarationAsWell) {
         if (comparison.getType().isDoctypeComparison()) {
@@ -0,0 +1,117 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts differences by {@link ComparisonType} and by the pattern of
+ * their XPath without retaining the differences themselves.
+ *
+ * <p>The pattern of an XPath replaces all positional predicates by
+ * {@code [*]}, so {@code /feed[1]/record[42]/@ts} is counted as
+ * {@code /feed[*]/record[*]/@ts}. The XPath of the control node is
+ * used unless there is no control node.</p>
+ *
+ * @see org.xmlunit.builder.DiffBuilder#withDifferenceLimit
+ * @since XMLUnit 2.12.1
+ */
+public final class DifferenceSummary {
+
+    private final Map<ComparisonType, Long> byType =
+        new EnumMap<ComparisonType, Long>(ComparisonType.class);
+    private final Map<String, Long> byXPathPattern = new LinkedHashMap<String, Long>();
+    private long total;
+
+    /**
+     * Counts a difference.
+     *
+     * @param comparison the comparison that resulted in a difference
+     */
+    public void add(Comparison comparison) {
+        total++;
+        if (comparison.getType() != null) {
+            increment(byType, comparison.getType());
+        }
+        String xpath = comparison.getControlDetails().getXPath();
+        if (xpath == null) {
+            xpath = comparison.getTestDetails().getXPath();
+        }
+        if (xpath != null) {
+            increment(byXPathPattern, toXPathPattern(xpath));
+        }
+    }
+
+    /**
+     * @return the number of differences counted.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the number of differences counted per type of comparison.
+     */
+    public Map<ComparisonType, Long> getCountsByType() {
+        return Collections.unmodifiableMap(byType);
+    }
+
+    /**
+     * @return the number of differences counted per XPath pattern in
+     * the order the patterns have been encountered first.
+     */
+    public Map<String, Long> getCountsByXPathPattern() {
+        return Collections.unmodifiableMap(byXPathPattern);
+    }
+
+    @Override
+    public String toString() {
+        return total + " differences by type: " + byType + ", by XPath: " + byXPathPattern;
+    }
+
+    /**
+     * Replaces all positional predicates of the XPath by {@code [*]}.
+     */
+    static String toXPathPattern(String xpath) {
+        StringBuilder sb = null;
+        final int len = xpath.length();
+        int copied = 0;
+        for (int i = xpath.indexOf('['); i >= 0 && i < len; i = xpath.indexOf('[', i + 1)) {
+            int end = i + 1;
+            while (end < len && Character.isDigit(xpath.charAt(end))) {
+                end++;
+            }
+            if (end > i + 1 && end < len && xpath.charAt(end) == ']') {
+                if (sb == null) {
+                    sb = new StringBuilder(len);
+                }
+                sb.append(xpath, copied, i).append("[*]");
+                copied = end + 1;
+                i = end;
+            }
+        }
+        if (sb == null) {
+            return xpath;
+        }
+        return sb.append(xpath, copied, len).toString();
+    }
+
+    private static <K> void increment(Map<K, Long> counts, K key) {
+        Long count = counts.get(key);
+        counts.put(key, count == null ? 1L : count + 1);
+    }
+}
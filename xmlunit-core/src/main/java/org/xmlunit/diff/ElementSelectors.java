@@ -20,11 +20,18 @@
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import org.xmlunit.XMLUnitException;
 import org.xmlunit.util.IsNullPredicate;
+import org.xmlunit.util.IterableNodeList;
 import org.xmlunit.util.Linqy;
 import org.xmlunit.util.Mapper;
+import org.xmlunit.util.NameCache;
 import org.xmlunit.util.Nodes;
 import org.xmlunit.util.Predicate;
 import org.xmlunit.xpath.JAXPXPathEngine;
@@ -32,6 +39,7 @@
 import org.w3c.dom.Attr;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 /**
  * Common ElementSelector implementations.
@@ -57,7 +65,7 @@ public boolean canBeCompared(Element controlElement,
      * Elements with the same local name (and namespace URI - if any)
      * can be compared.
      */
-    public static final ElementSelector byName = new ElementSelector() {
+    public static final ElementSelector byName = new KeyedElementSelector() {
             @Override
             public boolean canBeCompared(Element controlElement,
                                          Element testElement) {
@@ -66,19 +74,66 @@ public boolean canBeCompared(Element controlElement,
                     && bothNullOrEqual(Nodes.getQName(controlElement),
                                        Nodes.getQName(testElement));
             }
+
+            @Override
+            public Object getKey(Element element) {
+                return element == null ? null : Nodes.getQName(element);
+            }
+        };
+
+    /**
+     * Elements with the same local name (and namespace URI - if any)
+     * can be compared.
+     *
+     * <p>Works like {@link #byName} but looks up the names using the
+     * given cache. Use the same cache for the difference engine - see
+     * {@link DOMDifferenceEngine#setNameCache} - so names are only
+     * ever computed once per comparison and are mostly compared by
+     * reference.</p>
+     *
+     * @param cache the cache to use
+     * @return an ElementSelector
+     *
+     * @since XMLUnit 2.12.1
+     */
+    public static ElementSelector byName(final NameCache cache) {
+        if (cache == null) {
+            throw new IllegalArgumentException("cache must not be null");
+        }
+        return new KeyedElementSelector() {
+            @Override
+            public boolean canBeCompared(Element controlElement,
+                                         Element testElement) {
+                return controlElement != null
+                    && testElement != null
+                    && cache.getQName(controlElement).equals(cache.getQName(testElement));
+            }
+
+            @Override
+            public Object getKey(Element element) {
+                return element == null ? null : cache.getQName(element);
+            }
         };
+    }
 
     /**
      * Elements with the same local name (and namespace URI - if any)
      * and nested text (if any) can be compared.
      */
-    public static final ElementSelector byNameAndText = new ElementSelector() {
+    public static final ElementSelector byNameAndText = new KeyedElementSelector() {
             @Override
             public boolean canBeCompared(Element controlElement,
                                          Element testElement) {
                 return byName.canBeCompared(controlElement, testElement)
-                    && bothNullOrEqual(Nodes.getMergedNestedText(controlElement),
-                                       Nodes.getMergedNestedText(testElement));
+                    && bothNullOrEqual(getMergedNestedText(controlElement),
+                                       getMergedNestedText(testElement));
+            }
+
+            @Override
+            public Object getKey(Element element) {
+                return element == null ? null
+                    : Arrays.<Object>asList(Nodes.getQName(element),
+                                            getMergedNestedText(element));
             }
         };
 
@@ -109,7 +164,7 @@ public boolean test(Attr a) {
      * @return an ElementSelector
      */
     public static final ElementSelector byNameAndAllAttributes(final Predicate<Attr> attributeFilter) {
-        return new ElementSelector() {
+        return new KeyedElementSelector() {
             @Override
             public boolean canBeCompared(Element controlElement,
                                          Element testElement) {
@@ -123,6 +178,13 @@ public boolean canBeCompared(Element controlElement,
                 }
                 return mapsEqualForKeys(cAttrs, tAttrs, cAttrs.keySet());
             }
+
+            @Override
+            public Object getKey(Element element) {
+                return element == null ? null
+                    : Arrays.<Object>asList(Nodes.getQName(element),
+                                            Nodes.getAttributes(element, attributeFilter));
+            }
         };
     }
 
@@ -134,6 +196,31 @@ public boolean canBeCompared(Element controlElement,
     private static final String ATTRIBUTES_MUST_NOT_BE_NULL = "attributes must not be null";
 
 
+    private static final Object MERGED_TEXT = new Object();
+
+    /**
+     * Like {@link Nodes#getMergedNestedText} but only concatenates
+     * the text of each element once while a comparison is running.
+     *
+     * <p>The text is remembered in the {@link SelectorMemo} of the
+     * current comparison, which is discarded when the comparison is
+     * done, so changes made to the documents between comparisons -
+     * like the ones made by normalizing sources - are always
+     * seen.</p>
+     */
+    static String getMergedNestedText(Node n) {
+        Map<Node, Object> texts = SelectorMemo.forOwner(MERGED_TEXT);
+        if (texts == null) {
+            return Nodes.getMergedNestedText(n);
+        }
+        String text = (String) texts.get(n);
+        if (text == null) {
+            text = Nodes.getMergedNestedText(n);
+            texts.put(n, text);
+        }
+        return text;
+    }
+
     /**
      * Maps Nodes to their NodeInfo equivalent.
      */
@@ -239,7 +326,7 @@ public static ElementSelector byNameAndAttributes(final QName... attribs) {
         if (any(qs, new IsNullPredicate())) {
             throw new IllegalArgumentException(ATTRIBUTES_MUST_NOT_CONTAIN_NULL_VALUES);
         }
-        return new ElementSelector() {
+        return new KeyedElementSelector() {
             @Override
             public boolean canBeCompared(Element controlElement,
                                          Element testElement) {
@@ -250,6 +337,21 @@ public boolean canBeCompared(Element controlElement,
                                         Nodes.getAttributes(testElement),
                                         qs);
             }
+
+            @Override
+            public Object getKey(Element element) {
+                if (element == null) {
+                    return null;
+                }
+                Map<QName, String> attrs = Nodes.getAttributes(element);
+                Object[] key = new Object[qs.size() + 1];
+                key[0] = Nodes.getQName(element);
+                int i = 1;
+                for (QName q : qs) {
+                    key[i++] = attrs.get(q);
+                }
+                return Arrays.asList(key);
+            }
         };
     }
 
@@ -489,6 +591,12 @@ public static ElementSelector byXPath(final String xpath,
      * match if a DefaultNodeMatcher applied to the selected children
      * finds matching pairs for all children.</p>
      *
+     * <p>If the engine is a {@link JAXPXPathEngine} the expression is
+     * compiled once when the selector is created. While a comparison
+     * is running the children selected for each element are
+     * remembered so the expression is only evaluated once per
+     * element.</p>
+     *
      * @param xpath XPath expression applied in the context of the
      * elements to chose from that selects the children to compare.
      * @param xpathEngine XPathEngine to use. If {@code null} a {@link
@@ -508,17 +616,51 @@ public static ElementSelector byXPath(final String xpath,
         if (prefix2Uri != null) {
             engine.setNamespaceContext(prefix2Uri);
         }
+        final XPathExpression compiled = engine instanceof JAXPXPathEngine
+            ? ((JAXPXPathEngine) engine).compile(xpath) : null;
         final NodeMatcher nm = new DefaultNodeMatcher(childSelector);
         return new ElementSelector() {
             @Override
             public boolean canBeCompared(Element controlElement,
                                          Element testElement) {
-                Iterable<Node> controlChildren = engine.selectNodes(xpath, controlElement);
-                int expected = Linqy.count(controlChildren);
-                int matched =
-                    Linqy.count(nm.match(controlChildren,
-                                         engine.selectNodes(xpath, testElement)));
-                return expected == matched;
+                List<Node> controlChildren = select(controlElement);
+                List<Node> testChildren = select(testElement);
+                // each child can only be matched once
+                if (testChildren.size() < controlChildren.size()) {
+                    return false;
+                }
+                int matched = Linqy.count(nm.match(controlChildren, testChildren));
+                return controlChildren.size() == matched;
+            }
+
+            /**
+             * Selects the children of an element, remembers them
+             * for the rest of the comparison if one is running.
+             */
+            @SuppressWarnings("unchecked")
+            private List<Node> select(Element e) {
+                Map<Node, Object> selected = SelectorMemo.forOwner(this);
+                if (selected == null) {
+                    return evaluate(e);
+                }
+                List<Node> children = (List<Node>) selected.get(e);
+                if (children == null) {
+                    children = evaluate(e);
+                    selected.put(e, children);
+                }
+                return children;
+            }
+
+            private List<Node> evaluate(Element e) {
+                if (compiled == null) {
+                    return Linqy.asList(engine.selectNodes(xpath, e));
+                }
+                try {
+                    return IterableNodeList
+                        .asList((NodeList) compiled.evaluate(e, XPathConstants.NODESET));
+                } catch (XPathExpressionException ex) {
+                    throw new XMLUnitException(ex);
+                }
             }
         };
     }
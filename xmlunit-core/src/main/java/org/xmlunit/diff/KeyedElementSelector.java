@@ -0,0 +1,42 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import org.w3c.dom.Element;
+
+/**
+ * {@link ElementSelector} whose decision only depends on a key that
+ * can be computed for each element individually.
+ *
+ * <p>Two elements can be compared if and only if their keys are not
+ * null and equal. This allows {@link DefaultNodeMatcher} to put the
+ * test elements into hash buckets by key rather than asking the
+ * selector for each pair of control and test elements.</p>
+ *
+ * <p>Implementations must ensure {@link #canBeCompared} is
+ * consistent with the keys returned by {@link #getKey}.</p>
+ *
+ * @since XMLUnit 2.12.1
+ */
+public interface KeyedElementSelector extends ElementSelector {
+    /**
+     * Computes the key of an element.
+     *
+     * @param element the element to compute the key for
+     * @return the key with proper {@code equals} and {@code hashCode}
+     * implementations or null if the element cannot be compared to
+     * any other element
+     */
+    Object getKey(Element element);
+}
@@ -13,6 +13,10 @@
 */
 package org.xmlunit.diff;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.xmlunit.util.Nodes;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.Text;
@@ -33,9 +37,17 @@
  * ElementSelectors and may need to be combined inside a {@link
  * ElementSelectors#conditionalSelector conditionalSelector} in order
  * to be useful for the document as a whole.</p>
+ *
+ * <p>While a {@link DOMDifferenceEngine} is running the selector
+ * collects the names and the text along the path of nested elements
+ * once for each element and compares these fingerprints rather than
+ * walking both paths for each pair of elements.</p>
  */
 public class MultiLevelByNameAndTextSelector implements ElementSelector {
 
+    // marks elements that cannot be compared to any other element
+    private static final Object NO_FINGERPRINT = new Object();
+
     private final int levels;
     private final boolean ignoreEmptyTexts;
 
@@ -70,6 +82,14 @@ public MultiLevelByNameAndTextSelector(int levels, boolean ignoreEmptyTexts) {
     @Override
     public boolean canBeCompared(Element controlElement,
                                  Element testElement) {
+        if (controlElement != null && testElement != null) {
+            Map<Node, Object> fingerprints = SelectorMemo.forOwner(this);
+            if (fingerprints != null) {
+                Object controlFingerprint = fingerprint(controlElement, fingerprints);
+                return controlFingerprint != NO_FINGERPRINT
+                    && controlFingerprint.equals(fingerprint(testElement, fingerprints));
+            }
+        }
         Element currentControl = controlElement;
         Element currentTest = testElement;
 
@@ -96,6 +116,39 @@ public boolean canBeCompared(Element controlElement,
                                                             currentTest);
     }
 
+    /**
+     * The names of the elements on the path {@code levels} deep and
+     * the text nested into the last one or {@link #NO_FINGERPRINT}
+     * if there is no such path.
+     */
+    private Object fingerprint(Element e, Map<Node, Object> fingerprints) {
+        Object f = fingerprints.get(e);
+        if (f == null) {
+            f = computeFingerprint(e);
+            fingerprints.put(e, f);
+        }
+        return f;
+    }
+
+    private Object computeFingerprint(Element e) {
+        List<Object> path = new ArrayList<Object>(levels + 1);
+        Element current = e;
+        for (int currentLevel = 0; currentLevel <= levels - 2; currentLevel++) {
+            if (!current.hasChildNodes()) {
+                return NO_FINGERPRINT;
+            }
+            path.add(Nodes.getQName(current));
+            Node n = getFirstEligibleChild(current);
+            if (n.getNodeType() != Node.ELEMENT_NODE) {
+                return NO_FINGERPRINT;
+            }
+            current = (Element) n;
+        }
+        path.add(Nodes.getQName(current));
+        path.add(ElementSelectors.getMergedNestedText(current));
+        return path;
+    }
+
     private Node getFirstEligibleChild(Node parent) {
         Node n1 = parent.getFirstChild();
         if (ignoreEmptyTexts) {
@@ -0,0 +1,70 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import org.w3c.dom.Node;
+import org.xmlunit.util.Predicate;
+
+/**
+ * Node filter that rejects all nodes of the given types.
+ *
+ * <p>Unlike an arbitrary {@link Predicate} the decision of this
+ * filter is known to only depend on the node type. This allows
+ * {@link org.xmlunit.builder.DiffBuilder} to skip comments and
+ * processing instructions rejected by the filter while parsing the
+ * documents, see {@link
+ * org.xmlunit.builder.DiffBuilder#withNodeFilter}.</p>
+ *
+ * <p>Unlike {@link NodeFilters#Default} this filter accepts document
+ * type declarations unless {@link Node#DOCUMENT_TYPE_NODE} is among
+ * the excluded types.</p>
+ *
+ * @since XMLUnit 2.12.1
+ */
+public final class NodeTypeFilter implements Predicate<Node> {
+
+    private final boolean[] excluded = new boolean[Node.NOTATION_NODE + 1];
+
+    /**
+     * Creates a filter that rejects nodes of the given types.
+     *
+     * @param excludedTypes the types of nodes to reject, constants
+     * defined by {@link Node}
+     * @throws IllegalArgumentException if any of the types is not
+     * a valid node type
+     */
+    public NodeTypeFilter(short... excludedTypes) {
+        for (short type : excludedTypes) {
+            if (type < Node.ELEMENT_NODE || type > Node.NOTATION_NODE) {
+                throw new IllegalArgumentException("not a valid node type: " + type);
+            }
+            excluded[type] = true;
+        }
+    }
+
+    /**
+     * Whether nodes of the given type are rejected by this filter.
+     *
+     * @param nodeType the node type
+     * @return true if nodes of this type are rejected
+     */
+    public boolean excludes(short nodeType) {
+        return nodeType >= 0 && nodeType < excluded.length && excluded[nodeType];
+    }
+
+    @Override
+    public boolean test(Node n) {
+        return !excludes(n.getNodeType());
+    }
+}
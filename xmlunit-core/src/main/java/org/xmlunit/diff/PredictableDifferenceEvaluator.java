@@ -0,0 +1,41 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.util.Set;
+
+/**
+ * {@link TypedDifferenceEvaluator} that also declares which outcomes
+ * it may turn a given outcome into.
+ *
+ * <p>This allows difference engines to skip comparisons whose
+ * outcome can't be observed by anybody, see {@link
+ * DOMDifferenceEngine#setSkippedComparisonTypes}.</p>
+ *
+ * @since XMLUnit 2.12.1
+ */
+public interface PredictableDifferenceEvaluator extends TypedDifferenceEvaluator {
+    /**
+     * The outcomes {@link #evaluate} may return for a comparison of
+     * the given type when invoked with the given outcome.
+     *
+     * <p>Only invoked for types contained in {@link
+     * #getComparisonTypes}.</p>
+     *
+     * @param type the type of comparison
+     * @param outcome the outcome passed to {@link #evaluate}
+     * @return the possible results, must not be empty
+     */
+    Set<ComparisonResult> getPossibleOutcomes(ComparisonType type, ComparisonResult outcome);
+}
@@ -0,0 +1,86 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.w3c.dom.Node;
+
+/**
+ * Remembers values {@link ElementSelector}s compute for individual
+ * nodes for the duration of a single comparison.
+ *
+ * <p>Many selectors are singletons shared by all comparisons, so the
+ * memo of the comparison running on the current thread is kept in a
+ * thread local. {@link DOMDifferenceEngine} {@link #enter enters} a
+ * new memo when a comparison starts and {@link #leave leaves} it when
+ * the comparison is done, so values never outlive the comparison -
+ * and the documents are not modified while it is running. Outside of
+ * a comparison there is no memo and selectors compute all values
+ * from scratch.</p>
+ */
+final class SelectorMemo {
+
+    private static final ThreadLocal<SelectorMemo> CURRENT = new ThreadLocal<SelectorMemo>();
+
+    private final Map<Object, Map<Node, Object>> values = new HashMap<Object, Map<Node, Object>>();
+
+    private SelectorMemo() { }
+
+    /**
+     * Installs a new memo for the current thread.
+     *
+     * @return the memo that has been active before, needs to be
+     * passed to {@link #leave}
+     */
+    static SelectorMemo enter() {
+        SelectorMemo previous = CURRENT.get();
+        CURRENT.set(new SelectorMemo());
+        return previous;
+    }
+
+    /**
+     * Restores the memo that has been active before {@link #enter}
+     * has been called.
+     */
+    static void leave(SelectorMemo previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * The values remembered for the given owner inside the current
+     * comparison, keyed by node identity.
+     *
+     * @param owner identifies the kind of value remembered - values
+     * of different owners are kept separate
+     * @return null if no comparison is running on the current thread
+     */
+    static Map<Node, Object> forOwner(Object owner) {
+        SelectorMemo memo = CURRENT.get();
+        if (memo == null) {
+            return null;
+        }
+        Map<Node, Object> m = memo.values.get(owner);
+        if (m == null) {
+            m = new IdentityHashMap<Node, Object>();
+            memo.values.put(owner, m);
+        }
+        return m;
+    }
+}
@@ -0,0 +1,384 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import javax.xml.namespace.QName;
+import org.xmlunit.XMLUnitException;
+
+/**
+ * Stores differences in a compact serialized form and writes them to
+ * a temporary file once they occupy more than a given number of bytes
+ * in memory.
+ *
+ * <p>Iterating creates a new {@link Difference} for each stored
+ * difference on demand. The nodes the comparisons have been applied
+ * to are not retained, {@link Comparison.Detail#getTarget} returns
+ * null. XPaths are retained, as are values that are strings,
+ * booleans, numbers or {@link QName}s - all other values are replaced
+ * by their string representation. The description created by the
+ * {@link ComparisonFormatter} given to the constructor is retained as
+ * well and returned by {@link Comparison#toString(ComparisonFormatter)}
+ * when invoked with the same formatter.</p>
+ *
+ * <p>The temporary file is only deleted by {@link #close} - or
+ * {@link Diff#close} of a {@link Diff} holding the differences - so
+ * long running processes don't accumulate files to delete on
+ * exit. Instances of this class are not thread-safe.</p>
+ *
+ * @see org.xmlunit.builder.DiffBuilder#withSerializedDifferences
+ * @since XMLUnit 2.12.1
+ */
+public final class SerializedDifferences implements Iterable<Difference>, Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte SHORT = 2;
+    private static final byte INTEGER = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte QNAME = 5;
+
+    private static final ComparisonType[] TYPES = ComparisonType.values();
+    private static final ComparisonResult[] RESULTS = ComparisonResult.values();
+
+    private final ComparisonFormatter formatter;
+    private final int memoryThreshold;
+    private final Buffer buffer = new Buffer();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private File file;
+    private long fileLength;
+    private int size;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param formatter formatter used to describe the differences
+     * @param memoryThreshold number of bytes the serialized
+     * differences may occupy in memory before they are written to a
+     * temporary file
+     */
+    public SerializedDifferences(ComparisonFormatter formatter, int memoryThreshold) {
+        if (formatter == null) {
+            throw new IllegalArgumentException("formatter must not be null");
+        }
+        if (memoryThreshold < 0) {
+            throw new IllegalArgumentException("memoryThreshold must not be negative");
+        }
+        this.formatter = formatter;
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    /**
+     * Stores a difference.
+     *
+     * @param comparison the comparison performed
+     * @param outcome its outcome
+     * @throws XMLUnitException if writing the temporary file fails
+     */
+    public void add(Comparison comparison, ComparisonResult outcome) {
+        try {
+            out.writeByte(comparison.getType().ordinal());
+            out.writeByte(outcome.ordinal());
+            writeDetail(comparison.getControlDetails());
+            writeDetail(comparison.getTestDetails());
+            writeString(comparison.toString(formatter));
+            size++;
+            if (buffer.size() > memoryThreshold) {
+                spill();
+            }
+        } catch (IOException ex) {
+            throw new XMLUnitException("Failed to store difference", ex);
+        }
+    }
+
+    /**
+     * @return the number of differences stored.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return whether the differences have been written to a
+     * temporary file.
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * The formatter used to describe the differences.
+     *
+     * @return the formatter
+     */
+    public ComparisonFormatter getComparisonFormatter() {
+        return formatter;
+    }
+
+    /**
+     * Iterates over the stored differences creating them on demand.
+     *
+     * @throws XMLUnitException if reading the temporary file fails
+     */
+    @Override
+    public Iterator<Difference> iterator() {
+        return new DifferenceIterator();
+    }
+
+    /**
+     * Discards all differences and deletes the temporary file.
+     */
+    @Override
+    public void close() {
+        size = 0;
+        fileLength = 0;
+        buffer.reset();
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+
+    private void spill() throws IOException {
+        if (file == null) {
+            file = File.createTempFile("xmlunit-differences", ".bin");
+        }
+        OutputStream fos = new FileOutputStream(file, true);
+        try {
+            buffer.writeTo(fos);
+        } finally {
+            fos.close();
+        }
+        fileLength += buffer.size();
+        buffer.reset();
+    }
+
+    private void writeDetail(Comparison.Detail detail) throws IOException {
+        writeString(detail.getXPath());
+        writeString(detail.getParentXPath());
+        Object value = detail.getValue();
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof QName) {
+            QName q = (QName) value;
+            out.writeByte(QNAME);
+            writeString(q.getNamespaceURI());
+            writeString(q.getLocalPart());
+            writeString(q.getPrefix());
+        } else {
+            out.writeByte(STRING);
+            writeString(value.toString());
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        switch (in.readByte()) {
+        case NULL:
+            return null;
+        case SHORT:
+            return in.readShort();
+        case INTEGER:
+            return in.readInt();
+        case BOOLEAN:
+            return in.readBoolean();
+        case QNAME:
+            String ns = readString(in);
+            String local = readString(in);
+            return new QName(ns, local, readString(in));
+        default:
+            return readString(in);
+        }
+    }
+
+    private class DifferenceIterator implements Iterator<Difference> {
+        private final int expectedSize = size;
+        private DataInputStream in;
+        private int index;
+
+        @Override
+        public boolean hasNext() {
+            return index < expectedSize;
+        }
+
+        @Override
+        public Difference next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (size != expectedSize) {
+                throw new ConcurrentModificationException();
+            }
+            if (in == null) {
+                in = new DataInputStream(new BufferedInputStream(new StoreInputStream(), READ_BUFFER_SIZE));
+            }
+            try {
+                ComparisonType type = TYPES[in.readByte()];
+                ComparisonResult result = RESULTS[in.readByte()];
+                String controlXPath = readString(in);
+                String controlParentXPath = readString(in);
+                Object controlValue = readValue(in);
+                String testXPath = readString(in);
+                String testParentXPath = readString(in);
+                Object testValue = readValue(in);
+                String description = readString(in);
+                index++;
+                Difference d =
+                    new Difference(new StoredComparison(type,
+                                                        controlXPath, controlValue, controlParentXPath,
+                                                        testXPath, testValue, testParentXPath,
+                                                        description),
+                                   result);
+                d.setComparisonFormatter(formatter);
+                return d;
+            } catch (IOException ex) {
+                throw new XMLUnitException("Failed to read stored difference", ex);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Reads the temporary file followed by the in-memory buffer.
+     *
+     * <p>The file is opened on the first read and closed once it has
+     * been read completely.</p>
+     */
+    private class StoreInputStream extends InputStream {
+        private long position;
+        private RandomAccessFile raf;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position < fileLength) {
+                int n = (int) Math.min(len, fileLength - position);
+                if (raf == null) {
+                    raf = new RandomAccessFile(file, "r");
+                }
+                try {
+                    raf.readFully(b, off, n);
+                } catch (IOException ex) {
+                    close();
+                    throw ex;
+                }
+                position += n;
+                if (position >= fileLength) {
+                    close();
+                }
+                return n;
+            }
+            int bufferPosition = (int) (position - fileLength);
+            int n = Math.min(len, buffer.size() - bufferPosition);
+            if (n <= 0) {
+                return -1;
+            }
+            buffer.copy(bufferPosition, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (raf != null) {
+                raf.close();
+                raf = null;
+            }
+        }
+    }
+
+    private static class Buffer extends ByteArrayOutputStream {
+        private void copy(int from, byte[] b, int off, int len) {
+            System.arraycopy(buf, from, b, off, len);
+        }
+    }
+
+    /**
+     * A comparison recreated from its serialized form.
+     */
+    private final class StoredComparison extends Comparison {
+        private final String description;
+
+        private StoredComparison(ComparisonType type,
+                                 String controlXPath, Object controlValue, String controlParentXPath,
+                                 String testXPath, Object testValue, String testParentXPath,
+                                 String description) {
+            super(type, null, controlXPath, controlValue, controlParentXPath,
+                  null, testXPath, testValue, testParentXPath);
+            this.description = description;
+        }
+
+        @Override
+        public String toString(ComparisonFormatter f) {
+            return f == formatter ? description : super.toString(f);
+        }
+    }
+}
@@ -0,0 +1,706 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package org.xmlunit.diff;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Source;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamSource;
+import org.xmlunit.XMLUnitException;
+import org.xmlunit.input.CombinedNormalizedSource.Normalization;
+import org.xmlunit.input.CommentFilteredSource;
+import org.xmlunit.input.NormalizingXMLStreamReader;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.DocumentBuilderPool;
+import org.xmlunit.util.JAXPFactories;
+import org.xmlunit.util.Nodes;
+import org.xml.sax.InputSource;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Difference engine that pulls both documents through an {@link
+ * XMLStreamReader} and compares them in document order without ever
+ * holding a complete DOM tree in memory.
+ *
+ * <p>For each node read a "shallow" DOM node is created that holds
+ * the node's name, namespace and attributes - or its text - but none
+ * of its children. Only the shallow nodes of the elements currently
+ * open are kept, so the memory required depends on the depth of the
+ * documents and not on their size. The shallow nodes are used as
+ * targets of the {@link Comparison}s and are compared the same way
+ * {@link DOMDifferenceEngine} compares the corresponding nodes, so
+ * the same {@link ComparisonType}s are reported.</p>
+ *
+ * <p>As only one pair of child nodes is visible at any time this
+ * engine supports a subset of the semantics of {@link
+ * DOMDifferenceEngine}:</p>
+ *
+ * <ul>
+ *
+ * <li>The n-th child of a control node can only ever be matched
+ * with the n-th child of the corresponding test node. The configured
+ * {@link NodeMatcher} is asked whether those two nodes match and if
+ * they don't both are reported as {@link
+ * ComparisonType#CHILD_LOOKUP} differences. This means {@link
+ * ComparisonType#CHILD_NODELIST_SEQUENCE} will never be
+ * different.</li>
+ *
+ * <li>The {@link NodeMatcher} and the configured node filter only
+ * see the shallow nodes, {@link ElementSelector}s that look at child
+ * nodes won't work as expected.</li>
+ *
+ * <li>{@link ComparisonType#CHILD_NODELIST_LENGTH} is reported after
+ * all children have been compared rather than before and {@link
+ * ComparisonType#CHILD_LOOKUP} is reported as soon as an unmatched
+ * child is found.</li>
+ *
+ * <li>DTDs are not processed, only the name, public and system id of
+ * the document type declaration are compared.</li>
+ *
+ * </ul>
+ *
+ * <p>{@link Source}s that are neither {@link StreamSource}s nor
+ * {@link StAXSource}s are serialized using an identity
+ * transformation first.</p>
+ *
+ * <p>Whitespace and comments can be normalized while the documents
+ * are read using {@link #setNormalizations}, wrapping the sources in
+ * a {@link org.xmlunit.input.CombinedNormalizedSource} or one of the
+ * other normalizing sources would parse them into DOM trees.</p>
+ *
+ * @since XMLUnit 2.12.1
+ */
+public final class StAXDifferenceEngine extends AbstractDifferenceEngine {
+
+    private static final Pattern DOCTYPE =
+        Pattern.compile("<!DOCTYPE\\s+([^\\s\\[>]+)"
+                        + "(?:\\s+(?:SYSTEM\\s+(?:\"([^\"]*)\"|'([^']*)')"
+                        + "|PUBLIC\\s+(?:\"([^\"]*)\"|'([^']*)')\\s+(?:\"([^\"]*)\"|'([^']*)')))?");
+
+    private final XMLInputFactory inputFactory;
+    private final DocumentBuilderFactory documentBuilderFactory;
+    private final DocumentBuilderPool documentBuilderPool;
+    private Collection<Normalization> normalizations = Collections.emptySet();
+
+    /**
+     * Creates a new StAXDifferenceEngine using the {@link
+     * XMLInputFactory} of {@link JAXPFactories#getXMLInputFactory}
+     * that doesn't process DTDs.
+     */
+    public StAXDifferenceEngine() {
+        inputFactory = null;
+        documentBuilderFactory = JAXPFactories.getDocumentBuilderFactory();
+        documentBuilderPool = DocumentBuilderPool.forFactory(documentBuilderFactory);
+    }
+
+    /**
+     * Creates a new StAXDifferenceEngine.
+     *
+     * @param f {@code XMLInputFactory} to use when creating {@link
+     * XMLStreamReader}s for the {@link Source}s to compare. It
+     * should be namespace aware and replace entity references.
+     */
+    public StAXDifferenceEngine(final XMLInputFactory f) {
+        this(f, JAXPFactories.getDocumentBuilderFactory());
+    }
+
+    /**
+     * Creates a new StAXDifferenceEngine.
+     *
+     * @param f {@code XMLInputFactory} to use when creating {@link
+     * XMLStreamReader}s for the {@link Source}s to compare. It
+     * should be namespace aware and replace entity references.
+     * @param dbf {@code DocumentBuilderFactory} used to create the
+     * document the shallow nodes belong to.
+     */
+    public StAXDifferenceEngine(final XMLInputFactory f, final DocumentBuilderFactory dbf) {
+        if (f == null) {
+            throw new IllegalArgumentException("factory must not be null");
+        }
+        if (dbf == null) {
+            throw new IllegalArgumentException("document builder factory must not be null");
+        }
+        inputFactory = f;
+        documentBuilderFactory = dbf;
+        documentBuilderPool = DocumentBuilderPool.forFactory(dbf);
+    }
+
+    /**
+     * Applies the given normalizations to both documents while they
+     * are read using a {@link NormalizingXMLStreamReader}.
+     *
+     * @param normalizations the normalizations to apply, may be
+     * empty
+     * @throws IllegalArgumentException if {@code normalizations} is
+     * null
+     */
+    public void setNormalizations(Collection<Normalization> normalizations) {
+        if (normalizations == null) {
+            throw new IllegalArgumentException("normalizations must not be null");
+        }
+        this.normalizations = normalizations.isEmpty()
+            ? Collections.<Normalization>emptySet()
+            : Collections.unmodifiableSet(EnumSet.copyOf(normalizations));
+    }
+
+    /**
+     * The factory given to the constructor or the current thread's
+     * default factory.
+     */
+    private XMLInputFactory inputFactory() {
+        return inputFactory != null ? inputFactory : JAXPFactories.getXMLInputFactory();
+    }
+
+    @Override
+    public void compare(Source control, Source test) {
+        if (control == null) {
+            throw new IllegalArgumentException("control must not be null");
+        }
+        if (test == null) {
+            throw new IllegalArgumentException("test must not be null");
+        }
+        XMLStreamReader controlReader = null;
+        XMLStreamReader testReader = null;
+        try {
+            controlReader = normalize(open(control));
+            testReader = normalize(open(test));
+            compareDocuments(new Side(controlReader, control instanceof CommentFilteredSource),
+                             new Side(testReader, test instanceof CommentFilteredSource));
+        } catch (Exception ex) {
+            throw new XMLUnitException("Caught exception during comparison",
+                                       ex);
+        } finally {
+            close(controlReader);
+            close(testReader);
+        }
+    }
+
+    private XMLStreamReader open(Source s) throws XMLStreamException {
+        if (s instanceof StAXSource && ((StAXSource) s).getXMLStreamReader() != null) {
+            return ((StAXSource) s).getXMLStreamReader();
+        }
+        XMLInputFactory f = inputFactory();
+        if (s instanceof StreamSource) {
+            return f.createXMLStreamReader(s);
+        }
+        InputSource is = Convert.toInputSource(s);
+        if (is.getByteStream() != null) {
+            return f.createXMLStreamReader(is.getSystemId(), is.getByteStream());
+        }
+        if (is.getCharacterStream() != null) {
+            return f.createXMLStreamReader(is.getSystemId(), is.getCharacterStream());
+        }
+        return f.createXMLStreamReader(new StreamSource(is.getSystemId()));
+    }
+
+    private XMLStreamReader normalize(XMLStreamReader r) {
+        return normalizations.isEmpty() ? r : new NormalizingXMLStreamReader(r, normalizations);
+    }
+
+    private static void close(XMLStreamReader r) {
+        if (r != null) {
+            try {
+                r.close();
+            } catch (XMLStreamException ex) {
+                // ignore, we are done with it anyway
+            }
+        }
+    }
+
+    /**
+     * Compares the document nodes and walks both documents in
+     * parallel keeping the pairs of elements currently open in an
+     * explicit stack.
+     */
+    private void compareDocuments(Side control, Side test) throws XMLStreamException {
+        DOMDifferenceEngine shallowEngine = createShallowEngine(control, test);
+
+        ComparisonState state =
+            compare(new Comparison(ComparisonType.NODE_TYPE,
+                                   control.context, control.document, control.document.getNodeType(),
+                                   test.context, test.document, test.document.getNodeType()))
+            .andThen(new Comparison(ComparisonType.NAMESPACE_URI,
+                                    control.context, control.document, null,
+                                    test.context, test.document, null))
+            .andThen(new Comparison(ComparisonType.NAMESPACE_PREFIX,
+                                    control.context, control.document, null,
+                                    test.context, test.document, null));
+        if (!state.isFinished()) {
+            state = compareDeclarations(shallowEngine, control, test);
+        }
+
+        Deque<ChildLists> open = new ArrayDeque<ChildLists>();
+        open.push(new ChildLists(control.document, test.document));
+        while (!state.isFinished() && !open.isEmpty()) {
+            ChildLists lists = open.peek();
+            Node c = lists.controlDone ? null : control.nextChild();
+            lists.controlDone = c == null;
+            Node t = lists.testDone ? null : test.nextChild();
+            lists.testDone = t == null;
+
+            if (c == null && t == null) {
+                state = compare(new Comparison(ComparisonType.CHILD_NODELIST_LENGTH,
+                                               control.context, lists.control, lists.controlLength,
+                                               test.context, lists.test, lists.testLength));
+                open.pop();
+                if (!open.isEmpty()) {
+                    control.leave(lists.control, true);
+                    test.leave(lists.test, true);
+                }
+            } else if (c != null && t != null && matches(c, t)) {
+                control.enter(c);
+                test.enter(t);
+                state = compare(new Comparison(ComparisonType.CHILD_NODELIST_SEQUENCE,
+                                               control.context, c, lists.controlLength++,
+                                               test.context, t, lists.testLength++));
+                if (!state.isFinished()) {
+                    state = toState(shallowEngine.compareNodesWithoutChildren(c, control.context,
+                                                                             t, test.context));
+                }
+                if (c instanceof Element && t instanceof Element) {
+                    control.descend(c);
+                    test.descend(t);
+                    open.push(new ChildLists(c, t));
+                } else {
+                    control.leave(c, false);
+                    test.leave(t, false);
+                }
+            } else {
+                if (c != null) {
+                    lists.controlLength++;
+                    control.enter(c);
+                    state = compare(new Comparison(ComparisonType.CHILD_LOOKUP,
+                                                   Comparison.Detail.of(c, control.context,
+                                                                        Nodes.getQName(c)),
+                                                   Comparison.Detail.absentChildOf(test.context)));
+                    if (state.getResult() != ComparisonResult.EQUAL) {
+                        control.markDiffering(c);
+                    }
+                    control.leave(c, false);
+                }
+                if (t != null && !state.isFinished()) {
+                    lists.testLength++;
+                    test.enter(t);
+                    state = compare(new Comparison(ComparisonType.CHILD_LOOKUP,
+                                                   Comparison.Detail.absentChildOf(control.context),
+                                                   Comparison.Detail.of(t, test.context,
+                                                                        Nodes.getQName(t))));
+                    if (state.getResult() != ComparisonResult.EQUAL) {
+                        test.markDiffering(t);
+                    }
+                    test.leave(t, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares the document type and XML declarations.
+     */
+    private ComparisonState compareDeclarations(DOMDifferenceEngine shallowEngine,
+                                                Side control, Side test) {
+        final DocumentType controlDt = filterNode(control.document.getDoctype());
+        final DocumentType testDt = filterNode(test.document.getDoctype());
+
+        ComparisonState state =
+            compare(new Comparison(ComparisonType.HAS_DOCTYPE_DECLARATION,
+                                   control.context, control.document,
+                                   Boolean.valueOf(controlDt != null),
+                                   test.context, test.document, Boolean.valueOf(testDt != null)));
+        if (!state.isFinished() && controlDt != null && testDt != null) {
+            state = toState(shallowEngine.compareNodesWithoutChildren(controlDt, control.context,
+                                                                     testDt, test.context))
+                .andThen(new Comparison(ComparisonType.CHILD_NODELIST_LENGTH,
+                                        control.context, controlDt, 0,
+                                        test.context, testDt, 0));
+        }
+        return state
+            .andThen(new Comparison(ComparisonType.XML_VERSION,
+                                    control.context, control.document, control.document.getXmlVersion(),
+                                    test.context, test.document, test.document.getXmlVersion()))
+            .andThen(new Comparison(ComparisonType.XML_STANDALONE,
+                                    control.context, control.document, control.document.getXmlStandalone(),
+                                    test.context, test.document, test.document.getXmlStandalone()))
+            .andThen(new Comparison(ComparisonType.XML_ENCODING,
+                                    control.context, control.document, control.encoding,
+                                    test.context, test.document, test.encoding));
+    }
+
+    private <T extends Node> T filterNode(T n) {
+        return n != null && getNodeFilter().test(n) ? n : null;
+    }
+
+    /**
+     * Asks the NodeMatcher whether the given nodes match.
+     */
+    private boolean matches(Node control, Node test) {
+        return getNodeMatcher().match(Collections.singletonList(control),
+                                      Collections.singletonList(test))
+            .iterator().hasNext();
+    }
+
+    /**
+     * Creates the engine used to compare pairs of shallow nodes which
+     * reports its comparisons to the listeners of this engine.
+     */
+    private DOMDifferenceEngine createShallowEngine(final Side control, final Side test) {
+        DOMDifferenceEngine d = new DOMDifferenceEngine(documentBuilderFactory);
+        d.setDifferenceEvaluator(getDifferenceEvaluator());
+        d.setComparisonController(getComparisonController());
+        d.setAttributeFilter(getAttributeFilter());
+        d.setNodeFilter(getNodeFilter());
+        if (getNamespaceContext() != null) {
+            d.setNamespaceContext(getNamespaceContext());
+        }
+        ComparisonListener forwarder = new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    if (outcome != ComparisonResult.EQUAL) {
+                        control.markDiffering(comparison.getControlDetails().getTarget());
+                        test.markDiffering(comparison.getTestDetails().getTarget());
+                    }
+                    fireComparisonPerformed(comparison, outcome);
+                }
+            };
+        // only observe equal outcomes if somebody is interested in
+        // them, so the shallow engine may skip equal comparisons
+        if (hasEqualOutcomeListeners()) {
+            d.addComparisonListener(forwarder);
+        } else {
+            d.addDifferenceListener(forwarder);
+        }
+        return d;
+    }
+
+    /**
+     * Translates a state of the engine comparing shallow nodes.
+     */
+    private ComparisonState toState(ComparisonState other) {
+        return other.isFinished()
+            ? new FinishedComparisonState(other.getResult())
+            : new OngoingComparisonState(other.getResult());
+    }
+
+    /**
+     * The pair of nodes whose children are currently compared.
+     */
+    private static class ChildLists {
+        private final Node control, test;
+        private int controlLength, testLength;
+        private boolean controlDone, testDone;
+
+        private ChildLists(Node control, Node test) {
+            this.control = control;
+            this.test = test;
+        }
+    }
+
+    /**
+     * One of the documents being compared.
+     *
+     * <p>Creates shallow nodes for the events read and keeps the
+     * shallow nodes of all currently open elements as a chain of
+     * parents so that things like namespace lookups work.</p>
+     */
+    private final class Side {
+        private final XMLStreamReader reader;
+        private final Document document;
+        private final XPathContext context;
+        private final Deque<Node> prolog = new ArrayDeque<Node>();
+        private final boolean skipComments;
+        private String encoding;
+        // the node new children are appended to
+        private Node current;
+        // true if the reader is positioned at an event that has not
+        // been consumed, yet
+        private boolean pending;
+        // children of open elements a difference refers to
+        private final Set<Node> differing =
+            Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        // copies of open elements adopting the differing children
+        // that have already been left
+        private final Map<Node, Node> detachedCopies = new IdentityHashMap<Node, Node>();
+
+        private Side(XMLStreamReader reader, boolean skipComments) throws XMLStreamException {
+            this.reader = reader;
+            this.skipComments = skipComments;
+            document = documentBuilderPool.newDocument();
+            context = new XPathContext(getNamespaceContext());
+            context.navigateToNextChild(new XPathContext.DOMNodeInfo(document));
+            current = document;
+            if (reader.getEventType() == XMLStreamConstants.START_DOCUMENT) {
+                if (reader.getVersion() != null) {
+                    document.setXmlVersion(reader.getVersion());
+                }
+                document.setXmlStandalone(reader.isStandalone());
+                encoding = reader.getCharacterEncodingScheme();
+            } else {
+                pending = true;
+            }
+            readProlog();
+        }
+
+        /**
+         * Reads everything up to the document element so the
+         * document type declaration is known before the document's
+         * children are compared.
+         */
+        private void readProlog() throws XMLStreamException {
+            while (true) {
+                int event = pending ? reader.getEventType() : reader.next();
+                pending = false;
+                switch (event) {
+                case XMLStreamConstants.DTD:
+                    DocumentType dt = parseDoctype(reader.getText());
+                    if (dt != null && document.getDoctype() == null) {
+                        document.appendChild(dt);
+                    }
+                    break;
+                case XMLStreamConstants.COMMENT:
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    prolog.add(createNode(event));
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                case XMLStreamConstants.END_DOCUMENT:
+                    pending = true;
+                    return;
+                default:
+                    // whitespace outside of the document element
+                    break;
+                }
+            }
+        }
+
+        private DocumentType parseDoctype(String declaration) {
+            Matcher m = declaration == null ? null : DOCTYPE.matcher(declaration);
+            if (m == null || !m.find()) {
+                return null;
+            }
+            String publicId = m.group(4) != null ? m.group(4) : m.group(5);
+            String systemId = m.group(2) != null ? m.group(2)
+                : m.group(3) != null ? m.group(3)
+                : m.group(6) != null ? m.group(6) : m.group(7);
+            return document.getImplementation().createDocumentType(m.group(1), publicId, systemId);
+        }
+
+        /**
+         * Reads the next child of the current node that passes the
+         * node filter and appends it to the current node.
+         *
+         * @return null if there are no more children
+         */
+        private Node nextChild() throws XMLStreamException {
+            while (true) {
+                Node n = prolog.poll();
+                if (n == null) {
+                    n = readChild();
+                }
+                if (n == null) {
+                    return null;
+                }
+                current.appendChild(n);
+                if (getNodeFilter().test(n) && !(skipComments && n.getNodeType() == Node.COMMENT_NODE)) {
+                    return n;
+                }
+                // still counts when calculating XPaths
+                enter(n);
+                leave(n, false);
+            }
+        }
+
+        private Node readChild() throws XMLStreamException {
+            while (true) {
+                int event = pending ? reader.getEventType() : reader.next();
+                pending = false;
+                switch (event) {
+                case XMLStreamConstants.END_ELEMENT:
+                case XMLStreamConstants.END_DOCUMENT:
+                    return null;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.CDATA:
+                    if (current != document) {
+                        return createNode(event);
+                    }
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                case XMLStreamConstants.COMMENT:
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    return createNode(event);
+                default:
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Creates the shallow node for the event the reader is
+         * positioned at.
+         */
+        private Node createNode(int event) throws XMLStreamException {
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                return createElement();
+            case XMLStreamConstants.COMMENT:
+                return document.createComment(reader.getText());
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                return document.createProcessingInstruction(reader.getPITarget(),
+                                                            reader.getPIData() == null
+                                                            ? "" : reader.getPIData());
+            case XMLStreamConstants.CDATA:
+                return document.createCDATASection(readText(true));
+            default:
+                return document.createTextNode(readText(false));
+            }
+        }
+
+        private Element createElement() {
+            Element e = document.createElementNS(emptyToNull(reader.getNamespaceURI()),
+                                                 qualifiedName(reader.getPrefix(),
+                                                               reader.getLocalName()));
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                String prefix = reader.getNamespacePrefix(i);
+                String uri = reader.getNamespaceURI(i);
+                e.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                                 qualifiedName(prefix == null || prefix.length() == 0
+                                               ? null : XMLConstants.XMLNS_ATTRIBUTE,
+                                               prefix == null || prefix.length() == 0
+                                               ? XMLConstants.XMLNS_ATTRIBUTE : prefix),
+                                 uri == null ? "" : uri);
+            }
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                e.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                                 qualifiedName(reader.getAttributePrefix(i),
+                                               reader.getAttributeLocalName(i)),
+                                 reader.getAttributeValue(i));
+            }
+            return e;
+        }
+
+        /**
+         * Merges the text of consecutive character events of the same
+         * kind just like a DOM parser would.
+         */
+        private String readText(boolean cdata) throws XMLStreamException {
+            String first = reader.getText();
+            StringBuilder sb = null;
+            while (true) {
+                int event = reader.next();
+                boolean sameKind = cdata ? event == XMLStreamConstants.CDATA
+                    : event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE;
+                if (!sameKind) {
+                    pending = true;
+                    return sb == null ? first : sb.toString();
+                }
+                if (sb == null) {
+                    sb = new StringBuilder(first);
+                }
+                sb.append(reader.getText());
+            }
+        }
+
+        /**
+         * Navigates the XPathContext to a node returned by nextChild.
+         */
+        private void enter(Node n) {
+            context.navigateToNextChild(new XPathContext.DOMNodeInfo(n));
+        }
+
+        /**
+         * Makes a node returned by nextChild the one new children are
+         * appended to.
+         */
+        private void descend(Node n) {
+            current = n;
+        }
+
+        /**
+         * Navigates back to the parent of a node returned by
+         * nextChild, skipping its subtree if it hasn't been descended
+         * into.
+         */
+        private void leave(Node n, boolean descended) throws XMLStreamException {
+            if (!descended && n instanceof Element) {
+                skipSubtree();
+            }
+            context.navigateToParent();
+            Node parent = n.getParentNode();
+            current = parent;
+            if (parent instanceof Element) {
+                parent.removeChild(n);
+                if (differing.remove(n)) {
+                    // a difference refers to the child, keep it
+                    // below a copy of the parent so it can still be
+                    // formatted
+                    Node copy = detachedCopies.get(parent);
+                    if (copy == null) {
+                        copy = parent.cloneNode(false);
+                        detachedCopies.put(parent, copy);
+                    }
+                    copy.appendChild(n);
+                }
+            }
+            detachedCopies.remove(n);
+        }
+
+        /**
+         * Remembers that a difference refers to a node so it keeps a
+         * parent once it has been left.
+         */
+        private void markDiffering(Node n) {
+            if (n != null && n.getOwnerDocument() == document) {
+                differing.add(n);
+            }
+        }
+
+        private void skipSubtree() throws XMLStreamException {
+            int depth = 1;
+            while (depth > 0) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+        }
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.length() == 0 ? null : s;
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.length() == 0 ? localName : prefix + ":" + localName;
+    }
+}
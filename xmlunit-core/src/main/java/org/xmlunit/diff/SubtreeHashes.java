@@ -0,0 +1,209 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package org.xmlunit.diff;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import org.xmlunit.util.Predicate;
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Computes and remembers structural hashes of subtrees.
+ *
+ * <p>The hash of a node covers its type, name, namespace URI,
+ * prefix, value, all attributes accepted by the attribute filter -
+ * plus all namespace declarations and schema instance attributes
+ * which {@link DOMDifferenceEngine} compares regardless of the filter
+ * - and the hashes of all children accepted by the node filter in
+ * document order. Two subtrees with the same hash are identical as
+ * far as {@link DOMDifferenceEngine} is concerned.</p>
+ *
+ * <p>Like the engine, attributes are hashed including whether they
+ * have been specified explicitly and {@code xsi:type} by its
+ * resolved QName rather than its lexical value.</p>
+ *
+ * <p>Each hash consists of two independently mixed 64 bit values so
+ * accidental collisions are extremely unlikely.</p>
+ */
+final class SubtreeHashes {
+
+    private final Predicate<Node> nodeFilter;
+    private final Predicate<Attr> attributeFilter;
+    private final Map<Node, Hash> hashes = new IdentityHashMap<Node, Hash>();
+
+    SubtreeHashes(Predicate<Node> nodeFilter, Predicate<Attr> attributeFilter) {
+        this.nodeFilter = nodeFilter;
+        this.attributeFilter = attributeFilter;
+    }
+
+    /**
+     * Whether the subtrees rooted at the given nodes have the same
+     * hash.
+     */
+    boolean haveEqualHashes(Node control, Node test) {
+        return hashOf(control).equals(hashOf(test));
+    }
+
+    /**
+     * Computes the hash of the subtree rooted at the given node
+     * without recursion and remembers the hashes of all nodes
+     * visited.
+     */
+    private Hash hashOf(Node root) {
+        Hash h = hashes.get(root);
+        if (h != null) {
+            return h;
+        }
+        // post-order traversal, each node is pushed twice, the second
+        // time after its children have been hashed
+        Deque<Node> todo = new ArrayDeque<Node>();
+        Deque<Boolean> childrenDone = new ArrayDeque<Boolean>();
+        todo.push(root);
+        childrenDone.push(Boolean.FALSE);
+        while (!todo.isEmpty()) {
+            Node n = todo.pop();
+            boolean done = childrenDone.pop().booleanValue();
+            if (hashes.containsKey(n)) {
+                continue;
+            }
+            if (!done) {
+                todo.push(n);
+                childrenDone.push(Boolean.TRUE);
+                for (Node c = n.getLastChild(); c != null; c = c.getPreviousSibling()) {
+                    if (nodeFilter.test(c)) {
+                        todo.push(c);
+                        childrenDone.push(Boolean.FALSE);
+                    }
+                }
+            } else {
+                hashes.put(n, computeHash(n));
+            }
+        }
+        return hashes.get(root);
+    }
+
+    private Hash computeHash(Node n) {
+        Hash h = new Hash();
+        h.add(n.getNodeType());
+        h.add(n.getNamespaceURI());
+        h.add(n.getPrefix());
+        h.add(n.getLocalName() != null ? n.getLocalName() : n.getNodeName());
+        h.add(n.getNodeValue());
+        NamedNodeMap attributes = n.getAttributes();
+        if (attributes != null) {
+            // attribute order is irrelevant
+            long sumA = 0, sumB = 0;
+            int count = 0;
+            final int len = attributes.getLength();
+            for (int i = 0; i < len; i++) {
+                Attr a = (Attr) attributes.item(i);
+                if (isAlwaysCompared(a) || attributeFilter.test(a)) {
+                    Hash ah = new Hash();
+                    ah.add(a.getNamespaceURI());
+                    ah.add(a.getLocalName() != null ? a.getLocalName() : a.getNodeName());
+                    ah.add(a.getPrefix());
+                    ah.add(a.getSpecified() ? 1 : 0);
+                    if (isXsiType(a)) {
+                        // compared as QName, the prefix doesn't matter but its binding does
+                        QName type = DOMDifferenceEngine.valueAsQName(a);
+                        ah.add(type.getNamespaceURI());
+                        ah.add(type.getLocalPart());
+                    } else {
+                        ah.add(a.getValue());
+                    }
+                    sumA += ah.a;
+                    sumB += ah.b;
+                    count++;
+                }
+            }
+            h.add(count);
+            h.add(sumA);
+            h.add(sumB);
+        }
+        int children = 0;
+        for (Node c = n.getFirstChild(); c != null; c = c.getNextSibling()) {
+            Hash ch = hashes.get(c);
+            if (ch != null) {
+                h.add(ch.a);
+                h.add(ch.b);
+                children++;
+            }
+        }
+        h.add(children);
+        return h;
+    }
+
+    private static boolean isAlwaysCompared(Attr a) {
+        String uri = a.getNamespaceURI();
+        return XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(uri)
+            || XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(uri);
+    }
+
+    private static boolean isXsiType(Attr a) {
+        return XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(a.getNamespaceURI())
+            && "type".equals(a.getLocalName());
+    }
+
+    private static final class Hash {
+        private long a = 0xcbf29ce484222325L;
+        private long b = 0x9e3779b97f4a7c15L;
+
+        private void add(long v) {
+            a = mix((a ^ v) * 0x100000001b3L);
+            b = mix(b * 0xc2b2ae3d27d4eb4fL + v + 0x165667b19e3779f9L);
+        }
+
+        private void add(String s) {
+            if (s == null) {
+                add(-1);
+                return;
+            }
+            add(s.length());
+            final int len = s.length();
+            for (int i = 0; i < len; i++) {
+                add(s.charAt(i));
+            }
+        }
+
+        private static long mix(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Hash)) {
+                return false;
+            }
+            Hash h = (Hash) other;
+            return a == h.a && b == h.b;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (a ^ (a >>> 32));
+        }
+    }
+}
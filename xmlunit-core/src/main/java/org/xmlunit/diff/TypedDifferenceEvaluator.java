@@ -0,0 +1,40 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.util.Set;
+
+/**
+ * {@link DifferenceEvaluator} that only ever alters the outcome of
+ * comparisons of certain types.
+ *
+ * <p>Evaluators combined via {@link DifferenceEvaluators#chain} or
+ * {@link DifferenceEvaluators#first} are not invoked at all for
+ * comparisons of other types.</p>
+ *
+ * @since XMLUnit 2.12.1
+ */
+public interface TypedDifferenceEvaluator extends DifferenceEvaluator {
+    /**
+     * The types of comparisons this evaluator may alter the outcome
+     * of.
+     *
+     * <p>{@link #evaluate} must return the outcome passed in for
+     * comparisons of any other type. The result must not change
+     * over the lifetime of the evaluator.</p>
+     *
+     * @return the types of comparisons
+     */
+    Set<ComparisonType> getComparisonTypes();
+}
@@ -13,14 +13,11 @@
 */
 package org.xmlunit.diff;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import javax.xml.namespace.QName;
 
@@ -34,15 +31,18 @@
  * comparison.
  */
 public class XPathContext implements Cloneable {
-    private Deque<Level> path = new LinkedList<Level>();
+    private Level[] path = new Level[16];
+    private int depth = -1;
     private final Map<String, String> uri2Prefix;
+    private Map<QName, String> elementNames = new HashMap<QName, String>();
+    private Map<QName, String> attributeNames = new HashMap<QName, String>();
 
     private static final String COMMENT = "comment()";
     private static final String PI = "processing-instruction()";
     private static final String TEXT = "text()";
-    private static final String OPEN = "[";
-    private static final String CLOSE = "]";
-    private static final String SEP = "/";
+    private static final char OPEN = '[';
+    private static final char CLOSE = ']';
+    private static final char SEP = '/';
     private static final String ATTR = "@";
     private static final String EMPTY = "";
 
@@ -81,7 +81,7 @@ public XPathContext(Map<String, String> prefix2uri, Node root) {
         } else {
             this.uri2Prefix = Collections.unmodifiableMap(invert(prefix2uri));
         }
-        path.addLast(new Level(EMPTY));
+        push(new Level(new Path(null, EMPTY, 0)));
         if (root != null) {
             setChildren(Linqy.singleton(new DOMNodeInfo(root)));
             navigateToChild(0);
@@ -93,7 +93,7 @@ public XPathContext(Map<String, String> prefix2uri, Node root) {
      * @param index index of child to navigate to
      */
     public void navigateToChild(int index) {
-        path.addLast(path.getLast().children.get(index));
+        push(path[depth].child(index));
     }
 
     /**
@@ -101,14 +101,18 @@ public void navigateToChild(int index) {
      * @param attribute name of attribute to navigate to
      */
     public void navigateToAttribute(QName attribute) {
-        path.addLast(path.getLast().attributes.get(attribute));
+        Map<QName, Level> attributes = path[depth].attributes;
+        push(attributes == null ? null : attributes.get(attribute));
     }
 
     /**
      * Moves back to the parent.
      */
     public void navigateToParent() {
-        path.removeLast();
+        if (depth < 0) {
+            throw new NoSuchElementException();
+        }
+        path[depth--] = null;
     }
 
     /**
@@ -116,10 +120,8 @@ public void navigateToParent() {
      * @param attributes attributes to add
      */
     public void addAttributes(Iterable<? extends QName> attributes) {
-        Level current = path.getLast();
         for (QName attribute : attributes) {
-            current.attributes.put(attribute,
-                                   new Level(ATTR + getName(attribute)));
+            addAttribute(attribute);
         }
     }
 
@@ -128,9 +130,12 @@ public void addAttributes(Iterable<? extends QName> attributes) {
      * @param attribute attribute to add
      */
     public void addAttribute(QName attribute) {
-        Level current = path.getLast();
+        Level current = path[depth];
+        if (current.attributes == null) {
+            current.attributes = new HashMap<QName, Level>();
+        }
         current.attributes.put(attribute,
-                               new Level(ATTR + getName(attribute)));
+                               new Level(new Path(current.path, getAttributeName(attribute), 0)));
     }
 
     /**
@@ -139,8 +144,7 @@ public void addAttribute(QName attribute) {
      * @param children children to add
      */
     public void setChildren(Iterable<? extends NodeInfo> children) {
-        Level current = path.getLast();
-        current.children.clear();
+        path[depth].clearChildren();
         appendChildren(children);
     }
 
@@ -150,59 +154,43 @@ public void setChildren(Iterable<? extends NodeInfo> children) {
      * @param children children to add
      */
     public void appendChildren(Iterable<? extends NodeInfo> children) {
-        Level current = path.getLast();
-        int comments, pis, texts;
-        comments = pis = texts = 0;
-        Map<String, Integer> elements = new HashMap<String, Integer>();
-
-        for (Level l : current.children) {
-            String childName = l.expression;
-            if (childName.startsWith(COMMENT)) {
-                comments++;
-            } else if (childName.startsWith(PI)) {
-                pis++;
-            } else if (childName.startsWith(TEXT)) {
-                texts++;
-            } else {
-                childName = childName.substring(0, childName.indexOf(OPEN));
-                add1OrIncrement(childName, elements);
-            }
+        Level current = path[depth];
+        if (current.counts == null) {
+            current.counts = new ChildCounts();
         }
-
         for (NodeInfo child : children) {
-            Level l;
-            switch (child.getType()) {
-            case Node.COMMENT_NODE:
-                l = new Level(COMMENT + OPEN + (++comments) + CLOSE);
-                break;
-            case Node.PROCESSING_INSTRUCTION_NODE:
-                l = new Level(PI + OPEN + (++pis) + CLOSE);
-                break;
-            case Node.CDATA_SECTION_NODE:
-            case Node.TEXT_NODE:
-                l = new Level(TEXT + OPEN + (++texts) + CLOSE);
-                break;
-            case Node.ELEMENT_NODE:
-                String name = getName(child.getName());
-                l = new Level(name + OPEN + add1OrIncrement(name, elements)
-                              + CLOSE);
-                break;
-            default:
-                // more or less ignore
-                // FIXME: is this a good thing?
-                l = new Level(EMPTY);
-                break;
-            }
-            current.children.add(l);
+            String name = getName(child);
+            current.addChild(name, current.counts.next(child.getType(), name));
         }
     }
 
+    /**
+     * Moves to a child of the current node that follows all children
+     * the current node has been navigated to this way.
+     *
+     * <p>Unlike {@link #appendChildren} the child is forgotten once
+     * {@link #navigateToParent} has been invoked, only the number of
+     * children seen so far is remembered so memory usage doesn't
+     * depend on the number of siblings. This is intended for
+     * traversing documents in a streaming fashion and must not be
+     * mixed with {@link #setChildren} or {@link #appendChildren} for
+     * the same node.</p>
+     */
+    void navigateToNextChild(NodeInfo child) {
+        Level current = path[depth];
+        if (current.counts == null) {
+            current.counts = new ChildCounts();
+        }
+        String name = getName(child);
+        push(new Level(new Path(current.path, name, current.counts.next(child.getType(), name))));
+    }
+
     /**
      * Stringifies the XPath of the current node.
      * @return current XPath
      */
     public String getXPath() {
-        return getXPath(path.descendingIterator());
+        return path[depth].path.getXPath();
     }
 
     /**
@@ -210,11 +198,42 @@ public String getXPath() {
      * @return parent's XPath
      */
     public String getParentXPath() {
-        Iterator<Level> levelIterator = path.descendingIterator();
-        if (levelIterator.hasNext()) {
-            levelIterator.next();
+        Path parent = path[depth].path.parent;
+        return parent == null ? EMPTY : parent.getXPath();
+    }
+
+    /**
+     * Creates a new XPathContext that starts at the current node of
+     * this context.
+     *
+     * <p>Unlike {@link #clone} this doesn't copy any knowledge about
+     * other nodes so it can't be used to navigate to the current
+     * node's parent or siblings.</p>
+     */
+    XPathContext detach() {
+        try {
+            XPathContext c = (XPathContext) super.clone();
+            c.elementNames = new HashMap<QName, String>();
+            c.attributeNames = new HashMap<QName, String>();
+            c.path = new Level[16];
+            c.depth = -1;
+            c.push(new Level(path[depth].path));
+            return c;
+        } catch (CloneNotSupportedException e) {
+            // impossible
+            throw new RuntimeException("XPathContext cannot be cloned?", e);
         }
-        return getXPath(levelIterator);
+    }
+
+    /**
+     * Immutable snapshot of the current node's location that can be
+     * turned into an XPath later.
+     *
+     * <p>Taking the snapshot is cheap, the XPath string is only built
+     * once it is requested.</p>
+     */
+    Path getCurrentPath() {
+        return path[depth].path;
     }
 
     /**
@@ -224,9 +243,11 @@ public String getParentXPath() {
     public XPathContext clone() {
         try {
             XPathContext c = (XPathContext) super.clone();
-            c.path = new LinkedList<Level>();
-            for (Level l: path) {
-                c.path.addLast(l.clone());
+            c.elementNames = new HashMap<QName, String>(elementNames);
+            c.attributeNames = new HashMap<QName, String>(attributeNames);
+            c.path = new Level[path.length];
+            for (int i = 0; i <= depth; i++) {
+                c.path[i] = path[i] == null ? null : path[i].clone();
             }
             return c;
         } catch (CloneNotSupportedException e) {
@@ -235,21 +256,49 @@ public XPathContext clone() {
         }
     }
 
-    private String getXPath(Iterator<Level> dIterator) {
-        if (!dIterator.hasNext()) {
-            return EMPTY;
+    private void push(Level l) {
+        if (++depth == path.length) {
+            path = Arrays.copyOf(path, 2 * path.length);
         }
-        Level l = dIterator.next();
-        if (null == l.xpath) {
-            String previous = getXPath(dIterator);
-            if (!SEP.equals(previous)) {
-                previous += SEP;
+        path[depth] = l;
+    }
+
+    /**
+     * The name part of the XPath step of a child node, the same
+     * String instance for all elements sharing a name.
+     */
+    private String getName(NodeInfo child) {
+        switch (child.getType()) {
+        case Node.COMMENT_NODE:
+            return COMMENT;
+        case Node.PROCESSING_INSTRUCTION_NODE:
+            return PI;
+        case Node.CDATA_SECTION_NODE:
+        case Node.TEXT_NODE:
+            return TEXT;
+        case Node.ELEMENT_NODE:
+            QName name = child.getName();
+            String n = elementNames.get(name);
+            if (n == null) {
+                n = getName(name);
+                elementNames.put(name, n);
             }
-            l.xpath = previous + l.expression;
+            return n;
+        default:
+            // more or less ignore
+            // FIXME: is this a good thing?
+            return EMPTY;
         }
-        return l.xpath;
     }
 
+    private String getAttributeName(QName attribute) {
+        String n = attributeNames.get(attribute);
+        if (n == null) {
+            n = ATTR + getName(attribute);
+            attributeNames.put(attribute, n);
+        }
+        return n;
+    }
 
     private String getName(QName name) {
         String ns = name.getNamespaceURI();
@@ -261,37 +310,135 @@ private String getName(QName name) {
     }
 
     /**
-     * Increments the value name maps to or adds 1 as value if name
-     * isn't present inside the map.
-     *
-     * @return the new mapping for name
+     * Number of children per kind of node, used to compute the index
+     * of the next child.
      */
-    private static int add1OrIncrement(String name, Map<String, Integer> map) {
-        Integer old = map.get(name);
-        int index = old == null ? 1 : old.intValue() + 1;
-        map.put(name, Integer.valueOf(index));
-        return index;
+    private static final class ChildCounts implements Cloneable {
+        private int comments, pis, texts;
+        private Map<String, int[]> elements = new HashMap<String, int[]>();
+
+        /**
+         * Counts a new child and returns its index among the children
+         * of the same kind - or 0 if it doesn't get an index.
+         */
+        private int next(short type, String name) {
+            switch (type) {
+            case Node.COMMENT_NODE:
+                return ++comments;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                return ++pis;
+            case Node.CDATA_SECTION_NODE:
+            case Node.TEXT_NODE:
+                return ++texts;
+            case Node.ELEMENT_NODE:
+                int[] count = elements.get(name);
+                if (count == null) {
+                    count = new int[1];
+                    elements.put(name, count);
+                }
+                return ++count[0];
+            default:
+                return 0;
+            }
+        }
+
+        @Override
+        public ChildCounts clone() {
+            try {
+                ChildCounts c = (ChildCounts) super.clone();
+                c.elements = new HashMap<String, int[]>(elements.size());
+                for (Map.Entry<String, int[]> e : elements.entrySet()) {
+                    c.elements.put(e.getKey(), e.getValue().clone());
+                }
+                return c;
+            } catch (CloneNotSupportedException e) {
+                // impossible
+                throw new RuntimeException("ChildCounts cannot be cloned?", e);
+            }
+        }
     }
 
-    private static class Level implements Cloneable {
-        private final String expression;
-        private List<Level> children = new ArrayList<Level>();
-        private Map<QName, Level> attributes = new HashMap<QName, Level>();
-        private String xpath;
-        private Level(String expression) {
-            this.expression = expression;
+    /**
+     * A node on the current path together with what is known about
+     * its children and attributes.
+     *
+     * <p>Children are kept as name and index of their XPath step,
+     * their Levels are only created when navigating to them.</p>
+     */
+    private static final class Level implements Cloneable {
+        private static final String[] NO_NAMES = new String[0];
+        private static final int[] NO_INDEXES = new int[0];
+
+        private final Path path;
+        private String[] childNames = NO_NAMES;
+        private int[] childIndexes = NO_INDEXES;
+        private Level[] childLevels;
+        private int childCount;
+        private ChildCounts counts;
+        private Map<QName, Level> attributes;
+
+        private Level(Path path) {
+            this.path = path;
+        }
+
+        private void clearChildren() {
+            childNames = NO_NAMES;
+            childIndexes = NO_INDEXES;
+            childLevels = null;
+            childCount = 0;
+            counts = null;
+        }
+
+        private void addChild(String name, int index) {
+            if (childCount == childNames.length) {
+                int newLength = Math.max(4, 2 * childCount);
+                childNames = Arrays.copyOf(childNames, newLength);
+                childIndexes = Arrays.copyOf(childIndexes, newLength);
+                if (childLevels != null) {
+                    childLevels = Arrays.copyOf(childLevels, newLength);
+                }
+            }
+            childNames[childCount] = name;
+            childIndexes[childCount++] = index;
+        }
+
+        private Level child(int index) {
+            if (index < 0 || index >= childCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + childCount);
+            }
+            if (childLevels == null) {
+                childLevels = new Level[childNames.length];
+            }
+            Level l = childLevels[index];
+            if (l == null) {
+                l = new Level(new Path(path, childNames[index], childIndexes[index]));
+                childLevels[index] = l;
+            }
+            return l;
         }
+
         @Override
         public Level clone() {
             try {
                 Level l = (Level) super.clone();
-                l.children = new ArrayList<Level>(children.size());
-                for (Level c : children) {
-                    l.children.add(c.clone());
+                l.childNames = childNames.clone();
+                l.childIndexes = childIndexes.clone();
+                if (childLevels != null) {
+                    l.childLevels = new Level[childLevels.length];
+                    for (int i = 0; i < childCount; i++) {
+                        if (childLevels[i] != null) {
+                            l.childLevels[i] = childLevels[i].clone();
+                        }
+                    }
                 }
-                l.attributes = new HashMap<QName, Level>(attributes.size());
-                for (Map.Entry<QName, Level> e : attributes.entrySet()) {
-                    l.attributes.put(e.getKey(), e.getValue().clone());
+                if (attributes != null) {
+                    l.attributes = new HashMap<QName, Level>(attributes.size());
+                    for (Map.Entry<QName, Level> e : attributes.entrySet()) {
+                        l.attributes.put(e.getKey(), e.getValue().clone());
+                    }
+                }
+                if (counts != null) {
+                    l.counts = counts.clone();
                 }
                 return l;
             } catch (CloneNotSupportedException e) {
@@ -301,6 +448,77 @@ public Level clone() {
         }
     }
 
+    /**
+     * Immutable location of a node inside the document.
+     *
+     * <p>Only knows its own step - as name and index - and its
+     * parent, the XPath is built lazily and cached.</p>
+     */
+    static final class Path {
+        private final Path parent;
+        private final String name;
+        private final int index;
+        private volatile String xpath;
+
+        private Path(Path parent, String name, int index) {
+            this.parent = parent;
+            this.name = name;
+            this.index = index;
+        }
+
+        /**
+         * The location of the parent node, may be null.
+         */
+        Path getParent() {
+            return parent;
+        }
+
+        /**
+         * Stringifies the XPath of this location.
+         */
+        String getXPath() {
+            String x = xpath;
+            if (x == null) {
+                // walk up iteratively so deep documents don't exhaust
+                // the stack and only cache the result for this
+                // location so they don't cause quadratic memory usage
+                // either
+                int steps = 0;
+                int length = 0;
+                Path p = this;
+                while (p != null && p.xpath == null) {
+                    steps++;
+                    length += p.name.length() + 12;
+                    p = p.parent;
+                }
+                Path[] todo = new Path[steps];
+                p = this;
+                for (int i = steps - 1; i >= 0; i--) {
+                    todo[i] = p;
+                    p = p.parent;
+                }
+                String prefix = p == null ? EMPTY : p.xpath;
+                StringBuilder sb = new StringBuilder(prefix.length() + length);
+                sb.append(prefix);
+                for (Path step : todo) {
+                    if (sb.length() != 1 || sb.charAt(0) != SEP) {
+                        sb.append(SEP);
+                    }
+                    step.appendStep(sb);
+                }
+                xpath = x = sb.toString();
+            }
+            return x;
+        }
+
+        private void appendStep(StringBuilder sb) {
+            sb.append(name);
+            if (index > 0) {
+                sb.append(OPEN).append(index).append(CLOSE);
+            }
+        }
+    }
+
     /**
      * Representation of a node used by {@link XPathContext}.
      */
@@ -328,6 +546,10 @@ public DOMNodeInfo(Node n) {
             name = Nodes.getQName(n);
             type = n.getNodeType();
         }
+        DOMNodeInfo(QName name, short type) {
+            this.name = name;
+            this.type = type;
+        }
         @Override
         public QName getName() { return name; }
         @Override
@@ -0,0 +1,304 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.input;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Set;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import org.w3c.dom.Attr;
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.Comment;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.DocumentBuilderPool;
+import org.xmlunit.util.JAXPFactories;
+import org.xmlunit.util.Nodes;
+
+/**
+ * A source that is obtained from a different source by applying any
+ * combination of the normalizations performed by {@link
+ * WhitespaceStrippedSource}, {@link WhitespaceNormalizedSource},
+ * {@link CommentLessSource} and {@link
+ * ElementContentWhitespaceStrippedSource} in a single pass.
+ *
+ * <p>The result is the same as the one of wrapping the sources in
+ * the order listed above, but only a single document is
+ * created. If the original source is a {@link DOMSource} holding a
+ * {@link Document} that document is cloned once, otherwise the nodes
+ * parsed from the original source are modified in place.</p>
+ *
+ * <p>Like the XSLT transformation of {@link CommentLessSource},
+ * stripping comments also turns CDATA sections into text nodes,
+ * merges adjacent text nodes, drops the document type declaration
+ * and doesn't retain the XML declaration of the original
+ * document.</p>
+ *
+ * @since XMLUnit 2.12.1
+ */
+public class CombinedNormalizedSource extends DOMSource {
+
+    /**
+     * The normalizations that can be applied.
+     */
+    public enum Normalization {
+        /**
+         * Removes all empty text nodes and trims the non-empty ones
+         * like {@link WhitespaceStrippedSource}.
+         */
+        STRIP_WHITESPACE,
+        /**
+         * Removes all empty text nodes and trims and normalizes the
+         * non-empty ones like {@link WhitespaceNormalizedSource}.
+         */
+        NORMALIZE_WHITESPACE,
+        /**
+         * Removes all comments like {@link CommentLessSource}.
+         */
+        STRIP_COMMENTS,
+        /**
+         * Removes all text nodes consisting solely of whitespace like
+         * {@link ElementContentWhitespaceStrippedSource}.
+         */
+        STRIP_ELEMENT_CONTENT_WHITESPACE
+    }
+
+    /**
+     * Creates a new source that consists of the given source with the
+     * given normalizations applied.
+     *
+     * @param originalSource the original source
+     * @param normalizations the normalizations to apply
+     */
+    public CombinedNormalizedSource(Source originalSource, Collection<Normalization> normalizations) {
+        this(originalSource, normalizations, JAXPFactories.getDocumentBuilderFactory());
+    }
+
+    /**
+     * Creates a new source that consists of the given source with the
+     * given normalizations applied.
+     *
+     * @param originalSource the original source
+     * @param normalizations the normalizations to apply
+     * @param dbf the DocumentBuilderFactory to use when creating a
+     * DOM document from originalSource
+     */
+    public CombinedNormalizedSource(Source originalSource, Collection<Normalization> normalizations,
+                                    DocumentBuilderFactory dbf) {
+        if (originalSource == null) {
+            throw new IllegalArgumentException("source must not be null");
+        }
+        if (normalizations == null) {
+            throw new IllegalArgumentException("normalizations must not be null");
+        }
+        if (dbf == null) {
+            throw new IllegalArgumentException("factory must not be null");
+        }
+        Set<Normalization> n = normalizations.isEmpty() ? EnumSet.noneOf(Normalization.class)
+            : EnumSet.copyOf(normalizations);
+        boolean stripComments = n.contains(Normalization.STRIP_COMMENTS);
+        Document doc;
+        if (originalSource instanceof DOMSource && ((DOMSource) originalSource).getNode() instanceof Document) {
+            Document original = (Document) ((DOMSource) originalSource).getNode();
+            doc = n.isEmpty() ? original : (Document) original.cloneNode(true);
+            if (stripComments && doc.getDoctype() != null) {
+                doc.removeChild(doc.getDoctype());
+            }
+        } else {
+            DocumentBuilderPool pool = DocumentBuilderPool.forFactory(dbf);
+            doc = Convert.toDocument(originalSource, pool);
+            if (!n.isEmpty()) {
+                doc = moveToNewDocument(doc, stripComments, pool);
+            }
+        }
+        if (!n.isEmpty()) {
+            doc.normalize();
+            new Normalizer(n).apply(doc);
+        }
+        setNode(doc);
+        setSystemId(originalSource.getSystemId());
+    }
+
+    /**
+     * Moves the children of a freshly parsed document to a new
+     * document. This drops the XML declaration just like the cloning
+     * performed by the whitespace handling sources and the XSLT
+     * transformation of {@link CommentLessSource} do.
+     *
+     * <p>The document type declaration can't be moved, if it needs
+     * to be retained the document is cloned instead.</p>
+     */
+    private static Document moveToNewDocument(Document doc, boolean dropDocumentType, DocumentBuilderPool pool) {
+        if (doc.getDoctype() != null && !dropDocumentType) {
+            return (Document) doc.cloneNode(true);
+        }
+        Document newDoc = pool.newDocument();
+        Node next;
+        for (Node child = doc.getFirstChild(); child != null; child = next) {
+            next = child.getNextSibling();
+            if (!(child instanceof DocumentType)) {
+                Node adopted = newDoc.adoptNode(child);
+                newDoc.appendChild(adopted != null ? adopted : newDoc.importNode(child, true));
+            }
+        }
+        return newDoc;
+    }
+
+    private static final class Normalizer {
+        private final boolean strip, normalize, stripComments, stripECW;
+
+        private Normalizer(Set<Normalization> n) {
+            strip = n.contains(Normalization.STRIP_WHITESPACE);
+            normalize = n.contains(Normalization.NORMALIZE_WHITESPACE);
+            stripComments = n.contains(Normalization.STRIP_COMMENTS);
+            stripECW = n.contains(Normalization.STRIP_ELEMENT_CONTENT_WHITESPACE);
+        }
+
+        /**
+         * Visits each node once and applies all normalizations to
+         * its attributes and children in the order the individual
+         * sources would apply them.
+         */
+        private void apply(Document doc) {
+            Deque<Node> todo = new ArrayDeque<Node>();
+            todo.push(doc);
+            while (!todo.isEmpty()) {
+                Node n = todo.pop();
+                if (strip || normalize) {
+                    trimAttributes(n);
+                }
+                if (strip) {
+                    trimChildren(n, false);
+                }
+                if (normalize) {
+                    if (strip) {
+                        mergeTexts(n);
+                    }
+                    trimChildren(n, true);
+                }
+                if (stripComments) {
+                    removeComments(n);
+                }
+                if (stripECW) {
+                    mergeTexts(n);
+                    removeWhitespaceTexts(n);
+                }
+                for (Node c = n.getLastChild(); c != null; c = c.getPreviousSibling()) {
+                    if (c.getNodeType() == Node.ELEMENT_NODE) {
+                        todo.push(c);
+                    }
+                }
+            }
+        }
+
+        private void trimAttributes(Node n) {
+            NamedNodeMap attrs = n.getAttributes();
+            if (attrs == null) {
+                return;
+            }
+            final int len = attrs.getLength();
+            for (int i = 0; i < len; i++) {
+                Attr a = (Attr) attrs.item(i);
+                String v = trim(a.getValue(), normalize);
+                if (!v.equals(a.getValue())) {
+                    a.setValue(v);
+                }
+            }
+        }
+
+        /**
+         * Trims textual children and removes the empty text nodes.
+         */
+        private static void trimChildren(Node n, boolean normalize) {
+            Node next;
+            for (Node c = n.getFirstChild(); c != null; c = next) {
+                next = c.getNextSibling();
+                if (c instanceof CharacterData || c instanceof ProcessingInstruction) {
+                    String v = trim(c.getNodeValue(), normalize);
+                    if (c instanceof Text && v.length() == 0) {
+                        n.removeChild(c);
+                    } else if (!v.equals(c.getNodeValue())) {
+                        c.setNodeValue(v);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Removes comments, turns CDATA sections into text and merges
+         * adjacent text nodes like the identity transformation of
+         * {@link CommentLessSource} does.
+         */
+        private static void removeComments(Node n) {
+            Document doc = n instanceof Document ? (Document) n : n.getOwnerDocument();
+            Node next;
+            for (Node c = n.getFirstChild(); c != null; c = next) {
+                next = c.getNextSibling();
+                if (c instanceof Comment) {
+                    n.removeChild(c);
+                } else if (c.getNodeType() == Node.CDATA_SECTION_NODE) {
+                    n.replaceChild(doc.createTextNode(c.getNodeValue()), c);
+                }
+            }
+            mergeTexts(n);
+        }
+
+        private static void removeWhitespaceTexts(Node n) {
+            Node next;
+            for (Node c = n.getFirstChild(); c != null; c = next) {
+                next = c.getNextSibling();
+                if (c instanceof Text && c.getNodeValue().trim().length() == 0) {
+                    n.removeChild(c);
+                }
+            }
+        }
+
+        /**
+         * Merges adjacent text nodes and removes empty ones like
+         * {@link Node#normalize} does for a single list of children.
+         */
+        private static void mergeTexts(Node n) {
+            Node next;
+            for (Node c = n.getFirstChild(); c != null; c = next) {
+                next = c.getNextSibling();
+                if (c.getNodeType() != Node.TEXT_NODE) {
+                    continue;
+                }
+                while (next != null && next.getNodeType() == Node.TEXT_NODE) {
+                    ((Text) c).appendData(next.getNodeValue());
+                    Node following = next.getNextSibling();
+                    n.removeChild(next);
+                    next = following;
+                }
+                if (c.getNodeValue().length() == 0) {
+                    n.removeChild(c);
+                }
+            }
+        }
+
+        private static String trim(String s, boolean normalize) {
+            String trimmed = s.trim();
+            return normalize ? Nodes.normalize(trimmed) : trimmed;
+        }
+    }
+}
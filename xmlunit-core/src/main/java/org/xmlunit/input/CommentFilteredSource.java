@@ -0,0 +1,79 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.input;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import org.xmlunit.util.Convert;
+
+/**
+ * A source that marks all comments of a different source as filtered
+ * without copying or modifying it.
+ *
+ * <p>{@link org.xmlunit.diff.DOMDifferenceEngine} and {@link
+ * org.xmlunit.diff.StAXDifferenceEngine} skip the comments of this
+ * source during traversal just like nodes rejected by their node
+ * filter. Comments of the other side of the comparison are not
+ * affected unless it is a {@code CommentFilteredSource} as
+ * well. Everybody else sees the original node including its
+ * comments.</p>
+ *
+ * <p>Unlike {@link CommentLessSource} this doesn't create a new
+ * document. As a consequence the text nodes before and after a
+ * comment remain separate nodes and CDATA sections are not turned
+ * into text. Use {@link CommentLessSource} if you need a document
+ * without any comments.</p>
+ *
+ * @since XMLUnit 2.12.1
+ */
+public class CommentFilteredSource extends DOMSource {
+
+    /**
+     * Creates a new source that filters the comments of the given
+     * source.
+     *
+     * <p>If the original source is a {@link DOMSource} its node is
+     * used as is, otherwise the source is parsed once.</p>
+     *
+     * @param originalSource the original source
+     */
+    public CommentFilteredSource(Source originalSource) {
+        super(Convert.toNode(nonNull(originalSource)));
+        setSystemId(originalSource.getSystemId());
+    }
+
+    /**
+     * Creates a new source that filters the comments of the given
+     * source.
+     *
+     * <p>If the original source is a {@link DOMSource} its node is
+     * used as is, otherwise the source is parsed once.</p>
+     *
+     * @param originalSource the original source
+     * @param dbf the DocumentBuilderFactory to use when creating a
+     * DOM document from originalSource
+     */
+    public CommentFilteredSource(Source originalSource, DocumentBuilderFactory dbf) {
+        super(Convert.toNode(nonNull(originalSource), dbf));
+        setSystemId(originalSource.getSystemId());
+    }
+
+    private static Source nonNull(Source s) {
+        if (s == null) {
+            throw new IllegalArgumentException("source must not be null");
+        }
+        return s;
+    }
+}
@@ -13,11 +13,20 @@
 */
 package org.xmlunit.input;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamSource;
 
-import org.xmlunit.transform.Transformation;
+import org.xmlunit.ConfigurationException;
+import org.xmlunit.XMLUnitException;
+import org.xmlunit.util.JAXPFactories;
+import org.xmlunit.util.TransformerFactoryConfigurer;
 
 /**
  * A source that is obtained from a different source by stripping all
@@ -27,6 +36,12 @@
  * use for the stylesheet. The default now is 2.0, it used to be 1.0
  * and you may need to change the value if your transformer doesn't
  * support XSLT 2.0.</p>
+ *
+ * <p>The stylesheet is compiled once per XSLT version and the
+ * compiled {@link Templates} are shared by all instances. If you
+ * only need comments to be ignored by a difference engine, {@link
+ * CommentFilteredSource} avoids creating a copy of the document
+ * altogether.</p>
  */
 public final class CommentLessSource extends DOMSource {
 
@@ -44,6 +59,8 @@ public final class CommentLessSource extends DOMSource {
      */
     public static final String STYLE = getStylesheetContent(DEFAULT_VERSION);
 
+    private static final ConcurrentMap<String, Templates> TEMPLATES = new ConcurrentHashMap<String, Templates>();
+
     /**
      * Creates a new source that consists of the given source with all
      * comments removed using an XSLT stylesheet of version 2.0.
@@ -70,9 +87,33 @@ public CommentLessSource(Source originalSource, String xsltVersion) {
         if (xsltVersion == null) {
             throw new IllegalArgumentException("xsltVersion must not be null");
         }
-        Transformation t = new Transformation(originalSource);
-        t.setStylesheet(getStylesheet(xsltVersion));
-        setNode(t.transformToDocument());
+        DOMResult r = new DOMResult();
+        try {
+            getTemplates(xsltVersion).newTransformer().transform(originalSource, r);
+        } catch (TransformerConfigurationException e) {
+            throw new ConfigurationException(e);
+        } catch (TransformerException e) {
+            throw new XMLUnitException(e);
+        }
+        setNode(r.getNode());
+    }
+
+    /**
+     * Compiles the stylesheet for each version once. Threads using a
+     * version for the first time concurrently may all compile it but
+     * only one result is kept.
+     */
+    private static Templates getTemplates(String xsltVersion) throws TransformerConfigurationException {
+        Templates t = TEMPLATES.get(xsltVersion);
+        if (t == null) {
+            t = JAXPFactories.getTransformerFactory(TransformerFactoryConfigurer.Default)
+                .newTemplates(getStylesheet(xsltVersion));
+            Templates existing = TEMPLATES.putIfAbsent(xsltVersion, t);
+            if (existing != null) {
+                t = existing;
+            }
+        }
+        return t;
     }
 
     private static Source getStylesheet(String xsltVersion) {
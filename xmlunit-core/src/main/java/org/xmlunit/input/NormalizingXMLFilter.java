@@ -0,0 +1,250 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.input;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+import org.xmlunit.input.CombinedNormalizedSource.Normalization;
+
+/**
+ * A SAX filter that applies any combination of the normalizations of
+ * {@link CombinedNormalizedSource} while the document is parsed.
+ *
+ * <p>A DOM document built from the events emitted by this filter -
+ * for example using {@link
+ * org.xmlunit.util.Convert#toDocument(javax.xml.transform.Source,
+ * org.xml.sax.XMLFilter, short...)} - is the same as the one of
+ * {@link CombinedNormalizedSource}, but comments and whitespace that
+ * are going to be removed never become part of the document.</p>
+ *
+ * <p>The only exception are CDATA sections between two pieces of
+ * text that are removed by {@link Normalization#STRIP_WHITESPACE} or
+ * {@link Normalization#NORMALIZE_WHITESPACE} because they are empty
+ * after trimming. {@code CombinedNormalizedSource} keeps the text on
+ * both sides as two separate text nodes while the document built
+ * from the events of this filter contains a single text node.</p>
+ *
+ * <p>As the normalizations may merge or remove them, character data,
+ * CDATA sections and comments are collected and only emitted once
+ * the next element or processing instruction starts or ends.</p>
+ *
+ * <p>Comments and CDATA sections are received via the lexical
+ * handler property of the parent reader and passed on to the lexical
+ * handler set on this filter. Entity boundaries are not passed on
+ * and neither is the document type declaration if comments are
+ * stripped.</p>
+ *
+ * @since XMLUnit 2.12.1
+ */
+public class NormalizingXMLFilter extends XMLFilterImpl implements LexicalHandler {
+
+    private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+    private final TextNormalizer normalizer;
+    private LexicalHandler lexicalHandler;
+    private boolean inCDATA, inDTD;
+    private char[] chars = new char[64];
+
+    /**
+     * Creates a filter without parent that applies the given
+     * normalizations.
+     *
+     * @param normalizations the normalizations to apply
+     */
+    public NormalizingXMLFilter(Collection<Normalization> normalizations) {
+        this(null, normalizations);
+    }
+
+    /**
+     * Creates a filter that applies the given normalizations to the
+     * events of the given parent.
+     *
+     * @param parent the parent reader, may be null
+     * @param normalizations the normalizations to apply
+     */
+    public NormalizingXMLFilter(XMLReader parent, Collection<Normalization> normalizations) {
+        super(parent);
+        normalizer = new TextNormalizer(normalizations);
+    }
+
+    @Override
+    public void setProperty(String name, Object value)
+        throws SAXNotRecognizedException, SAXNotSupportedException {
+        if (LEXICAL_HANDLER.equals(name)) {
+            if (value != null && !(value instanceof LexicalHandler)) {
+                throw new SAXNotSupportedException("lexical handler must implement LexicalHandler");
+            }
+            lexicalHandler = (LexicalHandler) value;
+        } else {
+            super.setProperty(name, value);
+        }
+    }
+
+    @Override
+    public Object getProperty(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+        return LEXICAL_HANDLER.equals(name) ? lexicalHandler : super.getProperty(name);
+    }
+
+    @Override
+    public void parse(InputSource input) throws SAXException, IOException {
+        normalizer.reset();
+        inCDATA = inDTD = false;
+        if (getParent() != null) {
+            getParent().setProperty(LEXICAL_HANDLER, this);
+        }
+        super.parse(input);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts)
+        throws SAXException {
+        flush();
+        super.startElement(uri, localName, qName, normalizer.trimsValues() ? trim(atts) : atts);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        flush();
+        super.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+        flush();
+        super.processingInstruction(target, data != null && normalizer.trimsValues() ? normalizer.trim(data) : data);
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        flush();
+        super.endDocument();
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        normalizer.characters(inCDATA ? Node.CDATA_SECTION_NODE : Node.TEXT_NODE, ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        characters(ch, start, length);
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length) throws SAXException {
+        if (inDTD) {
+            if (!normalizer.stripComments && lexicalHandler != null) {
+                lexicalHandler.comment(ch, start, length);
+            }
+            return;
+        }
+        normalizer.comment(new String(ch, start, length));
+    }
+
+    @Override
+    public void startCDATA() {
+        normalizer.start(Node.CDATA_SECTION_NODE);
+        inCDATA = true;
+    }
+
+    @Override
+    public void endCDATA() {
+        inCDATA = false;
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId) throws SAXException {
+        inDTD = true;
+        if (!normalizer.stripComments && lexicalHandler != null) {
+            lexicalHandler.startDTD(name, publicId, systemId);
+        }
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+        inDTD = false;
+        if (!normalizer.stripComments && lexicalHandler != null) {
+            lexicalHandler.endDTD();
+        }
+    }
+
+    @Override
+    public void startEntity(String name) { }
+
+    @Override
+    public void endEntity(String name) { }
+
+    /**
+     * Applies the normalizations to the collected textual nodes and
+     * emits the result.
+     */
+    private void flush() throws SAXException {
+        if (normalizer.isEmpty()) {
+            return;
+        }
+        List<TextNormalizer.Item> items = normalizer.flush();
+        final int remaining = items.size();
+        for (int idx = 0; idx < remaining; idx++) {
+            emit(items.get(idx));
+        }
+        normalizer.clear();
+    }
+
+    private void emit(TextNormalizer.Item i) throws SAXException {
+        final String value = i.getValue();
+        final int len = value.length();
+        if (chars.length < len) {
+            chars = new char[Math.max(len, 2 * chars.length)];
+        }
+        value.getChars(0, len, chars, 0);
+        if (i.getType() == Node.COMMENT_NODE) {
+            if (lexicalHandler != null) {
+                lexicalHandler.comment(chars, 0, len);
+            }
+        } else if (i.getType() == Node.CDATA_SECTION_NODE && lexicalHandler != null) {
+            lexicalHandler.startCDATA();
+            super.characters(chars, 0, len);
+            lexicalHandler.endCDATA();
+        } else {
+            super.characters(chars, 0, len);
+        }
+    }
+
+    private Attributes trim(Attributes atts) {
+        AttributesImpl trimmed = null;
+        final int len = atts.getLength();
+        for (int i = 0; i < len; i++) {
+            String value = atts.getValue(i);
+            String t = normalizer.trim(value);
+            if (!t.equals(value)) {
+                if (trimmed == null) {
+                    trimmed = new AttributesImpl(atts);
+                }
+                trimmed.setValue(i, t);
+            }
+        }
+        return trimmed != null ? trimmed : atts;
+    }
+}
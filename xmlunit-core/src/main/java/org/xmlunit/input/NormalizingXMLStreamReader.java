@@ -0,0 +1,386 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.input;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import org.w3c.dom.Node;
+import org.xmlunit.input.CombinedNormalizedSource.Normalization;
+
+/**
+ * A StAX reader that applies any combination of the normalizations
+ * of {@link CombinedNormalizedSource} to the events of a different
+ * reader.
+ *
+ * <p>The events are the ones of a document with the normalizations
+ * applied and follow the same rules as {@link NormalizingXMLFilter},
+ * including its exception for CDATA sections that are empty after
+ * trimming. Like {@code CombinedNormalizedSource} this reader doesn't
+ * retain the XML declaration of the original document and drops the
+ * document type declaration if comments are stripped.</p>
+ *
+ * <p>As the normalizations may merge or remove them, character data,
+ * CDATA sections and comments are collected and only reported once
+ * the next element or processing instruction starts or ends. Each
+ * resulting piece of text is reported as a single event, text on
+ * both sides of a removed CDATA section or comment is reported as a
+ * single event as well.</p>
+ *
+ * @since XMLUnit 2.12.1
+ */
+public class NormalizingXMLStreamReader extends StreamReaderDelegate {
+
+    private final TextNormalizer normalizer;
+    private final Deque<TextNormalizer.Item> pending = new ArrayDeque<TextNormalizer.Item>();
+    // the normalized piece of text the reader is positioned at, null
+    // if it is positioned at an event of the parent
+    private TextNormalizer.Item item;
+    private char[] itemChars;
+    // true if the parent is positioned at an event that will be
+    // reported once the pending text has been reported
+    private boolean parentAhead;
+
+    /**
+     * Creates a reader that applies the given normalizations to the
+     * events of the given parent.
+     *
+     * @param parent the parent reader, should be positioned at the
+     * start of the document or an element
+     * @param normalizations the normalizations to apply
+     */
+    public NormalizingXMLStreamReader(XMLStreamReader parent, Collection<Normalization> normalizations) {
+        super(parent);
+        if (parent == null) {
+            throw new IllegalArgumentException("parent must not be null");
+        }
+        normalizer = new TextNormalizer(normalizations);
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        itemChars = null;
+        item = pending.poll();
+        if (item != null) {
+            return getEventType();
+        }
+        if (parentAhead) {
+            parentAhead = false;
+            return getParent().getEventType();
+        }
+        while (true) {
+            int event = getParent().next();
+            switch (event) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                collect(Node.TEXT_NODE);
+                break;
+            case XMLStreamConstants.CDATA:
+                collect(Node.CDATA_SECTION_NODE);
+                break;
+            case XMLStreamConstants.COMMENT:
+                normalizer.comment(getParent().getText());
+                break;
+            case XMLStreamConstants.DTD:
+                if (normalizer.stripComments) {
+                    break;
+                }
+                return reportPendingBefore(event);
+            default:
+                return reportPendingBefore(event);
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws XMLStreamException {
+        return !pending.isEmpty() || parentAhead || super.hasNext();
+    }
+
+    @Override
+    public int nextTag() throws XMLStreamException {
+        int event = next();
+        while (event == XMLStreamConstants.CHARACTERS && isWhiteSpace()
+               || event == XMLStreamConstants.CDATA && isWhiteSpace()
+               || event == XMLStreamConstants.SPACE
+               || event == XMLStreamConstants.PROCESSING_INSTRUCTION
+               || event == XMLStreamConstants.COMMENT) {
+            event = next();
+        }
+        if (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+            throw new XMLStreamException("expected start or end tag", getLocation());
+        }
+        return event;
+    }
+
+    @Override
+    public String getElementText() throws XMLStreamException {
+        if (getEventType() != XMLStreamConstants.START_ELEMENT) {
+            throw new XMLStreamException("parser must be on START_ELEMENT to read next text", getLocation());
+        }
+        StringBuilder sb = new StringBuilder();
+        int event = next();
+        while (event != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                || event == XMLStreamConstants.SPACE || event == XMLStreamConstants.ENTITY_REFERENCE) {
+                sb.append(getText());
+            } else if (event != XMLStreamConstants.PROCESSING_INSTRUCTION
+                       && event != XMLStreamConstants.COMMENT) {
+                throw new XMLStreamException("element text content may not contain START_ELEMENT"
+                                             + " or END_DOCUMENT", getLocation());
+            }
+            event = next();
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void require(int type, String namespaceURI, String localName) throws XMLStreamException {
+        if (item == null) {
+            super.require(type, namespaceURI, localName);
+        } else if (type != getEventType() || namespaceURI != null || localName != null) {
+            throw new XMLStreamException("current event doesn't match the required one", getLocation());
+        }
+    }
+
+    @Override
+    public int getEventType() {
+        if (item == null) {
+            return super.getEventType();
+        }
+        switch (item.getType()) {
+        case Node.COMMENT_NODE:
+            return XMLStreamConstants.COMMENT;
+        case Node.CDATA_SECTION_NODE:
+            return XMLStreamConstants.CDATA;
+        default:
+            return XMLStreamConstants.CHARACTERS;
+        }
+    }
+
+    @Override
+    public boolean isStartElement() {
+        return item == null && super.isStartElement();
+    }
+
+    @Override
+    public boolean isEndElement() {
+        return item == null && super.isEndElement();
+    }
+
+    @Override
+    public boolean isCharacters() {
+        return item == null ? super.isCharacters() : getEventType() == XMLStreamConstants.CHARACTERS;
+    }
+
+    @Override
+    public boolean isWhiteSpace() {
+        return item == null ? super.isWhiteSpace()
+            : item.getType() != Node.COMMENT_NODE && item.getValue().trim().length() == 0;
+    }
+
+    @Override
+    public boolean hasText() {
+        return item != null || super.hasText();
+    }
+
+    @Override
+    public boolean hasName() {
+        return item == null && super.hasName();
+    }
+
+    @Override
+    public String getText() {
+        return item == null ? super.getText() : item.getValue();
+    }
+
+    @Override
+    public char[] getTextCharacters() {
+        if (item == null) {
+            return super.getTextCharacters();
+        }
+        if (itemChars == null) {
+            itemChars = item.getValue().toCharArray();
+        }
+        return itemChars;
+    }
+
+    @Override
+    public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length)
+        throws XMLStreamException {
+        if (item == null) {
+            return super.getTextCharacters(sourceStart, target, targetStart, length);
+        }
+        String value = item.getValue();
+        int n = Math.max(0, Math.min(length, value.length() - sourceStart));
+        value.getChars(sourceStart, sourceStart + n, target, targetStart);
+        return n;
+    }
+
+    @Override
+    public int getTextStart() {
+        return item == null ? super.getTextStart() : 0;
+    }
+
+    @Override
+    public int getTextLength() {
+        return item == null ? super.getTextLength() : item.getValue().length();
+    }
+
+    @Override
+    public QName getName() {
+        requireParentEvent();
+        return super.getName();
+    }
+
+    @Override
+    public String getLocalName() {
+        requireParentEvent();
+        return super.getLocalName();
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        requireParentEvent();
+        return super.getNamespaceURI();
+    }
+
+    @Override
+    public String getPrefix() {
+        requireParentEvent();
+        return super.getPrefix();
+    }
+
+    @Override
+    public int getAttributeCount() {
+        requireParentEvent();
+        return super.getAttributeCount();
+    }
+
+    @Override
+    public int getNamespaceCount() {
+        requireParentEvent();
+        return super.getNamespaceCount();
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        requireParentEvent();
+        String value = super.getAttributeValue(index);
+        return value != null && normalizer.trimsValues() ? normalizer.trim(value) : value;
+    }
+
+    @Override
+    public String getAttributeValue(String namespaceURI, String localName) {
+        requireParentEvent();
+        String value = super.getAttributeValue(namespaceURI, localName);
+        return value != null && normalizer.trimsValues() ? normalizer.trim(value) : value;
+    }
+
+    @Override
+    public String getPITarget() {
+        requireParentEvent();
+        return super.getPITarget();
+    }
+
+    @Override
+    public String getPIData() {
+        requireParentEvent();
+        String data = super.getPIData();
+        return data != null && normalizer.trimsValues() ? normalizer.trim(data) : data;
+    }
+
+    /**
+     * Like {@code CombinedNormalizedSource} the XML declaration isn't
+     * retained.
+     *
+     * @return null
+     */
+    @Override
+    public String getVersion() {
+        return null;
+    }
+
+    /**
+     * Like {@code CombinedNormalizedSource} the XML declaration isn't
+     * retained.
+     *
+     * @return false
+     */
+    @Override
+    public boolean isStandalone() {
+        return false;
+    }
+
+    /**
+     * Like {@code CombinedNormalizedSource} the XML declaration isn't
+     * retained.
+     *
+     * @return false
+     */
+    @Override
+    public boolean standaloneSet() {
+        return false;
+    }
+
+    /**
+     * Like {@code CombinedNormalizedSource} the XML declaration isn't
+     * retained.
+     *
+     * @return null
+     */
+    @Override
+    public String getCharacterEncodingScheme() {
+        return null;
+    }
+
+    private void collect(short type) {
+        XMLStreamReader parent = getParent();
+        normalizer.characters(type, parent.getTextCharacters(), parent.getTextStart(), parent.getTextLength());
+    }
+
+    /**
+     * Normalizes the text collected before the event the parent is
+     * positioned at and reports the first resulting piece of text -
+     * or the parent's event if there is none.
+     */
+    private int reportPendingBefore(int event) {
+        if (normalizer.isEmpty()) {
+            return event;
+        }
+        List<TextNormalizer.Item> items = normalizer.flush();
+        // a DOM parser would create a single text node
+        normalizer.mergeTexts();
+        pending.addAll(items);
+        normalizer.clear();
+        item = pending.poll();
+        if (item == null) {
+            return event;
+        }
+        parentAhead = true;
+        return getEventType();
+    }
+
+    private void requireParentEvent() {
+        if (item != null) {
+            throw new IllegalStateException("not available for " + getEventType() + " events");
+        }
+    }
+}
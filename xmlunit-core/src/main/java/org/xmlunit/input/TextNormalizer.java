@@ -0,0 +1,279 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.input;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import org.w3c.dom.Node;
+import org.xmlunit.input.CombinedNormalizedSource.Normalization;
+import org.xmlunit.util.Nodes;
+
+/**
+ * Collects the text, CDATA sections and comments between two other
+ * events of a parser and applies the normalizations of {@link
+ * CombinedNormalizedSource} to them.
+ *
+ * <p>Shared by {@link NormalizingXMLFilter} and {@link
+ * NormalizingXMLStreamReader}.</p>
+ */
+final class TextNormalizer {
+
+    final boolean strip, normalize, stripComments, stripECW;
+    private final List<Item> items = new ArrayList<Item>();
+    // pretty-printed documents repeat the same indentation over and over again
+    private String lastWhitespace;
+
+    TextNormalizer(Collection<Normalization> normalizations) {
+        if (normalizations == null) {
+            throw new IllegalArgumentException("normalizations must not be null");
+        }
+        Set<Normalization> n = normalizations.isEmpty() ? EnumSet.noneOf(Normalization.class)
+            : EnumSet.copyOf(normalizations);
+        strip = n.contains(Normalization.STRIP_WHITESPACE);
+        normalize = n.contains(Normalization.NORMALIZE_WHITESPACE);
+        stripComments = n.contains(Normalization.STRIP_COMMENTS);
+        stripECW = n.contains(Normalization.STRIP_ELEMENT_CONTENT_WHITESPACE);
+    }
+
+    /**
+     * Whether attribute values and processing instruction data get
+     * trimmed.
+     */
+    boolean trimsValues() {
+        return strip || normalize;
+    }
+
+    /**
+     * Trims - and normalizes if requested - an attribute value or
+     * processing instruction data.
+     */
+    String trim(String s) {
+        return trim(s, normalize);
+    }
+
+    /**
+     * Prepares for a new document.
+     */
+    void reset() {
+        items.clear();
+        lastWhitespace = null;
+    }
+
+    /**
+     * Discards the items once they have been emitted.
+     */
+    void clear() {
+        items.clear();
+    }
+
+    boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /**
+     * Starts a new item of the given type.
+     */
+    void start(short type) {
+        items.add(new Item(type));
+    }
+
+    /**
+     * Appends characters to the last item if it is of the given type
+     * and starts a new item otherwise.
+     */
+    void characters(short type, char[] ch, int start, int length) {
+        Item last = items.isEmpty() ? null : items.get(items.size() - 1);
+        if (last == null || last.type != type) {
+            last = new Item(type);
+            items.add(last);
+        }
+        if (last.value == null && last.buffer == null) {
+            last.value = toString(ch, start, length);
+        } else {
+            last.append(ch, start, length);
+        }
+    }
+
+    void comment(String text) {
+        Item comment = new Item(Node.COMMENT_NODE);
+        comment.value = text;
+        items.add(comment);
+    }
+
+    /**
+     * Applies the normalizations to the collected items in the order
+     * {@link CombinedNormalizedSource} applies them to a list of
+     * children.
+     *
+     * @return the remaining items, only valid until the next
+     * invocation of any other method
+     */
+    List<Item> flush() {
+        final int len = items.size();
+        for (int idx = 0; idx < len; idx++) {
+            items.get(idx).finish();
+        }
+        if (strip) {
+            trimItems(false);
+        }
+        if (normalize) {
+            if (strip) {
+                mergeTexts();
+            }
+            trimItems(true);
+        }
+        if (stripComments) {
+            removeComments();
+        }
+        if (stripECW) {
+            mergeTexts();
+            removeWhitespaceTexts();
+        }
+        return items;
+    }
+
+    private String toString(char[] ch, int start, int length) {
+        for (int i = start; i < start + length; i++) {
+            if (!Character.isWhitespace(ch[i])) {
+                return new String(ch, start, length);
+            }
+        }
+        if (lastWhitespace == null || !regionEquals(lastWhitespace, ch, start, length)) {
+            lastWhitespace = new String(ch, start, length);
+        }
+        return lastWhitespace;
+    }
+
+    private static boolean regionEquals(String s, char[] ch, int start, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != ch[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Trims all items and removes the empty text and CDATA items.
+     */
+    private void trimItems(boolean normalize) {
+        for (int idx = items.size() - 1; idx >= 0; idx--) {
+            Item i = items.get(idx);
+            i.value = trim(i.value, normalize);
+            if (i.type != Node.COMMENT_NODE && i.value.length() == 0) {
+                items.remove(idx);
+            }
+        }
+    }
+
+    /**
+     * Removes comments, turns CDATA sections into text and merges
+     * adjacent text like the identity transformation of {@link
+     * CommentLessSource} does.
+     */
+    private void removeComments() {
+        for (int idx = items.size() - 1; idx >= 0; idx--) {
+            Item i = items.get(idx);
+            if (i.type == Node.COMMENT_NODE) {
+                items.remove(idx);
+            } else if (i.type == Node.CDATA_SECTION_NODE) {
+                i.type = Node.TEXT_NODE;
+            }
+        }
+        mergeTexts();
+    }
+
+    private void removeWhitespaceTexts() {
+        for (int idx = items.size() - 1; idx >= 0; idx--) {
+            Item i = items.get(idx);
+            if (i.type != Node.COMMENT_NODE && i.value.trim().length() == 0) {
+                items.remove(idx);
+            }
+        }
+    }
+
+    /**
+     * Merges adjacent text items and removes empty ones.
+     */
+    void mergeTexts() {
+        for (int idx = items.size() - 1; idx >= 0; idx--) {
+            Item i = items.get(idx);
+            if (i.type != Node.TEXT_NODE) {
+                continue;
+            }
+            if (idx > 0 && items.get(idx - 1).type == Node.TEXT_NODE) {
+                Item previous = items.get(idx - 1);
+                previous.value += i.value;
+                items.remove(idx);
+            } else if (i.value.length() == 0) {
+                items.remove(idx);
+            }
+        }
+    }
+
+    private static String trim(String s, boolean normalize) {
+        String trimmed = s.trim();
+        return normalize ? Nodes.normalize(trimmed) : trimmed;
+    }
+
+    /**
+     * A piece of text, CDATA section or comment. Most text consists
+     * of a single chunk so a buffer is only created for the second
+     * chunk.
+     */
+    static final class Item {
+        private short type;
+        private StringBuilder buffer;
+        private String value;
+
+        private Item(short type) {
+            this.type = type;
+        }
+
+        /**
+         * One of {@link Node#TEXT_NODE}, {@link
+         * Node#CDATA_SECTION_NODE} or {@link Node#COMMENT_NODE}.
+         */
+        short getType() {
+            return type;
+        }
+
+        String getValue() {
+            return value;
+        }
+
+        private void append(char[] ch, int start, int length) {
+            if (buffer == null) {
+                buffer = new StringBuilder(value != null ? value : "");
+                value = null;
+            }
+            buffer.append(ch, start, length);
+        }
+
+        private void finish() {
+            if (buffer != null) {
+                value = buffer.toString();
+                buffer = null;
+            } else if (value == null) {
+                value = "";
+            }
+        }
+    }
+}
@@ -27,6 +27,7 @@
 import javax.xml.transform.stream.StreamResult;
 import org.xmlunit.ConfigurationException;
 import org.xmlunit.XMLUnitException;
+import org.xmlunit.util.JAXPFactories;
 import org.xmlunit.util.TransformerFactoryConfigurer;
 import org.w3c.dom.Document;
 
@@ -180,7 +181,7 @@ public void transformTo(Result r) {
         try {
             TransformerFactory fac = factory;
             if (fac == null) {
-                fac = TransformerFactoryConfigurer.Default.configure(TransformerFactory.newInstance());
+                fac = JAXPFactories.getTransformerFactory(TransformerFactoryConfigurer.Default);
             }
             Transformer t;
             if (styleSheet != null) {
@@ -15,6 +15,7 @@
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -22,8 +23,8 @@
 import java.util.Map;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
@@ -36,11 +37,20 @@
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLFilter;
 
 /**
  * Conversion methods.
  */
 public final class Convert {
+    private static final String NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+    private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+    private static volatile DocumentBuilderPool defaultPool;
+
     private Convert() { }
 
     /**
@@ -74,7 +84,7 @@ public static InputSource toInputSource(Source s, TransformerFactory fac) {
                 ByteArrayOutputStream bos = new ByteArrayOutputStream();
                 StreamResult r = new StreamResult(bos);
                 if (fac == null) {
-                    fac = TransformerFactoryConfigurer.NoExternalAccess.configure(TransformerFactory.newInstance());
+                    fac = JAXPFactories.getTransformerFactory(TransformerFactoryConfigurer.NoExternalAccess);
                 }
                 Transformer t = fac.newTransformer();
                 t.transform(s, r);
@@ -105,8 +115,7 @@ public static InputSource toInputSource(Source s, TransformerFactory fac) {
      */
     public static Document toDocument(Source s) {
         Document d = tryExtractDocFromDOMSource(s);
-        return d != null ? d
-            : toDocument(s, DocumentBuilderFactoryConfigurer.Default.configure(DocumentBuilderFactory.newInstance()));
+        return d != null ? d : toDocument(s, defaultPool());
     }
 
     /**
@@ -119,6 +128,14 @@ public static Document toDocument(Source s) {
      * source.  This may involve an XSLT identity transform in
      * toInputSource.</p>
      *
+     * <p>The DocumentBuilder is taken from {@link
+     * DocumentBuilderPool#forFactory}, builders are only reused for
+     * factories returned by {@link JAXPFactories}, any other factory
+     * is used to create a new builder that reflects its current
+     * configuration. A factory that isn't namespace aware is switched
+     * to namespace awareness while holding its monitor and switched
+     * back once the builder has been created.</p>
+     *
      * @param s the source to convert
      * @param factory factory to use
      * @return the created Document
@@ -126,35 +143,140 @@ public static Document toDocument(Source s) {
     public static Document toDocument(Source s,
                                       DocumentBuilderFactory factory) {
         Document d = tryExtractDocFromDOMSource(s);
-        if (d == null) {
-            InputSource is = toInputSource(s);
-            DocumentBuilder b = null;
+        return d != null ? d : toDocument(s, DocumentBuilderPool.forFactory(factory));
+    }
 
-            // yes, there is a race condition but it is so unlikely to
-            // happen that I currently don't care enough
-            boolean oldNsAware = factory.isNamespaceAware();
-            try {
-                if (!oldNsAware) {
-                    factory.setNamespaceAware(true);
-                }
-                b = factory.newDocumentBuilder();
-            } catch (javax.xml.parsers.ParserConfigurationException e) {
-                throw new ConfigurationException(e);
-            } finally {
-                if (!oldNsAware) {
-                    factory.setNamespaceAware(false);
-                }
-            }
+    /**
+     * Creates a DOM Document from a TraX Source.
+     *
+     * <p>If the source is a {@link DOMSource} holding a Document
+     * Node, this one will be returned.  Otherwise {@link
+     * #toInputSource} and a namespace aware DocumentBuilder taken
+     * from the given pool will be used to read the source.  This may
+     * involve an XSLT identity transform in toInputSource.</p>
+     *
+     * @param s the source to convert
+     * @param pool pool providing the DocumentBuilder to use
+     * @return the created Document
+     * @since XMLUnit 2.12.1
+     */
+    public static Document toDocument(Source s, DocumentBuilderPool pool) {
+        Document d = tryExtractDocFromDOMSource(s);
+        return d != null ? d : pool.parse(toInputSource(s));
+    }
 
-            try {
-                d = b.parse(is);
-            } catch (org.xml.sax.SAXException e) {
-                throw new XMLUnitException(e);
-            } catch (java.io.IOException e) {
-                throw new XMLUnitException(e);
+    /**
+     * Creates a DOM Document from a TraX Source by parsing it through
+     * a SAX filter.
+     *
+     * <p>The Document is built from the events emitted by the
+     * filter, so nodes the filter drops are never created at
+     * all. Unlike the other {@code toDocument} methods this always
+     * parses the source - {@link DOMSource}s are serialized using
+     * {@link #toInputSource} first.</p>
+     *
+     * <p>If the filter doesn't have a parent yet, it is given an
+     * {@link org.xml.sax.XMLReader} created by {@link
+     * JAXPFactories#getSAXParserFactory}. The resulting Document
+     * doesn't retain the XML declaration or document type
+     * declaration of the source.</p>
+     *
+     * @param s the source to convert
+     * @param filter the filter to parse the source with
+     * @param skippedNodeTypes types of nodes that should not be
+     * created even if the filter reports them, only {@link
+     * Node#COMMENT_NODE} and {@link Node#PROCESSING_INSTRUCTION_NODE}
+     * are supported
+     * @return the created Document
+     * @throws IllegalArgumentException if any argument is null or
+     * an unsupported node type is given
+     * @since XMLUnit 2.12.1
+     */
+    public static Document toDocument(Source s, XMLFilter filter, short... skippedNodeTypes) {
+        return toDocument(s, filter, defaultPool(), skippedNodeTypes);
+    }
+
+    /**
+     * Creates a DOM Document from a TraX Source by parsing it through
+     * a SAX filter.
+     *
+     * <p>Works like {@link #toDocument(Source, XMLFilter, short...)}
+     * but uses the given pool to create the Document.</p>
+     *
+     * @param s the source to convert
+     * @param filter the filter to parse the source with
+     * @param pool pool providing the DocumentBuilder used to create
+     * the empty Document
+     * @param skippedNodeTypes types of nodes that should not be
+     * created even if the filter reports them, only {@link
+     * Node#COMMENT_NODE} and {@link Node#PROCESSING_INSTRUCTION_NODE}
+     * are supported
+     * @return the created Document
+     * @throws IllegalArgumentException if any argument is null or
+     * an unsupported node type is given
+     * @since XMLUnit 2.12.1
+     */
+    public static Document toDocument(Source s, XMLFilter filter, DocumentBuilderPool pool,
+                                      short... skippedNodeTypes) {
+        if (s == null) {
+            throw new IllegalArgumentException("source must not be null");
+        }
+        if (filter == null) {
+            throw new IllegalArgumentException("filter must not be null");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("pool must not be null");
+        }
+        boolean skipComments = false, skipProcessingInstructions = false;
+        for (short type : skippedNodeTypes) {
+            if (type == Node.COMMENT_NODE) {
+                skipComments = true;
+            } else if (type == Node.PROCESSING_INSTRUCTION_NODE) {
+                skipProcessingInstructions = true;
+            } else {
+                throw new IllegalArgumentException("can't skip nodes of type " + type);
             }
         }
-        return d;
+        Document doc = pool.newDocument();
+        // names and namespaces have already been checked by the parser
+        doc.setStrictErrorChecking(false);
+        SAXToDOMHandler handler = new SAXToDOMHandler(doc, skipComments, skipProcessingInstructions);
+        try {
+            if (filter.getParent() == null) {
+                filter.setParent(JAXPFactories.getSAXParserFactory().newSAXParser().getXMLReader());
+            }
+            filter.setFeature(NAMESPACE_PREFIXES, true);
+            filter.setContentHandler(handler);
+            filter.setProperty(LEXICAL_HANDLER, handler);
+            filter.parse(toInputSource(s));
+        } catch (ParserConfigurationException e) {
+            throw new ConfigurationException(e);
+        } catch (SAXNotRecognizedException e) {
+            throw new ConfigurationException(e);
+        } catch (SAXNotSupportedException e) {
+            throw new ConfigurationException(e);
+        } catch (SAXException e) {
+            throw new XMLUnitException(e);
+        } catch (IOException e) {
+            throw new XMLUnitException(e);
+        } finally {
+            releaseHandler(filter);
+            doc.setStrictErrorChecking(true);
+        }
+        return doc;
+    }
+
+    /**
+     * Makes sure the filter - which may be reused by the caller -
+     * doesn't keep the Document alive.
+     */
+    private static void releaseHandler(XMLFilter filter) {
+        filter.setContentHandler(null);
+        try {
+            filter.setProperty(LEXICAL_HANDLER, null);
+        } catch (SAXException e) {
+            // the filter didn't accept the handler in the first place
+        }
     }
 
     private static Document tryExtractDocFromDOMSource(Source s) {
@@ -176,8 +298,7 @@ private static Document tryExtractDocFromDOMSource(Source s) {
      */
     public static Node toNode(Source s) {
         Node n = tryExtractNodeFromDOMSource(s);
-        return n != null ? n
-            : toDocument(s, DocumentBuilderFactoryConfigurer.Default.configure(DocumentBuilderFactory.newInstance()));
+        return n != null ? n : toDocument(s, defaultPool());
     }
 
     /**
@@ -196,6 +317,22 @@ public static Node toNode(Source s,
         return n != null ? n : toDocument(s, factory);
     }
 
+    /**
+     * Creates a DOM Node from a TraX Source.
+     *
+     * <p>If the source is a {@link DOMSource} its Node will be
+     * returned, otherwise this delegates to {@link #toDocument}.</p>
+     *
+     * @param s the source to convert
+     * @param pool pool providing the DocumentBuilder to use
+     * @return the created Node
+     * @since XMLUnit 2.12.1
+     */
+    public static Node toNode(Source s, DocumentBuilderPool pool) {
+        Node n = tryExtractNodeFromDOMSource(s);
+        return n != null ? n : toDocument(s, pool);
+    }
+
     private static Node tryExtractNodeFromDOMSource(Source s) {
         if (s instanceof DOMSource) {
             @SuppressWarnings("unchecked") DOMSource ds = (DOMSource) s;
@@ -204,6 +341,20 @@ private static Node tryExtractNodeFromDOMSource(Source s) {
         return null;
     }
 
+    /**
+     * Pool around the {@link JAXPFactories#getDocumentBuilderFactory()
+     * shared default factory}, looked up on first use. Doing so twice
+     * concurrently is harmless.
+     */
+    private static DocumentBuilderPool defaultPool() {
+        DocumentBuilderPool p = defaultPool;
+        if (p == null) {
+            p = DocumentBuilderPool.forFactory(JAXPFactories.getDocumentBuilderFactory());
+            defaultPool = p;
+        }
+        return p;
+    }
+
     /**
      * Creates a JAXP NamespaceContext from a Map prefix =&gt; Namespace URI.
      * @param prefix2URI maps from prefix to namespace URI.
@@ -0,0 +1,274 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.xmlunit.ConfigurationException;
+import org.xmlunit.XMLUnitException;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * Reuses namespace aware {@link DocumentBuilder}s created by a
+ * single {@link DocumentBuilderFactory}.
+ *
+ * <p>Builders are kept in a fixed number of stripes selected by the
+ * current thread, so threads rarely compete for the same builder and
+ * the pool never holds more builders than it has stripes. A builder
+ * is {@link DocumentBuilder#reset reset} before it is returned to the
+ * pool. If the parser doesn't support resetting, builders are no
+ * longer pooled and a new one is created for each use.</p>
+ *
+ * <p>The factory's configuration is captured when the builders are
+ * created, changing the factory after a pool has been created for it
+ * doesn't affect builders that have already been pooled.</p>
+ *
+ * <p>If the factory isn't namespace aware, it is switched to
+ * namespace awareness while a new builder is created and switched
+ * back afterwards. This happens while holding the factory's monitor,
+ * other threads using the factory without synchronizing on it may
+ * observe the change. Factories created by {@link JAXPFactories} are
+ * namespace aware in the first place and never changed.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ *
+ * @since XMLUnit 2.12.1
+ */
+public final class DocumentBuilderPool {
+
+    // the stripes don't reference the factory so they don't keep the
+    // weak key reachable
+    private static final Map<DocumentBuilderFactory, SoftReference<Stripes>> SHARED_STRIPES =
+        new WeakHashMap<DocumentBuilderFactory, SoftReference<Stripes>>();
+
+    private static final int MAX_STRIPES = 1 << 16;
+    private static final int DEFAULT_STRIPES =
+        stripesFor(2 * Runtime.getRuntime().availableProcessors());
+
+    private final DocumentBuilderFactory factory;
+    private final Stripes stripes;
+
+    /**
+     * Creates a pool with one stripe per two available processors.
+     *
+     * @param factory the factory to create builders with, see the
+     * class comment for how it is used if it isn't namespace aware
+     * @throws IllegalArgumentException if {@code factory} is null
+     */
+    public DocumentBuilderPool(DocumentBuilderFactory factory) {
+        this(factory, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param factory the factory to create builders with, see the
+     * class comment for how it is used if it isn't namespace aware
+     * @param maxBuilders the maximum number of idle builders held by
+     * the pool, will be rounded up to the next power of two and is
+     * capped at 65536
+     * @throws IllegalArgumentException if {@code factory} is null or
+     * {@code maxBuilders} is not positive
+     */
+    public DocumentBuilderPool(DocumentBuilderFactory factory, int maxBuilders) {
+        this(factory, newStripes(maxBuilders));
+        if (factory == null) {
+            throw new IllegalArgumentException("factory must not be null");
+        }
+    }
+
+    private DocumentBuilderPool(DocumentBuilderFactory factory, Stripes stripes) {
+        this.factory = factory;
+        this.stripes = stripes;
+    }
+
+    /**
+     * Returns a pool for the given factory suitable for callers that
+     * don't own the factory.
+     *
+     * <p>For factories returned by {@link JAXPFactories} - which must
+     * not be changed - the builders are shared by all pools returned
+     * for the same factory. They are held as long as the factory is
+     * reachable and memory is not running low.</p>
+     *
+     * <p>Any other factory may be changed by its owner at any time,
+     * so the returned pool creates a new builder for each use and
+     * always reflects the factory's current configuration. See the
+     * class comment for how the factory is used if it isn't namespace
+     * aware.</p>
+     *
+     * @param factory the factory to create builders with
+     * @return a pool for the factory
+     * @throws IllegalArgumentException if {@code factory} is null
+     */
+    public static DocumentBuilderPool forFactory(DocumentBuilderFactory factory) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory must not be null");
+        }
+        if (!JAXPFactories.isSharedDocumentBuilderFactory(factory)) {
+            return new DocumentBuilderPool(factory, (Stripes) null);
+        }
+        synchronized (SHARED_STRIPES) {
+            SoftReference<Stripes> ref = SHARED_STRIPES.get(factory);
+            Stripes s = ref != null ? ref.get() : null;
+            if (s == null) {
+                s = newStripes(DEFAULT_STRIPES);
+                SHARED_STRIPES.put(factory, new SoftReference<Stripes>(s));
+            }
+            return new DocumentBuilderPool(factory, s);
+        }
+    }
+
+    /**
+     * The factory used to create builders.
+     *
+     * @return the factory
+     */
+    public DocumentBuilderFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * Parses a document using a pooled builder.
+     *
+     * @param is the document to parse
+     * @return the parsed document
+     * @throws ConfigurationException if the factory can't create a
+     * builder
+     * @throws XMLUnitException if the document can't be read or
+     * parsed
+     */
+    public Document parse(InputSource is) {
+        DocumentBuilder b = acquire();
+        try {
+            return b.parse(is);
+        } catch (org.xml.sax.SAXException e) {
+            throw new XMLUnitException(e);
+        } catch (java.io.IOException e) {
+            throw new XMLUnitException(e);
+        } finally {
+            release(b);
+        }
+    }
+
+    /**
+     * Creates an empty document using a pooled builder.
+     *
+     * @return the new document
+     * @throws ConfigurationException if the factory can't create a
+     * builder
+     */
+    public Document newDocument() {
+        DocumentBuilder b = acquire();
+        try {
+            return b.newDocument();
+        } finally {
+            release(b);
+        }
+    }
+
+    /**
+     * Takes a builder out of the pool, creating a new one if the
+     * current thread's stripe is empty.
+     */
+    DocumentBuilder acquire() {
+        DocumentBuilder b = stripes != null ? stripes.take() : null;
+        return b != null ? b : newDocumentBuilder(factory);
+    }
+
+    /**
+     * Resets a builder and puts it back into the current thread's
+     * stripe unless it is occupied.
+     */
+    void release(DocumentBuilder b) {
+        if (stripes != null) {
+            stripes.put(b);
+        }
+    }
+
+    private static DocumentBuilder newDocumentBuilder(DocumentBuilderFactory factory) {
+        synchronized (factory) {
+            boolean nsAware = factory.isNamespaceAware();
+            try {
+                if (!nsAware) {
+                    factory.setNamespaceAware(true);
+                }
+                return factory.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new ConfigurationException(e);
+            } finally {
+                if (!nsAware) {
+                    factory.setNamespaceAware(false);
+                }
+            }
+        }
+    }
+
+    private static Stripes newStripes(int maxBuilders) {
+        if (maxBuilders <= 0) {
+            throw new IllegalArgumentException("maxBuilders must be positive");
+        }
+        return new Stripes(stripesFor(maxBuilders));
+    }
+
+    private static int stripesFor(int n) {
+        int stripes = 1;
+        while (stripes < n && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * The idle builders of one or more pools.
+     */
+    private static final class Stripes {
+        private final AtomicReferenceArray<DocumentBuilder> builders;
+        private final int mask;
+        private volatile boolean resetSupported = true;
+
+        private Stripes(int stripes) {
+            builders = new AtomicReferenceArray<DocumentBuilder>(stripes);
+            mask = stripes - 1;
+        }
+
+        private DocumentBuilder take() {
+            return builders.getAndSet(stripe(), null);
+        }
+
+        private void put(DocumentBuilder b) {
+            if (!resetSupported) {
+                return;
+            }
+            try {
+                b.reset();
+            } catch (UnsupportedOperationException e) {
+                resetSupported = false;
+                return;
+            }
+            builders.compareAndSet(stripe(), null, b);
+        }
+
+        private int stripe() {
+            long id = Thread.currentThread().getId();
+            return (int) (id ^ (id >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.xpath.XPathFactory;
+import org.xml.sax.SAXException;
+
+/**
+ * Caches JAXP factories configured by the configurers of this
+ * package.
+ *
+ * <p>Looking up a factory via {@code newInstance} and configuring it
+ * is expensive compared to parsing or comparing small documents, this
+ * class does both only once per configurer - or once per configurer
+ * and thread for factories that are not meant to be used by several
+ * threads at the same time.</p>
+ *
+ * <p>The factories returned are shared and must not be changed by
+ * the caller.</p>
+ *
+ * @since XMLUnit 2.12.1
+ */
+public final class JAXPFactories {
+
+    private static final Map<DocumentBuilderFactoryConfigurer, DocumentBuilderFactory> DOCUMENT_BUILDER_FACTORIES =
+        new WeakHashMap<DocumentBuilderFactoryConfigurer, DocumentBuilderFactory>();
+
+    private static final ThreadLocal<Map<TransformerFactoryConfigurer, TransformerFactory>> TRANSFORMER_FACTORIES =
+        new ThreadLocal<Map<TransformerFactoryConfigurer, TransformerFactory>>() {
+            @Override
+            protected Map<TransformerFactoryConfigurer, TransformerFactory> initialValue() {
+                return new WeakHashMap<TransformerFactoryConfigurer, TransformerFactory>();
+            }
+        };
+
+    private static final ThreadLocal<Map<XPathFactoryConfigurer, XPathFactory>> XPATH_FACTORIES =
+        new ThreadLocal<Map<XPathFactoryConfigurer, XPathFactory>>() {
+            @Override
+            protected Map<XPathFactoryConfigurer, XPathFactory> initialValue() {
+                return new WeakHashMap<XPathFactoryConfigurer, XPathFactory>();
+            }
+        };
+
+    private static final ThreadLocal<Map<String, SchemaFactory>> SCHEMA_FACTORIES =
+        new ThreadLocal<Map<String, SchemaFactory>>() {
+            @Override
+            protected Map<String, SchemaFactory> initialValue() {
+                return new HashMap<String, SchemaFactory>();
+            }
+        };
+
+    private static final ThreadLocal<SAXParserFactory> SAX_PARSER_FACTORIES =
+        new ThreadLocal<SAXParserFactory>() {
+            @Override
+            protected SAXParserFactory initialValue() {
+                return newSAXParserFactory();
+            }
+        };
+
+    private static final ThreadLocal<SAXParserFactory[]> VALIDATING_SAX_PARSER_FACTORIES =
+        new ThreadLocal<SAXParserFactory[]>() {
+            @Override
+            protected SAXParserFactory[] initialValue() {
+                return new SAXParserFactory[2];
+            }
+        };
+
+    private static final ThreadLocal<XMLInputFactory> XML_INPUT_FACTORIES =
+        new ThreadLocal<XMLInputFactory>() {
+            @Override
+            protected XMLInputFactory initialValue() {
+                return newXMLInputFactory();
+            }
+        };
+
+    private static final String EXTERNAL_GENERAL_ENTITIES =
+        "http://xml.org/sax/features/external-general-entities";
+    private static final String EXTERNAL_PARAMETER_ENTITIES =
+        "http://xml.org/sax/features/external-parameter-entities";
+
+    // makes the JDK's parser report CDATA sections as such rather
+    // than as plain text
+    private static final String REPORT_CDATA =
+        "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private static final List<String> SAX_FEATURES_DISABLED = Arrays.asList(
+        EXTERNAL_GENERAL_ENTITIES,
+        EXTERNAL_PARAMETER_ENTITIES,
+        "http://apache.org/xml/features/nonvalidating/load-dtd-grammar",
+        "http://apache.org/xml/features/nonvalidating/load-external-dtd"
+    );
+
+    private static final List<String> SAX_FEATURES_ENABLED = Arrays.asList(
+        "http://apache.org/xml/features/disallow-doctype-decl"
+    );
+
+    private JAXPFactories() { }
+
+    /**
+     * Returns a namespace aware factory configured by {@link
+     * DocumentBuilderFactoryConfigurer#Default}.
+     *
+     * @return the shared factory
+     */
+    public static DocumentBuilderFactory getDocumentBuilderFactory() {
+        return getDocumentBuilderFactory(DocumentBuilderFactoryConfigurer.Default);
+    }
+
+    /**
+     * Returns a namespace aware factory configured by the given
+     * configurer.
+     *
+     * <p>The same factory is returned to all threads. It must only
+     * be used to create {@code DocumentBuilder}s, preferably via
+     * {@link DocumentBuilderPool#forFactory}.</p>
+     *
+     * @param configurer the configurer to apply to the factory
+     * @return the shared factory
+     * @throws IllegalArgumentException if {@code configurer} is null
+     * @throws org.xmlunit.ConfigurationException if the configurer
+     * can't be applied
+     */
+    public static DocumentBuilderFactory getDocumentBuilderFactory(DocumentBuilderFactoryConfigurer configurer) {
+        if (configurer == null) {
+            throw new IllegalArgumentException("configurer must not be null");
+        }
+        synchronized (DOCUMENT_BUILDER_FACTORIES) {
+            DocumentBuilderFactory f = DOCUMENT_BUILDER_FACTORIES.get(configurer);
+            if (f == null) {
+                f = DocumentBuilderFactory.newInstance();
+                f.setNamespaceAware(true);
+                f = configurer.configure(f);
+                DOCUMENT_BUILDER_FACTORIES.put(configurer, f);
+            }
+            return f;
+        }
+    }
+
+    /**
+     * Returns a factory configured by the given configurer that is
+     * confined to the current thread.
+     *
+     * @param configurer the configurer to apply to the factory
+     * @return the current thread's factory
+     * @throws IllegalArgumentException if {@code configurer} is null
+     * @throws org.xmlunit.ConfigurationException if the configurer
+     * can't be applied
+     */
+    public static TransformerFactory getTransformerFactory(TransformerFactoryConfigurer configurer) {
+        if (configurer == null) {
+            throw new IllegalArgumentException("configurer must not be null");
+        }
+        Map<TransformerFactoryConfigurer, TransformerFactory> factories = TRANSFORMER_FACTORIES.get();
+        TransformerFactory f = factories.get(configurer);
+        if (f == null) {
+            f = configurer.configure(TransformerFactory.newInstance());
+            factories.put(configurer, f);
+        }
+        return f;
+    }
+
+    /**
+     * Returns a factory configured by the given configurer that is
+     * confined to the current thread.
+     *
+     * @param configurer the configurer to apply to the factory
+     * @return the current thread's factory
+     * @throws IllegalArgumentException if {@code configurer} is null
+     * @throws org.xmlunit.ConfigurationException if the configurer
+     * can't be applied
+     */
+    public static XPathFactory getXPathFactory(XPathFactoryConfigurer configurer) {
+        if (configurer == null) {
+            throw new IllegalArgumentException("configurer must not be null");
+        }
+        Map<XPathFactoryConfigurer, XPathFactory> factories = XPATH_FACTORIES.get();
+        XPathFactory f = factories.get(configurer);
+        if (f == null) {
+            f = configurer.configure(XPathFactory.newInstance());
+            factories.put(configurer, f);
+        }
+        return f;
+    }
+
+    /**
+     * Returns an unconfigured factory for the given schema language
+     * that is confined to the current thread.
+     *
+     * @param language the schema language
+     * @return the current thread's factory
+     * @throws IllegalArgumentException if {@code language} is null
+     * or not supported
+     */
+    public static SchemaFactory getSchemaFactory(String language) {
+        if (language == null) {
+            throw new IllegalArgumentException("language must not be null");
+        }
+        Map<String, SchemaFactory> factories = SCHEMA_FACTORIES.get();
+        SchemaFactory f = factories.get(language);
+        if (f == null) {
+            f = SchemaFactory.newInstance(language);
+            factories.put(language, f);
+        }
+        return f;
+    }
+
+    /**
+     * Returns a namespace aware factory that is confined to the
+     * current thread and configured to match {@link
+     * DocumentBuilderFactoryConfigurer#Default}, i.e. it neither
+     * parses nor loads DTDs and is not XInclude aware.
+     *
+     * @return the current thread's factory
+     */
+    public static SAXParserFactory getSAXParserFactory() {
+        return SAX_PARSER_FACTORIES.get();
+    }
+
+    /**
+     * Returns a namespace aware and validating factory that is
+     * confined to the current thread.
+     *
+     * <p>Unlike the other factories of this class it does load DTDs
+     * as validation against them requires it.</p>
+     *
+     * @param disableExternalEntities whether the factory must not
+     * resolve external general or parameter entities
+     * @return the current thread's factory
+     */
+    public static SAXParserFactory getValidatingSAXParserFactory(boolean disableExternalEntities) {
+        SAXParserFactory[] factories = VALIDATING_SAX_PARSER_FACTORIES.get();
+        int index = disableExternalEntities ? 1 : 0;
+        SAXParserFactory f = factories[index];
+        if (f == null) {
+            f = SAXParserFactory.newInstance();
+            f.setNamespaceAware(true);
+            f.setValidating(true);
+            if (disableExternalEntities) {
+                setSafeFeature(f, EXTERNAL_GENERAL_ENTITIES, false);
+                setSafeFeature(f, EXTERNAL_PARAMETER_ENTITIES, false);
+            }
+            factories[index] = f;
+        }
+        return f;
+    }
+
+    /**
+     * Returns a namespace aware factory that is confined to the
+     * current thread, doesn't process DTDs or external entities and
+     * reports CDATA sections if the implementation supports it.
+     *
+     * @return the current thread's factory
+     */
+    public static XMLInputFactory getXMLInputFactory() {
+        return XML_INPUT_FACTORIES.get();
+    }
+
+    /**
+     * Whether the given factory has been returned by one of the
+     * {@code getDocumentBuilderFactory} methods.
+     */
+    static boolean isSharedDocumentBuilderFactory(DocumentBuilderFactory f) {
+        synchronized (DOCUMENT_BUILDER_FACTORIES) {
+            return DOCUMENT_BUILDER_FACTORIES.containsValue(f);
+        }
+    }
+
+    private static XMLInputFactory newXMLInputFactory() {
+        XMLInputFactory f = XMLInputFactory.newInstance();
+        f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        f.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        f.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        if (f.isPropertySupported(REPORT_CDATA)) {
+            f.setProperty(REPORT_CDATA, Boolean.TRUE);
+        }
+        return f;
+    }
+
+    private static SAXParserFactory newSAXParserFactory() {
+        SAXParserFactory f = SAXParserFactory.newInstance();
+        f.setNamespaceAware(true);
+        f.setXIncludeAware(false);
+        for (String feature : SAX_FEATURES_DISABLED) {
+            setSafeFeature(f, feature, false);
+        }
+        for (String feature : SAX_FEATURES_ENABLED) {
+            setSafeFeature(f, feature, true);
+        }
+        return f;
+    }
+
+    private static void setSafeFeature(SAXParserFactory factory, String feature, boolean value) {
+        try {
+            factory.setFeature(feature, value);
+        } catch (ParserConfigurationException ex) {
+            // feature not supported by this parser, ignore
+        } catch (SAXException ex) {
+            // feature not supported by this parser, ignore
+        }
+    }
+}
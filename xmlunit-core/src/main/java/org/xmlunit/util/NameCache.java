@@ -0,0 +1,89 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import org.w3c.dom.Node;
+
+/**
+ * Interns the {@link QName}s of nodes.
+ *
+ * <p>{@link #getQName} returns a {@code QName} equal to the one
+ * returned by {@link Nodes#getQName} but only creates a new instance
+ * the first time it encounters a combination of namespace URI, local
+ * name and prefix. Nodes with the same name are represented by the
+ * same {@code QName} instance so comparing the names of two nodes
+ * mostly boils down to a reference comparison.</p>
+ *
+ * <p>Looking up a name that has been seen before doesn't allocate any
+ * memory. The cache holds on to all names it has seen until it is
+ * {@link #clear cleared}, it is meant to be used for the duration of
+ * a single comparison. Instances are not thread-safe.</p>
+ *
+ * @since XMLUnit 2.12.1
+ */
+public final class NameCache {
+    // namespace URI -> local name -> name
+    private final Map<String, Map<String, QName>> names =
+        new HashMap<String, Map<String, QName>>();
+
+    /**
+     * Extracts a Node's name, namespace URI (if any) and prefix as a
+     * QName.
+     * @param n the node
+     * @return its QName
+     */
+    public QName getQName(Node n) {
+        String localName = n.getLocalName();
+        String uri = null;
+        String prefix = null;
+        if (localName != null) {
+            uri = n.getNamespaceURI();
+            prefix = n.getPrefix();
+        } else {
+            localName = n.getNodeName();
+        }
+        if (uri == null) {
+            uri = XMLConstants.NULL_NS_URI;
+        }
+        if (prefix == null) {
+            prefix = XMLConstants.DEFAULT_NS_PREFIX;
+        }
+        Map<String, QName> byLocalName = names.get(uri);
+        if (byLocalName == null) {
+            byLocalName = new HashMap<String, QName>();
+            names.put(uri, byLocalName);
+        }
+        QName name = byLocalName.get(localName);
+        if (name == null) {
+            name = new QName(uri, localName, prefix);
+            byLocalName.put(localName, name);
+        } else if (!name.getPrefix().equals(prefix)) {
+            // QName.equals ignores the prefix but the prefix of the
+            // node must be retained
+            name = new QName(uri, localName, prefix);
+        }
+        return name;
+    }
+
+    /**
+     * Forgets all names seen so far.
+     */
+    public void clear() {
+        names.clear();
+    }
+}
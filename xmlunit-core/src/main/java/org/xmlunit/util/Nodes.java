@@ -13,6 +13,8 @@
 */
 package org.xmlunit.util;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -186,6 +188,34 @@ public static NodeList getChildNodes(Node n) {
         return new EmptyTextNodeNodeList(n.getOwnerDocument());
     }
 
+    /**
+     * Visits all nodes below and including the given node once so
+     * DOM implementations that build nodes lazily - like the JDK's
+     * with deferred node expansion - do so before the nodes are
+     * read from multiple threads.
+     *
+     * @param root the node to expand
+     * @since XMLUnit 2.12.1
+     */
+    public static void expand(Node root) {
+        Deque<Node> todo = new ArrayDeque<Node>();
+        todo.push(root);
+        while (!todo.isEmpty()) {
+            Node n = todo.pop();
+            n.getNodeValue();
+            NamedNodeMap attributes = n.getAttributes();
+            if (attributes != null) {
+                final int len = attributes.getLength();
+                for (int i = 0; i < len; i++) {
+                    attributes.item(i).getNodeValue();
+                }
+            }
+            for (Node c = n.getFirstChild(); c != null; c = c.getNextSibling()) {
+                todo.push(c);
+            }
+        }
+    }
+
     /**
      * Trims textual content of this node, removes empty text and
      * CDATA children, recurses into its child nodes.
@@ -227,8 +257,12 @@ private static void handleWsRec(Node n, boolean normalize) {
      * <p>"normalized" in this context means all whitespace characters
      * are replaced by space characters and consecutive whitespace
      * characaters are collapsed.</p>
+     *
+     * @param s the string to normalize
+     * @return the normalized string
+     * @since XMLUnit 2.12.1
      */
-    static String normalize(String s) {
+    public static String normalize(String s) {
         StringBuilder sb = new StringBuilder();
         boolean changed = false;
         boolean lastCharWasWS = false;
@@ -0,0 +1,175 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import javax.xml.XMLConstants;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Builds a DOM document from SAX events.
+ *
+ * <p>Adjacent character events are collected into a single text
+ * node. Comments and processing instructions of the skipped node
+ * types are never created but still separate the text nodes before
+ * and after them - just like they do in a document parsed by a
+ * {@code DocumentBuilder} where they are ignored by a node
+ * filter.</p>
+ *
+ * <p>Document type declarations and entity boundaries are not
+ * represented in the document.</p>
+ */
+final class SAXToDOMHandler extends DefaultHandler implements LexicalHandler {
+
+    private final Document doc;
+    private final boolean skipComments, skipProcessingInstructions;
+    // most text arrives in a single chunk, the buffer is only used
+    // for the following ones
+    private final StringBuilder text = new StringBuilder();
+    private String firstChunk;
+    private Node current;
+    private boolean inCDATA, inDTD;
+
+    SAXToDOMHandler(Document doc, boolean skipComments, boolean skipProcessingInstructions) {
+        this.doc = doc;
+        this.skipComments = skipComments;
+        this.skipProcessingInstructions = skipProcessingInstructions;
+        current = doc;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        flushText();
+        Element e = doc.createElementNS(emptyToNull(uri), qName);
+        final int len = attributes.getLength();
+        for (int i = 0; i < len; i++) {
+            String name = attributes.getQName(i);
+            String attrUri = isNamespaceDeclaration(name) ? XMLConstants.XMLNS_ATTRIBUTE_NS_URI
+                : emptyToNull(attributes.getURI(i));
+            e.setAttributeNS(attrUri, name, attributes.getValue(i));
+        }
+        current.appendChild(e);
+        current = e;
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) {
+        // namespace declarations are reported as attributes since the
+        // namespace-prefixes feature is enabled
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        flushText();
+        current = current.getParentNode();
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (firstChunk == null && text.length() == 0) {
+            firstChunk = new String(ch, start, length);
+        } else {
+            if (firstChunk != null) {
+                text.append(firstChunk);
+                firstChunk = null;
+            }
+            text.append(ch, start, length);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        characters(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) {
+        flushText();
+        if (!skipProcessingInstructions) {
+            current.appendChild(doc.createProcessingInstruction(target, data == null ? "" : data));
+        }
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length) {
+        flushText();
+        if (!skipComments && !inDTD) {
+            current.appendChild(doc.createComment(new String(ch, start, length)));
+        }
+    }
+
+    @Override
+    public void startCDATA() {
+        flushText();
+        inCDATA = true;
+    }
+
+    @Override
+    public void endCDATA() {
+        current.appendChild(doc.createCDATASection(takeText()));
+        inCDATA = false;
+    }
+
+    @Override
+    public void endDocument() {
+        flushText();
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId) {
+        inDTD = true;
+    }
+
+    @Override
+    public void endDTD() {
+        inDTD = false;
+    }
+
+    @Override
+    public void startEntity(String name) { }
+
+    @Override
+    public void endEntity(String name) { }
+
+    private void flushText() {
+        if (inCDATA || (firstChunk == null && text.length() == 0)) {
+            return;
+        }
+        String t = takeText();
+        // the document node can't have text children
+        if (current != doc) {
+            current.appendChild(doc.createTextNode(t));
+        }
+    }
+
+    private String takeText() {
+        String t = firstChunk != null ? firstChunk : text.toString();
+        firstChunk = null;
+        text.setLength(0);
+        return t;
+    }
+
+    private static boolean isNamespaceDeclaration(String qName) {
+        return qName.equals(XMLConstants.XMLNS_ATTRIBUTE)
+            || qName.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":");
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.length() == 0 ? null : s;
+    }
+}
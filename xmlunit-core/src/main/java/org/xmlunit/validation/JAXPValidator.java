@@ -18,6 +18,7 @@
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import org.xmlunit.XMLUnitException;
+import org.xmlunit.util.JAXPFactories;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
@@ -98,11 +99,19 @@ public void setDisableExternalDtdAccess(boolean disable) {
     }
 
     private SchemaFactory getFactory() {
-        SchemaFactory f = factory == null ? SchemaFactory.newInstance(language) : factory;
+        if (factory != null) {
+            if (disableExternalDtdAccess) {
+                restrictExternalDtdAccess(factory);
+            }
+            return factory;
+        }
         if (disableExternalDtdAccess) {
+            // the shared factory must not be changed
+            SchemaFactory f = SchemaFactory.newInstance(language);
             restrictExternalDtdAccess(f);
+            return f;
         }
-        return f;
+        return JAXPFactories.getSchemaFactory(language);
     }
 
     private static void restrictExternalDtdAccess(SchemaFactory f) {
@@ -20,6 +20,7 @@
 import org.xmlunit.ConfigurationException;
 import org.xmlunit.XMLUnitException;
 import org.xmlunit.util.Convert;
+import org.xmlunit.util.JAXPFactories;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXNotRecognizedException;
@@ -113,7 +114,7 @@ public void setDisableExternalEntities(boolean disable) {
 
     @Override
     public ValidationResult validateInstance(Source s) {
-        return validateInstance(s, SAXParserFactory.newInstance());
+        return validateInstance(s, JAXPFactories.getValidatingSAXParserFactory(disableExternalEntities));
     }
 
     /**
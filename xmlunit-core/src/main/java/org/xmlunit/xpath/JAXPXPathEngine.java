@@ -18,13 +18,16 @@
 import javax.xml.transform.Source;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import org.xmlunit.ConfigurationException;
 import org.xmlunit.XMLUnitException;
 import org.xmlunit.util.Convert;
 import org.xmlunit.util.DocumentBuilderFactoryConfigurer;
+import org.xmlunit.util.DocumentBuilderPool;
 import org.xmlunit.util.IterableNodeList;
+import org.xmlunit.util.JAXPFactories;
 import org.xmlunit.util.XPathFactoryConfigurer;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -34,7 +37,7 @@
  */
 public class JAXPXPathEngine implements XPathEngine {
     private final XPath xpath;
-    private final DocumentBuilderFactory dbf;
+    private final DocumentBuilderPool documentBuilderPool;
 
     /**
      * Create an XPathEngine that uses a custom XPathFactory and a custom
@@ -49,7 +52,7 @@ public JAXPXPathEngine(XPathFactory fac, DocumentBuilderFactory dbf) {
         } catch (Exception e) {
             throw new ConfigurationException(e);
         }
-        this.dbf = dbf;
+        documentBuilderPool = dbf != null ? DocumentBuilderPool.forFactory(dbf) : null;
     }
 
     /**
@@ -58,7 +61,7 @@ public JAXPXPathEngine(XPathFactory fac, DocumentBuilderFactory dbf) {
      * @param fac the factory to use
      */
     public JAXPXPathEngine(XPathFactory fac) {
-        this(fac, DocumentBuilderFactoryConfigurer.Default.configure(DocumentBuilderFactory.newInstance()));
+        this(fac, JAXPFactories.getDocumentBuilderFactory());
     }
 
     /**
@@ -68,7 +71,7 @@ public JAXPXPathEngine(XPathFactory fac) {
      * @since XMLUnit 2.12.1
      */
     public JAXPXPathEngine(DocumentBuilderFactory dbf) {
-        this(XPathFactoryConfigurer.Default.configure(XPathFactory.newInstance()), dbf);
+        this(JAXPFactories.getXPathFactory(XPathFactoryConfigurer.Default), dbf);
     }
 
     /**
@@ -76,7 +79,7 @@ public JAXPXPathEngine(DocumentBuilderFactory dbf) {
      * under the covers and a DocumentBuilderFactory hardened with {@link DocumentBuilderFactoryConfigurer#Default}.
      */
     public JAXPXPathEngine() {
-        this(XPathFactoryConfigurer.Default.configure(XPathFactory.newInstance()));
+        this(JAXPFactories.getXPathFactory(XPathFactoryConfigurer.Default));
     }
 
     /**
@@ -84,7 +87,7 @@ public JAXPXPathEngine() {
      */
     @Override
     public Iterable<Node> selectNodes(String xPath, Source s) {
-        return selectNodes(xPath, Convert.toNode(s, dbf));
+        return selectNodes(xPath, Convert.toNode(s, documentBuilderPool));
     }
 
     /**
@@ -92,7 +95,7 @@ public Iterable<Node> selectNodes(String xPath, Source s) {
      */
     @Override
     public String evaluate(String xPath, Source s) {
-        return evaluate(xPath, Convert.toNode(s, dbf));
+        return evaluate(xPath, Convert.toNode(s, documentBuilderPool));
     }
 
     /**
@@ -120,6 +123,28 @@ public String evaluate(String xPath, Node n) {
         }
     }
 
+    /**
+     * Compiles an XPath expression so it can be evaluated many times
+     * without parsing it again.
+     *
+     * <p>The expression uses the namespace context that has been
+     * established when this method is invoked. Like the engine
+     * itself the compiled expression is not thread-safe.</p>
+     *
+     * @param xPath the XPath expression
+     * @return the compiled expression
+     * @throws XMLUnitException if the expression is not valid
+     *
+     * @since XMLUnit 2.12.1
+     */
+    public XPathExpression compile(String xPath) {
+        try {
+            return xpath.compile(xPath);
+        } catch (XPathExpressionException ex) {
+            throw new XMLUnitException(ex);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,151 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.builder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.Mapper;
+
+import static org.junit.Assert.*;
+
+public class ControlDocumentCacheTest {
+
+    private static final List<Object> OPTIONS = Collections.<Object>singletonList("options");
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsPositiveSize() {
+        new ControlDocumentCache(0);
+    }
+
+    @Test
+    public void parsesEqualStringsOnce() {
+        ControlDocumentCache cache = new ControlDocumentCache(2);
+        CountingLoader loader = new CountingLoader();
+        Document d1 = documentOf(cache.get(Input.fromString("<a/>").build(), OPTIONS, loader));
+        Document d2 = documentOf(cache.get(Input.fromString("<a/>").build(), OPTIONS, loader));
+        assertSame(d1, d2);
+        assertEquals(1, loader.calls.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        Document d3 = documentOf(cache.get(Input.fromString("<b/>").build(), OPTIONS, loader));
+        assertEquals("b", d3.getDocumentElement().getTagName());
+        assertEquals(2, loader.calls.get());
+    }
+
+    @Test
+    public void optionsArePartOfTheKey() {
+        ControlDocumentCache cache = new ControlDocumentCache(2);
+        CountingLoader loader = new CountingLoader();
+        Document d1 = documentOf(cache.get(Input.fromByteArray("<a/>".getBytes()).build(), OPTIONS, loader));
+        Document d2 = documentOf(cache.get(Input.fromByteArray("<a/>".getBytes()).build(),
+                                           Collections.<Object>singletonList("other"), loader));
+        assertNotSame(d1, d2);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedDocument() {
+        ControlDocumentCache cache = new ControlDocumentCache(2);
+        CountingLoader loader = new CountingLoader();
+        cache.get(Input.fromString("<a/>").build(), OPTIONS, loader);
+        cache.get(Input.fromString("<b/>").build(), OPTIONS, loader);
+        cache.get(Input.fromString("<a/>").build(), OPTIONS, loader);
+        cache.get(Input.fromString("<c/>").build(), OPTIONS, loader);
+        assertEquals(2, cache.size());
+        assertEquals(3, loader.calls.get());
+        cache.get(Input.fromString("<a/>").build(), OPTIONS, loader);
+        assertEquals(3, loader.calls.get());
+        cache.get(Input.fromString("<b/>").build(), OPTIONS, loader);
+        assertEquals(4, loader.calls.get());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void rereadsChangedFiles() throws Exception {
+        File f = File.createTempFile("xmlunit-cache", ".xml");
+        try {
+            write(f, "<a/>");
+            ControlDocumentCache cache = new ControlDocumentCache(2);
+            CountingLoader loader = new CountingLoader();
+            Document d1 = documentOf(cache.get(Input.fromFile(f).build(), OPTIONS, loader));
+            assertSame(d1, documentOf(cache.get(Input.fromFile(f).build(), OPTIONS, loader)));
+            assertEquals(1, loader.calls.get());
+
+            write(f, "<bb/>");
+            assertTrue(f.setLastModified(f.lastModified() + 2000));
+            Document d2 = documentOf(cache.get(Input.fromFile(f).build(), OPTIONS, loader));
+            assertEquals("bb", d2.getDocumentElement().getTagName());
+            assertEquals(2, loader.calls.get());
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void doesntCacheDOMSources() {
+        ControlDocumentCache cache = new ControlDocumentCache(2);
+        CountingLoader loader = new CountingLoader();
+        Document d = Convert.toDocument(Input.fromString("<a/>").build());
+        assertNull(cache.get(new DOMSource(d), OPTIONS, loader));
+        assertNull(cache.get(new DOMSource(d), OPTIONS, loader));
+        assertEquals(0, loader.calls.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void doesntCacheFileURIsThatArentPlainFiles() {
+        ControlDocumentCache cache = new ControlDocumentCache(2);
+        CountingLoader loader = new CountingLoader();
+        // opaque URI, can't be turned into a File
+        assertNull(cache.get(new StreamSource("file:doesnt-exist.xml"), OPTIONS, loader));
+        assertEquals(0, loader.calls.get());
+        assertEquals(0, cache.size());
+    }
+
+    private static Document documentOf(Source s) {
+        return (Document) ((DOMSource) s).getNode();
+    }
+
+    private static void write(File f, String content) throws Exception {
+        OutputStream out = new FileOutputStream(f);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static class CountingLoader implements Mapper<Source, Document> {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public Document apply(Source s) {
+            calls.incrementAndGet();
+            return Convert.toDocument(s);
+        }
+    }
+}
@@ -14,6 +14,7 @@
 
 package org.xmlunit.builder;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThan;
@@ -31,6 +32,12 @@
 import org.xmlunit.diff.Difference;
 import org.xmlunit.diff.DifferenceEvaluator;
 import org.xmlunit.diff.DifferenceEvaluators;
+import org.xmlunit.diff.DifferenceSummary;
+import org.xmlunit.diff.NodeTypeFilter;
+import org.xmlunit.diff.SerializedDifferences;
+import org.xmlunit.diff.PredictableDifferenceEvaluator;
+import org.xmlunit.input.CommentFilteredSource;
+import org.xmlunit.util.Convert;
 import org.xmlunit.util.Predicate;
 
 import org.junit.Assert;
@@ -42,10 +49,16 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMSource;
 
 public class DiffBuilderTest {
 
@@ -628,6 +641,304 @@ public void testDiff_withIgnoreECW_shouldSucceed() {
 
     }
 
+    @Test
+    public void testDiff_withIterativeTraversal_findsSameDifferences() {
+        String controlXml = "<a><b attr='1'>Test Value</b><c/></a>";
+        String testXml = "<a><b attr='2'>Test Value 2</b><d/></a>";
+
+        Diff recursive = DiffBuilder.compare(controlXml).withTest(testXml)
+            .build();
+        Diff iterative = DiffBuilder.compare(controlXml).withTest(testXml)
+            .withIterativeTraversal()
+            .build();
+
+        Assert.assertEquals(recursive.toString(), iterative.toString());
+        Assert.assertEquals(count(recursive.getDifferences()), count(iterative.getDifferences()));
+    }
+
+    @Test
+    public void testDiff_withStreamingEngine_findsSameDifferences() {
+        String controlXml = "<a><b attr='1'>Test Value</b><c/></a>";
+        String testXml = "<a><b attr='2'>Test Value 2</b><c x='y'/></a>";
+
+        Diff dom = DiffBuilder.compare(controlXml).withTest(testXml)
+            .build();
+        Diff streaming = DiffBuilder.compare(controlXml).withTest(testXml)
+            .withStreamingEngine()
+            .build();
+
+        Assert.assertEquals(dom.toString(), streaming.toString());
+        Assert.assertEquals(count(dom.getDifferences()), count(streaming.getDifferences()));
+    }
+
+    @Test
+    public void testDiff_withStreamingEngine_andIgnoreWhitespace_normalizesWhileReading() {
+        String controlXml = "<?xml version='1.0' encoding='ISO-8859-1'?>"
+            + "<a>\n  <b attr=' 1 '>  Test Value </b>\n  <c><![CDATA[ ]]></c>\n</a>";
+        String testXml = "<a><b attr='1'>Test Value</b><c/></a>";
+
+        final List<Node> targets = new ArrayList<Node>();
+        Diff myDiff = DiffBuilder.compare(controlXml).withTest(testXml)
+            .withStreamingEngine()
+            .ignoreWhitespace()
+            .withComparisonListeners(new ComparisonListener() {
+                    @Override
+                    public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                        targets.add(comparison.getControlDetails().getTarget());
+                    }
+                })
+            .checkForIdentical()
+            .build();
+
+        assertThat(myDiff.toString(), myDiff.hasDifferences(), is(false));
+        // the streaming engine only keeps children that differ
+        boolean sawB = false;
+        for (Node n : targets) {
+            if ("b".equals(n.getNodeName())) {
+                sawB = true;
+                assertThat(n.getFirstChild(), is((Node) null));
+            }
+        }
+        assertThat(sawB, is(true));
+    }
+
+    @Test
+    public void testDiff_withStreamingEngine_andNormalizations_findsSameDifferences() {
+        String controlXml = "<a>\n  <!-- c -->\n  <b attr=' 1 '>  Test   Value </b>\n  <c/>\n</a>";
+        String testXml = "<a><!-- d --><b attr='2'>Test Value 2</b><c><![CDATA[ x ]]></c></a>";
+
+        for (int i = 0; i < 4; i++) {
+            Diff dom = normalizations(DiffBuilder.compare(controlXml).withTest(testXml), i).build();
+            Diff streaming = normalizations(DiffBuilder.compare(controlXml).withTest(testXml), i)
+                .withStreamingEngine()
+                .build();
+            Assert.assertEquals(types(dom), types(streaming));
+        }
+    }
+
+    private static DiffBuilder normalizations(DiffBuilder b, int i) {
+        switch (i) {
+        case 0:
+            return b.ignoreWhitespace();
+        case 1:
+            return b.ignoreWhitespace().ignoreComments();
+        case 2:
+            return b.normalizeWhitespace();
+        default:
+            return b.ignoreElementContentWhitespace().ignoreComments();
+        }
+    }
+
+    private static List<String> types(Diff d) {
+        List<String> types = new ArrayList<String>();
+        for (Difference difference : d.getDifferences()) {
+            types.add(difference.getComparison().getType() + " "
+                      + difference.getComparison().getControlDetails().getXPath());
+        }
+        // the streaming engine reports CHILD_NODELIST_LENGTH after the children
+        Collections.sort(types);
+        return types;
+    }
+
+    @Test
+    public void testDiff_checkForSimilar_skipsComparisonsNobodyCanObserve() {
+        String controlXml = "<x:a xmlns:x='urn:x'><x:b/></x:a>";
+        String testXml = "<y:a xmlns:y='urn:x'><y:b/></y:a>";
+
+        NamespacePrefixCounter counter = new NamespacePrefixCounter();
+        Diff myDiff = DiffBuilder.compare(controlXml).withTest(testXml)
+            .withDifferenceEvaluator(DifferenceEvaluators.chain(DifferenceEvaluators.Default, counter))
+            .checkForSimilar()
+            .build();
+        assertThat(myDiff.hasDifferences(), is(false));
+        assertThat(counter.invocations, is(0));
+
+        myDiff = DiffBuilder.compare(controlXml).withTest(testXml)
+            .withDifferenceEvaluator(DifferenceEvaluators.chain(DifferenceEvaluators.Default, counter))
+            .checkForIdentical()
+            .build();
+        assertThat(myDiff.hasDifferences(), is(true));
+        assertThat(counter.invocations, is(2));
+    }
+
+    @Test
+    public void testDiff_checkForSimilar_performsComparisonsListenersObserve() {
+        String controlXml = "<x:a xmlns:x='urn:x'><x:b/></x:a>";
+        String testXml = "<y:a xmlns:y='urn:x'><y:b/></y:a>";
+        final List<Comparison> differences = new ArrayList<Comparison>();
+
+        NamespacePrefixCounter counter = new NamespacePrefixCounter();
+        Diff myDiff = DiffBuilder.compare(controlXml).withTest(testXml)
+            .withDifferenceEvaluator(DifferenceEvaluators.chain(DifferenceEvaluators.Default, counter))
+            .withDifferenceListeners(new ComparisonListener() {
+                    @Override
+                    public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                        differences.add(comparison);
+                    }
+                })
+            .checkForSimilar()
+            .build();
+        assertThat(myDiff.hasDifferences(), is(false));
+        assertThat(counter.invocations, is(2));
+        assertThat(differences.size(), is(2));
+    }
+
+    @Test
+    public void testDiff_ignoringProlog_findsSameDifferencesWithoutSkippedComparisons() {
+        String controlXml = "<?xml version='1.0' encoding='UTF-8'?><!-- c --><a x:b='1' xmlns:x='urn:x'/>";
+        String testXml = "<?xml version='1.1' encoding='ISO-8859-1'?><a y:b='2' xmlns:y='urn:x'/>";
+
+        Diff pruned = DiffBuilder.compare(controlXml).withTest(testXml)
+            .withDifferenceEvaluator(DifferenceEvaluators.chain(DifferenceEvaluators.Default,
+                                                                DifferenceEvaluators.ignorePrologDifferences()))
+            .checkForSimilar()
+            .build();
+        // a comparison listener observes all comparisons
+        Diff complete = DiffBuilder.compare(controlXml).withTest(testXml)
+            .withDifferenceEvaluator(DifferenceEvaluators.chain(DifferenceEvaluators.Default,
+                                                                DifferenceEvaluators.ignorePrologDifferences()))
+            .withComparisonListeners(new ComparisonListener() {
+                    @Override
+                    public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    }
+                })
+            .checkForSimilar()
+            .build();
+
+        Assert.assertEquals(complete.toString(), pruned.toString());
+        assertThat(count(pruned.getDifferences()), is(1));
+    }
+
+    @Test
+    public void testDiff_withDifferenceLimit_retainsFirstDifferencesOnly() {
+        String controlXml = "<feed><r ts='1'/><r ts='2'/><r ts='3'/><r ts='4'/></feed>";
+        String testXml = "<feed><r ts='5'/><r ts='6'/><r ts='7'/><r ts='8'/></feed>";
+
+        Diff myDiff = DiffBuilder.compare(controlXml).withTest(testXml)
+            .withDifferenceLimit(2)
+            .build();
+
+        assertThat(myDiff.hasDifferences(), is(true));
+        assertThat(count(myDiff.getDifferences()), is(2));
+        Assert.assertEquals("/feed[1]/r[1]/@ts",
+                            myDiff.getDifferences().iterator().next().getComparison()
+                            .getControlDetails().getXPath());
+        DifferenceSummary summary = myDiff.getDifferenceSummary();
+        assertThat(summary.getTotal(), is(4L));
+        assertThat(summary.getCountsByType().get(ComparisonType.ATTR_VALUE), is(4L));
+        assertThat(summary.getCountsByXPathPattern().get("/feed[*]/r[*]/@ts"), is(4L));
+        assertThat(myDiff.fullDescription(), containsString("4 differences"));
+    }
+
+    @Test
+    public void testDiff_withDifferenceLimitZero_onlyAggregates() {
+        String controlXml = "<feed><r ts='1'/><r ts='2'/></feed>";
+        String testXml = "<feed><r ts='5'/><r ts='6'/></feed>";
+
+        Diff myDiff = DiffBuilder.compare(controlXml).withTest(testXml)
+            .withDifferenceLimit(0)
+            .build();
+
+        assertThat(myDiff.hasDifferences(), is(true));
+        assertThat(count(myDiff.getDifferences()), is(0));
+        assertThat(myDiff.getDifferenceSummary().getTotal(), is(2L));
+        assertThat(myDiff.toString(), containsString("/feed[*]/r[*]/@ts"));
+
+        myDiff = DiffBuilder.compare(controlXml).withTest(controlXml)
+            .withDifferenceLimit(0)
+            .build();
+        assertThat(myDiff.hasDifferences(), is(false));
+        assertThat(myDiff.toString(), is("[identical]"));
+    }
+
+    @Test
+    public void testDiff_withoutDifferenceLimit_hasNoSummary() {
+        Diff myDiff = DiffBuilder.compare("<a/>").withTest("<b/>").build();
+        Assert.assertNull(myDiff.getDifferenceSummary());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDiff_withNegativeDifferenceLimit_isRejected() {
+        DiffBuilder.compare("<a/>").withDifferenceLimit(-1);
+    }
+
+    @Test
+    public void testDiff_withSerializedDifferences_findsSameDifferences() throws IOException {
+        String controlXml = "<a><b attr='1'>Test Value</b><c/><e>1</e><e>2</e></a>";
+        String testXml = "<a><b attr='2'>Test Value 2</b><d/><e>1</e><e>3</e></a>";
+
+        Diff materialized = DiffBuilder.compare(controlXml).withTest(testXml)
+            .build();
+        Diff serialized = DiffBuilder.compare(controlXml).withTest(testXml)
+            .withSerializedDifferences(64)
+            .build();
+
+        Assert.assertEquals(materialized.toString(), serialized.toString());
+        Assert.assertEquals(materialized.fullDescription(), serialized.fullDescription());
+        Assert.assertEquals(count(materialized.getDifferences()), count(serialized.getDifferences()));
+        assertThat(((SerializedDifferences) serialized.getDifferences()).isSpilled(), is(true));
+
+        StringWriter w = new StringWriter();
+        serialized.fullDescription(w);
+        Assert.assertEquals(materialized.fullDescription(), w.toString());
+
+        serialized.close();
+        assertThat(((SerializedDifferences) serialized.getDifferences()).isSpilled(), is(false));
+        assertThat(serialized.hasDifferences(), is(false));
+        // closing a Diff without serialized differences does nothing
+        materialized.close();
+        assertThat(materialized.hasDifferences(), is(true));
+    }
+
+    @Test
+    public void testDiff_withSerializedDifferencesAndLimit_retainsFirstDifferencesOnly() {
+        Diff myDiff = DiffBuilder.compare("<feed><r ts='1'/><r ts='2'/><r ts='3'/></feed>")
+            .withTest("<feed><r ts='4'/><r ts='5'/><r ts='6'/></feed>")
+            .withSerializedDifferences(1024)
+            .withDifferenceLimit(1)
+            .build();
+
+        assertThat(count(myDiff.getDifferences()), is(1));
+        assertThat(myDiff.getDifferenceSummary().getTotal(), is(3L));
+    }
+
+    @Test
+    public void testDiff_fullDescriptionToWriter_writesSameText() throws IOException {
+        Diff myDiff = DiffBuilder.compare("<a><b/></a>").withTest("<a><c/>x</a>").build();
+        StringWriter w = new StringWriter();
+        myDiff.fullDescription(w);
+        Assert.assertEquals(myDiff.fullDescription(), w.toString());
+
+        myDiff = DiffBuilder.compare("<a/>").withTest("<a/>").build();
+        w = new StringWriter();
+        myDiff.fullDescription(w);
+        Assert.assertEquals("[identical]", w.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDiff_withNegativeSerializedDifferencesThreshold_isRejected() {
+        DiffBuilder.compare("<a/>").withSerializedDifferences(-1);
+    }
+
+    @Test
+    public void testDiff_withParallelism_findsSameDifferences() {
+        String controlXml = "<a><b attr='1'>Test Value</b><c/><e>1</e><e>2</e></a>";
+        String testXml = "<a><b attr='2'>Test Value 2</b><d/><e>1</e><e>3</e></a>";
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            Diff sequential = DiffBuilder.compare(controlXml).withTest(testXml)
+                .build();
+            Diff parallel = DiffBuilder.compare(controlXml).withTest(testXml)
+                .withParallelism(pool)
+                .build();
+
+            Assert.assertEquals(sequential.toString(), parallel.toString());
+            Assert.assertEquals(count(sequential.getDifferences()), count(parallel.getDifferences()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     /**
      * Would cause an error because
      * http://example.org/TR/xhtml1/DTD/xhtml1-transitional.dtd
@@ -663,6 +974,120 @@ public void usesDocumentBuilderFactoryWhenIgnoringElementContentWhitespace() thr
         Assert.assertTrue(d.hasDifferences());
     }
 
+    @Test
+    public void testDiff_withNodeTypeFilterAndNormalization_skipsNodesWhileParsing() {
+        Diff myDiff = DiffBuilder.compare("<a>\n  <?p q?><b>x<!-- c -->y</b>\n</a>")
+            .withTest("<a><b>x<!-- d -->y</b></a>")
+            .ignoreWhitespace()
+            .normalizeWhileParsing()
+            .withNodeFilter(new NodeTypeFilter(Node.COMMENT_NODE, Node.PROCESSING_INSTRUCTION_NODE))
+            .build();
+        assertThat(myDiff.hasDifferences(), is(false));
+
+        // comments still separate the text around them like they do when filtered during the comparison
+        myDiff = DiffBuilder.compare("<a><b>x<!-- c -->y</b></a>")
+            .withTest("<a><b>xy</b></a>")
+            .ignoreWhitespace()
+            .normalizeWhileParsing()
+            .withNodeFilter(new NodeTypeFilter(Node.COMMENT_NODE))
+            .build();
+        assertThat(myDiff.hasDifferences(), is(true));
+    }
+
+    @Test
+    public void testDiff_withIgnoreWhitespace_keepsTextAroundEmptiedCDATASeparate() {
+        String control = "<r><a>x<![CDATA[  ]]>y</a></r>";
+        String test = "<r><a>xy</a></r>";
+        Diff myDiff = DiffBuilder.compare(control).withTest(test)
+            .ignoreWhitespace()
+            .build();
+        assertThat(myDiff.hasDifferences(), is(true));
+        List<ComparisonType> types = new ArrayList<ComparisonType>();
+        for (Difference d : myDiff.getDifferences()) {
+            types.add(d.getComparison().getType());
+        }
+        assertThat(types.contains(ComparisonType.CHILD_NODELIST_LENGTH), is(true));
+        assertThat(types.contains(ComparisonType.TEXT_VALUE), is(true));
+
+        // documented difference of normalizing while parsing
+        myDiff = DiffBuilder.compare(control).withTest(test)
+            .ignoreWhitespace()
+            .normalizeWhileParsing()
+            .build();
+        assertThat(myDiff.hasDifferences(), is(false));
+    }
+
+    @Test
+    public void testDiff_withControlDocumentCache_normalizesControlOnce() {
+        final ControlDocumentCache cache = new ControlDocumentCache(4);
+        final String control = "<a>\n  <!-- c -->\n  <b>1</b>\n</a>";
+
+        Diff myDiff = DiffBuilder.compare(control).withTest("<a><b>1</b></a>")
+            .ignoreWhitespace().ignoreComments()
+            .withControlDocumentCache(cache)
+            .build();
+        assertThat(myDiff.hasDifferences(), is(false));
+
+        myDiff = DiffBuilder.compare(control).withTest("<a><b>2</b></a>")
+            .ignoreWhitespace().ignoreComments()
+            .withControlDocumentCache(cache)
+            .build();
+        assertThat(myDiff.hasDifferences(), is(true));
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(cache.getHitCount(), is(1L));
+
+        // different normalization options
+        myDiff = DiffBuilder.compare(control).withTest("<a><b>1</b></a>")
+            .withControlDocumentCache(cache)
+            .build();
+        assertThat(myDiff.hasDifferences(), is(true));
+        assertThat(cache.getMissCount(), is(2L));
+        assertThat(cache.size(), is(2));
+    }
+
+    @Test
+    public void testDiff_withControlDocumentCache_comparesUncacheableSourcesAsIs() {
+        Node control = Convert.toDocument(Input.fromString("<r><a>1</a></r>").build())
+            .getDocumentElement().getFirstChild();
+        Node test = Convert.toDocument(Input.fromString("<s><a>1</a></s>").build())
+            .getDocumentElement().getFirstChild();
+        final ControlDocumentCache cache = new ControlDocumentCache(4);
+        Diff myDiff = DiffBuilder.compare(new DOMSource(control)).withTest(new DOMSource(test))
+            .withControlDocumentCache(cache)
+            .build();
+        assertThat(myDiff.toString(), myDiff.hasDifferences(), is(false));
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getMissCount(), is(0L));
+    }
+
+    @Test
+    public void testDiff_withCommentFilteredSource_keepsFilteringAfterNormalization() {
+        final ControlDocumentCache cache = new ControlDocumentCache(4);
+        for (int i = 0; i < 2; i++) {
+            Diff myDiff = DiffBuilder.compare(new CommentFilteredSource(Input.fromString(
+                    "<a>\n  <!-- c -->\n  <b>1</b>\n</a>").build()))
+                .withTest("<a><b>1</b></a>")
+                .ignoreWhitespace()
+                .withControlDocumentCache(cache)
+                .build();
+            assertThat(myDiff.hasDifferences(), is(false));
+        }
+    }
+
+    @Test
+    public void testDiff_withControlDocumentCacheAndStreamingEngine_doesntUseCache() {
+        final ControlDocumentCache cache = new ControlDocumentCache(1);
+        for (int i = 0; i < 2; i++) {
+            Diff myDiff = DiffBuilder.compare("<a><b>1</b></a>").withTest("<a><b>2</b></a>")
+                .withControlDocumentCache(cache)
+                .withStreamingEngine()
+                .build();
+            assertThat(count(myDiff.getDifferences()), is(1));
+        }
+        assertThat(cache.getMissCount(), is(0L));
+        assertThat(cache.size(), is(0));
+    }
+
     private final class IgnoreAttributeDifferenceEvaluator implements DifferenceEvaluator {
 
         private String attributeName;
@@ -684,6 +1109,28 @@ public ComparisonResult evaluate(Comparison comparison, ComparisonResult outcome
         }
     }
 
+    private static final class NamespacePrefixCounter implements PredictableDifferenceEvaluator {
+        private int invocations;
+
+        @Override
+        public ComparisonResult evaluate(Comparison comparison, ComparisonResult outcome) {
+            if (comparison.getType() == ComparisonType.NAMESPACE_PREFIX) {
+                invocations++;
+            }
+            return outcome;
+        }
+
+        @Override
+        public Set<ComparisonType> getComparisonTypes() {
+            return EnumSet.of(ComparisonType.NAMESPACE_PREFIX);
+        }
+
+        @Override
+        public Set<ComparisonResult> getPossibleOutcomes(ComparisonType type, ComparisonResult outcome) {
+            return EnumSet.of(outcome);
+        }
+    }
+
     private static final class DummyFormatter implements ComparisonFormatter {
         @Override
         public String getDescription(Comparison difference) {
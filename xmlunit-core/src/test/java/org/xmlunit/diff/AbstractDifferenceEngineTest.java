@@ -13,6 +13,8 @@
 */
 package org.xmlunit.diff;
 
+import java.util.EnumSet;
+import java.util.Set;
 import org.junit.Test;
 import javax.xml.transform.Source;
 
@@ -125,6 +127,80 @@ null, null, new Short("2"), null,
         assertEquals(1, l.getInvocations());
     }
 
+    @Test
+    public void compareValuesSkipsEqualValuesNobodyObserves() {
+        AbstractDifferenceEngine d = getDifferenceEngine();
+        ComparisonListenerSupportTest.Listener l =
+            new ComparisonListenerSupportTest.Listener(ComparisonResult.DIFFERENT);
+        d.addDifferenceListener(l);
+        assertTrue(d.canSkipEqualComparisons(ComparisonType.TEXT_VALUE));
+        assertEquals(wrap(ComparisonResult.EQUAL),
+                     d.compare(ComparisonType.TEXT_VALUE, null, null, "a", null, null, "a"));
+        assertEquals(0, l.getInvocations());
+        assertEquals(wrap(ComparisonResult.DIFFERENT),
+                     d.compare(ComparisonType.TEXT_VALUE, null, null, "a", null, null, "b"));
+        assertEquals(1, l.getInvocations());
+    }
+
+    @Test
+    public void compareValuesNotifiesComparisonListenerOfEqualValues() {
+        AbstractDifferenceEngine d = getDifferenceEngine();
+        ComparisonListenerSupportTest.Listener l =
+            new ComparisonListenerSupportTest.Listener(ComparisonResult.EQUAL);
+        d.addComparisonListener(l);
+        assertFalse(d.canSkipEqualComparisons(ComparisonType.TEXT_VALUE));
+        assertEquals(wrap(ComparisonResult.EQUAL),
+                     d.compare(ComparisonType.TEXT_VALUE, null, null, "a", null, null, "a"));
+        assertEquals(1, l.getInvocations());
+    }
+
+    @Test
+    public void compareValuesNotifiesMatchListenerOfEqualValues() {
+        AbstractDifferenceEngine d = getDifferenceEngine();
+        ComparisonListenerSupportTest.Listener l =
+            new ComparisonListenerSupportTest.Listener(ComparisonResult.EQUAL);
+        d.addMatchListener(l);
+        assertFalse(d.canSkipEqualComparisons(ComparisonType.TEXT_VALUE));
+        assertEquals(wrap(ComparisonResult.EQUAL),
+                     d.compare(ComparisonType.TEXT_VALUE, null, null, "a", null, null, "a"));
+        assertEquals(1, l.getInvocations());
+    }
+
+    @Test
+    public void compareValuesConsultsCustomEvaluatorForEqualValues() {
+        AbstractDifferenceEngine d = getDifferenceEngine();
+        d.setDifferenceEvaluator(new DifferenceEvaluator() {
+                public ComparisonResult evaluate(Comparison comparison,
+                                                 ComparisonResult outcome) {
+                    return ComparisonResult.SIMILAR;
+                }
+            });
+        assertFalse(d.canSkipEqualComparisons(ComparisonType.TEXT_VALUE));
+        assertEquals(wrap(ComparisonResult.SIMILAR),
+                     d.compare(ComparisonType.TEXT_VALUE, null, null, "a", null, null, "a"));
+    }
+
+    @Test
+    public void compareValuesSkipsEqualValuesOfTypesTypedEvaluatorIgnores() {
+        AbstractDifferenceEngine d = getDifferenceEngine();
+        d.setDifferenceEvaluator(new TypedDifferenceEvaluator() {
+                public ComparisonResult evaluate(Comparison comparison,
+                                                 ComparisonResult outcome) {
+                    return ComparisonResult.SIMILAR;
+                }
+
+                public Set<ComparisonType> getComparisonTypes() {
+                    return EnumSet.of(ComparisonType.TEXT_VALUE);
+                }
+            });
+        assertFalse(d.canSkipEqualComparisons(ComparisonType.TEXT_VALUE));
+        assertTrue(d.canSkipEqualComparisons(ComparisonType.ATTR_VALUE));
+        d.setDifferenceEvaluator(DifferenceEvaluators
+                                 .chain(DifferenceEvaluators.Default,
+                                        DifferenceEvaluators.ignorePrologDifferences()));
+        assertTrue(d.canSkipEqualComparisons(ComparisonType.TEXT_VALUE));
+    }
+
     @Test public void compareUsesResultOfEvaluator() {
         AbstractDifferenceEngine d = getDifferenceEngine();
         ComparisonListenerSupportTest.Listener l =
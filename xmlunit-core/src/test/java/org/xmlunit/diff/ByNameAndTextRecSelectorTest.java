@@ -78,6 +78,46 @@ public void byNameAndTextRec() {
         assertFalse(s.canBeCompared(control, differentText));
     }
 
+    @Test
+    public void byNameAndTextRecUsingFingerprints() {
+        SelectorMemo previous = SelectorMemo.enter();
+        try {
+            byNameAndTextRec_NamePart();
+            byNameAndTextRec_Single();
+            byNameAndTextRec();
+            nonTextChildrenOnlyCompareByType();
+        } finally {
+            SelectorMemo.leave(previous);
+        }
+    }
+
+    @Test
+    public void nonTextChildrenOnlyCompareByType() {
+        Element control = doc.createElement(FOO);
+        control.appendChild(doc.createComment(FOO));
+        control.appendChild(doc.createTextNode(BAR));
+        control.appendChild(doc.createElement(BAR));
+        Element equal = doc.createElement(FOO);
+        equal.appendChild(doc.createTextNode(BAR));
+        equal.appendChild(doc.createComment(BAR));
+        equal.appendChild(doc.createElement(BAR));
+        Element differentType = doc.createElement(FOO);
+        differentType.appendChild(doc.createProcessingInstruction(FOO, BAR));
+        differentType.appendChild(doc.createTextNode(BAR));
+        differentType.appendChild(doc.createElement(BAR));
+        Element moreChildren = doc.createElement(FOO);
+        moreChildren.appendChild(doc.createComment(FOO));
+        moreChildren.appendChild(doc.createTextNode(BAR));
+        moreChildren.appendChild(doc.createElement(BAR));
+        moreChildren.appendChild(doc.createComment(FOO));
+
+        ElementSelector s = new ByNameAndTextRecSelector();
+        assertTrue(s.canBeCompared(control, equal));
+        assertFalse(s.canBeCompared(control, differentType));
+        assertFalse(s.canBeCompared(control, moreChildren));
+        assertFalse(s.canBeCompared(moreChildren, control));
+    }
+
     @Test
     public void byNameAndTextRec_Multilevel() throws Exception {
         Document control = DocumentBuilderFactory.newInstance()
@@ -0,0 +1,72 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import org.xmlunit.builder.Input;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.Predicate;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import static org.junit.Assert.*;
+
+public class ChildNodesTest {
+
+    @Test
+    public void snapshotsAllAndAcceptedChildren() {
+        Element e = Convert.toDocument(Input.fromString("<a><b/>t<!-- c --><d/><?p d?></a>").build())
+            .getDocumentElement();
+        ChildNodes c = new ChildNodes(e, new Predicate<Node>() {
+                @Override
+                public boolean test(Node n) {
+                    return n instanceof Element;
+                }
+            });
+        assertEquals(5, c.all().size());
+        assertEquals(2, c.acceptedCount());
+        assertSame(e.getFirstChild(), c.accepted().get(0));
+        assertSame(e.getChildNodes().item(3), c.accepted().get(1));
+        assertEquals(0, c.positionInAll(0));
+        assertEquals(3, c.positionInAll(1));
+    }
+
+    @Test
+    public void findsAcceptedChildrenByIdentity() {
+        StringBuilder sb = new StringBuilder("<a>");
+        for (int i = 0; i < 100; i++) {
+            sb.append("<b/>");
+        }
+        Element e = Convert.toDocument(Input.fromString(sb.append("</a>").toString()).build())
+            .getDocumentElement();
+        ChildNodes c = new ChildNodes(e, NodeFilters.Default);
+        for (int i = 0; i < 100; i++) {
+            Node n = e.getChildNodes().item(i);
+            assertEquals(i, c.indexOf(n, i));
+            assertEquals(i, c.indexOf(n, 99 - i));
+            assertEquals(i, c.indexOf(n, -1));
+        }
+        assertEquals(-1, c.indexOf(e, 0));
+        assertEquals(-1, c.indexOf(e.getOwnerDocument().createElement("b"), 0));
+    }
+
+    @Test
+    public void handlesNodesWithoutChildren() {
+        Element e = Convert.toDocument(Input.fromString("<a/>").build()).getDocumentElement();
+        ChildNodes c = new ChildNodes(e, NodeFilters.Default);
+        assertEquals(0, c.all().size());
+        assertEquals(0, c.acceptedCount());
+        assertEquals(-1, c.indexOf(e, 0));
+    }
+}
@@ -13,8 +13,11 @@
 */
 package org.xmlunit.diff;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.dom.DOMSource;
 import org.xmlunit.NullNode;
@@ -24,6 +27,7 @@
 import org.xmlunit.util.Convert;
 import org.xmlunit.util.DocumentBuilderFactoryConfigurer;
 import org.xmlunit.util.Linqy;
+import org.xmlunit.util.NameCache;
 import org.xmlunit.util.Predicate;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +47,10 @@
 public class DOMDifferenceEngineTest extends AbstractDifferenceEngineTest {
 
     @Override protected AbstractDifferenceEngine getDifferenceEngine() {
+        return createEngine();
+    }
+
+    protected DOMDifferenceEngine createEngine() {
         return new DOMDifferenceEngine();
     }
 
@@ -144,7 +152,7 @@ private String getParentXPath(String xPath) {
     }
 
     @Test public void compareXPathOfDifferentRootElements() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.ELEMENT_TAG_NAME,
                                            "/x[1]", "/y[1]");
         d.addDifferenceListener(ex);
@@ -155,7 +163,7 @@ private String getParentXPath(String xPath) {
     }
 
     @Test public void compareNodesOfDifferentType() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.NODE_TYPE);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -166,7 +174,7 @@ private String getParentXPath(String xPath) {
     }
 
     @Test public void compareNodesWithoutNS() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.NODE_TYPE, 0);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -177,7 +185,7 @@ private String getParentXPath(String xPath) {
     }
 
     @Test public void compareNodesDifferentNS() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.NAMESPACE_URI);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -190,7 +198,7 @@ private String getParentXPath(String xPath) {
     }
 
     @Test public void compareNodesDifferentPrefix() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.NAMESPACE_PREFIX);
         d.addDifferenceListener(ex);
         d.setDifferenceEvaluator(new DifferenceEvaluator() {
@@ -215,7 +223,7 @@ public ComparisonResult evaluate(Comparison comparison,
     }
 
     @Test public void compareNodesDifferentNumberOfChildren() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex =
             new DiffExpecter(ComparisonType.CHILD_NODELIST_LENGTH, 2);
         d.addDifferenceListener(ex);
@@ -242,7 +250,7 @@ public ComparisonResult evaluate(Comparison comparison,
     }
 
     @Test public void compareCharacterData() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.TEXT_VALUE, 9);
         d.addDifferenceListener(ex);
         d.setDifferenceEvaluator(new DifferenceEvaluator() {
@@ -331,7 +339,7 @@ public ComparisonResult evaluate(Comparison comparison,
     }
 
     @Test public void compareProcessingInstructions() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.PROCESSING_INSTRUCTION_TARGET);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -346,7 +354,7 @@ public ComparisonResult evaluate(Comparison comparison,
                                     bar1, new XPathContext()));
         assertEquals(1, ex.invoked);
 
-        d = new DOMDifferenceEngine();
+        d = createEngine();
         ex = new DiffExpecter(ComparisonType.PROCESSING_INSTRUCTION_DATA);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -361,7 +369,7 @@ public ComparisonResult evaluate(Comparison comparison,
     }
 
     @Test public void compareDocuments() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.HAS_DOCTYPE_DECLARATION);
         d.addDifferenceListener(ex);
         d.setDifferenceEvaluator(new DifferenceEvaluator() {
@@ -402,7 +410,7 @@ public ComparisonResult evaluate(Comparison comparison,
                                     d2, new XPathContext()));
         assertEquals(1, ex.invoked);
 
-        d = new DOMDifferenceEngine();
+        d = createEngine();
         ex = new DiffExpecter(ComparisonType.XML_VERSION);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -418,7 +426,7 @@ public ComparisonResult evaluate(Comparison comparison,
                                     d2, new XPathContext()));
         assertEquals(1, ex.invoked);
 
-        d = new DOMDifferenceEngine();
+        d = createEngine();
         ex = new DiffExpecter(ComparisonType.XML_STANDALONE);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -434,7 +442,7 @@ public ComparisonResult evaluate(Comparison comparison,
                                     d2, new XPathContext()));
         assertEquals(1, ex.invoked);
 
-        d = new DOMDifferenceEngine();
+        d = createEngine();
         ex = new DiffExpecter(ComparisonType.XML_ENCODING);
         d.addDifferenceListener(ex);
         d.setDifferenceEvaluator(new DifferenceEvaluator() {
@@ -465,7 +473,7 @@ public ComparisonResult evaluate(Comparison comparison,
 
     @Test
     public void nodeFilterAppliesToDocTypes() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.HAS_DOCTYPE_DECLARATION);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -516,7 +524,7 @@ public String getSystemId() {
     }
 
     @Test public void compareDocTypes() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.DOCTYPE_NAME);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -527,7 +535,7 @@ public String getSystemId() {
                                     dt2, new XPathContext()));
         assertEquals(1, ex.invoked);
 
-        d = new DOMDifferenceEngine();
+        d = createEngine();
         ex = new DiffExpecter(ComparisonType.DOCTYPE_PUBLIC_ID);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -537,7 +545,7 @@ public String getSystemId() {
                                     dt2, new XPathContext()));
         assertEquals(1, ex.invoked);
 
-        d = new DOMDifferenceEngine();
+        d = createEngine();
         ex = new DiffExpecter(ComparisonType.DOCTYPE_SYSTEM_ID);
         d.addDifferenceListener(ex);
         d.setDifferenceEvaluator(new DifferenceEvaluator() {
@@ -561,7 +569,7 @@ public ComparisonResult evaluate(Comparison comparison,
     }
 
     @Test public void compareElements() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.ELEMENT_TAG_NAME);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -576,7 +584,7 @@ public ComparisonResult evaluate(Comparison comparison,
                                     e3, new XPathContext()));
         assertEquals(1, ex.invoked);
 
-        d = new DOMDifferenceEngine();
+        d = createEngine();
         ex = new DiffExpecter(ComparisonType.ELEMENT_NUM_ATTRIBUTES);
         e1.setAttribute("attr1", "value1");
         d.addDifferenceListener(ex);
@@ -586,7 +594,7 @@ public ComparisonResult evaluate(Comparison comparison,
                                     e2, new XPathContext()));
         assertEquals(1, ex.invoked);
 
-        d = new DOMDifferenceEngine();
+        d = createEngine();
         ex = new DiffExpecter(ComparisonType.ATTR_NAME_LOOKUP,
                               "/@attr1", "/");
         e2.setAttributeNS("urn:xmlunit:test", "attr1", "value1");
@@ -598,7 +606,7 @@ public ComparisonResult evaluate(Comparison comparison,
         assertEquals(1, ex.invoked);
 
 
-        d = new DOMDifferenceEngine();
+        d = createEngine();
         d.addDifferenceListener(new ComparisonListener() {
                 public void comparisonPerformed(Comparison comparison,
                                                 ComparisonResult outcome) {
@@ -622,7 +630,7 @@ public void comparisonPerformed(Comparison comparison,
         Attr a1 = doc.createAttribute("foo");
         Attr a2 = doc.createAttribute("foo");
 
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.ATTR_VALUE_EXPLICITLY_SPECIFIED);
         /* Can't reset "explicitly set" state for Documents created via API
         d.addDifferenceListener(ex);
@@ -633,7 +641,7 @@ public void comparisonPerformed(Comparison comparison,
                                     a2, new XPathContext()));
         assertEquals(1, ex.invoked);
 
-        d = new DOMDifferenceEngine();
+        d = createEngine();
         */
         ex = new DiffExpecter(ComparisonType.ATTR_VALUE);
         d.addDifferenceListener(ex);
@@ -652,7 +660,7 @@ public void comparisonPerformed(Comparison comparison,
     }
 
     @Test public void compareAttributesWithAttributeFilter() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         d.setAttributeFilter(new Predicate<Attr>() {
                 @Override
                 public boolean test(Attr a) {
@@ -683,7 +691,7 @@ public boolean test(Attr a) {
     }
 
     @Test public void compareNodesWithNodeFilter() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         d.setNodeFilter(new Predicate<Node>() {
                 @Override
                 public boolean test(Node n) {
@@ -720,7 +728,7 @@ public boolean test(Node n) {
         Element e2 = doc.createElement("foo");
         Element c1 = doc.createElement("bar");
         e1.appendChild(c1);
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.CHILD_LOOKUP,
                                            "/bar[1]", null).withParentXPath("/", "/");
         d.addDifferenceListener(ex);
@@ -741,7 +749,7 @@ public ComparisonResult evaluate(Comparison comparison,
         assertEquals(1, ex.invoked);
 
         // symmetric?
-        d = new DOMDifferenceEngine();
+        d = createEngine();
         ex = new DiffExpecter(ComparisonType.CHILD_LOOKUP, null, "/bar[1]").withParentXPath("/", "/");
         d.addDifferenceListener(ex);
         d.setDifferenceEvaluator(ev);
@@ -753,7 +761,7 @@ public ComparisonResult evaluate(Comparison comparison,
 
         Element c2 = doc.createElement("bar");
         e2.appendChild(c2);
-        d = new DOMDifferenceEngine();
+        d = createEngine();
         ex = new DiffExpecter(ComparisonType.CHILD_LOOKUP);
         d.addDifferenceListener(ex);
         d.setDifferenceEvaluator(ev);
@@ -793,7 +801,7 @@ public void sourceforgeForumThread92c980ec5b() {
         c2_2.setAttribute("id", "2");
         p2_1.appendChild(c2_2);
 
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.CHILD_LOOKUP,
                                            null, "/grandparent[1]/parent[1]/child[2]")
             .withParentXPath("/grandparent[1]/parent[2]", "/grandparent[1]/parent[1]");
@@ -836,7 +844,7 @@ public boolean test(Node n) {
         e1.appendChild(fooText);
         CDATASection fooCDATASection = doc.createCDATASection("foo");
         e2.appendChild(fooCDATASection);
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         assertEquals(wrap(ComparisonResult.EQUAL),
                      d.compareNodes(e1, new XPathContext(),
                                     e2, new XPathContext()));
@@ -852,7 +860,7 @@ public boolean test(Node n) {
         e1.appendChild(e3);
         Element e4 = doc.createElement("baz");
         e2.appendChild(e4);
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.ELEMENT_TAG_NAME,
                                            "/bar[1]", "/baz[1]");
         d.addDifferenceListener(ex);
@@ -862,7 +870,7 @@ public boolean test(Node n) {
                                     e2, new XPathContext()));
         assertEquals(1, ex.invoked);
 
-        d = new DOMDifferenceEngine();
+        d = createEngine();
         d.setNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byName));
         ex = new DiffExpecter(ComparisonType.CHILD_LOOKUP, "/bar[1]", null).withParentXPath("/", "/");
         d.addDifferenceListener(ex);
@@ -881,7 +889,7 @@ public boolean test(Node n) {
         e2.setAttributeNS("http://www.w3.org/2001/XMLSchema-instance",
                           "schemaLocation", "somewhere else");
 
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.SCHEMA_LOCATION);
         d.addDifferenceListener(ex);
         d.setDifferenceEvaluator(new DifferenceEvaluator() {
@@ -907,7 +915,7 @@ public ComparisonResult evaluate(Comparison comparison,
                           "noNamespaceSchemaLocation", "somewhere");
         e2.setAttributeNS("http://www.w3.org/2001/XMLSchema-instance",
                           "noNamespaceSchemaLocation", "somewhere else");
-        d = new DOMDifferenceEngine();
+        d = createEngine();
         ex = new DiffExpecter(ComparisonType.NO_NAMESPACE_SCHEMA_LOCATION);
         d.addDifferenceListener(ex);
         d.setDifferenceEvaluator(new DifferenceEvaluator() {
@@ -929,7 +937,7 @@ public ComparisonResult evaluate(Comparison comparison,
     }
 
     @Test public void compareElementsNS() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.ELEMENT_TAG_NAME);
         d.addDifferenceListener(ex);
         DifferenceEvaluator ev = new DifferenceEvaluator() {
@@ -966,7 +974,7 @@ public ComparisonResult evaluate(Comparison comparison,
         e2.appendChild(e6);
         e2.appendChild(e5);
 
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.CHILD_NODELIST_SEQUENCE,
                                            "/bar[1]", "/bar[1]");
         d.addDifferenceListener(ex);
@@ -1001,7 +1009,7 @@ public ComparisonResult evaluate(Comparison comparison,
                               + " xmlns:p2='urn:xmlunit:test'"
                               + " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
                               + "/>");
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.ATTR_VALUE);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -1023,7 +1031,7 @@ public ComparisonResult evaluate(Comparison comparison,
                               + " xmlns:a='urn:xmlunit:test2'"
                               + " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
                               + "/>");
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.ATTR_VALUE);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -1043,7 +1051,7 @@ public ComparisonResult evaluate(Comparison comparison,
                               + " xmlns:p1='urn:xmlunit:test'"
                               + " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
                               + "/>");
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.ATTR_VALUE);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -1063,7 +1071,7 @@ public ComparisonResult evaluate(Comparison comparison,
                               + " xmlns:p1='urn:xmlunit:test2'"
                               + " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
                               + "/>");
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.ATTR_VALUE);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -1083,7 +1091,7 @@ public ComparisonResult evaluate(Comparison comparison,
                               + " xmlns:p1='urn:xmlunit:test'"
                               + " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
                               + "/></bar>");
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.ATTR_VALUE);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -1101,7 +1109,7 @@ public ComparisonResult evaluate(Comparison comparison,
             documentForString("<foo xsi:nil='false'"
                               + " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
                               + "/>");
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.ATTR_VALUE);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -1112,7 +1120,7 @@ public ComparisonResult evaluate(Comparison comparison,
 
     @Test
     public void shouldDetectCommentInPrelude() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         Document d1 = Convert.toDocument(Input.fromFile(TestResources.TEST_RESOURCE_DIR
                                                         + "BookXsdGenerated.xml")
                                          .build());
@@ -1130,7 +1138,7 @@ public void shouldDetectCommentInPrelude() {
 
     @Test
     public void shouldDetectMissingXsiType() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         Document d1 = Convert.toDocument(Input.fromString("<doc xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">"
                                                           + "<effectiveTime xsi:type=\"IVL_TS\"></effectiveTime></doc>")
                                          .build());
@@ -1150,7 +1158,7 @@ public void shouldDetectMissingXsiType() {
 
     @Test(expected = IllegalArgumentException.class)
     public void cantUseNullDocumentBuilderFactoryInSetter() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         d.setDocumentBuilderFactory(null);
     }
 
@@ -1230,7 +1238,7 @@ public boolean test(final Node node) {
 
     @Test
     public void properlyHandlesNullAttributes() {
-        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DOMDifferenceEngine d = createEngine();
         DiffExpecter ex = new DiffExpecter(ComparisonType.ATTR_VALUE);
         d.addDifferenceListener(ex);
         d.setComparisonController(ComparisonControllers.StopWhenDifferent);
@@ -1255,6 +1263,219 @@ public void properlyHandlesNullAttributes() {
                                     e4, new XPathContext()));
     }
 
+    @Test
+    public void skipsIdenticalSubtreesWhenAskedTo() {
+        String control = "<r><a x='1'><b>t</b><!-- c --></a><c>1</c></r>";
+        String test = "<r><a x='1'><b>t</b><!-- c --></a><c>2</c></r>";
+        List<Comparison> withoutSkipping = new ArrayList<Comparison>();
+        List<Comparison> differencesWithoutSkipping = new ArrayList<Comparison>();
+        compareRecording(createEngine(), control, test, withoutSkipping, differencesWithoutSkipping);
+
+        DOMDifferenceEngine d = createEngine();
+        d.setSkipIdenticalSubtrees(true);
+        List<Comparison> withSkipping = new ArrayList<Comparison>();
+        List<Comparison> differencesWithSkipping = new ArrayList<Comparison>();
+        compareRecording(d, control, test, withSkipping, differencesWithSkipping);
+
+        assertTrue(withSkipping.size() < withoutSkipping.size());
+        for (Comparison c : withSkipping) {
+            assertFalse(c.getControlDetails().getXPath(),
+                        c.getControlDetails().getXPath().startsWith("/r[1]/a[1]/"));
+        }
+        assertEquals(1, differencesWithSkipping.size());
+        assertEquals(differencesWithoutSkipping.get(0).toString(),
+                     differencesWithSkipping.get(0).toString());
+    }
+
+    @Test
+    public void identicalSubtreesRespectFilters() {
+        String control = "<r><a id='1' x='1'><b>t</b><!-- c --></a></r>";
+        String test = "<r><a id='2' x='1'><b>t</b><!-- d --></a></r>";
+        DOMDifferenceEngine d = createEngine();
+        d.setSkipIdenticalSubtrees(true);
+        d.setNodeFilter(new Predicate<Node>() {
+                @Override
+                public boolean test(Node n) {
+                    return n.getNodeType() != Node.COMMENT_NODE;
+                }
+            });
+        d.setAttributeFilter(new Predicate<Attr>() {
+                @Override
+                public boolean test(Attr a) {
+                    return !"id".equals(a.getName());
+                }
+            });
+        List<Comparison> comparisons = new ArrayList<Comparison>();
+        List<Comparison> differences = new ArrayList<Comparison>();
+        compareRecording(d, control, test, comparisons, differences);
+        assertEquals(0, differences.size());
+        for (Comparison c : comparisons) {
+            assertFalse(c.getControlDetails().getXPath(),
+                        c.getControlDetails().getXPath().startsWith("/r[1]/a[1]/"));
+        }
+
+        d = createEngine();
+        d.setSkipIdenticalSubtrees(true);
+        comparisons.clear();
+        compareRecording(d, control, test, comparisons, differences);
+        assertEquals(2, differences.size());
+    }
+
+    @Test
+    public void identicalSubtreesRespectAttributeExplicitness() {
+        String dtd = "<!DOCTYPE r [<!ATTLIST b x CDATA 'd'>]>";
+        String control = dtd + "<r><a><b/></a></r>";
+        String test = dtd + "<r><a><b x='d'/></a></r>";
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        DOMDifferenceEngine d = createEngine();
+        d.setSkipIdenticalSubtrees(true);
+        final List<Comparison> differences = new ArrayList<Comparison>();
+        d.addDifferenceListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    differences.add(comparison);
+                }
+            });
+        d.compare(new DOMSource(Convert.toDocument(Input.fromString(control).build(), dbf)),
+                  new DOMSource(Convert.toDocument(Input.fromString(test).build(), dbf)));
+        assertEquals(1, differences.size());
+        assertEquals(ComparisonType.ATTR_VALUE_EXPLICITLY_SPECIFIED, differences.get(0).getType());
+    }
+
+    @Test
+    public void identicalSubtreesRespectXsiTypeNamespaces() {
+        String control = "<r xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance' xmlns:p='urn:one'>"
+            + "<a><b xsi:type='p:T'/></a></r>";
+        String test = "<r xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance' xmlns:p='urn:two'>"
+            + "<a><b xsi:type='p:T'/></a></r>";
+        DOMDifferenceEngine d = createEngine();
+        d.setSkipIdenticalSubtrees(true);
+        List<Comparison> comparisons = new ArrayList<Comparison>();
+        List<Comparison> differences = new ArrayList<Comparison>();
+        compareRecording(d, control, test, comparisons, differences);
+        List<Comparison> xsiTypeDifferences = new ArrayList<Comparison>();
+        for (Comparison c : differences) {
+            if (c.getType() == ComparisonType.ATTR_VALUE) {
+                xsiTypeDifferences.add(c);
+            }
+        }
+        assertEquals(1, xsiTypeDifferences.size());
+        assertEquals("/r[1]/a[1]/b[1]/@type", xsiTypeDifferences.get(0).getControlDetails().getXPath());
+
+        // same binding with a different prefix is identical
+        test = "<r xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance' xmlns:q='urn:one'>"
+            + "<a><b xsi:type='q:T'/></a></r>";
+        d = createEngine();
+        d.setSkipIdenticalSubtrees(true);
+        comparisons.clear();
+        differences.clear();
+        compareRecording(d, control, test, comparisons, differences);
+        for (Comparison c : comparisons) {
+            assertFalse(c.getControlDetails().getXPath(),
+                        c.getControlDetails().getXPath().startsWith("/r[1]/a[1]/"));
+        }
+    }
+
+    @Test
+    public void matchesAttributesOfElementsWithManyAttributes() {
+        StringBuilder control = new StringBuilder("<r xmlns:x='urn:x'");
+        StringBuilder test = new StringBuilder("<r xmlns:x='urn:x'");
+        for (int i = 0; i < 20; i++) {
+            control.append(" a").append(i).append("='").append(i).append("'");
+            test.append(" a").append(19 - i).append("='").append(19 - i == 7 ? "x" : "" + (19 - i)).append("'");
+        }
+        control.append(" x:a0='1' only-control='1'/>");
+        test.append(" x:a0='1' only-test='1'/>");
+        List<Comparison> comparisons = new ArrayList<Comparison>();
+        List<Comparison> differences = new ArrayList<Comparison>();
+        compareRecording(createEngine(), control.toString(), test.toString(), comparisons, differences);
+
+        assertEquals(3, differences.size());
+        assertEquals(ComparisonType.ATTR_VALUE, differences.get(0).getType());
+        assertEquals("/r[1]/@a7", differences.get(0).getControlDetails().getXPath());
+        assertEquals("/r[1]/@a7", differences.get(0).getTestDetails().getXPath());
+        assertEquals(ComparisonType.ATTR_NAME_LOOKUP, differences.get(1).getType());
+        assertEquals(new QName("only-control"), differences.get(1).getControlDetails().getValue());
+        assertNull(differences.get(1).getTestDetails().getValue());
+        assertEquals(ComparisonType.ATTR_NAME_LOOKUP, differences.get(2).getType());
+        assertNull(differences.get(2).getControlDetails().getValue());
+        assertEquals("/r[1]/@only-test", differences.get(2).getTestDetails().getXPath());
+    }
+
+    @Test
+    public void usesAndClearsConfiguredNameCache() {
+        final NameCache cache = new NameCache();
+        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        d.setNameCache(cache);
+        d.setNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byName(cache)));
+        final List<Comparison> lookups = new ArrayList<Comparison>();
+        d.addDifferenceListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    if (comparison.getType() == ComparisonType.CHILD_LOOKUP) {
+                        assertSame(cache.getQName(comparison.getTestDetails().getTarget()),
+                                   comparison.getTestDetails().getValue());
+                        lookups.add(comparison);
+                    }
+                }
+            });
+        d.compare(Input.fromString("<a><b/><c/></a>").build(),
+                  Input.fromString("<a><c/><b/><d/></a>").build());
+        assertEquals(1, lookups.size());
+        Comparison.Detail detail = lookups.get(0).getTestDetails();
+        assertEquals(new QName("d"), detail.getValue());
+        assertNotSame(detail.getValue(), cache.getQName(detail.getTarget()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantSetNullNameCache() {
+        new DOMDifferenceEngine().setNameCache(null);
+    }
+
+    @Test
+    public void doesntPerformSkippedComparisons() {
+        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        d.setSkippedComparisonTypes(EnumSet.of(ComparisonType.ATTR_VALUE,
+                                               ComparisonType.CHILD_NODELIST_SEQUENCE));
+        final List<ComparisonType> types = new ArrayList<ComparisonType>();
+        d.addComparisonListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    types.add(comparison.getType());
+                }
+            });
+        d.setNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byName));
+        d.compare(Input.fromString("<a x='1'><b/><c>t</c></a>").build(),
+                  Input.fromString("<a x='2'><c>u</c><b/></a>").build());
+        assertTrue(types.contains(ComparisonType.ATTR_NAME_LOOKUP));
+        assertTrue(types.contains(ComparisonType.TEXT_VALUE));
+        assertFalse(types.contains(ComparisonType.ATTR_VALUE));
+        assertFalse(types.contains(ComparisonType.CHILD_NODELIST_SEQUENCE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantSetNullSkippedComparisonTypes() {
+        new DOMDifferenceEngine().setSkippedComparisonTypes(null);
+    }
+
+    private static void compareRecording(DOMDifferenceEngine d, String control, String test,
+                                         final List<Comparison> comparisons,
+                                         final List<Comparison> differences) {
+        d.addComparisonListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    comparisons.add(comparison);
+                }
+            });
+        d.addDifferenceListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    differences.add(comparison);
+                }
+            });
+        d.compare(Input.fromString(control).build(), Input.fromString(test).build());
+    }
+
     private Document documentForString(String s) {
         return Convert.toDocument(Input.fromString(s).build());
     }
@@ -13,6 +13,7 @@
 */
 package org.xmlunit.diff;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -124,4 +125,83 @@ public void elementSelectorsAreQueriedInSequenceWithControlNodesSwapped() {
         assertSame(test2, result.get(1).getValue());
     }
 
+    @Test
+    public void keyedElementSelectorsMatchLikeTheirUnkeyedCounterparts() {
+        List<Node> control = mixedNodes(new String[] { "a:1", "b:2", "a:2", "#t", "a:1", "c:1", "#c", "b:2", "#p" });
+        List<Node> test = mixedNodes(new String[] { "#p", "b:2", "#c", "a:1", "c:2", "a:2", "#t", "a:1", "b:2", "b:3" });
+        for (ElementSelector es : new ElementSelector[] {
+                ElementSelectors.byName, ElementSelectors.byNameAndText,
+                ElementSelectors.byNameAndAllAttributes,
+                ElementSelectors.byNameAndAttributes("x") }) {
+            assertEquals(matchedPairs(new DefaultNodeMatcher(unkeyed(es)).match(control, test)),
+                         matchedPairs(new DefaultNodeMatcher(es).match(control, test)));
+            assertEquals(matchedPairs(new DefaultNodeMatcher(unkeyed(es), ElementSelectors.byName)
+                                      .match(control, test)),
+                         matchedPairs(new DefaultNodeMatcher(es, ElementSelectors.byName)
+                                      .match(control, test)));
+        }
+    }
+
+    @Test
+    public void keyedElementSelectorWithNullKeyMatchesNothing() {
+        KeyedElementSelector nullKey = new KeyedElementSelector() {
+            @Override
+            public boolean canBeCompared(Element controlElement, Element testElement) {
+                return false;
+            }
+            @Override
+            public Object getKey(Element element) {
+                return null;
+            }
+        };
+        List<Node> control = mixedNodes(new String[] { "a:1", "#t" });
+        List<Node> test = mixedNodes(new String[] { "#c", "a:1" });
+        List<Map.Entry<Node, Node>> result =
+            Linqy.asList(new DefaultNodeMatcher(nullKey).match(control, test));
+        assertEquals(1, result.size());
+        assertSame(control.get(1), result.get(0).getKey());
+        assertSame(test.get(0), result.get(0).getValue());
+    }
+
+    /**
+     * Creates elements named by the part before the colon with
+     * attribute and text set to the part after it, text ("#t"),
+     * CDATA ("#c") or processing instruction ("#p") nodes.
+     */
+    private List<Node> mixedNodes(String[] specs) {
+        List<Node> nodes = new ArrayList<Node>();
+        for (String spec : specs) {
+            if ("#t".equals(spec)) {
+                nodes.add(doc.createTextNode("t"));
+            } else if ("#c".equals(spec)) {
+                nodes.add(doc.createCDATASection("c"));
+            } else if ("#p".equals(spec)) {
+                nodes.add(doc.createProcessingInstruction("p", "d"));
+            } else {
+                String[] parts = spec.split(":");
+                Element e = doc.createElement(parts[0]);
+                e.setAttribute("x", parts[1]);
+                e.appendChild(doc.createTextNode(parts[1]));
+                nodes.add(e);
+            }
+        }
+        return nodes;
+    }
+
+    private static ElementSelector unkeyed(final ElementSelector es) {
+        return new ElementSelector() {
+            @Override
+            public boolean canBeCompared(Element controlElement, Element testElement) {
+                return es.canBeCompared(controlElement, testElement);
+            }
+        };
+    }
+
+    private static List<List<Node>> matchedPairs(Iterable<Map.Entry<Node, Node>> matches) {
+        List<List<Node>> pairs = new ArrayList<List<Node>>();
+        for (Map.Entry<Node, Node> m : matches) {
+            pairs.add(Arrays.asList(m.getKey(), m.getValue()));
+        }
+        return pairs;
+    }
 }
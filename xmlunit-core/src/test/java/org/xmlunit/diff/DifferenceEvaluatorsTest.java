@@ -14,7 +14,10 @@
 package org.xmlunit.diff;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import javax.xml.transform.Source;
 import javax.xml.parsers.DocumentBuilderFactory;
 
@@ -45,6 +48,22 @@ public ComparisonResult evaluate(Comparison comparison,
         }
     }
 
+    private static class TypedEvaluator extends Evaluator implements TypedDifferenceEvaluator {
+        private final Set<ComparisonType> types;
+        private TypedEvaluator(ComparisonResult ret, ComparisonType... types) {
+            super(ret);
+            this.types = EnumSet.copyOf(Arrays.asList(types));
+        }
+        @Override
+        public Set<ComparisonType> getComparisonTypes() {
+            return types;
+        }
+    }
+
+    private static Comparison comparisonOfType(ComparisonType type) {
+        return new Comparison(type, null, null, null, null, null, null, null, null);
+    }
+
     @Test public void emptyFirstJustWorks() {
         DifferenceEvaluator d = DifferenceEvaluators.first();
         assertEquals(ComparisonResult.DIFFERENT,
@@ -481,6 +500,161 @@ public void ignorePrologExceptDoctypeDoesntIgnoreNameOfDoctype() {
         assertThat(differences, not(hasSize(0)));
     }
 
+    @Test
+    public void typedEvaluatorsAreOnlyCalledForTheirTypesInChain() {
+        Evaluator e1 = new TypedEvaluator(ComparisonResult.SIMILAR, ComparisonType.XML_VERSION);
+        Evaluator e2 = new Evaluator(ComparisonResult.EQUAL);
+        Evaluator e3 = new TypedEvaluator(ComparisonResult.DIFFERENT, ComparisonType.TEXT_VALUE);
+        DifferenceEvaluator d = DifferenceEvaluators.chain(e1, e2, e3);
+        assertFalse(d instanceof TypedDifferenceEvaluator);
+
+        assertEquals(ComparisonResult.EQUAL,
+                     d.evaluate(comparisonOfType(ComparisonType.XML_VERSION),
+                                ComparisonResult.DIFFERENT));
+        assertTrue(e1.called);
+        assertTrue(e2.called);
+        assertThat(e2.orig, is(ComparisonResult.SIMILAR));
+        assertFalse(e3.called);
+
+        e1.called = e2.called = false;
+        assertEquals(ComparisonResult.DIFFERENT,
+                     d.evaluate(comparisonOfType(ComparisonType.TEXT_VALUE),
+                                ComparisonResult.SIMILAR));
+        assertFalse(e1.called);
+        assertTrue(e2.called);
+        assertTrue(e3.called);
+        assertThat(e3.orig, is(ComparisonResult.EQUAL));
+    }
+
+    @Test
+    public void typedEvaluatorsAreOnlyCalledForTheirTypesInFirst() {
+        Evaluator e1 = new TypedEvaluator(ComparisonResult.EQUAL, ComparisonType.XML_VERSION);
+        Evaluator e2 = new TypedEvaluator(ComparisonResult.SIMILAR, ComparisonType.XML_VERSION,
+                                               ComparisonType.TEXT_VALUE);
+        DifferenceEvaluator d = DifferenceEvaluators.first(e1, e2);
+
+        assertEquals(ComparisonResult.SIMILAR,
+                     d.evaluate(comparisonOfType(ComparisonType.TEXT_VALUE),
+                                ComparisonResult.DIFFERENT));
+        assertFalse(e1.called);
+        assertTrue(e2.called);
+
+        e2.called = false;
+        assertEquals(ComparisonResult.EQUAL,
+                     d.evaluate(comparisonOfType(ComparisonType.XML_VERSION),
+                                ComparisonResult.DIFFERENT));
+        assertTrue(e1.called);
+        assertFalse(e2.called);
+
+        e1.called = false;
+        assertEquals(ComparisonResult.DIFFERENT,
+                     d.evaluate(comparisonOfType(ComparisonType.ATTR_VALUE),
+                                ComparisonResult.DIFFERENT));
+        assertFalse(e1.called);
+        assertFalse(e2.called);
+    }
+
+    @Test
+    public void combinationOfTypedEvaluatorsIsTyped() {
+        DifferenceEvaluator d = DifferenceEvaluators
+            .chain(DifferenceEvaluators.Default,
+                   DifferenceEvaluators.downgradeDifferencesToEqual(ComparisonType.XML_VERSION),
+                   DifferenceEvaluators.first(DifferenceEvaluators.Accept,
+                                              new TypedEvaluator(ComparisonResult.SIMILAR,
+                                                                 ComparisonType.TEXT_VALUE)));
+        assertTrue(d instanceof TypedDifferenceEvaluator);
+        Set<ComparisonType> types = ((TypedDifferenceEvaluator) d).getComparisonTypes();
+        assertTrue(types.contains(ComparisonType.XML_VERSION));
+        assertTrue(types.contains(ComparisonType.TEXT_VALUE));
+        assertTrue(types.contains(ComparisonType.NAMESPACE_PREFIX));
+        assertFalse(types.contains(ComparisonType.ATTR_VALUE));
+        assertTrue(((TypedDifferenceEvaluator) DifferenceEvaluators.Accept).getComparisonTypes()
+                   .isEmpty());
+    }
+
+    @Test
+    public void possibleOutcomesOfDefault() {
+        assertEquals(EnumSet.of(ComparisonResult.SIMILAR),
+                     DifferenceEvaluators.getPossibleOutcomes(DifferenceEvaluators.Default,
+                                                              ComparisonType.NAMESPACE_PREFIX,
+                                                              ComparisonResult.DIFFERENT));
+        assertEquals(EnumSet.of(ComparisonResult.SIMILAR, ComparisonResult.DIFFERENT),
+                     DifferenceEvaluators.getPossibleOutcomes(DifferenceEvaluators.Default,
+                                                              ComparisonType.NODE_TYPE,
+                                                              ComparisonResult.DIFFERENT));
+        assertEquals(EnumSet.of(ComparisonResult.DIFFERENT),
+                     DifferenceEvaluators.getPossibleOutcomes(DifferenceEvaluators.Default,
+                                                              ComparisonType.TEXT_VALUE,
+                                                              ComparisonResult.DIFFERENT));
+        assertEquals(EnumSet.of(ComparisonResult.EQUAL),
+                     DifferenceEvaluators.getPossibleOutcomes(DifferenceEvaluators.Default,
+                                                              ComparisonType.NAMESPACE_PREFIX,
+                                                              ComparisonResult.EQUAL));
+    }
+
+    @Test
+    public void anyOutcomeIsPossibleForUntypedEvaluators() {
+        assertEquals(EnumSet.allOf(ComparisonResult.class),
+                     DifferenceEvaluators.getPossibleOutcomes(new Evaluator(ComparisonResult.EQUAL),
+                                                              ComparisonType.TEXT_VALUE,
+                                                              ComparisonResult.EQUAL));
+        Evaluator typed = new TypedEvaluator(ComparisonResult.EQUAL, ComparisonType.TEXT_VALUE);
+        assertEquals(EnumSet.allOf(ComparisonResult.class),
+                     DifferenceEvaluators.getPossibleOutcomes(typed, ComparisonType.TEXT_VALUE,
+                                                              ComparisonResult.EQUAL));
+        assertEquals(EnumSet.of(ComparisonResult.DIFFERENT),
+                     DifferenceEvaluators.getPossibleOutcomes(typed, ComparisonType.ATTR_VALUE,
+                                                              ComparisonResult.DIFFERENT));
+    }
+
+    @Test
+    public void possibleOutcomesOfChain() {
+        DifferenceEvaluator d = DifferenceEvaluators
+            .chain(DifferenceEvaluators.Default, DifferenceEvaluators.ignorePrologDifferences());
+        assertEquals(EnumSet.of(ComparisonResult.EQUAL),
+                     DifferenceEvaluators.getPossibleOutcomes(d, ComparisonType.XML_VERSION,
+                                                              ComparisonResult.DIFFERENT));
+        assertEquals(EnumSet.of(ComparisonResult.EQUAL),
+                     DifferenceEvaluators.getPossibleOutcomes(d, ComparisonType.XML_ENCODING,
+                                                              ComparisonResult.DIFFERENT));
+        assertEquals(EnumSet.of(ComparisonResult.SIMILAR, ComparisonResult.EQUAL),
+                     DifferenceEvaluators.getPossibleOutcomes(d, ComparisonType.SCHEMA_LOCATION,
+                                                              ComparisonResult.DIFFERENT));
+        assertEquals(EnumSet.of(ComparisonResult.DIFFERENT, ComparisonResult.EQUAL),
+                     DifferenceEvaluators.getPossibleOutcomes(d, ComparisonType.ATTR_VALUE,
+                                                              ComparisonResult.DIFFERENT));
+        assertEquals(EnumSet.of(ComparisonResult.EQUAL),
+                     DifferenceEvaluators.getPossibleOutcomes(d, ComparisonType.ATTR_VALUE,
+                                                              ComparisonResult.EQUAL));
+    }
+
+    @Test
+    public void possibleOutcomesOfFirst() {
+        DifferenceEvaluator d = DifferenceEvaluators
+            .first(DifferenceEvaluators.downgradeDifferencesToSimilar(ComparisonType.ATTR_VALUE),
+                   DifferenceEvaluators.downgradeDifferencesToEqual(ComparisonType.ATTR_VALUE,
+                                                                    ComparisonType.TEXT_VALUE));
+        assertEquals(EnumSet.of(ComparisonResult.SIMILAR),
+                     DifferenceEvaluators.getPossibleOutcomes(d, ComparisonType.ATTR_VALUE,
+                                                              ComparisonResult.DIFFERENT));
+        assertEquals(EnumSet.of(ComparisonResult.EQUAL),
+                     DifferenceEvaluators.getPossibleOutcomes(d, ComparisonType.TEXT_VALUE,
+                                                              ComparisonResult.DIFFERENT));
+        assertEquals(EnumSet.of(ComparisonResult.DIFFERENT),
+                     DifferenceEvaluators.getPossibleOutcomes(d, ComparisonType.NODE_TYPE,
+                                                              ComparisonResult.DIFFERENT));
+
+        d = DifferenceEvaluators.first(DifferenceEvaluators.Default,
+                                       DifferenceEvaluators.ignorePrologDifferencesExceptDoctype());
+        assertEquals(EnumSet.of(ComparisonResult.SIMILAR, ComparisonResult.EQUAL,
+                                ComparisonResult.DIFFERENT),
+                     DifferenceEvaluators.getPossibleOutcomes(d, ComparisonType.NODE_TYPE,
+                                                              ComparisonResult.DIFFERENT));
+        assertEquals(EnumSet.of(ComparisonResult.SIMILAR),
+                     DifferenceEvaluators.getPossibleOutcomes(d, ComparisonType.DOCTYPE_SYSTEM_ID,
+                                                              ComparisonResult.DIFFERENT));
+    }
+
     private List<Comparison> compare(String controlXml, String testXml) {
         return compare(controlXml, testXml, true);
     }
@@ -0,0 +1,60 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class DifferenceSummaryTest {
+
+    @Test
+    public void replacesPositionalPredicates() {
+        assertEquals("/feed[*]/record[*]/@ts",
+                     DifferenceSummary.toXPathPattern("/feed[1]/record[42]/@ts"));
+        assertEquals("/a[*]/text()[*]", DifferenceSummary.toXPathPattern("/a[1]/text()[12]"));
+        assertEquals("/", DifferenceSummary.toXPathPattern("/"));
+        assertEquals("/a[@b][*]", DifferenceSummary.toXPathPattern("/a[@b][3]"));
+        assertEquals("/a[]", DifferenceSummary.toXPathPattern("/a[]"));
+    }
+
+    @Test
+    public void countsByTypeAndPattern() {
+        DifferenceSummary s = new DifferenceSummary();
+        s.add(comparison(ComparisonType.ATTR_VALUE, "/feed[1]/record[1]/@ts", "/feed[1]/record[1]/@ts"));
+        s.add(comparison(ComparisonType.ATTR_VALUE, "/feed[1]/record[2]/@ts", "/feed[1]/record[2]/@ts"));
+        s.add(comparison(ComparisonType.CHILD_LOOKUP, null, "/feed[1]/extra[1]"));
+        s.add(comparison(ComparisonType.TEXT_VALUE, "/feed[1]/record[3]/text()[1]",
+                         "/feed[1]/record[3]/text()[1]"));
+
+        assertEquals(4, s.getTotal());
+        assertEquals(Long.valueOf(2), s.getCountsByType().get(ComparisonType.ATTR_VALUE));
+        assertEquals(Long.valueOf(1), s.getCountsByType().get(ComparisonType.CHILD_LOOKUP));
+        assertEquals(Long.valueOf(1), s.getCountsByType().get(ComparisonType.TEXT_VALUE));
+        assertEquals(Arrays.asList("/feed[*]/record[*]/@ts", "/feed[*]/extra[*]",
+                                   "/feed[*]/record[*]/text()[*]"),
+                     Arrays.asList(s.getCountsByXPathPattern().keySet().toArray()));
+        assertEquals(Long.valueOf(2), s.getCountsByXPathPattern().get("/feed[*]/record[*]/@ts"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void countsCantBeModified() {
+        new DifferenceSummary().getCountsByType().put(ComparisonType.ATTR_VALUE, 1L);
+    }
+
+    private static Comparison comparison(ComparisonType type, String controlXPath, String testXPath) {
+        return new Comparison(type, null, controlXPath, null, null, null, testXPath, null, null);
+    }
+}
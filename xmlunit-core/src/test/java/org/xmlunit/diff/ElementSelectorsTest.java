@@ -13,12 +13,18 @@
 */
 package org.xmlunit.diff;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMSource;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -29,7 +35,9 @@
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.xmlunit.XMLUnitException;
 import org.xmlunit.util.IsNullPredicate;
+import org.xmlunit.util.NameCache;
 import org.xmlunit.util.Predicate;
 import org.xmlunit.xpath.JAXPXPathEngine;
 import org.xmlunit.xpath.XPathEngine;
@@ -72,6 +80,15 @@ static void pureElementNameComparisons(ElementSelector s, Document doc) {
         pureElementNameComparisons(ElementSelectors.byName);
     }
 
+    @Test public void byNameWithNameCache() {
+        pureElementNameComparisons(ElementSelectors.byName(new NameCache()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void byNameDoesntAcceptNullCache() {
+        ElementSelectors.byName((NameCache) null);
+    }
+
     @Test public void byNameAndText_NamePart() {
         pureElementNameComparisons(ElementSelectors.byNameAndText);
     }
@@ -98,6 +115,54 @@ static void byNameAndText_SingleLevel(ElementSelector s, Document doc) {
         byNameAndText_SingleLevel(ElementSelectors.byNameAndText, doc);
     }
 
+    @Test public void byNameAndTextInsideComparison() {
+        SelectorMemo previous = SelectorMemo.enter();
+        try {
+            byNameAndText_SingleLevel(ElementSelectors.byNameAndText, doc);
+        } finally {
+            SelectorMemo.leave(previous);
+        }
+    }
+
+    @Test public void mergedNestedTextIsOnlyRememberedDuringComparison() {
+        Element e = doc.createElement(FOO);
+        e.appendChild(doc.createTextNode(FOO));
+        SelectorMemo previous = SelectorMemo.enter();
+        try {
+            assertEquals(FOO, ElementSelectors.getMergedNestedText(e));
+            e.getFirstChild().setNodeValue(BAR);
+            assertEquals(FOO, ElementSelectors.getMergedNestedText(e));
+        } finally {
+            SelectorMemo.leave(previous);
+        }
+        assertEquals(BAR, ElementSelectors.getMergedNestedText(e));
+    }
+
+    @Test public void byNameAndTextSeesChangesMadeBetweenComparisons() {
+        Element control = doc.createElement(FOO);
+        doc.appendChild(control);
+        Element child = doc.createElement(BAR);
+        control.appendChild(child);
+        child.appendChild(doc.createTextNode(FOO));
+        Document test = (Document) doc.cloneNode(true);
+        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        d.setNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byNameAndText));
+        final List<ComparisonType> differences = new ArrayList<ComparisonType>();
+        d.addDifferenceListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    differences.add(comparison.getType());
+                }
+            });
+        d.compare(new DOMSource(doc), new DOMSource(test));
+        assertEquals(Collections.<ComparisonType>emptyList(), differences);
+
+        test.getDocumentElement().getFirstChild().getFirstChild().setNodeValue(BAR);
+        d.compare(new DOMSource(doc), new DOMSource(test));
+        assertEquals(Arrays.asList(ComparisonType.CHILD_LOOKUP, ComparisonType.CHILD_LOOKUP),
+                     differences);
+    }
+
     @Test public void byNameAndAllAttributes_NamePart() {
         pureElementNameComparisons(ElementSelectors.byNameAndAllAttributes);
     }
@@ -459,6 +524,50 @@ public Iterable<Node> answer(InvocationOnMock invocation) {
             .selectNodes(Mockito.anyString(), Mockito.any(Node.class));
     }
 
+    @Test
+    public void xpathInsideComparison() throws Exception {
+        SelectorMemo previous = SelectorMemo.enter();
+        try {
+            xpath();
+        } finally {
+            SelectorMemo.leave(previous);
+        }
+    }
+
+    @Test
+    public void xpathOnlySelectsChildrenOnceDuringComparison() throws Exception {
+        final JAXPXPathEngine real = new JAXPXPathEngine();
+        XPathEngine mock = Mockito.mock(XPathEngine.class);
+        Mockito.when(mock.selectNodes(Mockito.anyString(), Mockito.any(Node.class)))
+            .thenAnswer(new Answer<Iterable<Node>>() {
+                public Iterable<Node> answer(InvocationOnMock invocation) {
+                    return real.selectNodes((String) invocation.getArgument(0),
+                                            (Node) invocation.getArgument(1));
+                }
+            });
+        Element control = doc.createElement(FOO);
+        control.appendChild(doc.createElement(BAR));
+        Element test1 = doc.createElement(FOO);
+        test1.appendChild(doc.createElement(BAR));
+        Element test2 = doc.createElement(FOO);
+        ElementSelector s = ElementSelectors.byXPath("./*", mock, ElementSelectors.byName);
+        SelectorMemo previous = SelectorMemo.enter();
+        try {
+            assertTrue(s.canBeCompared(control, test1));
+            assertFalse(s.canBeCompared(control, test2));
+            assertTrue(s.canBeCompared(control, test1));
+        } finally {
+            SelectorMemo.leave(previous);
+        }
+        Mockito.verify(mock, Mockito.times(3))
+            .selectNodes(Mockito.anyString(), Mockito.any(Node.class));
+    }
+
+    @Test(expected = XMLUnitException.class)
+    public void xpathIsCompiledWhenSelectorIsCreated() {
+        ElementSelectors.byXPath(".//BAZ[", ElementSelectors.byName);
+    }
+
     @Test
     public void conditionalBuilder() {
         Element control = doc.createElement(FOO);
@@ -573,6 +682,50 @@ public void selectorForElementNamedDoesntLikeNullNameQNameVersion() {
         ElementSelectors.selectorForElementNamed((QName) null, ElementSelectors.byName);
     }
 
+    @Test
+    public void conditionalBuilderUsesFirstConditionThatHolds() {
+        final List<String> tested = new ArrayList<String>();
+        Predicate<Element> isBar = new Predicate<Element>() {
+            @Override
+            public boolean test(Element e) {
+                if (e == null) {
+                    return false;
+                }
+                tested.add(e.getLocalName() != null ? e.getLocalName() : e.getNodeName());
+                return BAR.equals(e.getNodeName()) || BAR.equals(e.getLocalName());
+            }
+        };
+        ElementSelector s = ElementSelectors.conditionalBuilder()
+            .whenElementIsNamed(new QName(SOME_URI, FOO)).thenUse(ElementSelectors.Default)
+            .when(isBar).thenUse(ElementSelectors.Default)
+            .whenElementIsNamed(FOO).thenUse(ElementSelectors.byName)
+            .whenElementIsNamed(BAR).thenUse(ElementSelectors.byName)
+            .whenElementIsNamed(FOO).thenUse(ElementSelectors.Default)
+            .elseUse(ElementSelectors.byName)
+            .build();
+        Element fooNS = doc.createElementNS(SOME_URI, FOO);
+        Element foo = doc.createElement(FOO);
+        Element bar = doc.createElement(BAR);
+        Element baz = doc.createElement("baz");
+
+        // QName condition comes first and doesn't need the predicate
+        assertTrue(s.canBeCompared(fooNS, bar));
+        assertEquals(Collections.<String>emptyList(), tested);
+        // predicate is tested before the local name conditions
+        assertFalse(s.canBeCompared(foo, bar));
+        assertEquals(Arrays.asList(FOO), tested);
+        assertTrue(s.canBeCompared(bar, foo));
+        assertEquals(Arrays.asList(FOO, BAR), tested);
+        // local name matches elements in any namespace
+        assertFalse(s.canBeCompared(doc.createElementNS("urn:other", FOO), bar));
+        assertTrue(s.canBeCompared(doc.createElementNS("urn:other", FOO),
+                                   doc.createElementNS("urn:other", FOO)));
+        // default only if no condition holds
+        assertFalse(s.canBeCompared(baz, bar));
+        assertTrue(s.canBeCompared(baz, doc.createElement("baz")));
+        assertFalse(s.canBeCompared(null, bar));
+    }
+
     @Test(expected = IllegalStateException.class)
     public void conditionalSelectorBuilderWontAllowThenWithoutWhen() {
         ElementSelectors.ConditionalSelectorBuilderThen t =
@@ -603,4 +756,34 @@ public void conditionalSelectorBuilderWontAllowMultipleDefaults() {
         b.elseUse(ElementSelectors.byName);
         b.elseUse(ElementSelectors.byName);
     }
+
+    @Test
+    public void keysAreConsistentWithCanBeCompared() {
+        Element[] elements = new Element[] {
+            doc.createElement(FOO), doc.createElement(FOO), doc.createElement(BAR),
+            doc.createElementNS(SOME_URI, FOO), doc.createElement(FOO), doc.createElement(FOO),
+            doc.createElement(FOO)
+        };
+        elements[1].setAttribute(BAR, "1");
+        elements[1].appendChild(doc.createTextNode(BAR));
+        elements[4].setAttribute(BAR, "1");
+        elements[4].setAttributeNS(SOME_URI, "x:" + BAR, "2");
+        elements[4].appendChild(doc.createTextNode(BAR));
+        elements[5].setAttribute(BAR, "2");
+        elements[6].setAttribute(BAR, "1");
+        elements[6].appendChild(doc.createCDATASection(BAR));
+        for (ElementSelector s : new ElementSelector[] {
+                ElementSelectors.byName, ElementSelectors.byNameAndText,
+                ElementSelectors.byNameAndAllAttributes,
+                ElementSelectors.byNameAndAttributes(BAR),
+                ElementSelectors.byNameAndAttributes(new QName(BAR), new QName(SOME_URI, BAR)) }) {
+            assertTrue(s instanceof KeyedElementSelector);
+            KeyedElementSelector k = (KeyedElementSelector) s;
+            for (Element c : elements) {
+                for (Element t : elements) {
+                    assertEquals(s.canBeCompared(c, t), k.getKey(c).equals(k.getKey(t)));
+                }
+            }
+        }
+    }
 }
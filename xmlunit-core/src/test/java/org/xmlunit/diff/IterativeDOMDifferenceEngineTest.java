@@ -0,0 +1,126 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMSource;
+import org.xmlunit.builder.Input;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.DocumentBuilderFactoryConfigurer;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs all tests of DOMDifferenceEngineTest with iterative traversal.
+ */
+public class IterativeDOMDifferenceEngineTest extends DOMDifferenceEngineTest {
+
+    @Override
+    protected DOMDifferenceEngine createEngine() {
+        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        d.setIterativeTraversal(true);
+        return d;
+    }
+
+    @Test
+    public void performsSameComparisonsAsRecursiveTraversal() {
+        String control = "<?xml version='1.0'?>"
+            + "<!DOCTYPE root [<!ELEMENT root ANY>]>"
+            + "<!-- comment --><?pi data?>"
+            + "<root xmlns:x='urn:x' xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
+            + " a='1' x:b='2' xsi:type='x:t'>"
+            + "<a>text<![CDATA[cdata]]></a><b><c d='e'>f</c><c>g</c></b>"
+            + "<x:y/><only-in-control/><!-- c --><?p q?>"
+            + "</root>";
+        String test = "<?xml version='1.0'?>"
+            + "<!DOCTYPE root [<!ELEMENT root ANY>]>"
+            + "<!-- comment --><?pi data2?>"
+            + "<root xmlns:x='urn:x' xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
+            + " a='2' c='3' xsi:type='x:u'>"
+            + "<b><c d='f'>f</c><c>h</c></b><a>text2<![CDATA[cdata]]></a>"
+            + "<x:y z='1'/><only-in-test/><!-- d --><?p r?>"
+            + "</root>";
+        for (ComparisonController cc : new ComparisonController[] {
+                ComparisonControllers.Default, ComparisonControllers.StopWhenDifferent,
+                ComparisonControllers.StopWhenSimilar }) {
+            DOMDifferenceEngine recursive = new DOMDifferenceEngine();
+            recursive.setComparisonController(cc);
+            recursive.setNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byName));
+            recursive.setNodeFilter(NodeFilters.AcceptAll);
+            List<String> expected = record(recursive, control, test);
+
+            DOMDifferenceEngine iterative = createEngine();
+            iterative.setComparisonController(cc);
+            iterative.setNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byName));
+            iterative.setNodeFilter(NodeFilters.AcceptAll);
+            assertEquals(expected, record(iterative, control, test));
+        }
+    }
+
+    @Test
+    public void stackDepthDoesntDependOnDocumentDepth() throws Exception {
+        DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        Document control = builder.newDocument();
+        Document test = builder.newDocument();
+        Node controlParent = control;
+        Node testParent = test;
+        for (int i = 0; i < 20000; i++) {
+            controlParent = controlParent.appendChild(control.createElement("level"));
+            testParent = testParent.appendChild(test.createElement("level"));
+        }
+        controlParent.appendChild(control.createTextNode("control"));
+        testParent.appendChild(test.createTextNode("test"));
+
+        DOMDifferenceEngine d = createEngine();
+        final List<Comparison> differences = new ArrayList<Comparison>();
+        d.addDifferenceListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    differences.add(comparison);
+                }
+            });
+        d.compare(new DOMSource(control), new DOMSource(test));
+        assertEquals(1, differences.size());
+        assertEquals(ComparisonType.TEXT_VALUE, differences.get(0).getType());
+        assertTrue(differences.get(0).getControlDetails().getXPath().endsWith("/level[1]/text()[1]"));
+    }
+
+    private static List<String> record(DOMDifferenceEngine d, String control, String test) {
+        final List<String> comparisons = new ArrayList<String>();
+        d.addComparisonListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    comparisons.add(comparison.getType() + " "
+                                    + comparison.getControlDetails().getXPath() + " "
+                                    + comparison.getControlDetails().getParentXPath() + " "
+                                    + comparison.getControlDetails().getValue() + " "
+                                    + comparison.getTestDetails().getXPath() + " "
+                                    + comparison.getTestDetails().getParentXPath() + " "
+                                    + comparison.getTestDetails().getValue() + " "
+                                    + outcome);
+                }
+            });
+        DocumentBuilderFactory dbf = DocumentBuilderFactoryConfigurer.DefaultWithDTDParsing
+            .configure(DocumentBuilderFactory.newInstance());
+        d.compare(new DOMSource(Convert.toDocument(Input.fromString(control).build(), dbf)),
+                  new DOMSource(Convert.toDocument(Input.fromString(test).build(), dbf)));
+        return comparisons;
+    }
+}
@@ -72,6 +72,18 @@ public void byNameAndTextRec() {
         assertFalse(s.canBeCompared(control, differentText));
     }
 
+    @Test
+    public void usingFingerprints() {
+        SelectorMemo previous = SelectorMemo.enter();
+        try {
+            singleLevel();
+            byNameAndTextRec();
+            emptyTexts();
+        } finally {
+            SelectorMemo.leave(previous);
+        }
+    }
+
     @Test
     public void emptyTexts() {
         Element control = doc.createElement(FOO);
@@ -15,6 +15,8 @@
 
 import org.junit.Test;
 import org.w3c.dom.Node;
+import org.xmlunit.builder.Input;
+import org.xmlunit.util.Convert;
 import org.xmlunit.util.Predicate;
 
 import static org.junit.Assert.*;
@@ -68,4 +70,20 @@ public void satisfiesAnyWorksAsPromised() {
         assertFalse(NodeFilters.satifiesAny(n1, n3).test(null));
     }
 
+
+    @Test
+    public void nodeTypeFilterRejectsExcludedTypes() {
+        NodeTypeFilter f = new NodeTypeFilter(Node.COMMENT_NODE, Node.PROCESSING_INSTRUCTION_NODE);
+        assertTrue(f.excludes(Node.COMMENT_NODE));
+        assertFalse(f.excludes(Node.TEXT_NODE));
+        Node comment = Convert.toDocument(Input.fromString("<a><!--c--></a>").build())
+            .getDocumentElement().getFirstChild();
+        assertFalse(f.test(comment));
+        assertTrue(f.test(comment.getParentNode()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nodeTypeFilterRejectsInvalidTypes() {
+        new NodeTypeFilter((short) 42);
+    }
 }
@@ -0,0 +1,144 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.xmlunit.builder.Input;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs all tests of DOMDifferenceEngineTest with parallel subtree
+ * comparison.
+ */
+public class ParallelDOMDifferenceEngineTest extends DOMDifferenceEngineTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @Override
+    protected DOMDifferenceEngine createEngine() {
+        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        d.setParallelism(POOL);
+        return d;
+    }
+
+    @Test
+    public void reportsComparisonsInSameOrderAsSequentialComparison() {
+        String control = records(200, 7);
+        String test = records(200, 3);
+        for (ComparisonController cc : new ComparisonController[] {
+                ComparisonControllers.Default, ComparisonControllers.StopWhenDifferent,
+                ComparisonControllers.StopWhenSimilar }) {
+            DOMDifferenceEngine sequential = new DOMDifferenceEngine();
+            sequential.setComparisonController(cc);
+            List<String> expected = record(sequential, control, test);
+
+            DOMDifferenceEngine parallel = createEngine();
+            parallel.setComparisonController(cc);
+            assertEquals(expected, record(parallel, control, test));
+        }
+    }
+
+    @Test
+    public void worksWithIterativeTraversal() {
+        String control = records(100, 5);
+        String test = records(100, 9);
+        List<String> expected = record(new DOMDifferenceEngine(), control, test);
+
+        DOMDifferenceEngine parallel = createEngine();
+        parallel.setIterativeTraversal(true);
+        assertEquals(expected, record(parallel, control, test));
+    }
+
+    @Test
+    public void reportsSameDifferencesAndMatchesAsSequentialComparison() {
+        String control = records(200, 7);
+        String test = records(200, 3);
+        DOMDifferenceEngine sequential = new DOMDifferenceEngine();
+        List<String> expectedDifferences = new ArrayList<String>();
+        sequential.addDifferenceListener(recorder(expectedDifferences));
+        sequential.compare(Input.fromString(control).build(), Input.fromString(test).build());
+
+        DOMDifferenceEngine parallel = createEngine();
+        List<String> differences = new ArrayList<String>();
+        parallel.addDifferenceListener(recorder(differences));
+        parallel.compare(Input.fromString(control).build(), Input.fromString(test).build());
+        assertEquals(expectedDifferences, differences);
+
+        List<String> expectedMatches = new ArrayList<String>();
+        sequential = new DOMDifferenceEngine();
+        sequential.addMatchListener(recorder(expectedMatches));
+        sequential.compare(Input.fromString(control).build(), Input.fromString(test).build());
+
+        parallel = createEngine();
+        List<String> matches = new ArrayList<String>();
+        parallel.addMatchListener(recorder(matches));
+        parallel.compare(Input.fromString(control).build(), Input.fromString(test).build());
+        assertEquals(expectedMatches, matches);
+    }
+
+    @Test
+    public void stopsAtFirstDifferenceInDocumentOrder() {
+        DOMDifferenceEngine d = createEngine();
+        d.setComparisonController(ComparisonControllers.StopWhenDifferent);
+        final List<Comparison> differences = new ArrayList<Comparison>();
+        d.addDifferenceListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    differences.add(comparison);
+                }
+            });
+        d.compare(Input.fromString(records(500, 1000)).build(),
+                  Input.fromString(records(500, 250)).build());
+        assertEquals(1, differences.size());
+        assertEquals("/feed[1]/record[251]/value[1]/text()[1]",
+                     differences.get(0).getControlDetails().getXPath());
+    }
+
+    private static String records(int count, int differentEvery) {
+        StringBuilder sb = new StringBuilder("<feed>");
+        for (int i = 0; i < count; i++) {
+            sb.append("<record id='").append(i).append("'><value>")
+                .append(i % differentEvery == 0 ? "x" + i : String.valueOf(i))
+                .append("</value><!-- c --></record>");
+        }
+        return sb.append("</feed>").toString();
+    }
+
+    private static List<String> record(DOMDifferenceEngine d, String control, String test) {
+        List<String> comparisons = new ArrayList<String>();
+        d.addComparisonListener(recorder(comparisons));
+        d.compare(Input.fromString(control).build(), Input.fromString(test).build());
+        return comparisons;
+    }
+
+    private static ComparisonListener recorder(final List<String> comparisons) {
+        return new ComparisonListener() {
+            @Override
+            public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                comparisons.add(comparison.getType() + " "
+                                + comparison.getControlDetails().getXPath() + " "
+                                + comparison.getControlDetails().getParentXPath() + " "
+                                + comparison.getControlDetails().getValue() + " "
+                                + comparison.getTestDetails().getXPath() + " "
+                                + comparison.getTestDetails().getParentXPath() + " "
+                                + comparison.getTestDetails().getValue() + " "
+                                + outcome);
+            }
+        };
+    }
+}
@@ -0,0 +1,62 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.xmlunit.builder.Input;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import static org.junit.Assert.*;
+
+public class SelectorMemoTest {
+
+    @Test
+    public void noMemoOutsideOfComparison() {
+        assertNull(SelectorMemo.forOwner(this));
+    }
+
+    @Test
+    public void memoIsScopedAndSeparatedByOwner() throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .newDocument();
+        Node n = doc.createElement("a");
+        Object otherOwner = new Object();
+        SelectorMemo outer = SelectorMemo.enter();
+        try {
+            SelectorMemo.forOwner(this).put(n, "outer");
+            assertSame(SelectorMemo.forOwner(this), SelectorMemo.forOwner(this));
+            assertNull(SelectorMemo.forOwner(otherOwner).get(n));
+
+            SelectorMemo inner = SelectorMemo.enter();
+            try {
+                assertNull(SelectorMemo.forOwner(this).get(n));
+            } finally {
+                SelectorMemo.leave(inner);
+            }
+            assertEquals("outer", SelectorMemo.forOwner(this).get(n));
+        } finally {
+            SelectorMemo.leave(outer);
+        }
+        assertNull(SelectorMemo.forOwner(this));
+    }
+
+    @Test
+    public void memoIsLeftAfterComparison() {
+        new DOMDifferenceEngine().compare(Input.fromString("<a/>").build(),
+                                          Input.fromString("<a/>").build());
+        assertNull(SelectorMemo.forOwner(this));
+    }
+}
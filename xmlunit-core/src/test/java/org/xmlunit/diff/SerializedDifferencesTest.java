@@ -0,0 +1,138 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import javax.xml.namespace.QName;
+import org.junit.Test;
+import org.xmlunit.builder.Input;
+
+public class SerializedDifferencesTest {
+
+    private final ComparisonFormatter formatter = new DefaultComparisonFormatter();
+
+    @Test
+    public void keepsSmallNumberOfDifferencesInMemory() {
+        SerializedDifferences s = new SerializedDifferences(formatter, 1 << 20);
+        List<Difference> expected = collect(s);
+        assertFalse(s.isSpilled());
+        assertSameDifferences(expected, s);
+        s.close();
+    }
+
+    @Test
+    public void spillsToTemporaryFile() {
+        SerializedDifferences s = new SerializedDifferences(formatter, 100);
+        List<Difference> expected = collect(s);
+        assertTrue(s.isSpilled());
+        assertSameDifferences(expected, s);
+        // can be iterated more than once
+        assertSameDifferences(expected, s);
+        s.close();
+        assertEquals(0, s.size());
+        assertFalse(s.isSpilled());
+    }
+
+    @Test
+    public void retainsValuesOfSupportedTypes() {
+        SerializedDifferences s = new SerializedDifferences(formatter, 0);
+        Object[] values = new Object[] {
+            null, "text", Short.valueOf((short) 3), Integer.valueOf(42), Boolean.TRUE,
+            new QName("urn:x", "local", "p"), new QName("plain")
+        };
+        for (Object v : values) {
+            s.add(new Comparison(ComparisonType.ATTR_VALUE, null, "/a[1]/@b", v, "/a[1]",
+                                 null, null, 1.5d, null),
+                  ComparisonResult.SIMILAR);
+        }
+        Iterator<Difference> it = s.iterator();
+        for (Object v : values) {
+            Difference d = it.next();
+            assertEquals(ComparisonResult.SIMILAR, d.getResult());
+            assertEquals(ComparisonType.ATTR_VALUE, d.getComparison().getType());
+            assertEquals(v, d.getComparison().getControlDetails().getValue());
+            if (v instanceof QName) {
+                assertEquals(((QName) v).getPrefix(),
+                             ((QName) d.getComparison().getControlDetails().getValue()).getPrefix());
+            }
+            assertEquals("/a[1]/@b", d.getComparison().getControlDetails().getXPath());
+            assertEquals("/a[1]", d.getComparison().getControlDetails().getParentXPath());
+            assertNull(d.getComparison().getControlDetails().getTarget());
+            assertEquals("1.5", d.getComparison().getTestDetails().getValue());
+            assertNull(d.getComparison().getTestDetails().getXPath());
+        }
+        assertFalse(it.hasNext());
+        s.close();
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void detectsModificationWhileIterating() {
+        SerializedDifferences s = new SerializedDifferences(formatter, 1 << 20);
+        collect(s);
+        Iterator<Difference> it = s.iterator();
+        it.next();
+        s.add(new Comparison(ComparisonType.ATTR_VALUE, null, null, null, null,
+                             null, null, null, null),
+              ComparisonResult.DIFFERENT);
+        it.next();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeThreshold() {
+        new SerializedDifferences(formatter, -1);
+    }
+
+    private List<Difference> collect(final SerializedDifferences s) {
+        final List<Difference> differences = new ArrayList<Difference>();
+        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        d.addDifferenceListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    differences.add(new Difference(comparison, outcome));
+                    s.add(comparison, outcome);
+                }
+            });
+        d.compare(Input.fromString("<r xmlns:x='urn:x'><a b='1'>t</a><x:c/><d/></r>").build(),
+                  Input.fromString("<r xmlns:x='urn:x'><a b='2' c='3'>u</a><x:c/><![CDATA[v]]></r>").build());
+        assertEquals(differences.size(), s.size());
+        return differences;
+    }
+
+    private void assertSameDifferences(List<Difference> expected, SerializedDifferences actual) {
+        Iterator<Difference> it = actual.iterator();
+        for (Difference e : expected) {
+            assertTrue(it.hasNext());
+            Difference a = it.next();
+            assertEquals(e.getResult(), a.getResult());
+            Comparison ec = e.getComparison();
+            Comparison ac = a.getComparison();
+            assertEquals(ec.getType(), ac.getType());
+            assertEquals(ec.getControlDetails().getXPath(), ac.getControlDetails().getXPath());
+            assertEquals(ec.getTestDetails().getXPath(), ac.getTestDetails().getXPath());
+            assertEquals(ec.getTestDetails().getParentXPath(), ac.getTestDetails().getParentXPath());
+            assertEquals(ec.getControlDetails().getValue(), ac.getControlDetails().getValue());
+            assertEquals(ec.toString(formatter), ac.toString(formatter));
+            assertEquals(e.toString(formatter), a.toString());
+        }
+        assertFalse(it.hasNext());
+    }
+}
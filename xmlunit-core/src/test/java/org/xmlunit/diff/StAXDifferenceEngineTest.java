@@ -0,0 +1,221 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import org.xmlunit.builder.Input;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.Predicate;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import static org.junit.Assert.*;
+
+public class StAXDifferenceEngineTest {
+
+    private static final String CONTROL = "<?xml version='1.0' encoding='UTF-8'?>"
+        + "<!-- comment --><?pi data?>"
+        + "<root xmlns:x='urn:x' xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
+        + " a='1' x:b='2' xsi:type='x:t'>"
+        + "<a>text &amp; more<![CDATA[cdata]]></a>\n  <b><c d='e'>f</c><c>g</c></b>"
+        + "<x:y/><!-- c --><?p q?>"
+        + "</root>";
+    private static final String TEST = "<?xml version='1.0'?>"
+        + "<!-- comment --><?pi data2?>"
+        + "<root xmlns:x='urn:x' xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
+        + " a='2' c='3' xsi:type='x:u'>"
+        + "<a>text &amp; less<![CDATA[cdata]]></a>\n  <b><c d='f'>f</c><c>h</c></b>"
+        + "<y xmlns='urn:x' z='1'/><!-- d --><?p r?>"
+        + "</root>";
+
+    @Test
+    public void performsSameComparisonsAsDOMDifferenceEngine() {
+        for (ComparisonController cc : new ComparisonController[] {
+                ComparisonControllers.Default, ComparisonControllers.StopWhenDifferent,
+                ComparisonControllers.StopWhenSimilar }) {
+            DOMDifferenceEngine dom = new DOMDifferenceEngine();
+            dom.setComparisonController(cc);
+            StAXDifferenceEngine stax = new StAXDifferenceEngine();
+            stax.setComparisonController(cc);
+            assertEquals(record(dom, CONTROL, TEST), record(stax, CONTROL, TEST));
+        }
+    }
+
+    @Test
+    public void reportsMissingAndExtraChildren() {
+        List<String> differences = recordDifferences(new StAXDifferenceEngine(),
+                                                     "<a><b/><c/></a>", "<a><b/><c/><d/>x</a>");
+        assertEquals(3, differences.size());
+        assertEquals("CHILD_LOOKUP null /a[1] /a[1]/d[1] /a[1]", differences.get(0));
+        assertEquals("CHILD_LOOKUP null /a[1] /a[1]/text()[1] /a[1]", differences.get(1));
+        assertEquals("CHILD_NODELIST_LENGTH /a[1] / /a[1] /", differences.get(2));
+
+        StAXDifferenceEngine d = new StAXDifferenceEngine();
+        d.setNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byName));
+        differences = recordDifferences(d, "<a><b/><c><d/></c><e/></a>", "<a><b/><e/></a>");
+        assertEquals(Arrays.asList("CHILD_LOOKUP /a[1]/c[1] /a[1] null /a[1]",
+                                  "CHILD_LOOKUP null /a[1] /a[1]/e[1] /a[1]",
+                                  "CHILD_LOOKUP /a[1]/e[1] /a[1] null /a[1]",
+                                  "CHILD_NODELIST_LENGTH /a[1] / /a[1] /"),
+                     differences);
+    }
+
+    @Test
+    public void usesNodeFilterAndStillCountsFilteredNodesInXPaths() {
+        StAXDifferenceEngine d = new StAXDifferenceEngine();
+        d.setNodeFilter(new Predicate<Node>() {
+                @Override
+                public boolean test(Node n) {
+                    return !(n instanceof Element) || !((Element) n).hasAttribute("skip");
+                }
+            });
+        List<String> differences = recordDifferences(d,
+                                                     "<a><b skip='1'><c/></b><b>1</b></a>",
+                                                     "<a><b>2</b><b skip='1'/></a>");
+        assertEquals(1, differences.size());
+        assertEquals("TEXT_VALUE /a[1]/b[2]/text()[1] /a[1]/b[2] /a[1]/b[1]/text()[1] /a[1]/b[1]",
+                     differences.get(0));
+    }
+
+    @Test
+    public void canCompareDOMSources() {
+        Source control = new DOMSource(Convert.toDocument(Input.fromString("<a><b/></a>").build()));
+        Source test = new DOMSource(Convert.toDocument(Input.fromString("<a><c/></a>").build()));
+        List<String> differences = recordDifferences(new StAXDifferenceEngine(), control, test);
+        assertEquals(1, differences.size());
+        assertEquals("ELEMENT_TAG_NAME /a[1]/b[1] /a[1] /a[1]/c[1] /a[1]", differences.get(0));
+    }
+
+    @Test
+    public void stackDepthDoesntDependOnDocumentDepth() {
+        StringBuilder control = new StringBuilder();
+        StringBuilder test = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            control.append("<level>");
+            test.append("<level>");
+        }
+        control.append("control");
+        test.append("test");
+        for (int i = 0; i < 20000; i++) {
+            control.append("</level>");
+            test.append("</level>");
+        }
+        List<String> differences = recordDifferences(new StAXDifferenceEngine(),
+                                                     control.toString(), test.toString());
+        assertEquals(1, differences.size());
+        assertTrue(differences.get(0).startsWith("TEXT_VALUE /level[1]/level[1]/"));
+    }
+
+    @Test
+    public void differingNodesCanBeFormattedOnceTheComparisonIsDone() {
+        final List<Comparison> differences = new ArrayList<Comparison>();
+        StAXDifferenceEngine d = new StAXDifferenceEngine();
+        d.addDifferenceListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    differences.add(comparison);
+                }
+            });
+        d.compare(Input.fromString("<a b='1'>x<c/>y</a>").build(),
+                  Input.fromString("<a b='1'>x<c/>z<d/></a>").build());
+        assertEquals(3, differences.size());
+        ComparisonFormatter f = new DefaultComparisonFormatter();
+        assertEquals("Expected text value 'y' but was 'z' - comparing <a ...>y</a> at /a[1]/text()[2]"
+                     + " to <a ...>z</a> at /a[1]/text()[2]",
+                     differences.get(0).toString(f));
+        Node y = differences.get(0).getControlDetails().getTarget();
+        assertEquals("a", y.getParentNode().getNodeName());
+        assertEquals(1, y.getParentNode().getChildNodes().getLength());
+        assertEquals("<a b=\"1\">y</a>", f.getDetails(differences.get(0).getControlDetails(),
+                                                     ComparisonType.TEXT_VALUE, false));
+        assertEquals(ComparisonType.CHILD_LOOKUP, differences.get(1).getType());
+        // only the differing children z and d are kept
+        assertEquals(2, differences.get(1).getTestDetails().getTarget().getParentNode()
+                     .getChildNodes().getLength());
+    }
+
+    @Test
+    public void shallowEngineOnlyReportsEqualOutcomesIfSomebodyIsInterested() {
+        StAXDifferenceEngine d = new StAXDifferenceEngine();
+        final List<ComparisonType> equal = new ArrayList<ComparisonType>();
+        d.addDifferenceListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    if (outcome == ComparisonResult.EQUAL) {
+                        equal.add(comparison.getType());
+                    }
+                }
+            });
+        d.compare(Input.fromString("<a b='1'>x</a>").build(), Input.fromString("<a b='1'>x</a>").build());
+        assertEquals(0, equal.size());
+
+        d.addMatchListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    equal.add(comparison.getType());
+                }
+            });
+        d.compare(Input.fromString("<a b='1'>x</a>").build(), Input.fromString("<a b='1'>x</a>").build());
+        assertTrue(equal.contains(ComparisonType.ATTR_VALUE));
+        assertTrue(equal.contains(ComparisonType.TEXT_VALUE));
+    }
+
+    private static List<String> record(DifferenceEngine d, String control, String test) {
+        final List<String> comparisons = new ArrayList<String>();
+        d.addComparisonListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    if (comparison.getType() == ComparisonType.CHILD_NODELIST_LENGTH) {
+                        // reported after the children by StAXDifferenceEngine
+                        return;
+                    }
+                    comparisons.add(comparison.getType() + " "
+                                    + comparison.getControlDetails().getXPath() + " "
+                                    + comparison.getControlDetails().getParentXPath() + " "
+                                    + comparison.getControlDetails().getValue() + " "
+                                    + comparison.getTestDetails().getXPath() + " "
+                                    + comparison.getTestDetails().getParentXPath() + " "
+                                    + comparison.getTestDetails().getValue() + " "
+                                    + outcome);
+                }
+            });
+        d.compare(Input.fromString(control).build(), Input.fromString(test).build());
+        return comparisons;
+    }
+
+    private static List<String> recordDifferences(DifferenceEngine d, String control, String test) {
+        return recordDifferences(d, Input.fromString(control).build(), Input.fromString(test).build());
+    }
+
+    private static List<String> recordDifferences(DifferenceEngine d, Source control, Source test) {
+        final List<String> differences = new ArrayList<String>();
+        d.addDifferenceListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+                    differences.add(comparison.getType() + " "
+                                    + comparison.getControlDetails().getXPath() + " "
+                                    + comparison.getControlDetails().getParentXPath() + " "
+                                    + comparison.getTestDetails().getXPath() + " "
+                                    + comparison.getTestDetails().getParentXPath());
+                }
+            });
+        d.compare(control, test);
+        return differences;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import org.xmlunit.builder.Input;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.Predicate;
+import org.junit.Test;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Node;
+
+import static org.junit.Assert.*;
+
+public class SubtreeHashesTest {
+
+    private final SubtreeHashes hashes =
+        new SubtreeHashes(NodeFilters.Default, new Predicate<Attr>() {
+                @Override
+                public boolean test(Attr a) {
+                    return true;
+                }
+            });
+
+    @Test
+    public void identicalSubtreesHaveEqualHashes() {
+        assertTrue(equalHashes("<a x='1' y='2'><b>t</b><!-- c --><?p d?></a>",
+                               "<a y='2' x='1'><b>t</b><!-- c --><?p d?></a>"));
+    }
+
+    @Test
+    public void differentSubtreesHaveDifferentHashes() {
+        String control = "<a x='1'><b>t</b><c/></a>";
+        assertFalse(equalHashes(control, "<a x='2'><b>t</b><c/></a>"));
+        assertFalse(equalHashes(control, "<a x='1' y='1'><b>t</b><c/></a>"));
+        assertFalse(equalHashes(control, "<a x='1'><b>u</b><c/></a>"));
+        assertFalse(equalHashes(control, "<a x='1'><b>t</b></a>"));
+        assertFalse(equalHashes(control, "<a x='1'><c/><b>t</b></a>"));
+        assertFalse(equalHashes(control, "<a x='1'><b>t</b> <c/></a>"));
+        assertFalse(equalHashes(control, "<a x='1'><b><![CDATA[t]]></b><c/></a>"));
+        assertFalse(equalHashes(control, "<a x='1' xmlns='urn:a'><b>t</b><c/></a>"));
+        assertFalse(equalHashes("<a><b/><b/></a>", "<a><b><b/></b></a>"));
+    }
+
+    private boolean equalHashes(String control, String test) {
+        Node c = Convert.toDocument(Input.fromString(control).build()).getDocumentElement();
+        Node t = Convert.toDocument(Input.fromString(test).build()).getDocumentElement();
+        return hashes.haveEqualHashes(c, t);
+    }
+}
@@ -293,6 +293,74 @@ public void parentXPathEdgeCases() {
         assertEquals("", ctx.getParentXPath());
     }
 
+    @Test
+    public void currentPathIsNotAffectedByLaterNavigation() {
+        ArrayList<Element> l = new ArrayList<Element>();
+        l.add(new Element("foo"));
+        l.add(new Element("bar"));
+        XPathContext ctx = new XPathContext();
+        ctx.setChildren(l);
+        ctx.navigateToChild(1);
+        XPathContext.Path p = ctx.getCurrentPath();
+        ctx.navigateToParent();
+        ctx.navigateToChild(0);
+        ctx.setChildren(l);
+        ctx.navigateToChild(0);
+        assertEquals("/foo[1]/foo[1]", ctx.getXPath());
+        assertEquals("/bar[1]", p.getXPath());
+        assertEquals("/", p.getParent().getXPath());
+        assertNull(p.getParent().getParent());
+    }
+
+    @Test
+    public void deepPathsCanBeStringified() {
+        XPathContext ctx = new XPathContext();
+        for (int i = 0; i < 10000; i++) {
+            ctx.setChildren(Linqy.singleton(new Element("foo")));
+            ctx.navigateToChild(0);
+        }
+        String xpath = ctx.getXPath();
+        assertEquals(10000 * "/foo[1]".length(), xpath.length());
+        assertTrue(xpath.endsWith("/foo[1]/foo[1]"));
+    }
+
+    @Test public void deepAndWideDocuments() {
+        XPathContext ctx = new XPathContext();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            ArrayList<Element> l = new ArrayList<Element>();
+            for (int j = 0; j < 50; j++) {
+                l.add(new Element(j % 2 == 0 ? "foo" : "bar"));
+            }
+            ctx.setChildren(l);
+            ctx.navigateToChild(i % 50);
+            expected.append(i % 2 == 0 ? "/foo[" : "/bar[").append(i % 50 / 2 + 1).append(']');
+        }
+        assertEquals(expected.toString(), ctx.getXPath());
+        ctx.navigateToParent();
+        ctx.navigateToChild(49);
+        assertEquals(expected.substring(0, expected.lastIndexOf("/")) + "/bar[25]", ctx.getXPath());
+    }
+
+    @Test public void knowledgeAboutChildrenIsKeptWhenNavigatingBack() {
+        ArrayList<Element> l = new ArrayList<Element>();
+        l.add(new Element("foo"));
+        l.add(new Element("bar"));
+        XPathContext ctx = new XPathContext();
+        ctx.setChildren(l);
+        ctx.navigateToChild(1);
+        ctx.setChildren(l);
+        ctx.addAttribute(new QName("baz"));
+        ctx.navigateToParent();
+        ctx.navigateToChild(1);
+        ctx.navigateToChild(0);
+        assertEquals("/bar[1]/foo[1]", ctx.getXPath());
+        ctx.navigateToParent();
+        ctx.navigateToAttribute(new QName("baz"));
+        assertEquals("/bar[1]/@baz", ctx.getXPath());
+        assertEquals("/bar[1]", ctx.getParentXPath());
+    }
+
     private static class Element implements XPathContext.NodeInfo {
         private final QName name;
         private Element(String name) {
@@ -0,0 +1,145 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.input;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.builder.Input;
+import org.xmlunit.diff.Diff;
+import org.xmlunit.input.CombinedNormalizedSource.Normalization;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.DocumentBuilderFactoryConfigurer;
+import org.xmlunit.util.JAXPFactories;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import static org.junit.Assert.*;
+
+public class CombinedNormalizedSourceTest {
+
+    private static final String[] DOCUMENTS = new String[] {
+        "<?xml version='1.1' encoding='ISO-8859-1' standalone='yes'?>"
+        + "<!-- top -->\n<?pi   some  data ?>"
+        + "<r xmlns:p='urn:p' a='  x \t y  '>\n  <!-- c -->\n  <p:a>  x <!--c--> y  <![CDATA[ z ]]>w</p:a>\n"
+        + "<b xmlns='urn:d'>  <c/>  <![CDATA[  ]]>  <d>text\n\n more   text</d></b>"
+        + "<e>a<![CDATA[]]>b<!--x-->  <!--y-->c</e></r>",
+        "<a><b>  </b>\n<!-- c -->  <c> x <![CDATA[ y ]]> </c><?p  q  ?></a>",
+        "<!DOCTYPE a [<!ELEMENT a ANY>]><a>  <!-- c -->  </a>",
+    };
+
+    @Test
+    public void producesSameDocumentAsChainedSources() {
+        for (String xml : DOCUMENTS) {
+            for (Set normalizations : allCombinations()) {
+                @SuppressWarnings("unchecked") Set<Normalization> n = normalizations;
+                Document chained = Convert.toDocument(chain(Input.fromString(xml).build(), n));
+                Document combined = Convert.toDocument(
+                    new CombinedNormalizedSource(Input.fromString(xml).build(), n, dtdFactory()));
+                Diff d = DiffBuilder.compare(chained).withTest(combined).checkForIdentical().build();
+                assertFalse(xml + " " + n + " " + d, d.hasDifferences());
+
+                chained = Convert.toDocument(chain(new DOMSource(parse(xml)), n));
+                combined = Convert.toDocument(new CombinedNormalizedSource(new DOMSource(parse(xml)), n));
+                d = DiffBuilder.compare(chained).withTest(combined).checkForIdentical().build();
+                assertFalse(xml + " " + n + " " + d, d.hasDifferences());
+            }
+        }
+    }
+
+    @Test
+    public void doesntModifyOriginalDocument() {
+        Document original = Convert.toDocument(Input.fromString("<a> <!-- c --> <b/> </a>").build());
+        Document normalized = Convert.toDocument(
+            new CombinedNormalizedSource(new DOMSource(original), EnumSet.allOf(Normalization.class)));
+        assertNotSame(original, normalized);
+        assertEquals(5, original.getDocumentElement().getChildNodes().getLength());
+        assertEquals(1, normalized.getDocumentElement().getChildNodes().getLength());
+    }
+
+    @Test
+    public void modifiesParsedDocumentInPlace() {
+        CombinedNormalizedSource s =
+            new CombinedNormalizedSource(Input.fromString("<a> <b/> </a>").build(),
+                                         EnumSet.of(Normalization.STRIP_WHITESPACE));
+        Node a = Convert.toDocument(s).getDocumentElement();
+        assertEquals(1, a.getChildNodes().getLength());
+        assertEquals("b", a.getFirstChild().getNodeName());
+    }
+
+    @Test
+    public void appliesNoNormalizationForEmptySet() {
+        Document d = Convert.toDocument(
+            new CombinedNormalizedSource(Input.fromString("<a> <!-- c --> </a>").build(),
+                                         Collections.<Normalization>emptySet()));
+        assertEquals(3, d.getDocumentElement().getChildNodes().getLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantWrapNullSource() {
+        new CombinedNormalizedSource(null, EnumSet.allOf(Normalization.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantUseNullNormalizations() {
+        new CombinedNormalizedSource(Input.fromString("<a/>").build(), null);
+    }
+
+    private static List<Set> allCombinations() {
+        List<Set> result = new ArrayList<Set>();
+        Normalization[] values = Normalization.values();
+        for (int mask = 0; mask < 1 << values.length; mask++) {
+            Set<Normalization> s = EnumSet.noneOf(Normalization.class);
+            for (int i = 0; i < values.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    s.add(values[i]);
+                }
+            }
+            result.add(s);
+        }
+        return result;
+    }
+
+    private static Source chain(Source s, Collection<Normalization> n) {
+        if (n.contains(Normalization.STRIP_WHITESPACE)) {
+            s = new WhitespaceStrippedSource(s, dtdFactory());
+        }
+        if (n.contains(Normalization.NORMALIZE_WHITESPACE)) {
+            s = new WhitespaceNormalizedSource(s, dtdFactory());
+        }
+        if (n.contains(Normalization.STRIP_COMMENTS)) {
+            s = new CommentLessSource(s);
+        }
+        if (n.contains(Normalization.STRIP_ELEMENT_CONTENT_WHITESPACE)) {
+            s = new ElementContentWhitespaceStrippedSource(s, dtdFactory());
+        }
+        return n.isEmpty() ? new DOMSource(Convert.toDocument(s, dtdFactory())) : s;
+    }
+
+    private static Document parse(String xml) {
+        return Convert.toDocument(Input.fromString(xml).build(), dtdFactory());
+    }
+
+    private static DocumentBuilderFactory dtdFactory() {
+        return JAXPFactories.getDocumentBuilderFactory(DocumentBuilderFactoryConfigurer.DefaultWithDTDParsing);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.input;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import org.xmlunit.builder.Input;
+import org.xmlunit.diff.Comparison;
+import org.xmlunit.diff.ComparisonListener;
+import org.xmlunit.diff.ComparisonResult;
+import org.xmlunit.diff.DOMDifferenceEngine;
+import org.xmlunit.diff.DifferenceEngine;
+import org.xmlunit.diff.StAXDifferenceEngine;
+import org.xmlunit.util.Convert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import static org.junit.Assert.*;
+
+public class CommentFilteredSourceTest {
+
+    private static final String WITH_COMMENTS = "<!-- c --><a><!-- c --><b/>x<!-- c --></a>";
+    private static final String WITHOUT_COMMENTS = "<a><b/>x</a>";
+
+    @Test
+    public void doesntCopyDOMSources() {
+        Document d = Convert.toDocument(Input.fromString(WITH_COMMENTS).build());
+        assertSame(d, new CommentFilteredSource(new DOMSource(d)).getNode());
+        assertEquals(4, d.getDocumentElement().getChildNodes().getLength());
+    }
+
+    @Test
+    public void domDifferenceEngineSkipsCommentsOfFilteredSides() {
+        assertSkipsCommentsOfFilteredSides(new DOMDifferenceEngine());
+    }
+
+    @Test
+    public void staxDifferenceEngineSkipsCommentsOfFilteredSides() {
+        assertSkipsCommentsOfFilteredSides(new StAXDifferenceEngine());
+    }
+
+    @Test
+    public void stillReportsDifferencesOfRemainingNodes() {
+        List<String> differences = differences(new DOMDifferenceEngine(),
+                                               new CommentFilteredSource(Input.fromString(
+                                                   "<a><!-- c --><b/>x<!-- d --><b/>y</a>").build()),
+                                               Input.fromString("<a><b/>x<b/>z</a>").build());
+        assertEquals(1, differences.size());
+        assertEquals("/a[1]/text()[2]", differences.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantWrapNullSource() {
+        new CommentFilteredSource(null);
+    }
+
+    private static List<String> differences(DifferenceEngine engine, Source control, Source test) {
+        Recorder r = new Recorder();
+        engine.addDifferenceListener(r);
+        engine.compare(control, test);
+        return r.xpaths;
+    }
+
+    private static void assertSkipsCommentsOfFilteredSides(DifferenceEngine engine) {
+        Recorder r = new Recorder();
+        engine.addDifferenceListener(r);
+        engine.compare(new CommentFilteredSource(Input.fromString(WITH_COMMENTS).build()),
+                       Input.fromString(WITHOUT_COMMENTS).build());
+        assertEquals(0, r.xpaths.size());
+        engine.compare(Input.fromString(WITHOUT_COMMENTS).build(),
+                       new CommentFilteredSource(Input.fromString(WITH_COMMENTS).build()));
+        assertEquals(0, r.xpaths.size());
+        engine.compare(new CommentFilteredSource(Input.fromString(WITH_COMMENTS).build()),
+                       new CommentFilteredSource(Input.fromString("<a><!-- d --><b/>x</a>").build()));
+        assertEquals(0, r.xpaths.size());
+        // comments of an unfiltered side are still compared
+        engine.compare(new CommentFilteredSource(Input.fromString(WITHOUT_COMMENTS).build()),
+                       Input.fromString(WITH_COMMENTS).build());
+        assertFalse(r.xpaths.isEmpty());
+        r.xpaths.clear();
+        // and the filter doesn't stick to the engine
+        engine.compare(Input.fromString(WITH_COMMENTS).build(), Input.fromString(WITHOUT_COMMENTS).build());
+        assertFalse(r.xpaths.isEmpty());
+    }
+
+    private static class Recorder implements ComparisonListener {
+        private final List<String> xpaths = new ArrayList<String>();
+
+        @Override
+        public void comparisonPerformed(Comparison comparison, ComparisonResult outcome) {
+            if (outcome == ComparisonResult.DIFFERENT) {
+                xpaths.add(comparison.getControlDetails().getXPath());
+            }
+        }
+    }
+}
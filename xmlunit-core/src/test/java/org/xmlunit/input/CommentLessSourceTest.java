@@ -16,6 +16,7 @@
 import java.io.StringReader;
 import java.util.Arrays;
 import java.util.Collection;
+import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamSource;
 import org.xmlunit.util.Convert;
 import org.junit.Test;
@@ -56,6 +57,18 @@ public void stripCommentsAtDifferentLevels() {
         assertEquals(0, d.getChildNodes().item(0).getChildNodes().getLength());
     }
 
+    @Test
+    public void canBeCreatedRepeatedlyAndFromDOMSources() {
+        Document withComments = Convert.toDocument(getSource("<foo><!-- c --><bar/></foo>"));
+        assertEquals(1, withComments.getDocumentElement().getChildNodes().getLength());
+        Document original = Convert.toDocument(new StreamSource(new StringReader("<foo><!-- c --><bar/></foo>")));
+        CommentLessSource cls = xsltVersion == null ? new CommentLessSource(new DOMSource(original))
+            : new CommentLessSource(new DOMSource(original), xsltVersion);
+        Document d = Convert.toDocument(cls);
+        assertEquals(1, d.getDocumentElement().getChildNodes().getLength());
+        assertEquals(2, original.getDocumentElement().getChildNodes().getLength());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void cantWrapNullSource() {
         new CommentLessSource(null);
@@ -0,0 +1,122 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.input;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.builder.Input;
+import org.xmlunit.diff.Diff;
+import org.xmlunit.input.CombinedNormalizedSource.Normalization;
+import org.xmlunit.util.Convert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import static org.junit.Assert.*;
+
+public class NormalizingXMLFilterTest {
+
+    private static final String[] DOCUMENTS = new String[] {
+        "<?xml version='1.1' encoding='ISO-8859-1' standalone='yes'?>"
+        + "<!-- top -->\n<?pi   some  data ?>"
+        + "<r xmlns:p='urn:p' a='  x \t y  '>\n  <!-- c -->\n  <p:a>  x <!--c--> y  <![CDATA[ z ]]>w</p:a>\n"
+        + "<b xmlns='urn:d'>  <c/>  <![CDATA[  ]]>  <d>text\n\n more   text</d></b>"
+        + "<e>a<![CDATA[ ]]><!--x-->  <!--y-->c</e></r>",
+        "<a><b>  </b>\n<!-- c -->  <c> x <![CDATA[ y ]]> </c><?p  q  ?></a>",
+        "<a xml:lang=' en ' xmlns:q=' urn:q '>&lt; x &amp;<q:b q:c='d'/>&#x20;<!---->&gt;<?p?></a>",
+    };
+
+    @Test
+    public void producesSameDocumentAsCombinedNormalizedSource() {
+        for (String xml : DOCUMENTS) {
+            for (Set<Normalization> n : allCombinations()) {
+                Document combined = Convert.toDocument(
+                    new CombinedNormalizedSource(Input.fromString(xml).build(), n));
+                Document filtered = Convert.toDocument(Input.fromString(xml).build(),
+                                                       new NormalizingXMLFilter(n));
+                Diff d = DiffBuilder.compare(combined).withTest(filtered).checkForIdentical().build();
+                assertFalse(xml + " " + n + " " + d, d.hasDifferences());
+            }
+        }
+    }
+
+    @Test
+    public void neverCreatesStrippedNodes() {
+        Document doc = Convert.toDocument(Input.fromString("<a>\n  <!-- c -->\n  <b> x </b>\n</a>").build(),
+                                          new NormalizingXMLFilter(EnumSet.of(Normalization.STRIP_COMMENTS,
+                                                                              Normalization.STRIP_WHITESPACE)));
+        Element a = doc.getDocumentElement();
+        assertEquals(1, a.getChildNodes().getLength());
+        assertEquals("x", a.getFirstChild().getTextContent());
+    }
+
+    @Test
+    public void keepsCDATASectionsUnlessCommentsAreStripped() {
+        String xml = "<a>x<![CDATA[y]]></a>";
+        Document doc = Convert.toDocument(Input.fromString(xml).build(),
+                                          new NormalizingXMLFilter(Collections.<Normalization>emptySet()));
+        assertEquals(Node.CDATA_SECTION_NODE, doc.getDocumentElement().getLastChild().getNodeType());
+
+        doc = Convert.toDocument(Input.fromString(xml).build(),
+                                 new NormalizingXMLFilter(EnumSet.of(Normalization.STRIP_COMMENTS)));
+        assertEquals(1, doc.getDocumentElement().getChildNodes().getLength());
+        assertEquals("xy", doc.getDocumentElement().getFirstChild().getNodeValue());
+    }
+
+    @Test
+    public void mergesTextAroundRemovedCDATASection() {
+        Document doc = Convert.toDocument(Input.fromString("<a>x<![CDATA[ ]]>y</a>").build(),
+                                          new NormalizingXMLFilter(EnumSet.of(Normalization.STRIP_WHITESPACE)));
+        assertEquals(1, doc.getDocumentElement().getChildNodes().getLength());
+        assertEquals("xy", doc.getDocumentElement().getFirstChild().getNodeValue());
+    }
+
+    @Test
+    public void filterCanBeReused() {
+        NormalizingXMLFilter f = new NormalizingXMLFilter(EnumSet.of(Normalization.NORMALIZE_WHITESPACE));
+        Document first = Convert.toDocument(Input.fromString("<a> x  y </a>").build(), f);
+        Document second = Convert.toDocument(Input.fromString("<b> z </b>").build(), f);
+        assertEquals("x y", first.getDocumentElement().getTextContent());
+        assertEquals("z", second.getDocumentElement().getTextContent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantUseNullNormalizations() {
+        new NormalizingXMLFilter(null);
+    }
+
+    /**
+     * All non-empty combinations, without any normalization
+     * CombinedNormalizedSource retains the XML declaration.
+     */
+    private static List<Set<Normalization>> allCombinations() {
+        List<Set<Normalization>> result = new ArrayList<Set<Normalization>>();
+        Normalization[] values = Normalization.values();
+        for (int mask = 1; mask < 1 << values.length; mask++) {
+            Set<Normalization> s = EnumSet.noneOf(Normalization.class);
+            for (int i = 0; i < values.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    s.add(values[i]);
+                }
+            }
+            result.add(s);
+        }
+        return result;
+    }
+}
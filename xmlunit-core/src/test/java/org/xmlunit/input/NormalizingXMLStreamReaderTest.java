@@ -0,0 +1,176 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.input;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stax.StAXSource;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.builder.Input;
+import org.xmlunit.diff.ComparisonType;
+import org.xmlunit.diff.Diff;
+import org.xmlunit.diff.DifferenceEvaluators;
+import org.xmlunit.input.CombinedNormalizedSource.Normalization;
+import org.xmlunit.util.JAXPFactories;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NormalizingXMLStreamReaderTest {
+
+    private static final String[] DOCUMENTS = new String[] {
+        "<?xml version='1.1' encoding='ISO-8859-1' standalone='yes'?>"
+        + "<!-- top -->\n<?pi   some  data ?>"
+        + "<r xmlns:p='urn:p' a='  x \t y  '>\n  <!-- c -->\n  <p:a>  x <!--c--> y  <![CDATA[ z ]]>w</p:a>\n"
+        + "<b xmlns='urn:d'>  <c/>  <![CDATA[  ]]>  <d>text\n\n more   text</d></b>"
+        + "<e>a<![CDATA[ ]]><!--x-->  <!--y-->c</e></r>",
+        "<a><b>  </b>\n<!-- c -->  <c> x <![CDATA[ y ]]> </c><?p  q  ?></a>",
+        "<a xml:lang=' en ' xmlns:q=' urn:q '>&lt; x &amp;<q:b q:c='d'/>&#x20;<!---->&gt;<?p?></a>",
+    };
+
+    @Test
+    public void producesSameDocumentAsCombinedNormalizedSource() throws Exception {
+        for (String xml : DOCUMENTS) {
+            for (Set<Normalization> n : allCombinations()) {
+                Diff d = DiffBuilder.compare(new CombinedNormalizedSource(Input.fromString(xml).build(), n))
+                    .withTest(new StAXSource(new NormalizingXMLStreamReader(reader(xml), n)))
+                    .withStreamingEngine()
+                    // the serialized control document has an XML declaration
+                    .withDifferenceEvaluator(DifferenceEvaluators.chain(
+                        DifferenceEvaluators.Default,
+                        DifferenceEvaluators.downgradeDifferencesToEqual(ComparisonType.XML_VERSION,
+                                                                          ComparisonType.XML_STANDALONE,
+                                                                          ComparisonType.XML_ENCODING)))
+                    .checkForIdentical()
+                    .build();
+                assertFalse(xml + " " + n + " " + d, d.hasDifferences());
+            }
+        }
+    }
+
+    @Test
+    public void mergesTextAroundRemovedCDATASection() throws Exception {
+        List<String> events = events(new NormalizingXMLStreamReader(reader("<a>x<![CDATA[ ]]>y</a>"),
+                                                                     EnumSet.of(Normalization.STRIP_WHITESPACE)));
+        assertEquals(Collections.singletonList("xy"), texts(events));
+    }
+
+    @Test
+    public void dropsDoctypeIfCommentsAreStripped() throws Exception {
+        String xml = "<!DOCTYPE a><a><!-- c --><![CDATA[x]]></a>";
+        List<String> events = events(new NormalizingXMLStreamReader(reader(xml),
+                                                                     EnumSet.of(Normalization.STRIP_COMMENTS)));
+        assertFalse(events.contains("DTD"));
+        assertFalse(events.contains("COMMENT  c "));
+        assertTrue(events.contains("CHARACTERS x"));
+
+        events = events(new NormalizingXMLStreamReader(reader(xml), EnumSet.of(Normalization.STRIP_WHITESPACE)));
+        assertTrue(events.contains("DTD"));
+        assertTrue(events.contains("CDATA x"));
+    }
+
+    @Test
+    public void trimsAttributesAndProcessingInstructions() throws Exception {
+        XMLStreamReader r = new NormalizingXMLStreamReader(reader("<a b=' x  y '><?p  q  r ?></a>"),
+                                                           EnumSet.of(Normalization.NORMALIZE_WHITESPACE));
+        assertEquals(XMLStreamConstants.START_ELEMENT, r.nextTag());
+        assertEquals("x y", r.getAttributeValue(0));
+        assertEquals("x y", r.getAttributeValue(null, "b"));
+        assertEquals(XMLStreamConstants.PROCESSING_INSTRUCTION, r.next());
+        assertEquals("q r", r.getPIData());
+    }
+
+    @Test
+    public void supportsGetElementText() throws Exception {
+        XMLStreamReader r = new NormalizingXMLStreamReader(reader("<a> x <!-- c --> y </a>"),
+                                                           EnumSet.of(Normalization.STRIP_WHITESPACE));
+        assertEquals(XMLStreamConstants.START_ELEMENT, r.nextTag());
+        assertEquals("xy", r.getElementText());
+        assertEquals(XMLStreamConstants.END_ELEMENT, r.getEventType());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void textEventsDontHaveNames() throws Exception {
+        XMLStreamReader r = new NormalizingXMLStreamReader(reader("<a> x <b/></a>"),
+                                                           EnumSet.of(Normalization.STRIP_WHITESPACE));
+        r.nextTag();
+        assertEquals(XMLStreamConstants.CHARACTERS, r.next());
+        assertFalse(r.isStartElement());
+        r.getLocalName();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantUseNullNormalizations() throws Exception {
+        new NormalizingXMLStreamReader(reader("<a/>"), null);
+    }
+
+    private static XMLStreamReader reader(String xml) throws XMLStreamException {
+        return JAXPFactories.getXMLInputFactory().createXMLStreamReader(new StringReader(xml));
+    }
+
+    private static List<String> events(XMLStreamReader r) throws XMLStreamException {
+        List<String> events = new ArrayList<String>();
+        while (r.hasNext()) {
+            switch (r.next()) {
+            case XMLStreamConstants.CHARACTERS:
+                events.add("CHARACTERS " + r.getText());
+                break;
+            case XMLStreamConstants.CDATA:
+                events.add("CDATA " + new String(r.getTextCharacters(), r.getTextStart(), r.getTextLength()));
+                break;
+            case XMLStreamConstants.COMMENT:
+                events.add("COMMENT " + r.getText());
+                break;
+            case XMLStreamConstants.DTD:
+                events.add("DTD");
+                break;
+            default:
+                break;
+            }
+        }
+        return events;
+    }
+
+    private static List<String> texts(List<String> events) {
+        List<String> texts = new ArrayList<String>();
+        for (String e : events) {
+            if (e.startsWith("CHARACTERS ") || e.startsWith("CDATA ")) {
+                texts.add(e.substring(e.indexOf(' ') + 1));
+            }
+        }
+        return texts;
+    }
+
+    private static List<Set<Normalization>> allCombinations() {
+        List<Set<Normalization>> result = new ArrayList<Set<Normalization>>();
+        Normalization[] values = Normalization.values();
+        for (int mask = 1; mask < 1 << values.length; mask++) {
+            Set<Normalization> s = EnumSet.noneOf(Normalization.class);
+            for (int i = 0; i < values.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    s.add(values[i]);
+                }
+            }
+            result.add(s);
+        }
+        return result;
+    }
+}
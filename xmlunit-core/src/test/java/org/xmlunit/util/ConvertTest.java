@@ -16,6 +16,7 @@
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -42,9 +43,11 @@
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
 import org.xmlunit.ConfigurationException;
 import org.xmlunit.TestResources;
 import org.xmlunit.XMLUnitException;
@@ -199,6 +202,14 @@ public void shouldMapTransformerException() throws Exception {
         }
     }
 
+    @Test
+    public void toDocumentDoesntChangeTheFactory() throws Exception {
+        DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
+        Document d = Convert.toDocument(new StreamSource(new StringReader("<x:a xmlns:x='urn:x'/>")), f);
+        assertEquals("urn:x", d.getDocumentElement().getNamespaceURI());
+        assertThat(f.isNamespaceAware(), is(false));
+    }
+
     @Test(expected=ConfigurationException.class)
     public void shouldMapParserConfigurationException() throws Exception {
         when(dFac.newDocumentBuilder())
@@ -312,6 +323,40 @@ public void namespaceContextReturnsAllPrefixes() {
                           toArray(ctx.getPrefixes("bar")));
     }
 
+    @Test
+    public void toDocumentWithFilterBuildsDocumentFromFilteredEvents() {
+        Document d = Convert.toDocument(new StreamSource(new StringReader("<a xmlns='urn:a' xmlns:b='urn:b' b:c='d'>"
+                                                                          + "x<!--c-->y<![CDATA[z]]><?p q?></a>")),
+                                        new XMLFilterImpl());
+        Node a = d.getDocumentElement();
+        assertEquals("urn:a", a.getNamespaceURI());
+        assertEquals("urn:b", ((Element) a).getAttributeNodeNS("urn:b", "c").getNamespaceURI());
+        assertEquals("urn:b", ((Element) a).getAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "b"));
+        assertEquals(5, a.getChildNodes().getLength());
+        assertEquals(Node.COMMENT_NODE, a.getChildNodes().item(1).getNodeType());
+        assertEquals(Node.CDATA_SECTION_NODE, a.getChildNodes().item(3).getNodeType());
+        assertEquals(Node.PROCESSING_INSTRUCTION_NODE, a.getLastChild().getNodeType());
+    }
+
+    @Test
+    public void toDocumentWithFilterSkipsNodeTypesButKeepsTextNodesSeparate() {
+        Document d = Convert.toDocument(new StreamSource(new StringReader("<a>x<!--c-->y<?p q?>z</a>")),
+                                        new XMLFilterImpl(), Node.COMMENT_NODE, Node.PROCESSING_INSTRUCTION_NODE);
+        Node a = d.getDocumentElement();
+        assertEquals(3, a.getChildNodes().getLength());
+        assertEquals("y", a.getChildNodes().item(1).getNodeValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toDocumentWithFilterCantSkipElements() {
+        Convert.toDocument(new StreamSource(new StringReader("<a/>")), new XMLFilterImpl(), Node.ELEMENT_NODE);
+    }
+
+    @Test(expected = XMLUnitException.class)
+    public void toDocumentWithFilterWrapsParseErrors() {
+        Convert.toDocument(new StreamSource(new StringReader("<a>")), new XMLFilterImpl());
+    }
+
     private static Document animalDocument() throws Exception {
         DocumentBuilder b =
             DocumentBuilderFactory.newInstance().newDocumentBuilder();
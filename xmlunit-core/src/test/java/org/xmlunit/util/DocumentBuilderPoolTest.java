@@ -0,0 +1,163 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xmlunit.XMLUnitException;
+import org.xmlunit.builder.Input;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DocumentBuilderPoolTest {
+
+    private static final String XML = "<x:a xmlns:x='urn:x'><x:b/></x:a>";
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantCreatePoolWithoutFactory() {
+        new DocumentBuilderPool(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantCreatePoolWithoutBuilders() {
+        new DocumentBuilderPool(DocumentBuilderFactory.newInstance(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantLookUpPoolWithoutFactory() {
+        DocumentBuilderPool.forFactory(null);
+    }
+
+    @Test
+    public void sharesBuildersOfXMLUnitFactories() {
+        DocumentBuilderFactory f = JAXPFactories.getDocumentBuilderFactory();
+        DocumentBuilderPool pool = DocumentBuilderPool.forFactory(f);
+        assertSame(f, pool.getFactory());
+        DocumentBuilder b = pool.acquire();
+        pool.release(b);
+        assertSame(b, DocumentBuilderPool.forFactory(f).acquire());
+    }
+
+    @Test
+    public void createsNewBuildersForOtherFactories() {
+        DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
+        DocumentBuilderPool pool = DocumentBuilderPool.forFactory(f);
+        assertSame(f, pool.getFactory());
+        DocumentBuilder b = pool.acquire();
+        pool.release(b);
+        assertNotSame(b, pool.acquire());
+    }
+
+    @Test
+    public void honorsChangesToFactoriesNotCreatedByXMLUnit() {
+        DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
+        String xml = "<a><!-- c --></a>";
+        assertEquals(1, Convert.toDocument(Input.fromString(xml).build(), f)
+                     .getDocumentElement().getChildNodes().getLength());
+        f.setIgnoringComments(true);
+        assertEquals(0, Convert.toDocument(Input.fromString(xml).build(), f)
+                     .getDocumentElement().getChildNodes().getLength());
+    }
+
+    @Test
+    public void parsesNamespaceAwareWithoutChangingTheFactory() {
+        DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
+        assertFalse(f.isNamespaceAware());
+        Document d = new DocumentBuilderPool(f).parse(new InputSource(new StringReader(XML)));
+        assertEquals("urn:x", d.getDocumentElement().getNamespaceURI());
+        assertEquals("a", d.getDocumentElement().getLocalName());
+        assertFalse(f.isNamespaceAware());
+    }
+
+    @Test
+    public void reusesResetBuildersOnTheSameThread() throws Exception {
+        DocumentBuilderFactory f = mock(DocumentBuilderFactory.class);
+        DocumentBuilder b = mock(DocumentBuilder.class);
+        when(f.newDocumentBuilder()).thenReturn(b);
+        DocumentBuilderPool pool = new DocumentBuilderPool(f);
+        pool.newDocument();
+        pool.newDocument();
+        pool.parse(new InputSource(new StringReader(XML)));
+        verify(f, times(1)).newDocumentBuilder();
+        verify(b, times(3)).reset();
+    }
+
+    @Test
+    public void createsNewBuildersIfResetIsNotSupported() throws Exception {
+        DocumentBuilderFactory f = mock(DocumentBuilderFactory.class);
+        DocumentBuilder b = mock(DocumentBuilder.class);
+        when(f.newDocumentBuilder()).thenReturn(b);
+        doThrow(new UnsupportedOperationException()).when(b).reset();
+        DocumentBuilderPool pool = new DocumentBuilderPool(f);
+        pool.newDocument();
+        pool.newDocument();
+        pool.newDocument();
+        verify(f, times(3)).newDocumentBuilder();
+        verify(b, times(1)).reset();
+    }
+
+    @Test
+    public void returnsBuilderAfterParseError() {
+        DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
+        DocumentBuilderPool pool = new DocumentBuilderPool(f, 1);
+        DocumentBuilder b = pool.acquire();
+        pool.release(b);
+        try {
+            pool.parse(new InputSource(new StringReader("<a>")));
+            fail("expected an XMLUnitException");
+        } catch (XMLUnitException ex) {
+            // expected
+        }
+        assertSame(b, pool.acquire());
+    }
+
+    @Test
+    public void canBeUsedConcurrently() throws Exception {
+        final DocumentBuilderPool pool = new DocumentBuilderPool(DocumentBuilderFactory.newInstance(), 2);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 200; i++) {
+                final String text = String.valueOf(i);
+                results.add(executor.submit(new Callable<String>() {
+                        @Override
+                        public String call() {
+                            return pool.parse(new InputSource(new StringReader("<a>" + text + "</a>")))
+                                .getDocumentElement().getTextContent();
+                        }
+                    }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(String.valueOf(i), results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
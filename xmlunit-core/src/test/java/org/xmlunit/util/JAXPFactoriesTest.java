@@ -0,0 +1,143 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.xpath.XPathFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JAXPFactoriesTest {
+
+    @Test
+    public void sharesDocumentBuilderFactoryBetweenThreads() throws Exception {
+        final DocumentBuilderFactory f = JAXPFactories.getDocumentBuilderFactory();
+        assertSame(f, JAXPFactories.getDocumentBuilderFactory(DocumentBuilderFactoryConfigurer.Default));
+        assertSame(f, onOtherThread(new Callable<DocumentBuilderFactory>() {
+                @Override
+                public DocumentBuilderFactory call() {
+                    return JAXPFactories.getDocumentBuilderFactory();
+                }
+            }));
+    }
+
+    @Test
+    public void documentBuilderFactoryIsConfiguredAndNamespaceAware() throws Exception {
+        DocumentBuilderFactory f = JAXPFactories.getDocumentBuilderFactory();
+        assertTrue(f.isNamespaceAware());
+        assertFalse(f.isExpandEntityReferences());
+        assertTrue(f.getFeature("http://apache.org/xml/features/disallow-doctype-decl"));
+
+        DocumentBuilderFactoryConfigurer c = DocumentBuilderFactoryConfigurer.builder()
+            .withXIncludeAware(true).build();
+        DocumentBuilderFactory other = JAXPFactories.getDocumentBuilderFactory(c);
+        assertNotSame(f, other);
+        assertTrue(other.isXIncludeAware());
+        assertSame(other, JAXPFactories.getDocumentBuilderFactory(c));
+    }
+
+    @Test
+    public void transformerFactoryIsConfinedToThread() throws Exception {
+        TransformerFactory f = JAXPFactories.getTransformerFactory(TransformerFactoryConfigurer.Default);
+        assertSame(f, JAXPFactories.getTransformerFactory(TransformerFactoryConfigurer.Default));
+        assertNotSame(f, JAXPFactories.getTransformerFactory(TransformerFactoryConfigurer.NoExternalAccess));
+        assertEquals("", f.getAttribute(XMLConstants.ACCESS_EXTERNAL_DTD));
+        assertNotSame(f, onOtherThread(new Callable<TransformerFactory>() {
+                @Override
+                public TransformerFactory call() {
+                    return JAXPFactories.getTransformerFactory(TransformerFactoryConfigurer.Default);
+                }
+            }));
+    }
+
+    @Test
+    public void xpathFactoryIsConfinedToThread() throws Exception {
+        XPathFactory f = JAXPFactories.getXPathFactory(XPathFactoryConfigurer.Default);
+        assertSame(f, JAXPFactories.getXPathFactory(XPathFactoryConfigurer.Default));
+        assertNotSame(f, onOtherThread(new Callable<XPathFactory>() {
+                @Override
+                public XPathFactory call() {
+                    return JAXPFactories.getXPathFactory(XPathFactoryConfigurer.Default);
+                }
+            }));
+    }
+
+    @Test
+    public void schemaFactoryIsCachedPerLanguage() {
+        assertSame(JAXPFactories.getSchemaFactory(XMLConstants.W3C_XML_SCHEMA_NS_URI),
+                   JAXPFactories.getSchemaFactory(XMLConstants.W3C_XML_SCHEMA_NS_URI));
+    }
+
+    @Test
+    public void xmlInputFactoryIsConfinedToThread() throws Exception {
+        XMLInputFactory f = JAXPFactories.getXMLInputFactory();
+        assertSame(f, JAXPFactories.getXMLInputFactory());
+        assertEquals(Boolean.TRUE, f.getProperty(XMLInputFactory.IS_NAMESPACE_AWARE));
+        assertEquals(Boolean.FALSE, f.getProperty(XMLInputFactory.SUPPORT_DTD));
+        assertNotSame(f, onOtherThread(new Callable<XMLInputFactory>() {
+                @Override
+                public XMLInputFactory call() {
+                    return JAXPFactories.getXMLInputFactory();
+                }
+            }));
+    }
+
+    @Test
+    public void validatingSAXParserFactoryIsCachedPerEntitySetting() throws Exception {
+        SAXParserFactory f = JAXPFactories.getValidatingSAXParserFactory(false);
+        assertSame(f, JAXPFactories.getValidatingSAXParserFactory(false));
+        assertTrue(f.isValidating());
+        assertTrue(f.isNamespaceAware());
+        SAXParserFactory restricted = JAXPFactories.getValidatingSAXParserFactory(true);
+        assertNotSame(f, restricted);
+        assertFalse(restricted.getFeature("http://xml.org/sax/features/external-general-entities"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void documentBuilderFactoryNeedsConfigurer() {
+        JAXPFactories.getDocumentBuilderFactory(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void transformerFactoryNeedsConfigurer() {
+        JAXPFactories.getTransformerFactory(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void xpathFactoryNeedsConfigurer() {
+        JAXPFactories.getXPathFactory(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void schemaFactoryNeedsLanguage() {
+        JAXPFactories.getSchemaFactory(null);
+    }
+
+    private static <T> T onOtherThread(Callable<T> c) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(c).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import static org.junit.Assert.*;
+
+public class NameCacheTest {
+
+    private static final String FOO = "foo";
+    private static final String BAR = "bar";
+    private static final String SOME_URI = "urn:some:uri";
+
+    private Document doc;
+    private NameCache cache;
+
+    @Before public void createDoc() throws Exception {
+        doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .newDocument();
+        cache = new NameCache();
+    }
+
+    @Test public void returnsSameNameAsNodes() {
+        Element e = doc.createElementNS(SOME_URI, BAR + ":" + FOO);
+        QName q = cache.getQName(e);
+        assertEquals(Nodes.getQName(e), q);
+        assertEquals(BAR, q.getPrefix());
+
+        Attr a = doc.createAttribute(FOO);
+        assertEquals(Nodes.getQName(a), cache.getQName(a));
+    }
+
+    @Test public void returnsSameNameForSameNode() {
+        Element e = doc.createElement(FOO);
+        assertSame(cache.getQName(e), cache.getQName(e));
+    }
+
+    @Test public void internsEqualNames() {
+        assertSame(cache.getQName(doc.createElementNS(SOME_URI, FOO)),
+                   cache.getQName(doc.createElementNS(SOME_URI, FOO)));
+        assertSame(cache.getQName(doc.createElement(FOO)),
+                   cache.getQName(doc.createAttribute(FOO)));
+        assertNotSame(cache.getQName(doc.createElement(FOO)),
+                      cache.getQName(doc.createElementNS(SOME_URI, FOO)));
+    }
+
+    @Test public void keepsPrefixOfEqualNames() {
+        QName unprefixed = cache.getQName(doc.createElementNS(SOME_URI, FOO));
+        QName prefixed = cache.getQName(doc.createElementNS(SOME_URI, BAR + ":" + FOO));
+        assertEquals(unprefixed, prefixed);
+        assertEquals("", unprefixed.getPrefix());
+        assertEquals(BAR, prefixed.getPrefix());
+    }
+
+    @Test public void createsNewNamesWhenCleared() {
+        Element e = doc.createElement(FOO);
+        QName q = cache.getQName(e);
+        cache.clear();
+        QName q2 = cache.getQName(e);
+        assertEquals(q, q2);
+        assertNotSame(q, q2);
+    }
+}
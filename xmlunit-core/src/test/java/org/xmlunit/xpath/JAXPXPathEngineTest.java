@@ -15,14 +15,17 @@
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.Writer;
+import java.util.Collections;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Source;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathFactory;
 
 import org.junit.Before;
@@ -32,6 +35,8 @@
 import org.xmlunit.ConfigurationException;
 import org.xmlunit.XMLUnitException;
 import org.xmlunit.builder.Input;
+import org.xmlunit.util.Convert;
+import org.w3c.dom.Node;
 
 public class JAXPXPathEngineTest extends AbstractXPathEngineTest {
     @Mock
@@ -52,6 +57,21 @@ public void shouldTranslateExceptionInConstructor() throws Exception {
         new JAXPXPathEngine(fac);
     }
 
+    @Test
+    public void compiledExpressionUsesNamespaceContext() throws Exception {
+        JAXPXPathEngine e = new JAXPXPathEngine();
+        e.setNamespaceContext(Collections.singletonMap("x", "urn:test:1"));
+        XPathExpression expr = e.compile("count(//x:e)");
+        Node n = Convert.toNode(Input.fromString("<n:d xmlns:n='urn:test:1'><n:e/><n:e/></n:d>")
+                                .build());
+        assertEquals("2", expr.evaluate(n));
+    }
+
+    @Test(expected=XMLUnitException.class)
+    public void compileWithInvalidXPath() {
+        new JAXPXPathEngine().compile("//li[");
+    }
+
     @Test(expected=XMLUnitException.class)
     public void evaluateDoesNotResolveExternalEntities() throws Exception {
         getEngine().evaluate("/foo", sourceWithExternalEntity());
@@ -14,9 +14,11 @@
 package org.xmlunit.placeholder;
 
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.xml.XMLConstants;
@@ -25,7 +27,7 @@
 import org.xmlunit.diff.Comparison;
 import org.xmlunit.diff.ComparisonResult;
 import org.xmlunit.diff.ComparisonType;
-import org.xmlunit.diff.DifferenceEvaluator;
+import org.xmlunit.diff.TypedDifferenceEvaluator;
 import org.xmlunit.util.Nodes;
 
 /**
@@ -56,7 +58,7 @@
  *
  * @since 2.6.0
  */
-public class PlaceholderDifferenceEvaluator implements DifferenceEvaluator {
+public class PlaceholderDifferenceEvaluator implements TypedDifferenceEvaluator {
     /**
      * Pattern used to find the start of a placeholder.
      */
@@ -84,6 +86,16 @@ public class PlaceholderDifferenceEvaluator implements DifferenceEvaluator {
     private static final String PLACEHOLDER_PREFIX_REGEX = Pattern.quote("xmlunit.");
     private static final Map<String, PlaceholderHandler> KNOWN_HANDLERS;
     private static final String[] NO_ARGS = new String[0];
+    private static final Set<ComparisonType> ALL_COMPARISON_TYPES =
+        Collections.unmodifiableSet(EnumSet.allOf(ComparisonType.class));
+    private static final Set<ComparisonType> COMPARISON_TYPES =
+        Collections.unmodifiableSet(EnumSet.of(ComparisonType.TEXT_VALUE,
+                                               ComparisonType.CHILD_NODELIST_LENGTH,
+                                               ComparisonType.CHILD_LOOKUP,
+                                               ComparisonType.NODE_TYPE,
+                                               ComparisonType.ATTR_VALUE,
+                                               ComparisonType.ELEMENT_NUM_ATTRIBUTES,
+                                               ComparisonType.ATTR_NAME_LOOKUP));
 
     static {
         Map<String, PlaceholderHandler> m = new HashMap<String, PlaceholderHandler>();
@@ -183,6 +195,20 @@ public PlaceholderDifferenceEvaluator(String placeholderOpeningDelimiterRegex,
         argsSplitter = placeholderArgsSeparatorRegex;
     }
 
+    /**
+     * The types of comparisons placeholders may be used for.
+     *
+     * <p>Subclasses may override {@link #evaluate} for other types of
+     * comparisons, so unless they override this method as well all
+     * types are returned for them.</p>
+     *
+     * @since 2.12.1
+     */
+    @Override
+    public Set<ComparisonType> getComparisonTypes() {
+        return getClass() == PlaceholderDifferenceEvaluator.class ? COMPARISON_TYPES : ALL_COMPARISON_TYPES;
+    }
+
     public ComparisonResult evaluate(Comparison comparison, ComparisonResult outcome) {
         if (outcome == ComparisonResult.EQUAL) {
             return outcome;
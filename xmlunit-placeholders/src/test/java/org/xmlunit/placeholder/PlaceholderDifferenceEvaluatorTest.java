@@ -549,4 +549,23 @@ public void canCompareXsiTypeWithhRegex() {
 
         assertFalse(diff.hasDifferences());
     }
+
+    @Test
+    public void subclassesAreInvokedForAllComparisonTypes() {
+        DifferenceEvaluator evaluator = new PlaceholderDifferenceEvaluator() {
+            @Override
+            public ComparisonResult evaluate(Comparison comparison, ComparisonResult outcome) {
+                if (comparison.getType() == ComparisonType.NAMESPACE_PREFIX) {
+                    return ComparisonResult.EQUAL;
+                }
+                return super.evaluate(comparison, outcome);
+            }
+        };
+        Diff diff = DiffBuilder.compare("<a:elem xmlns:a=\"urn:x\">${xmlunit.ignore}</a:elem>")
+            .withTest("<b:elem xmlns:b=\"urn:x\">foo</b:elem>")
+            .withDifferenceEvaluator(DifferenceEvaluators.chain(DifferenceEvaluators.Default, evaluator))
+            .checkForIdentical().build();
+
+        assertFalse(diff.hasDifferences());
+    }
 }